@@ -0,0 +1,167 @@
+package org.cf.simplify;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cf.smalivm.reference.LocalMethod;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+/**
+ * Orders methods so callees are executed and simplified before their callers. Callers then execute the simplified
+ * callees instead of simplifying callees they've already executed.
+ *
+ * Calls are taken from the invoke instructions of each method. Virtual calls are followed to the referenced method
+ * only, not to overriding methods. Methods which call each other, directly or not, are strongly connected and kept
+ * together in their original order.
+ */
+class CallGraphScheduler {
+
+    private final Map<String, LocalMethod> signatureToMethod;
+    private final Map<LocalMethod, Integer> methodToPosition;
+
+    /**
+     * @param localMethods
+     *            methods to schedule, in the order they'd otherwise be executed
+     */
+    CallGraphScheduler(Collection<LocalMethod> localMethods) {
+        signatureToMethod = new LinkedHashMap<String, LocalMethod>();
+        methodToPosition = new HashMap<LocalMethod, Integer>();
+        for (LocalMethod localMethod : localMethods) {
+            signatureToMethod.put(localMethod.getSignature(), localMethod);
+            methodToPosition.put(localMethod, methodToPosition.size());
+        }
+    }
+
+    /**
+     * @return strongly connected components of the call graph, with every callee in the same or an earlier component
+     */
+    List<List<LocalMethod>> getComponents() {
+        Map<LocalMethod, List<LocalMethod>> methodToCallees = new HashMap<LocalMethod, List<LocalMethod>>();
+        for (LocalMethod localMethod : signatureToMethod.values()) {
+            methodToCallees.put(localMethod, getCallees(localMethod));
+        }
+
+        return getComponents(methodToCallees);
+    }
+
+    /**
+     * @return every method, with callees before callers
+     */
+    List<LocalMethod> getOrder() {
+        List<LocalMethod> order = new ArrayList<LocalMethod>(signatureToMethod.size());
+        for (List<LocalMethod> component : getComponents()) {
+            order.addAll(component);
+        }
+
+        return order;
+    }
+
+    private List<LocalMethod> getCallees(LocalMethod localMethod) {
+        Set<LocalMethod> callees = new LinkedHashSet<LocalMethod>();
+        if (localMethod.hasImplementation()) {
+            for (Instruction instruction : localMethod.getImplementation().getInstructions()) {
+                if (!(instruction instanceof ReferenceInstruction)) {
+                    continue;
+                }
+                Reference reference = ((ReferenceInstruction) instruction).getReference();
+                if (!(reference instanceof MethodReference)) {
+                    continue;
+                }
+                String signature = ReferenceUtil.getMethodDescriptor((MethodReference) reference);
+                LocalMethod callee = signatureToMethod.get(signature);
+                if (callee != null) {
+                    callees.add(callee);
+                }
+            }
+        }
+
+        return new ArrayList<LocalMethod>(callees);
+    }
+
+    /**
+     * Tarjan's algorithm, without recursion since call chains may be long. Components are found callees first.
+     */
+    private List<List<LocalMethod>> getComponents(Map<LocalMethod, List<LocalMethod>> methodToCallees) {
+        Map<LocalMethod, Integer> methodToIndex = new HashMap<LocalMethod, Integer>();
+        Map<LocalMethod, Integer> methodToLowLink = new HashMap<LocalMethod, Integer>();
+        Set<LocalMethod> onStack = new HashSet<LocalMethod>();
+        Deque<LocalMethod> stack = new ArrayDeque<LocalMethod>();
+        List<List<LocalMethod>> components = new ArrayList<List<LocalMethod>>();
+        for (LocalMethod root : signatureToMethod.values()) {
+            if (methodToIndex.containsKey(root)) {
+                continue;
+            }
+
+            // Methods being visited, and the index of the next callee to visit for each
+            Deque<LocalMethod> path = new ArrayDeque<LocalMethod>();
+            Map<LocalMethod, Integer> methodToNextCallee = new HashMap<LocalMethod, Integer>();
+            path.push(root);
+            while (!path.isEmpty()) {
+                LocalMethod method = path.peek();
+                if (!methodToIndex.containsKey(method)) {
+                    int index = methodToIndex.size();
+                    methodToIndex.put(method, index);
+                    methodToLowLink.put(method, index);
+                    methodToNextCallee.put(method, 0);
+                    stack.push(method);
+                    onStack.add(method);
+                }
+
+                List<LocalMethod> callees = methodToCallees.get(method);
+                int calleeIndex = methodToNextCallee.get(method);
+                if (calleeIndex < callees.size()) {
+                    methodToNextCallee.put(method, calleeIndex + 1);
+                    LocalMethod callee = callees.get(calleeIndex);
+                    if (!methodToIndex.containsKey(callee)) {
+                        path.push(callee);
+                    } else if (onStack.contains(callee)) {
+                        int lowLink = Math.min(methodToLowLink.get(method), methodToIndex.get(callee));
+                        methodToLowLink.put(method, lowLink);
+                    }
+                    continue;
+                }
+
+                path.pop();
+                if (!path.isEmpty()) {
+                    LocalMethod caller = path.peek();
+                    int lowLink = Math.min(methodToLowLink.get(caller), methodToLowLink.get(method));
+                    methodToLowLink.put(caller, lowLink);
+                }
+                if (methodToLowLink.get(method).equals(methodToIndex.get(method))) {
+                    components.add(popComponent(method, stack, onStack));
+                }
+            }
+        }
+
+        return components;
+    }
+
+    private List<LocalMethod> popComponent(LocalMethod root, Deque<LocalMethod> stack, Set<LocalMethod> onStack) {
+        List<LocalMethod> component = new ArrayList<LocalMethod>();
+        LocalMethod member;
+        do {
+            member = stack.pop();
+            onStack.remove(member);
+            component.add(member);
+        } while (member != root);
+
+        // Keep the original order within the component.
+        component.sort((m1, m2) -> Integer.compare(methodToPosition.get(m1), methodToPosition.get(m2)));
+
+        return component;
+    }
+
+}
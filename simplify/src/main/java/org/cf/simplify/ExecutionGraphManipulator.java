@@ -9,6 +9,8 @@ import java.lang.reflect.Method;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
@@ -20,24 +22,26 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
+import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
+import org.cf.smalivm.exception.MaxCallDepthExceeded;
+import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
+import org.cf.smalivm.exception.MaxMethodVisitsExceeded;
+import org.cf.smalivm.exception.UnhandledVirtualException;
 import org.cf.smalivm.opcode.FillArrayDataPayloadOp;
-import org.cf.smalivm.opcode.InvokeOp;
-import org.cf.smalivm.opcode.NewInstanceOp;
 import org.cf.smalivm.opcode.NopOp;
 import org.cf.smalivm.opcode.Op;
 import org.cf.smalivm.opcode.OpCreator;
-import org.cf.smalivm.opcode.ReturnOp;
-import org.cf.smalivm.opcode.ReturnVoidOp;
 import org.cf.smalivm.opcode.SwitchPayloadOp;
 import org.cf.smalivm.reference.LocalMethod;
 import org.jf.dexlib2.builder.BuilderInstruction;
@@ -62,8 +66,14 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
     private final VirtualMachine vm;
     private final Set<MethodLocation> recreateLocations;
     private final List<MethodLocation> reexecuteLocations;
+    private final List<Edit> edits;
     private final OpCreator opCreator;
-    private boolean recreateOrReexecute;
+    private final List<Worklist> worklists;
+    private final LocationFacts facts;
+    private final RegisterLiveness liveness;
+    private final UseDefIndex useDefs;
+    private int transactionDepth;
+    private boolean needsExecution;
 
     public ExecutionGraphManipulator(ExecutionGraph graph, LocalMethod localMethod, VirtualMachine vm,
                     DexBuilder dexBuilder) {
@@ -79,7 +89,13 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         // When ops are added, such as when unreflecting, need to execute in order to ensure
         // correct contexts for each op. Executing out of order may read registers that haven't been assigned yet.
         reexecuteLocations = new LinkedList<MethodLocation>();
-        recreateOrReexecute = true;
+        edits = new ArrayList<Edit>();
+        worklists = new LinkedList<Worklist>();
+        facts = new LocationFacts(this, locationToNodePile.keySet());
+        liveness = new RegisterLiveness(facts, locationToNodePile.keySet());
+        useDefs = new UseDefIndex(facts, locationToNodePile.keySet());
+        transactionDepth = 0;
+        needsExecution = false;
     }
 
     public void addInstruction(MethodLocation location, BuilderInstruction instruction) {
@@ -94,57 +110,92 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         } catch (Exception e) {
             log.error("Error invoking MethodLocation#mergeInto(). Wrong dexlib version?", e);
         }
+        edits.add(new Edit(newLocation, oldLocation));
 
-        rebuildGraph();
+        if (!isInTransaction()) {
+            rebuildGraph();
+        }
     }
 
     public void addInstruction(int address, BuilderInstruction newInstruction) {
         addInstruction(getLocation(address), newInstruction);
     }
 
-    private int getRegisterCount(int address) {
-        return getNodePile(address).get(0).getContext().getMethodState().getRegisterCount();
+    /**
+     * Start collecting edits. Until the matching {@link #commitTransaction()}, edits are only applied to the
+     * implementation and recorded. Node piles aren't updated, empty try blocks are kept, addresses still refer to
+     * locations as they were when the outermost transaction began, and nothing is recreated or re-executed.
+     * Transactions may be nested.
+     *
+     * Addresses are only stable if edits are made from the highest address to the lowest, since any edit moves the
+     * locations after it.
+     */
+    public void beginTransaction() {
+        transactionDepth++;
     }
 
-    public int[] getAvailableRegisters(int address) {
-        int[] registers = new int[getRegisterCount(address)];
-        for (int i = 0; i < registers.length; i++) {
-            registers[i] = i;
+    /**
+     * Finish the current transaction. When the outermost transaction is committed, empty try blocks are removed, node
+     * piles are updated with every recorded edit, the address mappings are rebuilt, and every affected node pile is
+     * recreated and re-executed once.
+     */
+    public void commitTransaction() {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("No transaction to commit");
         }
-
-        Deque<ExecutionNode> stack = new ArrayDeque<ExecutionNode>(getChildren(address));
-        ExecutionNode node = stack.peek();
-        if (null == node) {
-            // No children. All registers available!
-            assert getTemplateNode(address).getOp() instanceof ReturnOp || getTemplateNode(address).getOp() instanceof ReturnVoidOp;
-            return registers;
+        transactionDepth--;
+        if (transactionDepth > 0) {
+            return;
         }
 
-        Set<Integer> registersRead = new HashSet<Integer>();
-        Set<Integer> registersAssigned = new HashSet<Integer>();
-        while ((node = stack.poll()) != null) {
-            MethodState mState = node.getContext().getMethodState();
-            for (Integer register : registers) {
-                if (registersRead.contains(register) || registersAssigned.contains(register)) {
-                    continue;
-                }
+        removeEmptyTryCatchBlocks();
+        rebuildGraph();
+    }
 
-                if (node.getOp().getName().startsWith("move-result")) {
-                    // The target and result registers will always be identical. This makes it seem as if the register
-                    // has always been read since it was read when it was in the result register.
-                    continue;
-                }
+    public boolean isInTransaction() {
+        return transactionDepth > 0;
+    }
 
-                if (mState.wasRegisterRead(register)) {
-                    registersRead.add(register);
-                } else if (mState.wasRegisterAssigned(register)) {
-                    registersAssigned.add(register);
-                }
-            }
-            stack.addAll(node.getChildren());
+    /**
+     * @return true if some re-execution was aborted, so node states are stale and the method should be executed again
+     *         from the start
+     */
+    public boolean needsExecution() {
+        return needsExecution;
+    }
+
+    /**
+     * Create a worklist which starts with every location and is updated with the locations affected by each edit.
+     *
+     * @return new worklist
+     */
+    public Worklist newWorklist() {
+        Worklist worklist = new Worklist(locationToNodePile.keySet());
+        worklists.add(worklist);
+
+        return worklist;
+    }
+
+    private int getRegisterCount(int address) {
+        return getNodePile(address).get(0).getContext().getMethodState().getRegisterCount();
+    }
+
+    public int[] getAvailableRegisters(int address) {
+        BitSet live = liveness.getLiveAfter(address);
+
+        return IntStream.range(0, getRegisterCount(address)).filter(r -> !live.get(r)).toArray();
+    }
+
+    /**
+     * @return number of addresses taken from every worklist, i.e. how many times strategies examined an address
+     */
+    public long getExaminedAddressCount() {
+        long count = 0;
+        for (Worklist worklist : worklists) {
+            count += worklist.getTakenCount();
         }
 
-        return Arrays.stream(registers).filter(r -> !registersRead.contains(r)).toArray();
+        return count;
     }
 
     public List<ExecutionNode> getChildren(int address) {
@@ -157,6 +208,20 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         return children;
     }
 
+    /**
+     * @return register liveness, kept up to date with edits
+     */
+    public RegisterLiveness getLiveness() {
+        return liveness;
+    }
+
+    /**
+     * @return use-def chains, kept up to date with edits
+     */
+    public UseDefIndex getUseDefs() {
+        return useDefs;
+    }
+
     public DexBuilder getDexBuilder() {
         return dexBuilder;
     }
@@ -190,9 +255,17 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
 
     public void removeInstruction(MethodLocation location) {
         int index = location.getIndex();
+        if (index > 0) {
+            // Previous instruction may depend on what follows, e.g. goto to the next instruction or an unused result
+            markChanged(implementation.getInstructions().get(index - 1).getLocation());
+        }
         implementation.removeInstruction(index);
-        removeEmptyTryCatchBlocks();
-        rebuildGraph();
+        edits.add(new Edit(location, null));
+
+        if (!isInTransaction()) {
+            removeEmptyTryCatchBlocks();
+            rebuildGraph();
+        }
     }
 
     public void removeInstruction(int address) {
@@ -204,9 +277,11 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         Collections.reverse(addresses);
 
         log.debug("Removing instructions: {}", addresses);
+        beginTransaction();
         for (int address : addresses) {
             removeInstruction(address);
         }
+        commitTransaction();
     }
 
     public void replaceInstruction(int insertAddress, BuilderInstruction instruction) {
@@ -216,15 +291,81 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
     }
 
     public void replaceInstruction(int insertAddress, List<BuilderInstruction> instructions) {
-        recreateOrReexecute = false;
-        int address = insertAddress;
+        MethodLocation location = getLocation(insertAddress);
+        beginTransaction();
         for (BuilderInstruction instruction : instructions) {
-            addInstruction(address, instruction);
-            address += instruction.getCodeUnits();
+            // Each instruction is added just before the replaced location, i.e. after the previous one. Only the first
+            // gets the location's labels since they're moved when merging.
+            addInstruction(location, instruction);
         }
-        MethodLocation location = getLocation(address);
-        recreateOrReexecute = true;
         removeInstruction(location);
+        commitTransaction();
+    }
+
+    /**
+     * Execute the nodes at each location again, along with everything they spawn. Every node after them is replaced,
+     * but nodes before them keep their contexts. Edits only recreate and re-execute the nodes they touch, which isn't
+     * enough when an edit changes what later ops see, e.g. unreflecting a method invocation so its result is known.
+     *
+     * @param locations
+     * @return false if execution was aborted, in which case {@link #needsExecution()} is true
+     */
+    public boolean reexecute(Collection<MethodLocation> locations) {
+        if (isInTransaction()) {
+            throw new IllegalStateException("Can't re-execute during a transaction");
+        }
+
+        // Keep execution order stable by starting with the lowest address
+        List<MethodLocation> sortedLocations = new ArrayList<MethodLocation>(locations);
+        sortedLocations.removeIf(l -> l.getInstruction() == null || !locationToNodePile.containsKey(l));
+        Collections.sort(sortedLocations, (e1, e2) -> Integer.compare(e1.getCodeAddress(), e2.getCodeAddress()));
+        Set<ExecutionNode> startNodes = new LinkedHashSet<ExecutionNode>();
+        for (MethodLocation location : sortedLocations) {
+            List<ExecutionNode> pile = locationToNodePile.get(location);
+            startNodes.addAll(pile.subList(1, pile.size()));
+        }
+
+        List<ExecutionNode> nodes = new ArrayList<ExecutionNode>();
+        for (ExecutionNode node : startNodes) {
+            ExecutionNode parent = node.getParent();
+            if (parent == null) {
+                // Root context comes from the caller
+                needsExecution = true;
+                return false;
+            }
+            if (hasAncestor(node, startNodes)) {
+                // Will be executed again anyway
+                continue;
+            }
+
+            removeDescendants(node);
+            ExecutionNode newNode = parent.spawnChild(node.getOp());
+            parent.removeChild(node);
+            List<ExecutionNode> pile = locationToNodePile.get(node.getOp().getLocation());
+            pile.set(pile.indexOf(node), newNode);
+            nodes.add(newNode);
+        }
+        if (nodes.isEmpty()) {
+            return true;
+        }
+
+        try {
+            vm.resume(this, nodes);
+        } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded
+                        | MaxExecutionTimeExceeded | UnhandledVirtualException e) {
+            log.warn("Aborting re-execution of {}: {}", localMethod, e.toString());
+            needsExecution = true;
+            return false;
+        }
+
+        Deque<ExecutionNode> stack = new ArrayDeque<ExecutionNode>(nodes);
+        while (!stack.isEmpty()) {
+            ExecutionNode node = stack.pop();
+            markChanged(node.getOp().getLocation());
+            stack.addAll(node.getChildren());
+        }
+
+        return true;
     }
 
     public String toSmali() {
@@ -241,18 +382,10 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         return sb.toString();
     }
 
-    private void addToNodePile(MethodLocation newLocation) {
+    private void addToNodePile(MethodLocation newLocation, MethodLocation shiftedLocation) {
         // Returns node which need to be re-executed after graph / mappings are rebuilt
         // E.g. branch offset instructions can't be created without accurate mappings
-        int oldIndex = newLocation.getIndex() + 1;
-        MethodLocation shiftedLocation = null;
-        for (MethodLocation location : locationToNodePile.keySet()) {
-            if (location.getIndex() == oldIndex) {
-                shiftedLocation = location;
-                break;
-            }
-        }
-        assert shiftedLocation != null;
+        assert locationToNodePile.containsKey(shiftedLocation);
 
         List<ExecutionNode> shiftedNodePile = locationToNodePile.get(shiftedLocation);
         List<ExecutionNode> newNodePile = new ArrayList<ExecutionNode>();
@@ -305,40 +438,17 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
     }
 
     private void recreateAndExecute() {
-        if (!recreateOrReexecute) {
-            return;
-        }
-
         // Was removed from implementation before getting here
         recreateLocations.removeIf(p -> p.getInstruction() == null);
         reexecuteLocations.removeIf(p -> p.getInstruction() == null);
+        for (MethodLocation location : recreateLocations) {
+            markChanged(location);
+        }
 
         for (MethodLocation location : recreateLocations) {
             Op op = opCreator.create(location);
             List<ExecutionNode> pile = locationToNodePile.get(location);
 
-            // TODO: move side effects out of ops and into nodes or graph
-            // This is a big ugly.
-            if (op instanceof NewInstanceOp || op instanceof InvokeOp) {
-                ExecutionNode node = pile.get(0);
-
-                try {
-                    SideEffect.Level originalLevel = node.getOp().getSideEffectLevel();
-                    Class<? extends Op> klazz;
-                    if (op instanceof NewInstanceOp) {
-                        klazz = NewInstanceOp.class;
-                    } else { // InvokeOp
-                        klazz = InvokeOp.class;
-                    }
-                    Field f = klazz.getDeclaredField("sideEffectLevel");
-                    f.setAccessible(true);
-                    f.set(op, originalLevel);
-                } catch (Exception e) {
-                    // Ugly.
-                    e.printStackTrace();
-                }
-            }
-
             for (int i = 0; i < pile.size(); i++) {
                 pile.get(i).setOp(op);
             }
@@ -349,6 +459,7 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         Collections.sort(reexecuteLocations, (e1, e2) -> Integer.compare(e1.getCodeAddress(), e2.getCodeAddress()));
         Set<MethodLocation> reexecute = new LinkedHashSet<MethodLocation>(reexecuteLocations);
         for (MethodLocation location : reexecute) {
+            markChanged(location);
             List<ExecutionNode> pile = locationToNodePile.get(location);
             for (int i = 0; i < pile.size(); i++) {
                 ExecutionNode node = pile.get(i);
@@ -357,6 +468,10 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
                 }
 
                 node.execute();
+                // Children look at the states of their parents, e.g. to get register values before an invoke.
+                for (ExecutionNode child : node.getChildren()) {
+                    markChanged(child.getOp().getLocation());
+                }
             }
         }
 
@@ -365,18 +480,30 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
     }
 
     private void rebuildGraph() {
-        // This seems like overkill until you realize implementation may change from under us.
-        // Multiple new instructions may be added from adding or removing a single instruction.
+        // Edits are replayed in order so each added location shifts the nodes of the location it was inserted before.
+        for (Edit edit : edits) {
+            if (edit.shiftedLocation == null) {
+                removeFromNodePile(edit.location);
+            } else {
+                addToNodePile(edit.location, edit.shiftedLocation);
+            }
+        }
+        edits.clear();
+
+        // Implementation may also change from under us, e.g. nop padding is added or removed, so look for anything
+        // the edits missed. This is the only full pass, so it's done once per rebuild rather than once per edit.
+        List<BuilderInstruction> instructions = implementation.getInstructions();
         Set<MethodLocation> staleLocations = locationToNodePile.keySet();
         Set<MethodLocation> implementationLocations = new HashSet<MethodLocation>();
-        for (BuilderInstruction instruction : implementation.getInstructions()) {
+        for (BuilderInstruction instruction : instructions) {
             implementationLocations.add(instruction.getLocation());
         }
-
-        Set<MethodLocation> addedLocations = new HashSet<MethodLocation>(implementationLocations);
+        List<MethodLocation> addedLocations = new ArrayList<MethodLocation>(implementationLocations);
         addedLocations.removeAll(staleLocations);
+        // Highest first, since the location after an added one may also be added.
+        addedLocations.sort((e1, e2) -> Integer.compare(e2.getIndex(), e1.getIndex()));
         for (MethodLocation location : addedLocations) {
-            addToNodePile(location);
+            addToNodePile(location, instructions.get(location.getIndex() + 1).getLocation());
         }
         Set<MethodLocation> removedLocations = new HashSet<MethodLocation>(staleLocations);
         removedLocations.removeAll(implementationLocations);
@@ -457,10 +584,75 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         return null;
     }
 
+    private void markChanged(MethodLocation location) {
+        clearConsensus();
+        facts.markChanged(location);
+        liveness.markChanged(location);
+        useDefs.markChanged(location);
+        for (Worklist worklist : worklists) {
+            worklist.add(location);
+        }
+    }
+
+    /*
+     * Registers read by a removed node may no longer be read by anything, so whichever nodes assigned them need to be
+     * looked at again.
+     */
+    private void markAssigners(ExecutionNode removedNode) {
+        if (worklists.isEmpty() || removedNode.getContext() == null) {
+            return;
+        }
+
+        MethodState mState = removedNode.getContext().getMethodState();
+        for (int register : mState.getRegistersRead()) {
+            if (register < 0) {
+                // Result and return registers are only read by the next op.
+                continue;
+            }
+            ExecutionNode ancestor = removedNode.getParent();
+            while (ancestor != null) {
+                if (ancestor.getContext().getMethodState().wasRegisterAssigned(register)) {
+                    markChanged(ancestor.getOp().getLocation());
+                    break;
+                }
+                ancestor = ancestor.getParent();
+            }
+        }
+    }
+
+    private static boolean hasAncestor(ExecutionNode node, Set<ExecutionNode> nodes) {
+        ExecutionNode ancestor = node.getParent();
+        while (ancestor != null) {
+            if (nodes.contains(ancestor)) {
+                return true;
+            }
+            ancestor = ancestor.getParent();
+        }
+
+        return false;
+    }
+
+    private void removeDescendants(ExecutionNode node) {
+        Deque<ExecutionNode> stack = new ArrayDeque<ExecutionNode>(node.getChildren());
+        while (!stack.isEmpty()) {
+            ExecutionNode descendant = stack.pop();
+            MethodLocation location = descendant.getOp().getLocation();
+            List<ExecutionNode> pile = locationToNodePile.get(location);
+            if (pile != null) {
+                pile.remove(descendant);
+            }
+            markChanged(location);
+            stack.addAll(descendant.getChildren());
+        }
+    }
+
     private void removeFromNodePile(MethodLocation location) {
         List<ExecutionNode> nodePile = locationToNodePile.remove(location);
+        // Indexes drop the location and anything it defined.
+        markChanged(location);
         Map<MethodLocation, ExecutionNode> locationToChildNodeToRemove = new HashMap<MethodLocation, ExecutionNode>();
         for (ExecutionNode removedNode : nodePile) {
+            markAssigners(removedNode);
             ExecutionNode parentNode = removedNode.getParent();
             if (parentNode == null) {
                 continue;
@@ -491,4 +683,19 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         }
     }
 
+    /**
+     * An added location and the location it was inserted before, or a removed location.
+     */
+    private static final class Edit {
+
+        private final MethodLocation location;
+        private final @Nullable MethodLocation shiftedLocation;
+
+        Edit(MethodLocation location, @Nullable MethodLocation shiftedLocation) {
+            this.location = location;
+            this.shiftedLocation = shiftedLocation;
+        }
+
+    }
+
 }
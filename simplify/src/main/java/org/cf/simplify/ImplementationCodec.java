@@ -0,0 +1,331 @@
+package org.cf.simplify;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.smali.ClassManager;
+import org.jf.dexlib2.DebugItemType;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.BuilderDebugItem;
+import org.jf.dexlib2.builder.BuilderExceptionHandler;
+import org.jf.dexlib2.builder.BuilderInstruction;
+import org.jf.dexlib2.builder.BuilderTryBlock;
+import org.jf.dexlib2.builder.MethodLocation;
+import org.jf.dexlib2.builder.MutableMethodImplementation;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction20bc;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction22c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction31c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction3rc;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.debug.DebugItem;
+import org.jf.dexlib2.iface.debug.EndLocal;
+import org.jf.dexlib2.iface.debug.LineNumber;
+import org.jf.dexlib2.iface.debug.RestartLocal;
+import org.jf.dexlib2.iface.debug.SetSourceFile;
+import org.jf.dexlib2.iface.debug.StartLocal;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.rewriter.DexRewriter;
+import org.jf.dexlib2.rewriter.Rewriter;
+import org.jf.dexlib2.rewriter.RewriterModule;
+import org.jf.dexlib2.rewriter.Rewriters;
+import org.jf.dexlib2.util.ReferenceUtil;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+/**
+ * Converts method implementations to and from a self contained byte form, which is a dex file with a single class
+ * holding the methods. Encoded implementations are stable, so they're also used to hash implementations.
+ */
+public class ImplementationCodec {
+
+    private static final String CLASS_PLACEHOLDER = "Lsimplify/placeholder;";
+    private static final String CLASS_PLACEHOLDER_SUPERCLASS = "Ljava/lang/Object;";
+    // file_size field of the dex header
+    private static final int FILE_SIZE_OFFSET = 32;
+
+    private final DexBuilder dexBuilder;
+    private final Opcodes opcodes;
+
+    public ImplementationCodec(DexBuilder dexBuilder, int apiLevel) {
+        this.dexBuilder = dexBuilder;
+        opcodes = Opcodes.forApi(apiLevel);
+    }
+
+    public byte[] encode(LocalMethod localMethod) {
+        return encode(localMethod.getClassName(), Collections.singletonList(localMethod));
+    }
+
+    /**
+     * Same as {@link #encode(LocalMethod)}, but the method is moved to a placeholder class, so methods with the same
+     * name, prototype and implementation in different classes have the same encoding. References in the
+     * implementation are left alone.
+     *
+     * @param localMethod
+     * @return implementation of the method
+     */
+    public byte[] encodeWithoutClass(LocalMethod localMethod) {
+        BuilderMethod method = localMethod.getMethodDefinition();
+        ImmutableMethod detached = new ImmutableMethod(CLASS_PLACEHOLDER, method.getName(), method.getParameters(),
+                        method.getReturnType(), method.getAccessFlags(), null, method.getImplementation());
+
+        return write(CLASS_PLACEHOLDER, Collections.singletonList(detached));
+    }
+
+    /**
+     * Same as {@link #encodeWithoutClass(LocalMethod)}, but references to the method's own class are also moved to the
+     * placeholder class, so copies which call their own methods or use their own type have the same encoding.
+     *
+     * @param localMethod
+     * @return implementation of the method
+     */
+    public byte[] encodeWithoutOwnClass(LocalMethod localMethod) {
+        return encodeInClass(localMethod, CLASS_PLACEHOLDER);
+    }
+
+    /**
+     * Same as {@link #encode(LocalMethod)}, but the method and references to its own class are moved to another class.
+     *
+     * @param localMethod
+     * @param className
+     *            class to move the method to
+     * @return implementation of the method
+     */
+    public byte[] encodeInClass(LocalMethod localMethod, String className) {
+        String ownClassName = localMethod.getClassName();
+        DexRewriter rewriter = new DexRewriter(new RewriterModule() {
+            @Override
+            public Rewriter<String> getTypeRewriter(Rewriters rewriters) {
+                return type -> type.equals(ownClassName) ? className : type;
+            }
+        });
+        BuilderMethod method = localMethod.getMethodDefinition();
+        ImmutableMethod detached = new ImmutableMethod(ownClassName, method.getName(), method.getParameters(),
+                        method.getReturnType(), method.getAccessFlags(), null, method.getImplementation());
+        Method moved = rewriter.getMethodRewriter().rewrite(detached);
+
+        return write(className, Collections.singletonList(moved));
+    }
+
+    /**
+     * @param className
+     * @param localMethods
+     *            methods of the class
+     * @return implementations of every method with one
+     */
+    public byte[] encode(String className, Collection<LocalMethod> localMethods) {
+        List<ImmutableMethod> methods = new ArrayList<ImmutableMethod>(localMethods.size());
+        for (LocalMethod localMethod : localMethods) {
+            BuilderMethod method = localMethod.getMethodDefinition();
+            methods.add(new ImmutableMethod(method.getDefiningClass(), method.getName(), method.getParameters(),
+                            method.getReturnType(), method.getAccessFlags(), null, method.getImplementation()));
+        }
+
+        return write(className, methods);
+    }
+
+    private byte[] write(String className, List<? extends Method> methods) {
+        ClassDef classDef = new ImmutableClassDef(className, 0, CLASS_PLACEHOLDER_SUPERCLASS, null, null, null, null,
+                        methods);
+        MemoryDataStore dataStore = new MemoryDataStore();
+        try {
+            DexPool.writeTo(dataStore, new ImmutableDexFile(opcodes, Collections.singletonList(classDef)));
+        } catch (IOException e) {
+            // Only memory is written to.
+            throw new IllegalStateException(e);
+        }
+        byte[] data = dataStore.getData();
+        int fileSize = (data[FILE_SIZE_OFFSET] & 0xFF) | (data[FILE_SIZE_OFFSET + 1] & 0xFF) << 8 |
+                        (data[FILE_SIZE_OFFSET + 2] & 0xFF) << 16 | (data[FILE_SIZE_OFFSET + 3] & 0xFF) << 24;
+
+        return Arrays.copyOf(data, fileSize);
+    }
+
+    /**
+     * Replace the implementation of a method with an encoded implementation. The method keeps its implementation
+     * object, since it's shared with the class definition which is eventually written out.
+     *
+     * @param data
+     *            implementation from {@link #encode(LocalMethod)}
+     * @param localMethod
+     */
+    public void apply(byte[] data, LocalMethod localMethod) {
+        DexBackedDexFile dexFile = new DexBackedDexFile(opcodes, data);
+        ClassDef classDef = dexFile.getClasses().iterator().next();
+        apply(classDef.getMethods().iterator().next(), localMethod);
+    }
+
+    /**
+     * Replace the implementations of every encoded method of a class.
+     *
+     * @param data
+     *            implementations from {@link #encode(String, Collection)}
+     * @param classManager
+     * @return methods whose implementations were replaced
+     */
+    public List<LocalMethod> applyAll(byte[] data, ClassManager classManager) {
+        DexBackedDexFile dexFile = new DexBackedDexFile(opcodes, data);
+        ClassDef classDef = dexFile.getClasses().iterator().next();
+        List<LocalMethod> localMethods = new ArrayList<LocalMethod>();
+        for (Method method : classDef.getMethods()) {
+            if (method.getImplementation() == null) {
+                continue;
+            }
+            LocalMethod localMethod = classManager.getMethod(ReferenceUtil.getMethodDescriptor(method));
+            apply(method, localMethod);
+            localMethods.add(localMethod);
+        }
+
+        return localMethods;
+    }
+
+    private void apply(Method method, LocalMethod localMethod) {
+        MutableMethodImplementation decoded = new MutableMethodImplementation(method.getImplementation());
+        MutableMethodImplementation implementation = localMethod.getImplementation();
+        if (decoded.getRegisterCount() != implementation.getRegisterCount()) {
+            throw new IllegalArgumentException("Encoded implementation has " + decoded.getRegisterCount() +
+                            " registers but " + localMethod + " has " + implementation.getRegisterCount());
+        }
+        internReferences(decoded);
+
+        // MutableMethodImplementation has no way to replace everything, but locations don't know their implementation
+        // so they can be moved over. The private fields used are checked against the dexlib2 version by a test.
+        List<MethodLocation> locations = getField(decoded, "instructionList");
+        List<BuilderTryBlock> tryBlocks = getField(decoded, "tryBlocks");
+        List<MethodLocation> targetLocations = getField(implementation, "instructionList");
+        List<BuilderTryBlock> targetTryBlocks = getField(implementation, "tryBlocks");
+        targetLocations.clear();
+        targetLocations.addAll(locations);
+        targetTryBlocks.clear();
+        targetTryBlocks.addAll(tryBlocks);
+        try {
+            Field field = MutableMethodImplementation.class.getDeclaredField("fixInstructions");
+            field.setAccessible(true);
+            field.setBoolean(implementation, true);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Unable to access implementation fixInstructions", e);
+        }
+    }
+
+    private void internReferences(MutableMethodImplementation implementation) {
+        List<MethodLocation> locations = getField(implementation, "instructionList");
+        for (int i = 0; i < locations.size(); i++) {
+            MethodLocation location = locations.get(i);
+            Instruction instruction = location.getInstruction();
+            if (instruction instanceof ReferenceInstruction) {
+                implementation.replaceInstruction(i, internReference((BuilderInstruction) instruction));
+            }
+            internDebugItems(location);
+        }
+
+        List<BuilderTryBlock> tryBlocks = getField(implementation, "tryBlocks");
+        for (int i = 0; i < tryBlocks.size(); i++) {
+            BuilderTryBlock tryBlock = tryBlocks.get(i);
+            BuilderExceptionHandler handler = tryBlock.exceptionHandler;
+            String exceptionType = handler.getExceptionType();
+            if (exceptionType == null) {
+                tryBlocks.set(i, new BuilderTryBlock(tryBlock.start, tryBlock.end, handler.getHandler()));
+            } else {
+                tryBlocks.set(i, new BuilderTryBlock(tryBlock.start, tryBlock.end, dexBuilder
+                                .internTypeReference(exceptionType), handler.getHandler()));
+            }
+        }
+    }
+
+    private BuilderInstruction internReference(BuilderInstruction instruction) {
+        Reference reference = dexBuilder.internReference(((ReferenceInstruction) instruction).getReference());
+        switch (instruction.getOpcode().format) {
+        case Format20bc:
+            BuilderInstruction20bc i20bc = (BuilderInstruction20bc) instruction;
+            return new BuilderInstruction20bc(i20bc.getOpcode(), i20bc.getVerificationError(), reference);
+        case Format21c:
+            BuilderInstruction21c i21c = (BuilderInstruction21c) instruction;
+            return new BuilderInstruction21c(i21c.getOpcode(), i21c.getRegisterA(), reference);
+        case Format22c:
+            BuilderInstruction22c i22c = (BuilderInstruction22c) instruction;
+            return new BuilderInstruction22c(i22c.getOpcode(), i22c.getRegisterA(), i22c.getRegisterB(), reference);
+        case Format31c:
+            BuilderInstruction31c i31c = (BuilderInstruction31c) instruction;
+            return new BuilderInstruction31c(i31c.getOpcode(), i31c.getRegisterA(), reference);
+        case Format35c:
+            BuilderInstruction35c i35c = (BuilderInstruction35c) instruction;
+            return new BuilderInstruction35c(i35c.getOpcode(), i35c.getRegisterCount(), i35c.getRegisterC(),
+                            i35c.getRegisterD(), i35c.getRegisterE(), i35c.getRegisterF(), i35c.getRegisterG(),
+                            reference);
+        case Format3rc:
+            BuilderInstruction3rc i3rc = (BuilderInstruction3rc) instruction;
+            return new BuilderInstruction3rc(i3rc.getOpcode(), i3rc.getStartRegister(), i3rc.getRegisterCount(),
+                            reference);
+        default:
+            throw new IllegalArgumentException("Unexpected reference instruction format: " + instruction
+                            .getOpcode().format);
+        }
+    }
+
+    private void internDebugItems(MethodLocation location) {
+        List<BuilderDebugItem> debugItems = new ArrayList<BuilderDebugItem>(location.getDebugItems());
+        if (debugItems.isEmpty()) {
+            return;
+        }
+
+        location.getDebugItems().clear();
+        for (DebugItem debugItem : debugItems) {
+            switch (debugItem.getDebugItemType()) {
+            case DebugItemType.START_LOCAL:
+                StartLocal startLocal = (StartLocal) debugItem;
+                location.addStartLocal(startLocal.getRegister(), dexBuilder.internNullableStringReference(startLocal
+                                .getName()), dexBuilder.internNullableTypeReference(startLocal.getType()), dexBuilder
+                                .internNullableStringReference(startLocal.getSignature()));
+                break;
+            case DebugItemType.END_LOCAL:
+                location.addEndLocal(((EndLocal) debugItem).getRegister());
+                break;
+            case DebugItemType.RESTART_LOCAL:
+                location.addRestartLocal(((RestartLocal) debugItem).getRegister());
+                break;
+            case DebugItemType.PROLOGUE_END:
+                location.addPrologue();
+                break;
+            case DebugItemType.EPILOGUE_BEGIN:
+                location.addEpilogue();
+                break;
+            case DebugItemType.SET_SOURCE_FILE:
+                SetSourceFile setSourceFile = (SetSourceFile) debugItem;
+                location.addSetSourceFile(dexBuilder.internNullableStringReference(setSourceFile.getSourceFile()));
+                break;
+            case DebugItemType.LINE_NUMBER:
+                location.addLineNumber(((LineNumber) debugItem).getLineNumber());
+                break;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> getField(MutableMethodImplementation implementation, String name) {
+        try {
+            Field field = MutableMethodImplementation.class.getDeclaredField(name);
+            field.setAccessible(true);
+
+            return (List<T>) field.get(implementation);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Unable to access implementation " + name, e);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.cf.simplify;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Optimized classes from the last run, kept in a state directory and keyed by class fingerprints from
+ * {@link MethodHasher#getClassKey(java.util.Collection)}. If a class has the same fingerprint as in the last run, the
+ * class, everything it depends on, and the options are the same, so the optimized class can be used as is.
+ *
+ * The directory holds a fingerprints file with the fingerprint of every class, and the optimized classes named after
+ * their fingerprints. Files are written to a temporary file and moved into place, so an interrupted run leaves the
+ * state of the last completed run.
+ */
+public class IncrementalState {
+
+    private static final Logger log = LoggerFactory.getLogger(IncrementalState.class.getSimpleName());
+
+    private static final String FINGERPRINTS_FILE = "fingerprints";
+    private static final String CLASSES_DIRECTORY = "classes";
+    private static final String CLASS_EXTENSION = ".dex";
+
+    private final File stateDirectory;
+    private final File classesDirectory;
+    private final Map<String, String> classNameToLastFingerprint;
+    private final Map<String, String> classNameToFingerprint;
+
+    public IncrementalState(File stateDirectory) throws IOException {
+        this.stateDirectory = stateDirectory;
+        classesDirectory = new File(stateDirectory, CLASSES_DIRECTORY);
+        Files.createDirectories(classesDirectory.toPath());
+        classNameToLastFingerprint = readFingerprints(new File(stateDirectory, FINGERPRINTS_FILE));
+        // Sorted so the file is stable
+        classNameToFingerprint = new TreeMap<String, String>();
+    }
+
+    /**
+     * @param className
+     * @param fingerprint
+     *            fingerprint of the class in this run
+     * @return optimized class from the last run, or null if the class changed or wasn't optimized
+     */
+    public @Nullable byte[] getOptimizedClass(String className, byte[] fingerprint) throws IOException {
+        String hex = toHex(fingerprint);
+        if (!hex.equals(classNameToLastFingerprint.get(className))) {
+            return null;
+        }
+
+        File classFile = getClassFile(hex);
+        if (!classFile.exists()) {
+            return null;
+        }
+        byte[] optimizedClass = Files.readAllBytes(classFile.toPath());
+        classNameToFingerprint.put(className, hex);
+
+        return optimizedClass;
+    }
+
+    /**
+     * @param className
+     * @param fingerprint
+     *            fingerprint of the class before it was optimized
+     * @param optimizedClass
+     *            encoded class from {@link ImplementationCodec#encode(String, java.util.Collection)}
+     */
+    public void putOptimizedClass(String className, byte[] fingerprint, byte[] optimizedClass) throws IOException {
+        String hex = toHex(fingerprint);
+        write(getClassFile(hex).toPath(), optimizedClass);
+        classNameToFingerprint.put(className, hex);
+    }
+
+    /**
+     * Write the fingerprints of every class from this run and delete optimized classes which are no longer used.
+     */
+    public void save() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : classNameToFingerprint.entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        write(new File(stateDirectory, FINGERPRINTS_FILE).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(classesDirectory.toPath())) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                String hex = name.substring(0, Math.max(0, name.length() - CLASS_EXTENSION.length()));
+                if (!classNameToFingerprint.containsValue(hex)) {
+                    Files.delete(path);
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Saved fingerprints of {} classes to {}", classNameToFingerprint.size(), stateDirectory);
+        }
+    }
+
+    private File getClassFile(String hex) {
+        return new File(classesDirectory, hex + CLASS_EXTENSION);
+    }
+
+    private static Map<String, String> readFingerprints(File file) throws IOException {
+        Map<String, String> classNameToFingerprint = new HashMap<String, String>();
+        if (!file.exists()) {
+            return classNameToFingerprint;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.lastIndexOf(' ');
+                if (space > 0) {
+                    classNameToFingerprint.put(line.substring(0, space), line.substring(space + 1));
+                }
+            }
+        }
+
+        return classNameToFingerprint;
+    }
+
+    private static String toHex(byte[] bytes) {
+        return BaseEncoding.base16().lowerCase().encode(bytes);
+    }
+
+    private static void write(Path path, byte[] data) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, data);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
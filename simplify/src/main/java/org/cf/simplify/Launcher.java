@@ -3,25 +3,34 @@ package org.cf.simplify;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessMode;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.cf.smalivm.StaticInitializerScheduler;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.VirtualMachineFactory;
 import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.emulate.EmulatedMethod;
+import org.cf.smalivm.emulate.MethodEmulator;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
@@ -37,14 +46,25 @@ import org.slf4j.LoggerFactory;
 
 import ch.qos.logback.classic.Level;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 public class Launcher {
 
     private static final Logger log = LoggerFactory.getLogger(Main.class.getSimpleName());
 
+    private static final String SUMMARY_STORE_FILE = "method-summaries";
+
+    // Bump whenever changes to the VM, the optimizer, or the summary format change what's stored for the same method.
+    private static final int SUMMARY_VERSION = 2;
+
     private static final Pattern SUPPORT_LIBRARY_PATTERN = Pattern.compile("Landroid/support/(annotation|v\\d{1,2})/");
 
     private final VirtualMachineFactory vmFactory;
     private SimplifyOptions opts;
+    private ImplementationCodec codec;
+    private MethodHasher methodHasher;
+    private MethodSummaryStore summaryStore;
 
     public Launcher(VirtualMachineFactory vmFactory) {
         this.vmFactory = vmFactory;
@@ -59,20 +79,91 @@ public class Launcher {
         }
 
         long startTime = System.currentTimeMillis();
-        VirtualMachine vm = vmFactory.build(opts.getInFile(), opts.getOutputAPILevel(), opts.getMaxAddressVisits(),
-                        opts.getMaxCallDepth(), opts.getMaxMethodVisits(), opts.getMaxExecutionTime());
-        ClassManager classManager = vm.getClassManager();
-        Set<String> classNames = classManager.getNonFrameworkClassNames();
+        ClassManager classManager;
         int classCount = 0;
-        int methodCount = 0;
-        for (String className : classNames) {
-            int newCount = executeClass(vm, className);
-            classCount += newCount > 0 ? 1 : 0;
-            methodCount += newCount;
+        List<LocalMethod> localMethods = new ArrayList<LocalMethod>();
+        MethodDeduplicator deduplicator;
+        try (VirtualMachine vm = vmFactory.build(opts.getInFile(), opts.getOutputAPILevel(), opts.getMaxAddressVisits(),
+                        opts.getMaxCallDepth(), opts.getMaxMethodVisits(), opts.getMaxExecutionTime())) {
+            vm.getReflectionSandbox().setMaxReflectionTime(opts.getMaxReflectionTime());
+            for (File policyFile : opts.getPolicyFiles()) {
+                vm.getConfiguration().merge(policyFile);
+            }
+            classManager = vm.getClassManager();
+            Set<String> classNames = classManager.getNonFrameworkClassNames();
+            File stateDirectory = opts.getIncrementalStateDirectory();
+            IncrementalState state = null;
+            File summaryStoreFile = opts.getSummaryStoreFile();
+            if (stateDirectory != null) {
+                state = new IncrementalState(stateDirectory);
+                if (summaryStoreFile == null) {
+                    summaryStoreFile = new File(stateDirectory, SUMMARY_STORE_FILE);
+                }
+            }
+            codec = new ImplementationCodec(classManager.getDexBuilder(), opts.getOutputAPILevel());
+            if (summaryStoreFile != null) {
+                methodHasher = new MethodHasher(classManager, codec, buildSummarySalt(vm, opts));
+                summaryStore = new MethodSummaryStore(summaryStoreFile);
+            }
+            Map<String, byte[]> classNameToFingerprint = null;
+            int reusedCount = 0;
+            if (state != null) {
+                // Fingerprints are of the input, before any class is changed.
+                classNameToFingerprint = buildFingerprints(classManager, classNames);
+                Set<String> changedClassNames = reuseOptimizedClasses(vm, state, classNames, classNameToFingerprint);
+                reusedCount = classNames.size() - changedClassNames.size();
+                classNames = changedClassNames;
+            }
+            if (opts.getStaticInitThreads() > 0) {
+                new StaticInitializerScheduler(vm).initialize(classNames, opts.getStaticInitThreads());
+            }
+            for (String className : classNames) {
+                Set<LocalMethod> classMethods = getMethodsToExecute(classManager, className);
+                classCount += classMethods.isEmpty() ? 0 : 1;
+                localMethods.addAll(classMethods);
+            }
+            // Callees first so callers execute simplified callees
+            localMethods = new CallGraphScheduler(localMethods).getOrder();
+            deduplicator = new MethodDeduplicator(codec, classManager);
+            try {
+                for (LocalMethod localMethod : localMethods) {
+                    // Key is taken before the method is simplified.
+                    ByteBuffer key = deduplicator.getKey(localMethod);
+                    if (key != null && reuseOriginal(vm, deduplicator, key, localMethod)) {
+                        continue;
+                    }
+                    if (executeMethod(vm, localMethod) && key != null) {
+                        deduplicator.putOriginal(key, localMethod);
+                    }
+                }
+                if (state != null) {
+                    for (String className : classNames) {
+                        byte[] optimizedClass = codec.encode(className, getMethodsToExecute(classManager, className));
+                        state.putOptimizedClass(className, classNameToFingerprint.get(className), optimizedClass);
+                    }
+                }
+            } finally {
+                if (summaryStore != null) {
+                    summaryStore.close();
+                }
+            }
+            if (state != null) {
+                state.save();
+                System.out.println("Reused " + reusedCount + " unchanged classes and re-executed " + classNames.size() +
+                                " classes.");
+            }
+            if (log.isInfoEnabled()) {
+                log.info(vm.getMethodResultCache().toString());
+                log.info(vm.getStaticInitializerCache().toString());
+                if (summaryStore != null) {
+                    log.info(summaryStore.toString());
+                }
+            }
         }
 
         long totalTime = System.currentTimeMillis() - startTime;
-        System.out.println("Simplified " + methodCount + " methods from " + classCount + " classes in " + totalTime + " ms.");
+        System.out.println("Simplified " + localMethods.size() + " methods from " + classCount + " classes in " + totalTime + " ms.");
+        System.out.println(deduplicator.toString() + '.');
         System.out.println(Optimizer.getTotalOptimizationCounts());
 
         System.out.println("Writing output to " + opts.getOutFile());
@@ -83,44 +174,161 @@ public class Launcher {
         }
     }
 
-    private int executeClass(VirtualMachine vm, String className) throws UnhandledVirtualException {
+    private Map<String, byte[]> buildFingerprints(ClassManager classManager, Set<String> classNames) {
+        Map<String, byte[]> classNameToFingerprint = new HashMap<String, byte[]>();
+        for (String className : classNames) {
+            byte[] fingerprint = methodHasher.getClassKey(getMethodsToExecute(classManager, className));
+            classNameToFingerprint.put(className, fingerprint);
+        }
+
+        return classNameToFingerprint;
+    }
+
+    /**
+     * @return names of classes which changed and need to be executed
+     */
+    private Set<String> reuseOptimizedClasses(VirtualMachine vm, IncrementalState state, Set<String> classNames,
+                    Map<String, byte[]> classNameToFingerprint) throws IOException {
         ClassManager classManager = vm.getClassManager();
-        DexBuilder dexBuilder = classManager.getDexBuilder();
+        Set<String> changedClassNames = new LinkedHashSet<String>();
+        for (String className : classNames) {
+            byte[] optimizedClass = state.getOptimizedClass(className, classNameToFingerprint.get(className));
+            if (optimizedClass == null) {
+                changedClassNames.add(className);
+                continue;
+            }
+
+            System.out.println("Reusing: " + className);
+            for (LocalMethod localMethod : codec.applyAll(optimizedClass, classManager)) {
+                vm.updateInstructionGraph(localMethod);
+                methodHasher.invalidate(localMethod);
+            }
+        }
+
+        return changedClassNames;
+    }
+
+    private Set<LocalMethod> getMethodsToExecute(ClassManager classManager, String className) {
         Set<LocalMethod> localMethods = classManager.getMethods(className);
         filterMethods(localMethods, opts.getIncludeFilter(), opts.getExcludeFilter());
         if (!opts.includeSupportLibrary()) {
             filterSupportLibrary(localMethods);
         }
 
-        for (LocalMethod localMethod : localMethods) {
-            boolean shouldReexecute = false;
-            do {
-                System.out.println("Executing: " + localMethod);
-                ExecutionGraph graph = null;
-                try {
-                    graph = vm.execute(localMethod);
-                } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded | MaxExecutionTimeExceeded e) {
-                    System.err.println("Aborting execution: " + e);
-                }
+        return localMethods;
+    }
 
-                if (null == graph) {
-                    System.out.println("Skipping " + localMethod);
-                    break;
-                }
+    /**
+     * @return true if the method was simplified, false if execution was aborted
+     */
+    private boolean executeMethod(VirtualMachine vm, LocalMethod localMethod) throws UnhandledVirtualException {
+        DexBuilder dexBuilder = vm.getClassManager().getDexBuilder();
+        byte[] summaryKey = null;
+        if (summaryStore != null && localMethod.hasImplementation()) {
+            summaryKey = methodHasher.getKey(localMethod);
+            if (replaySummary(vm, localMethod, summaryKey)) {
+                return true;
+            }
+        }
 
-                Optimizer optimizer = new Optimizer(graph, localMethod, vm, dexBuilder, opts);
-                optimizer.simplify(opts.getMaxOptimizationPasses());
-                if (optimizer.madeChanges()) {
-                    // Optimizer changed the implementation. Re-build graph to include changes.
-                    vm.updateInstructionGraph(localMethod);
-                }
-                System.out.println(optimizer.getOptimizationCounts());
+        boolean shouldReexecute = false;
+        boolean madeChanges = false;
+        ExecutionGraph lastGraph = null;
+        do {
+            System.out.println("Executing: " + localMethod);
+            ExecutionGraph graph = null;
+            try {
+                graph = vm.execute(localMethod);
+            } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded | MaxExecutionTimeExceeded e) {
+                System.err.println("Aborting execution: " + e);
+            }
+
+            if (null == graph) {
+                System.out.println("Skipping " + localMethod);
+                break;
+            }
+
+            Optimizer optimizer = new Optimizer(graph, localMethod, vm, dexBuilder, opts);
+            optimizer.simplify(opts.getMaxOptimizationPasses());
+            if (optimizer.madeChanges()) {
+                // Optimizer changed the implementation. Re-build graph to include changes.
+                vm.updateInstructionGraph(localMethod);
+                madeChanges = true;
+            }
+            System.out.println(optimizer.getOptimizationCounts());
+            lastGraph = graph;
+
+            shouldReexecute = optimizer.shouldReexecute();
+        } while (shouldReexecute);
+
+        if (summaryKey != null && lastGraph != null) {
+            if (madeChanges) {
+                methodHasher.invalidate(localMethod);
+            }
+            byte[] implementation = madeChanges ? codec.encode(localMethod) : null;
+            summaryStore.put(summaryKey, new MethodSummary(implementation));
+        }
+
+        return lastGraph != null;
+    }
+
+    private boolean reuseOriginal(VirtualMachine vm, MethodDeduplicator deduplicator, ByteBuffer key,
+                    LocalMethod localMethod) {
+        LocalMethod original = deduplicator.getOriginal(key);
+        if (original == null || !deduplicator.applyOriginal(original, localMethod)) {
+            return false;
+        }
+
+        System.out.println("Reusing " + original + " for " + localMethod);
+        vm.updateInstructionGraph(localMethod);
+        if (methodHasher != null) {
+            methodHasher.invalidate(localMethod);
+        }
+
+        return true;
+    }
+
+    private boolean replaySummary(VirtualMachine vm, LocalMethod localMethod, byte[] summaryKey) {
+        MethodSummary summary = summaryStore.get(summaryKey);
+        if (summary == null) {
+            return false;
+        }
+
+        System.out.println("Replaying: " + localMethod);
+        byte[] implementation = summary.getImplementation();
+        if (implementation != null) {
+            codec.apply(implementation, localMethod);
+            vm.updateInstructionGraph(localMethod);
+            methodHasher.invalidate(localMethod);
+        }
+
+        return true;
+    }
+
+    private static String buildSummarySalt(VirtualMachine vm, SimplifyOptions opts) {
+        // Only options which change what's found when executing and optimizing a method
+        StringBuilder sb = new StringBuilder();
+        sb.append(SUMMARY_VERSION).append(',');
+        sb.append(opts.getMaxAddressVisits()).append(',').append(opts.getMaxCallDepth()).append(',');
+        sb.append(opts.getMaxMethodVisits()).append(',').append(opts.getMaxExecutionTime()).append(',');
+        sb.append(opts.getMaxReflectionTime()).append(',').append(opts.getMaxOptimizationPasses()).append(',');
+        sb.append(opts.isRemoveWeak()).append(',').append(opts.getOutputAPILevel()).append(',');
+        // Safe, unsafe and immutable definitions, including any merged policy files
+        sb.append(vm.getConfiguration().getPolicyDigest()).append(',');
+        sb.append(buildEmulatedMethodsDigest());
+
+        return sb.toString();
+    }
 
-                shouldReexecute = optimizer.shouldReexecute();
-            } while (shouldReexecute);
+    private static String buildEmulatedMethodsDigest() {
+        Hasher hasher = Hashing.sha256().newHasher();
+        Map<String, EmulatedMethod> emulatedMethods = new TreeMap<String, EmulatedMethod>(MethodEmulator.getMethods());
+        for (Map.Entry<String, EmulatedMethod> entry : emulatedMethods.entrySet()) {
+            hasher.putString(entry.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+            hasher.putString(entry.getValue().getClass().getName(), StandardCharsets.UTF_8).putByte((byte) 0);
         }
 
-        return localMethods.size();
+        return hasher.hash().toString();
     }
 
     private static void filterMethods(Collection<LocalMethod> localMethods, Pattern positive, Pattern negative) {
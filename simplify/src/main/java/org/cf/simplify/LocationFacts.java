@@ -0,0 +1,188 @@
+package org.cf.simplify;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.cf.smalivm.context.ExecutionNode;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.opcode.APutOp;
+import org.jf.dexlib2.builder.MethodLocation;
+
+/**
+ * Registers read and assigned at each location and the edges between locations, taken from the nodes executed there.
+ * Only locations which changed since the last update are looked at again. This is what {@link RegisterLiveness} and
+ * {@link UseDefIndex} are solved over.
+ *
+ * A register is read if it was read by any node, or if it holds the same object as a register which was read. It's
+ * killed if every node assigned it, except for aput, which mutates an object instead of reassigning the register.
+ */
+class LocationFacts {
+
+    private final ExecutionGraphManipulator manipulator;
+    private final Worklist changes;
+    private final Map<MethodLocation, BitSet> locationToUsed;
+    private final Map<MethodLocation, BitSet> locationToAssigned;
+    private final Map<MethodLocation, BitSet> locationToKilled;
+    private final Map<MethodLocation, Set<MethodLocation>> locationToSuccessors;
+    private final Map<MethodLocation, Set<MethodLocation>> locationToPredecessors;
+
+    LocationFacts(ExecutionGraphManipulator manipulator, Collection<MethodLocation> locations) {
+        this.manipulator = manipulator;
+        changes = new Worklist(locations);
+        locationToUsed = new HashMap<MethodLocation, BitSet>();
+        locationToAssigned = new HashMap<MethodLocation, BitSet>();
+        locationToKilled = new HashMap<MethodLocation, BitSet>();
+        locationToSuccessors = new HashMap<MethodLocation, Set<MethodLocation>>();
+        locationToPredecessors = new HashMap<MethodLocation, Set<MethodLocation>>();
+    }
+
+    boolean contains(MethodLocation location) {
+        return locationToUsed.containsKey(location);
+    }
+
+    /**
+     * @return registers assigned by any node
+     */
+    BitSet getAssigned(MethodLocation location) {
+        return locationToAssigned.get(location);
+    }
+
+    BitSet getKilled(MethodLocation location) {
+        return locationToKilled.get(location);
+    }
+
+    @Nullable
+    MethodLocation getLocation(int address) {
+        return manipulator.getLocation(address);
+    }
+
+    Set<MethodLocation> getLocations() {
+        return locationToUsed.keySet();
+    }
+
+    Set<MethodLocation> getPredecessors(MethodLocation location) {
+        return locationToPredecessors.getOrDefault(location, Collections.emptySet());
+    }
+
+    Set<MethodLocation> getSuccessors(MethodLocation location) {
+        return locationToSuccessors.getOrDefault(location, Collections.emptySet());
+    }
+
+    BitSet getUsed(MethodLocation location) {
+        return locationToUsed.get(location);
+    }
+
+    void markChanged(MethodLocation location) {
+        changes.add(location);
+    }
+
+    /**
+     * Look at every changed location again.
+     */
+    void update() {
+        for (MethodLocation location : changes.takeLocations()) {
+            if (isInGraph(location)) {
+                updateLocation(location);
+            } else {
+                remove(location);
+            }
+        }
+    }
+
+    private boolean isInGraph(MethodLocation location) {
+        return location.getInstruction() != null && manipulator.getLocation(location.getCodeAddress()) == location;
+    }
+
+    private void remove(MethodLocation location) {
+        Set<MethodLocation> predecessors = locationToPredecessors.remove(location);
+        if (predecessors != null) {
+            for (MethodLocation predecessor : predecessors) {
+                locationToSuccessors.get(predecessor).remove(location);
+            }
+        }
+        setSuccessors(location, Collections.emptySet());
+        locationToSuccessors.remove(location);
+        locationToUsed.remove(location);
+        locationToAssigned.remove(location);
+        locationToKilled.remove(location);
+    }
+
+    private void setSuccessors(MethodLocation location, Set<MethodLocation> successors) {
+        Set<MethodLocation> oldSuccessors = locationToSuccessors.put(location, successors);
+        if (oldSuccessors != null) {
+            for (MethodLocation oldSuccessor : oldSuccessors) {
+                Set<MethodLocation> predecessors = locationToPredecessors.get(oldSuccessor);
+                if (predecessors != null) {
+                    predecessors.remove(location);
+                }
+            }
+        }
+        for (MethodLocation successor : successors) {
+            locationToPredecessors.computeIfAbsent(successor, k -> new HashSet<MethodLocation>()).add(location);
+        }
+    }
+
+    private void updateLocation(MethodLocation location) {
+        List<ExecutionNode> pile = manipulator.getNodePile(location.getCodeAddress());
+        BitSet used = new BitSet();
+        BitSet assigned = new BitSet();
+        BitSet killed = null;
+        Set<MethodLocation> successors = new HashSet<MethodLocation>();
+        for (ExecutionNode node : pile) {
+            for (ExecutionNode child : node.getChildren()) {
+                successors.add(child.getOp().getLocation());
+            }
+            if (node.getContext() == null) {
+                continue;
+            }
+
+            MethodState mState = node.getContext().getMethodState();
+            boolean hasReads = false;
+            for (int register : mState.getRegistersRead()) {
+                if (register >= 0) {
+                    used.set(register);
+                    hasReads = true;
+                }
+            }
+            if (hasReads) {
+                // Other registers may hold the same object as a read register.
+                for (int register = 0; register < mState.getRegisterCount(); register++) {
+                    if (!used.get(register) && mState.wasRegisterRead(register)) {
+                        used.set(register);
+                    }
+                }
+            }
+
+            BitSet nodeAssigned = new BitSet();
+            for (int register : mState.getRegistersAssigned()) {
+                if (register >= 0) {
+                    nodeAssigned.set(register);
+                }
+            }
+            assigned.or(nodeAssigned);
+            if (node.getOp() instanceof APutOp) {
+                nodeAssigned.clear();
+            }
+            // Only killed if killed on every path
+            if (killed == null) {
+                killed = nodeAssigned;
+            } else {
+                killed.and(nodeAssigned);
+            }
+        }
+
+        locationToUsed.put(location, used);
+        locationToAssigned.put(location, assigned);
+        locationToKilled.put(location, killed == null ? new BitSet() : killed);
+        setSuccessors(location, successors);
+    }
+
+}
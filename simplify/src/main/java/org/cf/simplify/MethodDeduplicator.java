@@ -0,0 +1,177 @@
+package org.cf.simplify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.smali.ClassManager;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+/**
+ * Finds methods which are copies of a method that's already been simplified. Methods are copies if they have the same
+ * name, prototype and implementation, ignoring only which class they're in. Simplifying a copy would make the same
+ * changes, so the simplified implementation can be reused instead.
+ *
+ * References to a method's own class, e.g. calls to its own methods or const-class of its own type, are moved to a
+ * placeholder class, so copies in each class match. Own methods which are called must also be copies. Copies using
+ * static fields of their own classes may see different values, so they're not considered copies.
+ */
+class MethodDeduplicator {
+
+    private final ImplementationCodec codec;
+    private final ClassManager classManager;
+    private final Map<ByteBuffer, LocalMethod> keyToOriginal;
+    private int methodCount;
+    private int duplicateCount;
+
+    MethodDeduplicator(ImplementationCodec codec, ClassManager classManager) {
+        this.codec = codec;
+        this.classManager = classManager;
+        keyToOriginal = new HashMap<ByteBuffer, LocalMethod>();
+    }
+
+    /**
+     * @param localMethod
+     *            method which hasn't been simplified yet
+     * @return key of the method's implementation, or null if it has no implementation
+     */
+    @Nullable
+    ByteBuffer getKey(LocalMethod localMethod) {
+        if (!localMethod.hasImplementation()) {
+            return null;
+        }
+        methodCount++;
+
+        return ByteBuffer.wrap(buildKey(localMethod, new HashSet<String>()));
+    }
+
+    /**
+     * @param key
+     * @return simplified method which had the same implementation, or null if there isn't one
+     */
+    @Nullable
+    LocalMethod getOriginal(ByteBuffer key) {
+        return keyToOriginal.get(key);
+    }
+
+    int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    int getMethodCount() {
+        return methodCount;
+    }
+
+    /**
+     * Replace the implementation of a copy with the simplified implementation of its original.
+     *
+     * @param original
+     * @param copy
+     * @return false if the original's implementation doesn't fit the copy, e.g. it needs more registers now
+     */
+    boolean applyOriginal(LocalMethod original, LocalMethod copy) {
+        try {
+            codec.apply(codec.encodeInClass(original, copy.getClassName()), copy);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        duplicateCount++;
+
+        return true;
+    }
+
+    /**
+     * @param key
+     *            key of the method before it was simplified
+     * @param localMethod
+     *            simplified method
+     */
+    void putOriginal(ByteBuffer key, LocalMethod localMethod) {
+        keyToOriginal.putIfAbsent(key, localMethod);
+    }
+
+    /**
+     * @param localMethod
+     * @param visited
+     *            signatures of methods whose keys are already part of the key being built
+     * @return implementation of the method without its own class, followed by keys of own methods it calls, or the
+     *         implementation with its own class if it can't match a copy in another class
+     */
+    private byte[] buildKey(LocalMethod localMethod, Set<String> visited) {
+        visited.add(localMethod.getSignature());
+        String className = localMethod.getClassName();
+        List<LocalMethod> callees = new LinkedList<LocalMethod>();
+        for (Instruction instruction : localMethod.getImplementation().getInstructions()) {
+            if (!(instruction instanceof ReferenceInstruction)) {
+                continue;
+            }
+
+            Reference reference = ((ReferenceInstruction) instruction).getReference();
+            if (reference instanceof FieldReference) {
+                boolean isOwnField = ((FieldReference) reference).getDefiningClass().equals(className);
+                if (isOwnField && isStaticFieldOp(instruction.getOpcode())) {
+                    return codec.encode(localMethod);
+                }
+            } else if (reference instanceof MethodReference) {
+                if (!((MethodReference) reference).getDefiningClass().equals(className)) {
+                    continue;
+                }
+
+                String signature = ReferenceUtil.getMethodDescriptor((MethodReference) reference);
+                if (visited.contains(signature)) {
+                    continue;
+                }
+                LocalMethod callee = classManager.getMethod(signature);
+                if (callee == null || !callee.hasImplementation()) {
+                    // Inherited or native, so it can't be compared
+                    return codec.encode(localMethod);
+                }
+                visited.add(signature);
+                callees.add(callee);
+            }
+        }
+
+        ByteArrayOutputStream key = new ByteArrayOutputStream();
+        try {
+            key.write(codec.encodeWithoutOwnClass(localMethod));
+            for (LocalMethod callee : callees) {
+                key.write(buildKey(callee, visited));
+            }
+        } catch (IOException e) {
+            // Only memory is written to.
+            throw new IllegalStateException(e);
+        }
+
+        return key.toByteArray();
+    }
+
+    private static boolean isStaticFieldOp(Opcode opcode) {
+        return opcode.name.startsWith("sget") || opcode.name.startsWith("sput");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Deduplicated ");
+        sb.append(duplicateCount).append(" of ").append(methodCount).append(" methods (");
+        double ratio = methodCount == 0 ? 0 : (double) duplicateCount / methodCount;
+        sb.append(String.format("%.1f", ratio * 100)).append("%)");
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,251 @@
+package org.cf.simplify;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.cf.smalivm.exception.UnknownAncestors;
+import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.smali.ClassManager;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Builds keys for method summaries and incremental runs. A key covers everything executing and optimizing a method
+ * depends on: its implementation, the implementations of every local method it may transitively call or whose class it
+ * may statically initialize, and the options.
+ *
+ * Virtual calls are followed to the referenced method and to every override of it in a non-framework class, since any
+ * of them may be what's called. Framework classes don't change between runs, so their overrides aren't looked for.
+ */
+public class MethodHasher {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private final ClassManager classManager;
+    private final ImplementationCodec codec;
+    private final byte[] salt;
+    private final Map<String, byte[]> signatureToHash;
+    private final Map<String, List<LocalMethod>> signatureToDependencies;
+    private Map<String, List<LocalMethod>> descriptorToVirtualMethods;
+
+    /**
+     * @param classManager
+     * @param codec
+     * @param salt
+     *            anything else results depend on, e.g. options
+     */
+    public MethodHasher(ClassManager classManager, ImplementationCodec codec, String salt) {
+        this.classManager = classManager;
+        this.codec = codec;
+        this.salt = salt.getBytes(StandardCharsets.UTF_8);
+        signatureToHash = new HashMap<String, byte[]>();
+        signatureToDependencies = new HashMap<String, List<LocalMethod>>();
+    }
+
+    public byte[] getKey(LocalMethod localMethod) {
+        List<byte[]> dependencyHashes = new ArrayList<byte[]>();
+        Set<String> visited = new HashSet<String>();
+        visited.add(localMethod.getSignature());
+        Deque<LocalMethod> pending = new ArrayDeque<LocalMethod>(getDependencies(localMethod));
+        while (!pending.isEmpty()) {
+            LocalMethod dependency = pending.poll();
+            if (!visited.add(dependency.getSignature())) {
+                continue;
+            }
+            dependencyHashes.add(getHash(dependency));
+            pending.addAll(getDependencies(dependency));
+        }
+        // Order depends on traversal, which shouldn't matter.
+        dependencyHashes.sort(UnsignedBytes.lexicographicalComparator());
+
+        MessageDigest digest = newDigest();
+        digest.update(salt);
+        digest.update(getHash(localMethod));
+        for (byte[] hash : dependencyHashes) {
+            digest.update(hash);
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * @param localMethods
+     *            methods of a class
+     * @return key covering every method
+     */
+    public byte[] getClassKey(Collection<LocalMethod> localMethods) {
+        List<LocalMethod> sorted = new ArrayList<LocalMethod>(localMethods);
+        sorted.sort((m1, m2) -> m1.getSignature().compareTo(m2.getSignature()));
+        MessageDigest digest = newDigest();
+        for (LocalMethod localMethod : sorted) {
+            digest.update(localMethod.getSignature().getBytes(StandardCharsets.UTF_8));
+            if (localMethod.hasImplementation()) {
+                digest.update(getKey(localMethod));
+            }
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Forget anything computed from a method's implementation, e.g. because it was changed.
+     *
+     * @param localMethod
+     */
+    public void invalidate(LocalMethod localMethod) {
+        signatureToHash.remove(localMethod.getSignature());
+        signatureToDependencies.remove(localMethod.getSignature());
+    }
+
+    private void addStaticInitializer(String className, List<LocalMethod> dependencies) {
+        addMethod(className + "-><clinit>()V", dependencies);
+    }
+
+    private void addMethod(String methodSignature, List<LocalMethod> dependencies) {
+        if (!classManager.isLocalMethod(methodSignature)) {
+            return;
+        }
+        LocalMethod localMethod = classManager.getMethod(methodSignature);
+        if (localMethod.hasImplementation()) {
+            dependencies.add(localMethod);
+        }
+    }
+
+    private List<LocalMethod> getDependencies(LocalMethod localMethod) {
+        String signature = localMethod.getSignature();
+        List<LocalMethod> dependencies = signatureToDependencies.get(signature);
+        if (dependencies != null) {
+            return dependencies;
+        }
+
+        dependencies = new ArrayList<LocalMethod>();
+        if (localMethod.hasImplementation()) {
+            for (Instruction instruction : localMethod.getImplementation().getInstructions()) {
+                if (instruction instanceof ReferenceInstruction) {
+                    Reference reference = ((ReferenceInstruction) instruction).getReference();
+                    addReference(reference, dependencies);
+                    if (isVirtualInvoke(instruction.getOpcode())) {
+                        addOverrides((MethodReference) reference, dependencies);
+                    }
+                }
+            }
+        }
+        signatureToDependencies.put(signature, dependencies);
+
+        return dependencies;
+    }
+
+    private void addReference(@Nullable Reference reference, List<LocalMethod> dependencies) {
+        if (reference instanceof MethodReference) {
+            MethodReference methodReference = (MethodReference) reference;
+            addMethod(ReferenceUtil.getMethodDescriptor(methodReference), dependencies);
+            addStaticInitializer(methodReference.getDefiningClass(), dependencies);
+        } else if (reference instanceof FieldReference) {
+            addStaticInitializer(((FieldReference) reference).getDefiningClass(), dependencies);
+        } else if (reference instanceof TypeReference) {
+            addStaticInitializer(((TypeReference) reference).getType(), dependencies);
+        }
+    }
+
+    private void addOverrides(MethodReference methodReference, List<LocalMethod> dependencies) {
+        String className = methodReference.getDefiningClass();
+        String methodSignature = ReferenceUtil.getMethodDescriptor(methodReference);
+        String methodDescriptor = methodSignature.substring(methodSignature.indexOf("->") + 2);
+        List<LocalMethod> virtualMethods = getDescriptorToVirtualMethods().get(methodDescriptor);
+        if (virtualMethods == null) {
+            return;
+        }
+        for (LocalMethod virtualMethod : virtualMethods) {
+            if (virtualMethod.getClassName().equals(className)) {
+                continue;
+            }
+            try {
+                if (!classManager.isInstance(virtualMethod.getClassName(), className)) {
+                    continue;
+                }
+            } catch (UnknownAncestors e) {
+                // May be an override, and depending on too much only costs a replay.
+            }
+            dependencies.add(virtualMethod);
+        }
+    }
+
+    private Map<String, List<LocalMethod>> getDescriptorToVirtualMethods() {
+        if (descriptorToVirtualMethods != null) {
+            return descriptorToVirtualMethods;
+        }
+
+        descriptorToVirtualMethods = new HashMap<String, List<LocalMethod>>();
+        for (String className : classManager.getNonFrameworkClassNames()) {
+            for (LocalMethod localMethod : classManager.getMethods(className)) {
+                int accessFlags = localMethod.getMethodDefinition().getAccessFlags();
+                if (localMethod.isStatic() || localMethod.isConstructor() || AccessFlags.PRIVATE.isSet(accessFlags)
+                                || !localMethod.hasImplementation()) {
+                    continue;
+                }
+                List<LocalMethod> virtualMethods = descriptorToVirtualMethods.get(localMethod.getDescriptor());
+                if (virtualMethods == null) {
+                    virtualMethods = new ArrayList<LocalMethod>();
+                    descriptorToVirtualMethods.put(localMethod.getDescriptor(), virtualMethods);
+                }
+                virtualMethods.add(localMethod);
+            }
+        }
+
+        return descriptorToVirtualMethods;
+    }
+
+    private static boolean isVirtualInvoke(Opcode opcode) {
+        switch (opcode) {
+        case INVOKE_VIRTUAL:
+        case INVOKE_VIRTUAL_RANGE:
+        case INVOKE_INTERFACE:
+        case INVOKE_INTERFACE_RANGE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private byte[] getHash(LocalMethod localMethod) {
+        String signature = localMethod.getSignature();
+        byte[] hash = signatureToHash.get(signature);
+        if (hash == null) {
+            hash = newDigest().digest(codec.encode(localMethod));
+            signatureToHash.put(signature, hash);
+        }
+
+        return hash;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has to support it.
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.cf.simplify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * What executing and optimizing a method found, which is enough to replay the result without doing it again.
+ */
+public class MethodSummary {
+
+    private final byte[] implementation;
+
+    /**
+     * @param implementation
+     *            encoded optimized implementation, or null if optimizing made no changes
+     */
+    public MethodSummary(@Nullable byte[] implementation) {
+        this.implementation = implementation;
+    }
+
+    public static MethodSummary decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] implementation = null;
+        int length = in.readInt();
+        if (length >= 0) {
+            implementation = new byte[length];
+            in.readFully(implementation);
+        }
+
+        return new MethodSummary(implementation);
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (implementation == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(implementation.length);
+                out.write(implementation);
+            }
+        } catch (IOException e) {
+            // Only memory is written to.
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return encoded optimized implementation, or null if optimizing made no changes
+     */
+    public @Nullable byte[] getImplementation() {
+        return implementation;
+    }
+
+}
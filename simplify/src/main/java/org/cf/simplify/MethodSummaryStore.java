@@ -0,0 +1,264 @@
+package org.cf.simplify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk store of method summaries keyed by {@link MethodHasher} keys, so methods which haven't changed since an
+ * earlier run can be replayed instead of executed.
+ *
+ * The file is a header followed by records. The header holds the length of the file which has been completely written.
+ * Records are only ever appended past that length, and the length is updated after the records are forced to disk,
+ * so any number of processes may read the file while another appends to it. Appending processes take an exclusive lock
+ * on the file. Readers map the committed part of the file when opened and look records up in the mapping. Since one
+ * mapping can't be larger than 2 GB, the file is mapped in chunks which each hold whole records.
+ *
+ * New summaries are kept in memory until {@link #flush()} or {@link #close()}.
+ */
+public class MethodSummaryStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodSummaryStore.class.getSimpleName());
+
+    private static final int MAGIC = 0x53534D53;
+    private static final int VERSION = 3;
+    private static final int COMMITTED_LENGTH_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final int KEY_SIZE = 32;
+    // Largest region a single mapping can cover
+    private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int maxChunkSize;
+    // Chunk index in the high int and position in the chunk in the low int
+    private final Map<ByteBuffer, Long> keyToLocation;
+    private final Map<ByteBuffer, MethodSummary> keyToPendingSummary;
+    private final List<MappedByteBuffer> chunks;
+    private long committedLength;
+    private long hitCount;
+    private long missCount;
+
+    public MethodSummaryStore(File file) throws IOException {
+        this(file, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * @param file
+     * @param maxChunkSize
+     *            most bytes of the file to map at once, since a mapping is limited to 2 GB
+     */
+    MethodSummaryStore(File file, int maxChunkSize) throws IOException {
+        this.file = file;
+        this.maxChunkSize = maxChunkSize;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        keyToLocation = new HashMap<ByteBuffer, Long>();
+        keyToPendingSummary = new LinkedHashMap<ByteBuffer, MethodSummary>();
+        chunks = new ArrayList<MappedByteBuffer>();
+        try (FileLock lock = channel.lock()) {
+            if (channel.size() == 0) {
+                writeHeader(HEADER_SIZE);
+                channel.force(true);
+            }
+        }
+        load();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        chunks.clear();
+        channel.close();
+    }
+
+    /**
+     * Append new summaries to the file.
+     */
+    public synchronized void flush() throws IOException {
+        if (keyToPendingSummary.isEmpty()) {
+            return;
+        }
+
+        try (FileLock lock = channel.lock()) {
+            // Another process may have appended since this one last looked.
+            long length = readCommittedLength();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Map.Entry<ByteBuffer, MethodSummary> entry : keyToPendingSummary.entrySet()) {
+                byte[] summary = entry.getValue().encode();
+                out.writeInt(KEY_SIZE + summary.length);
+                out.write(entry.getKey().array());
+                out.write(summary);
+            }
+            ByteBuffer records = ByteBuffer.wrap(bytes.toByteArray());
+            long position = length;
+            while (records.hasRemaining()) {
+                position += channel.write(records, position);
+            }
+            channel.force(true);
+            writeHeader(position);
+            channel.force(true);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Wrote {} summaries to {}", keyToPendingSummary.size(), file);
+        }
+        keyToPendingSummary.clear();
+        load();
+    }
+
+    public synchronized @Nullable MethodSummary get(byte[] key) {
+        ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+        MethodSummary summary = keyToPendingSummary.get(wrappedKey);
+        if (summary == null) {
+            Long location = keyToLocation.get(wrappedKey);
+            if (location != null) {
+                summary = readSummary(location);
+            }
+        }
+        if (summary == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+
+        return summary;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized void put(byte[] key, MethodSummary summary) {
+        if (key.length != KEY_SIZE) {
+            throw new IllegalArgumentException("Key must be " + KEY_SIZE + " bytes");
+        }
+        keyToPendingSummary.put(ByteBuffer.wrap(key.clone()), summary);
+    }
+
+    public synchronized int size() {
+        return keyToLocation.size() + keyToPendingSummary.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Method summary store: ");
+        sb.append(hitCount).append(" hits, ").append(missCount).append(" misses, ");
+        sb.append(size()).append(" summaries");
+
+        return sb.toString();
+    }
+
+    private void load() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException(file + " is not a method summary store of version " + VERSION);
+        }
+        committedLength = header.getLong();
+
+        // The file may be larger than a single mapping allows, so it's mapped in chunks of whole records.
+        chunks.clear();
+        keyToLocation.clear();
+        MappedByteBuffer chunk = null;
+        long chunkStart = 0;
+        long offset = HEADER_SIZE;
+        while (offset < committedLength) {
+            if (chunk == null || !containsRecord(chunk, (int) (offset - chunkStart))) {
+                chunkStart = offset;
+                chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(maxChunkSize, committedLength
+                                - offset));
+                if (!containsRecord(chunk, 0)) {
+                    throw new IOException("Record at " + offset + " in " + file + " is larger than a chunk");
+                }
+                chunks.add(chunk);
+            }
+            int position = (int) (offset - chunkStart);
+            int recordLength = chunk.getInt(position);
+            byte[] key = new byte[KEY_SIZE];
+            for (int i = 0; i < KEY_SIZE; i++) {
+                key[i] = chunk.get(position + 4 + i);
+            }
+            // Later records win, which is also what flushing the same key twice means.
+            long location = ((long) (chunks.size() - 1) << 32) | position;
+            keyToLocation.put(ByteBuffer.wrap(key), location);
+            offset += 4 + recordLength;
+        }
+    }
+
+    private static boolean containsRecord(ByteBuffer chunk, int position) {
+        if (chunk.limit() - position < 4) {
+            return false;
+        }
+
+        return chunk.limit() - position - 4 >= chunk.getInt(position);
+    }
+
+    private long readCommittedLength() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        readFully(buffer, COMMITTED_LENGTH_OFFSET);
+        buffer.flip();
+
+        return buffer.getLong();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+    }
+
+    private @Nullable MethodSummary readSummary(long location) {
+        MappedByteBuffer chunk = chunks.get((int) (location >>> 32));
+        int position = (int) location;
+        int length = chunk.getInt(position) - KEY_SIZE;
+        byte[] data = new byte[length];
+        ByteBuffer record = chunk.duplicate();
+        record.position(position + 4 + KEY_SIZE);
+        record.get(data);
+        try {
+            return MethodSummary.decode(data);
+        } catch (IOException | RuntimeException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Ignoring unreadable method summary in " + file, e);
+            }
+
+            return null;
+        }
+    }
+
+    private void writeHeader(long length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(length);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+}
@@ -21,16 +21,15 @@ import org.slf4j.LoggerFactory;
 
 public class Optimizer {
 
-    @SuppressWarnings("unused")
     private static final Logger log = LoggerFactory.getLogger(Optimizer.class.getSimpleName());
 
     private static final Map<String, Integer> totalOptimizationCounts = new HashMap<String, Integer>();
 
     private final ExecutionGraphManipulator manipulator;
     private final LocalMethod localMethod;
-    private final List<OptimizationStrategy> reoptimizeStrategies;
-    private final List<OptimizationStrategy> reexecuteStrategies;
-    private final List<OptimizationStrategy> allStrategies;
+    private final List<OptimizationStrategy<?>> reoptimizeStrategies;
+    private final List<OptimizationStrategy<?>> reexecuteStrategies;
+    private final List<OptimizationStrategy<?>> allStrategies;
 
     private boolean madeAnyChanges;
     private boolean shouldReexecute;
@@ -41,7 +40,7 @@ public class Optimizer {
         manipulator = new ExecutionGraphManipulator(graph, localMethod, vm, dexBuilder);
         this.localMethod = localMethod;
 
-        reoptimizeStrategies = new LinkedList<OptimizationStrategy>();
+        reoptimizeStrategies = new LinkedList<OptimizationStrategy<?>>();
         DeadRemovalStrategy strategy = new DeadRemovalStrategy(manipulator);
         strategy.setRemoveWeak(opts.isRemoveWeak());
         reoptimizeStrategies.add(strategy);
@@ -51,12 +50,13 @@ public class Optimizer {
         /*
          * Some strategies may alter semantics. It's possible to remove method reflection without knowing the
          * result of the reflected method call. This leaves method states in a weird way, i.e. move-result has unknown
-         * values. In these cases, re-execute the method to re-establish semantics.
+         * values. In these cases, everything after the changes is re-executed to re-establish semantics. If that's
+         * aborted, the whole method is executed again.
          */
-        reexecuteStrategies = new LinkedList<OptimizationStrategy>();
+        reexecuteStrategies = new LinkedList<OptimizationStrategy<?>>();
         reexecuteStrategies.add(new UnreflectionStrategy(manipulator));
 
-        allStrategies = new LinkedList<OptimizationStrategy>();
+        allStrategies = new LinkedList<OptimizationStrategy<?>>();
         allStrategies.addAll(reoptimizeStrategies);
         allStrategies.addAll(reexecuteStrategies);
 
@@ -86,22 +86,26 @@ public class Optimizer {
         boolean madeChange;
         do {
             madeChange = false;
-            for (OptimizationStrategy strategy : reoptimizeStrategies) {
+            for (OptimizationStrategy<?> strategy : reoptimizeStrategies) {
                 madeChange |= strategy.perform();
             }
-            for (OptimizationStrategy strategy : reexecuteStrategies) {
-                shouldReexecute |= strategy.perform();
+            for (OptimizationStrategy<?> strategy : reexecuteStrategies) {
+                madeChange |= strategy.perform();
             }
 
-            madeAnyChanges |= madeChange | shouldReexecute;
+            madeAnyChanges |= madeChange;
             pass++;
-        } while (madeChange && pass < maxPasses);
+        } while (madeChange && pass < maxPasses && !manipulator.needsExecution());
+        shouldReexecute = manipulator.needsExecution();
 
+        if (log.isDebugEnabled()) {
+            log.debug("Examined {} addresses in {} passes", manipulator.getExaminedAddressCount(), pass);
+        }
         updateOptimizationCounts();
     }
 
     private void updateOptimizationCounts() {
-        for (OptimizationStrategy strategy : allStrategies) {
+        for (OptimizationStrategy<?> strategy : allStrategies) {
             Map<String, Integer> optimizations = strategy.getOptimizationCounts();
             for (Entry<String, Integer> entry : optimizations.entrySet()) {
                 String key = entry.getKey();
@@ -0,0 +1,122 @@
+package org.cf.simplify;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jf.dexlib2.builder.MethodLocation;
+
+/**
+ * Backward register liveness over the paths taken during execution. A register is live after an address if some path
+ * from there reads it before assigning it.
+ *
+ * Only changed locations are looked at again, but everything which can reach a changed location is solved again since
+ * liveness may shrink.
+ */
+public class RegisterLiveness {
+
+    private final LocationFacts facts;
+    private final Worklist changes;
+    private final Map<MethodLocation, BitSet> locationToLiveIn;
+
+    RegisterLiveness(LocationFacts facts, Collection<MethodLocation> locations) {
+        this.facts = facts;
+        changes = new Worklist(locations);
+        locationToLiveIn = new HashMap<MethodLocation, BitSet>();
+    }
+
+    /**
+     * @param address
+     * @return registers which may be read after the op at the address before being assigned
+     */
+    public BitSet getLiveAfter(int address) {
+        update();
+
+        return getLiveOut(facts.getLocation(address));
+    }
+
+    /**
+     * @param address
+     * @param registers
+     * @return true if any of the registers may be read after the op at the address before being assigned
+     */
+    public boolean isAnyLiveAfter(int address, Set<Integer> registers) {
+        BitSet live = getLiveAfter(address);
+        for (int register : registers) {
+            if (live.get(register)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    void markChanged(MethodLocation location) {
+        changes.add(location);
+    }
+
+    private BitSet getLiveOut(MethodLocation location) {
+        BitSet liveOut = new BitSet();
+        for (MethodLocation successor : facts.getSuccessors(location)) {
+            BitSet liveIn = locationToLiveIn.get(successor);
+            if (liveIn != null) {
+                liveOut.or(liveIn);
+            }
+        }
+
+        return liveOut;
+    }
+
+    private void solve(Set<MethodLocation> affected) {
+        for (MethodLocation location : affected) {
+            locationToLiveIn.put(location, new BitSet());
+        }
+
+        Deque<MethodLocation> pending = new ArrayDeque<MethodLocation>(affected);
+        while (!pending.isEmpty()) {
+            MethodLocation location = pending.poll();
+            BitSet liveIn = getLiveOut(location);
+            liveIn.andNot(facts.getKilled(location));
+            liveIn.or(facts.getUsed(location));
+            if (liveIn.equals(locationToLiveIn.get(location))) {
+                continue;
+            }
+
+            locationToLiveIn.put(location, liveIn);
+            pending.addAll(facts.getPredecessors(location));
+        }
+    }
+
+    private void update() {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        facts.update();
+        Deque<MethodLocation> stack = new ArrayDeque<MethodLocation>();
+        for (MethodLocation location : changes.takeLocations()) {
+            if (facts.contains(location)) {
+                stack.push(location);
+            } else {
+                // Predecessors are changed too since their children changed.
+                locationToLiveIn.remove(location);
+            }
+        }
+
+        // Anything which can reach a change may have had a register live only because of it.
+        Set<MethodLocation> affected = new HashSet<MethodLocation>();
+        while (!stack.isEmpty()) {
+            MethodLocation location = stack.pop();
+            if (facts.contains(location) && affected.add(location)) {
+                stack.addAll(facts.getPredecessors(location));
+            }
+        }
+        solve(affected);
+    }
+
+}
@@ -4,9 +4,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
 
+import org.cf.smalivm.ReflectionSandbox;
 import org.cf.smalivm.smali.Dexifier;
 
 public class SimplifyOptions implements Serializable {
@@ -28,11 +31,16 @@ public class SimplifyOptions implements Serializable {
     private int maxExecutionTime = 5 * 60;
     private int maxMethodVisits = 1_000_000;
     private int maxOptimizationPasses = 100;
+    private int maxReflectionTime = ReflectionSandbox.DEFAULT_MAX_REFLECTION_TIME;
     private File outDexFile;
     private File outFile;
     private int outputAPILevel = Dexifier.DEFAULT_API_LEVEL;
+    private final List<File> policyFiles = new ArrayList<File>();
     private boolean quiet;
     private boolean removeWeak = true;
+    private File incrementalStateDirectory;
+    private File summaryStoreFile;
+    private int staticInitThreads = Runtime.getRuntime().availableProcessors();
     private int verbosity = 0;
 
     private InputType determineInputType() throws IOException {
@@ -89,6 +97,26 @@ public class SimplifyOptions implements Serializable {
         this.maxExecutionTime = maxExecutionTime;
     }
 
+    protected void setMaxReflectionTime(int maxReflectionTime) {
+        this.maxReflectionTime = maxReflectionTime;
+    }
+
+    protected void setIncrementalStateDirectory(File incrementalStateDirectory) {
+        this.incrementalStateDirectory = incrementalStateDirectory;
+    }
+
+    protected void setSummaryStoreFile(File summaryStoreFile) {
+        this.summaryStoreFile = summaryStoreFile;
+    }
+
+    protected void addPolicyFile(File policyFile) {
+        policyFiles.add(policyFile);
+    }
+
+    protected void setStaticInitThreads(int staticInitThreads) {
+        this.staticInitThreads = staticInitThreads;
+    }
+
     protected void setMaxMethodVisits(int maxMethodVisits) {
         this.maxMethodVisits = maxMethodVisits;
     }
@@ -156,6 +184,26 @@ public class SimplifyOptions implements Serializable {
         return maxExecutionTime;
     }
 
+    public int getMaxReflectionTime() {
+        return maxReflectionTime;
+    }
+
+    public File getIncrementalStateDirectory() {
+        return incrementalStateDirectory;
+    }
+
+    public File getSummaryStoreFile() {
+        return summaryStoreFile;
+    }
+
+    public List<File> getPolicyFiles() {
+        return policyFiles;
+    }
+
+    public int getStaticInitThreads() {
+        return staticInitThreads;
+    }
+
     public int getMaxMethodVisits() {
         return maxMethodVisits;
     }
@@ -216,6 +264,11 @@ public class SimplifyOptions implements Serializable {
         sb.append("Include filter: ").append(getIncludeFilter()).append('\n');
         sb.append("Exclude filter: ").append(getExcludeFilter()).append('\n');
         sb.append("Max execution time: ").append(getMaxExecutionTime()).append('\n');
+        sb.append("Max reflection time: ").append(getMaxReflectionTime()).append('\n');
+        sb.append("Incremental state: ").append(getIncrementalStateDirectory()).append('\n');
+        sb.append("Summary store: ").append(getSummaryStoreFile()).append('\n');
+        sb.append("Policy files: ").append(getPolicyFiles()).append('\n');
+        sb.append("Static init threads: ").append(getStaticInitThreads()).append('\n');
         sb.append("Max address visits: ").append(getMaxAddressVisits()).append('\n');
         sb.append("Max call depth: ").append(getMaxCallDepth()).append('\n');
         sb.append("Max method visits: ").append(getMaxMethodVisits()).append('\n');
@@ -48,6 +48,21 @@ public class SimplifyOptionsParser {
             case "max-execution-time":
                 simplifyOpts.setMaxExecutionTime(Integer.parseInt(val));
                 break;
+            case "max-reflection-time":
+                simplifyOpts.setMaxReflectionTime(Integer.parseInt(val));
+                break;
+            case "incremental":
+                simplifyOpts.setIncrementalStateDirectory(new File(val));
+                break;
+            case "summary-store":
+                simplifyOpts.setSummaryStoreFile(new File(val));
+                break;
+            case "policy":
+                simplifyOpts.addPolicyFile(new File(val));
+                break;
+            case "static-init-threads":
+                simplifyOpts.setStaticInitThreads(Integer.parseInt(val));
+                break;
             case "max-address-visits":
                 simplifyOpts.setMaxAddressVisits(Integer.parseInt(val));
                 break;
@@ -138,6 +153,46 @@ public class SimplifyOptionsParser {
                         .desc("Give up executing a method after N seconds, default: " + simplifyOpts
                                         .getMaxExecutionTime()).build();
 
+        Option maxReflectionTimeOption = Option
+                        .builder()
+                        .longOpt("max-reflection-time")
+                        .hasArg()
+                        .argName("N")
+                        .desc("Give up reflecting a method call after N milliseconds and never reflect that method again, 0 for no limit, default: "
+                                        + simplifyOpts.getMaxReflectionTime()).build();
+
+        Option incrementalOption = Option
+                        .builder()
+                        .longOpt("incremental")
+                        .hasArg()
+                        .argName("dir")
+                        .desc("Reuse optimized classes from the last run with state in DIR if neither they nor anything they depend on changed, implies --summary-store DIR/method-summaries")
+                        .build();
+
+        Option summaryStoreOption = Option
+                        .builder()
+                        .longOpt("summary-store")
+                        .hasArg()
+                        .argName("file")
+                        .desc("Replay methods which are unchanged since an earlier run from summaries in FILE, and add summaries of other methods to it")
+                        .build();
+
+        Option policyOption = Option
+                        .builder()
+                        .longOpt("policy")
+                        .hasArg()
+                        .argName("file")
+                        .desc("Add definitions from FILE to the built in policy it's named after, i.e. immutable_classes.cfg, nondeterministic_methods.cfg, safe_classes.cfg, safe_methods.cfg, or unsafe_methods.cfg, may be given more than once")
+                        .build();
+
+        Option staticInitThreadsOption = Option
+                        .builder()
+                        .longOpt("static-init-threads")
+                        .hasArg()
+                        .argName("N")
+                        .desc("Execute static initializers of independent classes on N threads before anything else, 0 to disable, default: "
+                                        + simplifyOpts.getStaticInitThreads()).build();
+
         Option maxAddressVisitsOption = Option
                         .builder()
                         .longOpt("max-address-visits")
@@ -210,6 +265,11 @@ public class SimplifyOptionsParser {
         options.addOption(includeTypesOption);
         options.addOption(excludeTypesOption);
         options.addOption(maxExecutionTimeOption);
+        options.addOption(maxReflectionTimeOption);
+        options.addOption(policyOption);
+        options.addOption(staticInitThreadsOption);
+        options.addOption(summaryStoreOption);
+        options.addOption(incrementalOption);
         options.addOption(maxAddressVisitsOption);
         options.addOption(maxCallDepthOption);
         options.addOption(maxMethodVisitsOption);
@@ -0,0 +1,255 @@
+package org.cf.simplify;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jf.dexlib2.builder.MethodLocation;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * Use-def and def-use chains over the paths taken during execution. A definition is a location assigning a register,
+ * and it's used by every location which may read the register before it's assigned again.
+ *
+ * Chains are solved as reaching definitions. Only changed locations are looked at again, but everything a changed
+ * location can reach is solved again.
+ */
+public class UseDefIndex {
+
+    private final LocationFacts facts;
+    private final Worklist changes;
+    // Definitions are numbered so sets of them can be bit sets. Numbers of changed locations aren't reused.
+    private final List<MethodLocation> definitionLocations;
+    private final TIntIntMap definitionToRegister;
+    private final Map<MethodLocation, TIntIntMap> locationToRegisterDefinition;
+    private final TIntObjectMap<BitSet> registerToDefinitions;
+    private final Map<MethodLocation, BitSet> locationToReachingIn;
+    private TIntObjectMap<Set<MethodLocation>> definitionToUses;
+
+    UseDefIndex(LocationFacts facts, Collection<MethodLocation> locations) {
+        this.facts = facts;
+        changes = new Worklist(locations);
+        definitionLocations = new ArrayList<MethodLocation>();
+        definitionToRegister = new TIntIntHashMap();
+        locationToRegisterDefinition = new HashMap<MethodLocation, TIntIntMap>();
+        registerToDefinitions = new TIntObjectHashMap<BitSet>();
+        locationToReachingIn = new HashMap<MethodLocation, BitSet>();
+    }
+
+    /**
+     * @param address
+     * @param register
+     * @return addresses of every op whose assignment of the register may be read by the op at the address
+     */
+    public int[] getDefinitionAddresses(int address, int register) {
+        update();
+        MethodLocation location = facts.getLocation(address);
+        BitSet reaching = (BitSet) locationToReachingIn.get(location).clone();
+        reaching.and(getRegisterDefinitions(register));
+        List<Integer> addresses = new ArrayList<Integer>();
+        for (int definition = reaching.nextSetBit(0); definition >= 0; definition = reaching.nextSetBit(definition + 1)) {
+            addresses.add(definitionLocations.get(definition).getCodeAddress());
+        }
+
+        return Ints.toArray(addresses);
+    }
+
+    /**
+     * @param address
+     * @param register
+     * @return addresses of every op which may read the register as assigned by the op at the address
+     */
+    public int[] getUseAddresses(int address, int register) {
+        Set<MethodLocation> uses = getUses(facts.getLocation(address), register);
+        int[] addresses = new int[uses.size()];
+        int i = 0;
+        for (MethodLocation use : uses) {
+            addresses[i++] = use.getCodeAddress();
+        }
+
+        return addresses;
+    }
+
+    /**
+     * @param address
+     * @param registers
+     * @return true if any of the registers, as assigned by the op at the address, may be read
+     */
+    public boolean isAnyUsed(int address, Set<Integer> registers) {
+        MethodLocation location = facts.getLocation(address);
+        for (int register : registers) {
+            if (!getUses(location, register).isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    void markChanged(MethodLocation location) {
+        changes.add(location);
+    }
+
+    /**
+     * Solve every pending change now. Until something else changes, queries only read the index, so they may be made
+     * from many threads at once.
+     */
+    public void prepare() {
+        update();
+        if (definitionToUses == null) {
+            definitionToUses = buildDefinitionToUses();
+        }
+    }
+
+    private BitSet getRegisterDefinitions(int register) {
+        BitSet definitions = registerToDefinitions.get(register);
+        if (definitions == null) {
+            definitions = new BitSet();
+            registerToDefinitions.put(register, definitions);
+        }
+
+        return definitions;
+    }
+
+    private Set<MethodLocation> getUses(MethodLocation location, int register) {
+        prepare();
+        TIntIntMap registerToDefinition = locationToRegisterDefinition.get(location);
+        if (registerToDefinition == null || !registerToDefinition.containsKey(register)) {
+            return new HashSet<MethodLocation>();
+        }
+        Set<MethodLocation> uses = definitionToUses.get(registerToDefinition.get(register));
+
+        return uses != null ? uses : new HashSet<MethodLocation>();
+    }
+
+    private TIntObjectMap<Set<MethodLocation>> buildDefinitionToUses() {
+        TIntObjectMap<Set<MethodLocation>> definitionToUses = new TIntObjectHashMap<Set<MethodLocation>>();
+        for (MethodLocation location : facts.getLocations()) {
+            BitSet used = facts.getUsed(location);
+            BitSet reaching = locationToReachingIn.get(location);
+            for (int register = used.nextSetBit(0); register >= 0; register = used.nextSetBit(register + 1)) {
+                BitSet definitions = (BitSet) reaching.clone();
+                definitions.and(getRegisterDefinitions(register));
+                for (int definition = definitions.nextSetBit(0); definition >= 0; definition = definitions
+                                .nextSetBit(definition + 1)) {
+                    Set<MethodLocation> uses = definitionToUses.get(definition);
+                    if (uses == null) {
+                        uses = new HashSet<MethodLocation>();
+                        definitionToUses.put(definition, uses);
+                    }
+                    uses.add(location);
+                }
+            }
+        }
+
+        return definitionToUses;
+    }
+
+    private BitSet getReachingOut(MethodLocation location) {
+        BitSet reaching = (BitSet) locationToReachingIn.get(location).clone();
+        BitSet killed = facts.getKilled(location);
+        for (int register = killed.nextSetBit(0); register >= 0; register = killed.nextSetBit(register + 1)) {
+            reaching.andNot(getRegisterDefinitions(register));
+        }
+        TIntIntMap registerToDefinition = locationToRegisterDefinition.get(location);
+        for (int definition : registerToDefinition.values()) {
+            reaching.set(definition);
+        }
+
+        return reaching;
+    }
+
+    private void removeDefinitions(MethodLocation location) {
+        TIntIntMap registerToDefinition = locationToRegisterDefinition.remove(location);
+        if (registerToDefinition == null) {
+            return;
+        }
+        for (int definition : registerToDefinition.values()) {
+            getRegisterDefinitions(definitionToRegister.remove(definition)).clear(definition);
+            definitionLocations.set(definition, null);
+        }
+    }
+
+    private void solve(Set<MethodLocation> affected) {
+        for (MethodLocation location : affected) {
+            locationToReachingIn.put(location, new BitSet());
+        }
+        // Definitions reaching a change from above come from predecessors which weren't affected.
+        for (MethodLocation location : affected) {
+            BitSet reachingIn = locationToReachingIn.get(location);
+            for (MethodLocation predecessor : facts.getPredecessors(location)) {
+                if (!affected.contains(predecessor) && locationToReachingIn.containsKey(predecessor)) {
+                    reachingIn.or(getReachingOut(predecessor));
+                }
+            }
+        }
+
+        Deque<MethodLocation> pending = new ArrayDeque<MethodLocation>(affected);
+        while (!pending.isEmpty()) {
+            MethodLocation location = pending.poll();
+            BitSet reachingOut = getReachingOut(location);
+            for (MethodLocation successor : facts.getSuccessors(location)) {
+                BitSet reachingIn = locationToReachingIn.get(successor);
+                int cardinality = reachingIn.cardinality();
+                reachingIn.or(reachingOut);
+                if (reachingIn.cardinality() != cardinality) {
+                    pending.add(successor);
+                }
+            }
+        }
+    }
+
+    private void update() {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        facts.update();
+        definitionToUses = null;
+        Deque<MethodLocation> stack = new ArrayDeque<MethodLocation>();
+        for (MethodLocation location : changes.takeLocations()) {
+            removeDefinitions(location);
+            if (facts.contains(location)) {
+                TIntIntMap registerToDefinition = new TIntIntHashMap();
+                BitSet assigned = facts.getAssigned(location);
+                for (int register = assigned.nextSetBit(0); register >= 0; register = assigned
+                                .nextSetBit(register + 1)) {
+                    int definition = definitionLocations.size();
+                    definitionLocations.add(location);
+                    definitionToRegister.put(definition, register);
+                    getRegisterDefinitions(register).set(definition);
+                    registerToDefinition.put(register, definition);
+                }
+                locationToRegisterDefinition.put(location, registerToDefinition);
+                stack.push(location);
+            } else {
+                // Successors are changed too since they were reparented.
+                locationToReachingIn.remove(location);
+            }
+        }
+
+        // Anything a change can reach may have been reached by a definition only because of it.
+        Set<MethodLocation> affected = new HashSet<MethodLocation>();
+        while (!stack.isEmpty()) {
+            MethodLocation location = stack.pop();
+            if (facts.contains(location) && affected.add(location)) {
+                stack.addAll(facts.getSuccessors(location));
+            }
+        }
+        solve(affected);
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.cf.simplify;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jf.dexlib2.builder.MethodLocation;
+
+/**
+ * Locations a strategy needs to look at again. A new worklist has every location of the graph. After that,
+ * {@link ExecutionGraphManipulator} adds locations whose op, node states, neighbors or consumers change, so a strategy
+ * only has to re-examine what an edit could have affected.
+ *
+ * Locations are kept instead of addresses since addresses move with every edit.
+ */
+public class Worklist {
+
+    private final Set<MethodLocation> locations;
+    private long takenCount;
+
+    public Worklist(Collection<MethodLocation> locations) {
+        this.locations = new HashSet<MethodLocation>(locations);
+        takenCount = 0;
+    }
+
+    public boolean isEmpty() {
+        return locations.isEmpty();
+    }
+
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * @return how many addresses have been taken, i.e. roughly how many times a strategy examined an address
+     */
+    public long getTakenCount() {
+        return takenCount;
+    }
+
+    /**
+     * Take every address which needs to be examined again and empty the worklist. Locations which have since been
+     * removed from the implementation are dropped.
+     *
+     * @return addresses to examine
+     */
+    public Set<Integer> takeAddresses() {
+        Set<Integer> addresses = new HashSet<Integer>();
+        for (MethodLocation location : takeLocations()) {
+            if (location.getInstruction() != null) {
+                addresses.add(location.getCodeAddress());
+            }
+        }
+        takenCount += addresses.size();
+
+        return addresses;
+    }
+
+    /**
+     * Take every location, including any which have since been removed, and empty the worklist.
+     *
+     * @return locations to examine
+     */
+    Set<MethodLocation> takeLocations() {
+        Set<MethodLocation> taken = new HashSet<MethodLocation>(locations);
+        locations.clear();
+
+        return taken;
+    }
+
+    void add(MethodLocation location) {
+        locations.add(location);
+    }
+
+    void addAll(Collection<MethodLocation> locations) {
+        this.locations.addAll(locations);
+    }
+
+}
@@ -2,14 +2,21 @@ package org.cf.simplify.strategy;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.cf.simplify.ConstantBuilder;
 import org.cf.simplify.Dependancy;
 import org.cf.simplify.ExecutionGraphManipulator;
+import org.cf.simplify.UseDefIndex;
+import org.cf.simplify.Worklist;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.opcode.Op;
 import org.jf.dexlib2.builder.BuilderInstruction;
@@ -17,12 +24,15 @@ import org.jf.dexlib2.iface.instruction.OneRegisterInstruction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ConstantPropigationStrategy implements OptimizationStrategy {
+import com.google.common.primitives.Ints;
+
+public class ConstantPropigationStrategy implements OptimizationStrategy<SortedMap<Integer, BuilderInstruction>> {
 
     @SuppressWarnings("unused")
     private static final Logger log = LoggerFactory.getLogger(ConstantPropigationStrategy.class.getSimpleName());
 
     private final ExecutionGraphManipulator manipulator;
+    private final Worklist worklist;
     private int constantCount;
     private boolean madeChanges;
 
@@ -31,6 +41,7 @@ public class ConstantPropigationStrategy implements OptimizationStrategy {
     public ConstantPropigationStrategy(ExecutionGraphManipulator manipulator) {
         getDependancies();
         this.manipulator = manipulator;
+        worklist = manipulator.newWorklist();
         constantCount = 0;
     }
 
@@ -42,16 +53,32 @@ public class ConstantPropigationStrategy implements OptimizationStrategy {
         return counts;
     }
 
+    /**
+     * Consensus queries may copy values from ancestor nodes into the queried node, so this isn't split over threads.
+     */
     @Override
-    public boolean perform() {
+    public SortedMap<Integer, BuilderInstruction> analyze() {
+        // Last address first so replacing one doesn't move the rest
+        SortedMap<Integer, BuilderInstruction> addressToConstant = new TreeMap<Integer, BuilderInstruction>(
+                        Collections.reverseOrder());
+        for (int address : getValidAddresses()) {
+            addressToConstant.put(address, ConstantBuilder.buildConstant(address, manipulator));
+        }
+
+        return addressToConstant;
+    }
+
+    @Override
+    public boolean apply(SortedMap<Integer, BuilderInstruction> addressToConstant) {
         madeChanges = false;
 
-        List<Integer> addresses = getValidAddresses();
-        Collections.sort(addresses, Collections.reverseOrder());
-        for (int address : addresses) {
+        // Constants are built from the same execution, so nothing needs to be re-executed until every one is in place.
+        manipulator.beginTransaction();
+        for (Entry<Integer, BuilderInstruction> entry : addressToConstant.entrySet()) {
             madeChanges = true;
+            int address = entry.getKey();
             BuilderInstruction original = manipulator.getInstruction(address);
-            BuilderInstruction constInstruction = ConstantBuilder.buildConstant(address, manipulator);
+            BuilderInstruction constInstruction = entry.getValue();
             boolean isReturn = original.getOpcode().name().startsWith("RETURN");
             if (isReturn) {
                 manipulator.addInstruction(address, constInstruction);
@@ -60,6 +87,7 @@ public class ConstantPropigationStrategy implements OptimizationStrategy {
             }
             constantCount++;
         }
+        manipulator.commitTransaction();
 
         return madeChanges;
     }
@@ -104,8 +132,20 @@ public class ConstantPropigationStrategy implements OptimizationStrategy {
     }
 
     private List<Integer> getValidAddresses() {
-        return IntStream.of(manipulator.getAddresses()).boxed().filter(a -> canConstantizeAddress(a))
-                        .collect(Collectors.toList());
+        Set<Integer> changedAddresses = worklist.takeAddresses();
+        // Whatever reads a changed assignment may now read a constant, so ask the index who reads it.
+        UseDefIndex useDefs = manipulator.getUseDefs();
+        Set<Integer> addresses = new HashSet<Integer>(changedAddresses);
+        for (int address : changedAddresses) {
+            BuilderInstruction instruction = manipulator.getInstruction(address);
+            if (instruction instanceof OneRegisterInstruction) {
+                int register = ((OneRegisterInstruction) instruction).getRegisterA();
+                addresses.addAll(Ints.asList(useDefs.getUseAddresses(address, register)));
+            }
+        }
+
+        return IntStream.of(manipulator.getAddresses()).boxed().filter(a -> addresses.contains(a))
+                        .filter(a -> canConstantizeAddress(a)).collect(Collectors.toList());
     }
 
 }
@@ -7,15 +7,17 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.cf.simplify.ExecutionGraphManipulator;
+import org.cf.simplify.Worklist;
 import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.MethodState;
-import org.cf.smalivm.opcode.APutOp;
 import org.cf.smalivm.opcode.GotoOp;
 import org.cf.smalivm.opcode.InvokeOp;
 import org.cf.smalivm.opcode.NopOp;
@@ -28,11 +30,37 @@ import org.jf.dexlib2.iface.instruction.OffsetInstruction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DeadRemovalStrategy implements OptimizationStrategy {
+public class DeadRemovalStrategy implements OptimizationStrategy<DeadRemovalStrategy.Removals> {
 
     private static final Logger log = LoggerFactory.getLogger(DeadRemovalStrategy.class.getSimpleName());
 
+    // Smaller methods aren't worth the overhead of splitting the analysis
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    /**
+     * Addresses to remove, grouped by why they're dead. Each group is in address order.
+     */
+    public static class Removals {
+
+        private final List<Integer> dead;
+        private final List<Integer> deadAssignments;
+        private final List<Integer> deadResults;
+        private final List<Integer> uselessBranches;
+        private final List<Integer> nops;
+
+        Removals(List<Integer> dead, List<Integer> deadAssignments, List<Integer> deadResults,
+                        List<Integer> uselessBranches, List<Integer> nops) {
+            this.dead = dead;
+            this.deadAssignments = deadAssignments;
+            this.deadResults = deadResults;
+            this.uselessBranches = uselessBranches;
+            this.nops = nops;
+        }
+
+    }
+
     private final ExecutionGraphManipulator manipulator;
+    private final Worklist worklist;
     private List<Integer> addresses;
     private int unusedAssignmentCount;
     private int uselessBranchCount;
@@ -40,9 +68,11 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
     private int nopCount;
     private int unusedResultCount;
     private SideEffect.Level sideEffectThreshold = SideEffect.Level.NONE;
+    private int parallelThreshold = PARALLEL_THRESHOLD;
 
     public DeadRemovalStrategy(ExecutionGraphManipulator manipulator) {
         this.manipulator = manipulator;
+        worklist = manipulator.newWorklist();
         addresses = getValidAddresses(manipulator);
         unusedAssignmentCount = 0;
         uselessBranchCount = 0;
@@ -64,31 +94,32 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
     }
 
     @Override
-    public boolean perform() {
+    public Removals analyze() {
         // Updated addresses each time because they change outside of this method.
         addresses = getValidAddresses(manipulator);
+        // Nothing else could have become dead since last time.
+        addresses.retainAll(worklist.takeAddresses());
+        // Solved here so the tests below only read the graph and can run in parallel.
+        manipulator.getUseDefs().prepare();
 
-        Set<Integer> removeSet = new HashSet<Integer>();
-        List<Integer> removeAddresses;
-        removeAddresses = getDeadAddresses();
-        unvisitedCount += removeAddresses.size();
-        removeSet.addAll(removeAddresses);
-
-        removeAddresses = getDeadAssignmentAddresses();
-        unusedAssignmentCount += removeAddresses.size();
-        removeSet.addAll(removeAddresses);
-
-        removeAddresses = getDeadResultAddresses();
-        unusedResultCount += removeAddresses.size();
-        removeSet.addAll(removeAddresses);
+        return new Removals(getDeadAddresses(), getDeadAssignmentAddresses(), getDeadResultAddresses(),
+                        getUselessBranchAddresses(), getNopAddresses());
+    }
 
-        removeAddresses = getUselessBranchAddresses();
-        uselessBranchCount += removeAddresses.size();
-        removeSet.addAll(removeAddresses);
+    @Override
+    public boolean apply(Removals removals) {
+        unvisitedCount += removals.dead.size();
+        unusedAssignmentCount += removals.deadAssignments.size();
+        unusedResultCount += removals.deadResults.size();
+        uselessBranchCount += removals.uselessBranches.size();
+        nopCount += removals.nops.size();
 
-        removeAddresses = getNopAddresses();
-        nopCount += removeAddresses.size();
-        removeSet.addAll(removeAddresses);
+        Set<Integer> removeSet = new HashSet<Integer>();
+        removeSet.addAll(removals.dead);
+        removeSet.addAll(removals.deadAssignments);
+        removeSet.addAll(removals.deadResults);
+        removeSet.addAll(removals.uselessBranches);
+        removeSet.addAll(removals.nops);
 
         List<Integer> deadAddresses = new LinkedList<Integer>(removeSet);
         if (deadAddresses.size() > 0) {
@@ -98,6 +129,10 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         return !removeSet.isEmpty();
     }
 
+    void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
     public void setRemoveWeak(boolean removeWeak) {
         if (removeWeak) {
             sideEffectThreshold = SideEffect.Level.WEAK;
@@ -105,27 +140,27 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
     }
 
     List<Integer> getDeadAddresses() {
-        return addresses.stream().filter(a -> isDead(a)).collect(Collectors.toList());
+        return filterAddresses(a -> isDead(a));
     }
 
     List<Integer> getDeadAssignmentAddresses() {
-        return addresses.stream().filter(a -> isDeadAssignment(a)).collect(Collectors.toList());
+        return filterAddresses(a -> isDeadAssignment(a));
     }
 
     List<Integer> getDeadResultAddresses() {
-        return addresses.stream().filter(a -> isDeadResult(a)).collect(Collectors.toList());
+        return filterAddresses(a -> isDeadResult(a));
     }
 
     List<Integer> getImpotentMethodInvocations() {
-        return addresses.stream().filter(a -> isImpotentMethodInvocation(a)).collect(Collectors.toList());
+        return filterAddresses(a -> isImpotentMethodInvocation(a));
     }
 
     List<Integer> getNopAddresses() {
-        return addresses.stream().filter(a -> isNop(a)).collect(Collectors.toList());
+        return filterAddresses(a -> isNop(a));
     }
 
     List<Integer> getUselessBranchAddresses() {
-        return addresses.stream().filter(a -> isUselessBranch(a)).collect(Collectors.toList());
+        return filterAddresses(a -> isUselessBranch(a));
     }
 
     List<Integer> getValidAddresses(ExecutionGraphManipulator manipulator) {
@@ -146,7 +181,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
             }
 
             Op op = manipulator.getOp(address);
-            if (isSideEffectAboveThreshold(op.getSideEffectLevel())) {
+            if (isSideEffectAboveThreshold(manipulator.getHighestSideEffectLevel(address))) {
                 invalidAddresses.add(address);
                 continue;
             }
@@ -172,6 +207,13 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         return validAddresses;
     }
 
+    private List<Integer> filterAddresses(Predicate<Integer> test) {
+        Stream<Integer> stream = addresses.size() < parallelThreshold ? addresses.stream() : addresses.parallelStream();
+
+        // Ordered streams keep the order of the addresses, even when parallel.
+        return stream.filter(test).collect(Collectors.toList());
+    }
+
     private boolean isDead(int address) {
         Op op = manipulator.getOp(address);
         log.debug("Dead test @{} for: {}", address, op);
@@ -220,7 +262,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         }
 
         Op op = manipulator.getOp(address);
-        if (isSideEffectAboveThreshold(op.getSideEffectLevel())) {
+        if (isSideEffectAboveThreshold(manipulator.getHighestSideEffectLevel(address))) {
             return false;
         }
 
@@ -233,7 +275,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         }
 
         log.debug("Dead assignments test @{} for: {}", address, op);
-        if (isAnyRegisterUsed(address, assigned, manipulator)) {
+        if (manipulator.getUseDefs().isAnyUsed(address, assigned)) {
             return false;
         }
 
@@ -251,7 +293,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         }
 
         log.debug("Dead result test @{} for: {}", address, op);
-        if (isSideEffectAboveThreshold(op.getSideEffectLevel())) {
+        if (isSideEffectAboveThreshold(manipulator.getHighestSideEffectLevel(address))) {
             return false;
         }
 
@@ -277,7 +319,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         MethodState mState = ectx.getMethodState();
         Set<Integer> assigned = getNormalRegistersAssigned(mState);
         if (0 < assigned.size()) {
-            if (isAnyRegisterUsed(address, assigned, manipulator)) {
+            if (manipulator.getUseDefs().isAnyUsed(address, assigned)) {
                 // Result may not be used, but assignments *are* used
                 return false;
             }
@@ -366,62 +408,4 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         return assigned;
     }
 
-    private static boolean isAnyRegisterUsed(int address, Set<Integer> registers, ExecutionGraphManipulator graph) {
-        List<ExecutionNode> children = graph.getChildren(address);
-        for (ExecutionNode child : children) {
-            Set<Integer> newRegisters = new HashSet<Integer>(registers);
-            if (isAnyRegisterUsed(address, newRegisters, graph, child)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    private static boolean isAnyRegisterUsed(int address, Set<Integer> usedRegisters, ExecutionGraphManipulator graph,
-                    ExecutionNode node) {
-        ExecutionNode current = node;
-        for (;;) {
-            MethodState mState = current.getContext().getMethodState();
-            for (int register : usedRegisters) {
-                // Some ops read from and assign to the same register, e.g add-int/2addr v0, v0
-                // Read check must come first because this still counts as a usage.
-                if (mState.wasRegisterRead(register)) {
-                    if (log.isTraceEnabled()) {
-                        log.trace("r{} read after {} @{}, {}", register, address, current.getAddress(), current.getOp());
-                    }
-
-                    return true;
-                }
-                // aput mutates an object. Assignment isn't "reassignment" like it is with other ops
-                else if (mState.wasRegisterAssigned(register) && !(current.getOp() instanceof APutOp)) {
-                    if (log.isTraceEnabled()) {
-                        log.trace("r{} assigned after {} @{}, {}", register, address, current.getAddress(),
-                                        current.getOp());
-                    }
-
-                    usedRegisters.remove(register);
-                }
-            }
-
-            if (usedRegisters.isEmpty()) {
-                return false;
-            }
-
-            List<ExecutionNode> children = current.getChildren();
-            if (children.size() == 1) {
-                current = children.get(0);
-            } else {
-                for (ExecutionNode child : children) {
-                    Set<Integer> newRegisters = new HashSet<Integer>(usedRegisters);
-                    if (isAnyRegisterUsed(address, newRegisters, graph, child)) {
-                        return true;
-                    }
-                }
-
-                return false;
-            }
-        }
-    }
-
 }
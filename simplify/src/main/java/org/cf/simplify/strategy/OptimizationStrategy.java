@@ -2,10 +2,31 @@ package org.cf.simplify.strategy;
 
 import java.util.Map;
 
-public interface OptimizationStrategy {
+/**
+ * Strategies work in two phases. Analysis only queries the graph and proposes edits, and applying makes them. Analysis
+ * of a big method may be split over many threads, but proposed edits are always in the same order.
+ *
+ * @param <T>
+ *            proposed edits
+ */
+public interface OptimizationStrategy<T> {
 
     public Map<String, Integer> getOptimizationCounts();
 
-    public boolean perform();
+    /**
+     * @return edits for the graph as it is now
+     */
+    public T analyze();
+
+    /**
+     * @param edits
+     *            edits from {@link #analyze()}, with no other changes made since
+     * @return true if anything was changed
+     */
+    public boolean apply(T edits);
+
+    public default boolean perform() {
+        return apply(analyze());
+    }
 
 }
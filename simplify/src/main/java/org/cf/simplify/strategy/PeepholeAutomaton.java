@@ -0,0 +1,156 @@
+package org.cf.simplify.strategy;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import org.jf.dexlib2.Opcode;
+
+/**
+ * Opcode patterns of every peephole rule compiled into one automaton, so instructions are scanned once no matter how
+ * many rules there are. This is Aho-Corasick with failure links folded into a full transition table, so each
+ * instruction is a single table lookup.
+ */
+class PeepholeAutomaton {
+
+    interface MatchListener {
+
+        /**
+         * @param rule
+         *            index of the matched rule
+         * @param start
+         *            index of the first matched opcode
+         */
+        void onMatch(int rule, int start);
+
+    }
+
+    private static final int ROOT = 0;
+
+    private final List<PeepholeRule> rules;
+    private final int[][] transitions;
+    // Rules whose pattern ends at each state, in rule order
+    private final int[][] outputs;
+    private final int longestPattern;
+
+    PeepholeAutomaton(List<PeepholeRule> rules) {
+        this.rules = rules;
+        List<int[]> trie = new ArrayList<int[]>();
+        List<TIntList> stateOutputs = new ArrayList<TIntList>();
+        addState(trie, stateOutputs);
+        int longestPattern = 0;
+        for (int rule = 0; rule < rules.size(); rule++) {
+            List<Opcode[]> pattern = rules.get(rule).getPattern();
+            addPattern(rule, pattern, trie, stateOutputs);
+            longestPattern = Math.max(longestPattern, pattern.size());
+        }
+        this.longestPattern = longestPattern;
+
+        transitions = trie.toArray(new int[trie.size()][]);
+        outputs = new int[transitions.length][];
+        link(stateOutputs);
+    }
+
+    /**
+     * @return number of opcodes in the longest pattern of any rule
+     */
+    int getLongestPattern() {
+        return longestPattern;
+    }
+
+    List<PeepholeRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Report every match of every rule. Matches are reported in order of where they end, and then by rule.
+     *
+     * @param opcodes
+     *            opcodes of consecutive instructions
+     * @param listener
+     */
+    void scan(Opcode[] opcodes, MatchListener listener) {
+        int state = ROOT;
+        for (int i = 0; i < opcodes.length; i++) {
+            state = transitions[state][opcodes[i].ordinal()];
+            for (int rule : outputs[state]) {
+                listener.onMatch(rule, i - rules.get(rule).getPattern().size() + 1);
+            }
+        }
+    }
+
+    private static void addPattern(int rule, List<Opcode[]> pattern, List<int[]> trie, List<TIntList> stateOutputs) {
+        // Alternatives branch, so a pattern may end in many states.
+        TIntList states = new TIntArrayList(new int[] { ROOT });
+        for (Opcode[] opcodes : pattern) {
+            TIntList nextStates = new TIntArrayList();
+            for (int i = 0; i < states.size(); i++) {
+                int state = states.get(i);
+                for (Opcode opcode : opcodes) {
+                    int next = trie.get(state)[opcode.ordinal()];
+                    if (next == ROOT) {
+                        next = addState(trie, stateOutputs);
+                        trie.get(state)[opcode.ordinal()] = next;
+                    }
+                    if (!nextStates.contains(next)) {
+                        nextStates.add(next);
+                    }
+                }
+            }
+            states = nextStates;
+        }
+        for (int i = 0; i < states.size(); i++) {
+            stateOutputs.get(states.get(i)).add(rule);
+        }
+    }
+
+    private static int addState(List<int[]> trie, List<TIntList> stateOutputs) {
+        // ROOT doubles as "no edge" since nothing goes back to it in the trie.
+        trie.add(new int[Opcode.values().length]);
+        stateOutputs.add(new TIntArrayList());
+
+        return trie.size() - 1;
+    }
+
+    /**
+     * Replace missing edges with the edge of the longest suffix state, and add the outputs of suffix states.
+     */
+    private void link(List<TIntList> stateOutputs) {
+        int[] failures = new int[transitions.length];
+        Deque<Integer> pending = new ArrayDeque<Integer>();
+        outputs[ROOT] = stateOutputs.get(ROOT).toArray();
+        for (int next : transitions[ROOT]) {
+            if (next != ROOT) {
+                failures[next] = ROOT;
+                pending.add(next);
+            }
+        }
+
+        // Breadth first, so a failure state is always finished before the states which fail to it
+        while (!pending.isEmpty()) {
+            int state = pending.poll();
+            TIntList stateOutput = stateOutputs.get(state);
+            stateOutput.addAll(outputs[failures[state]]);
+            int[] output = stateOutput.toArray();
+            Arrays.sort(output);
+            outputs[state] = output;
+
+            int[] edges = transitions[state];
+            for (int symbol = 0; symbol < edges.length; symbol++) {
+                int next = edges[symbol];
+                if (next == ROOT) {
+                    edges[symbol] = transitions[failures[state]][symbol];
+                } else {
+                    failures[next] = transitions[failures[state]][symbol];
+                    pending.add(next);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.cf.simplify.strategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+import javax.annotation.Nullable;
+
+import org.jf.dexlib2.Opcode;
+
+/**
+ * A peephole rule is a pattern of opcodes, a test which must pass where the pattern matches, and the peep to make
+ * there. Patterns are opcode names separated by spaces, one for each instruction in a row. Each name may have
+ * alternatives separated by '|', and a name ending with '*' matches every opcode starting with the rest, e.g.
+ * "if-*" or "invoke-static|invoke-static/range move-result*".
+ */
+class PeepholeRule {
+
+    private final String name;
+    private final List<Opcode[]> pattern;
+    private final IntPredicate test;
+    private final IntFunction<PeepholeStrategy.Peep> peep;
+
+    /**
+     * @param name
+     * @param pattern
+     * @param test
+     *            whether the rule applies at the address of the first matched instruction
+     * @param peep
+     *            peep to make at that address
+     */
+    PeepholeRule(String name, String pattern, IntPredicate test, IntFunction<PeepholeStrategy.Peep> peep) {
+        this.name = name;
+        this.pattern = parsePattern(pattern);
+        this.test = test;
+        this.peep = peep;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return opcodes matched by each instruction of the pattern
+     */
+    List<Opcode[]> getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @param address
+     *            address of the first matched instruction
+     * @return peep to make, or null if the rule doesn't apply
+     */
+    @Nullable
+    PeepholeStrategy.Peep apply(int address) {
+        return test.test(address) ? peep.apply(address) : null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static List<Opcode[]> parsePattern(String pattern) {
+        List<Opcode[]> parsed = new ArrayList<Opcode[]>();
+        for (String token : pattern.trim().split("\\s+")) {
+            List<Opcode> opcodes = new ArrayList<Opcode>();
+            for (String alternative : token.split("\\|")) {
+                boolean isPrefix = alternative.endsWith("*");
+                String opName = isPrefix ? alternative.substring(0, alternative.length() - 1) : alternative;
+                for (Opcode opcode : Opcode.values()) {
+                    boolean matches = isPrefix ? opcode.name.startsWith(opName) : opcode.name.equals(opName);
+                    if (matches && !opcodes.contains(opcode)) {
+                        opcodes.add(opcode);
+                    }
+                }
+            }
+            if (opcodes.isEmpty()) {
+                throw new IllegalArgumentException("No opcodes match " + token + " in pattern: " + pattern);
+            }
+            parsed.add(opcodes.toArray(new Opcode[opcodes.size()]));
+        }
+
+        return parsed;
+    }
+
+}
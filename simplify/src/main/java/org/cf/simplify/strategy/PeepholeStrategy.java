@@ -1,17 +1,24 @@
 package org.cf.simplify.strategy;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import javax.annotation.Nullable;
+
 import org.cf.simplify.ConstantBuilder;
 import org.cf.simplify.ExecutionGraphManipulator;
+import org.cf.simplify.Worklist;
 import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
@@ -26,6 +33,7 @@ import org.jf.dexlib2.builder.Label;
 import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
 import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
 import org.jf.dexlib2.builder.instruction.BuilderInstruction30t;
+import org.jf.dexlib2.iface.instruction.OneRegisterInstruction;
 import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
 import org.jf.dexlib2.iface.instruction.formats.Instruction21t;
 import org.jf.dexlib2.iface.instruction.formats.Instruction22t;
@@ -36,20 +44,39 @@ import org.jf.dexlib2.writer.builder.BuilderTypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class PeepholeStrategy implements OptimizationStrategy {
+public class PeepholeStrategy implements OptimizationStrategy<SortedMap<Integer, PeepholeStrategy.Peep>> {
 
     private static final Logger log = LoggerFactory.getLogger(PeepholeStrategy.class.getSimpleName());
 
     private static final String ClassForNameSignature = "Ljava/lang/Class;->forName(Ljava/lang/String;)Ljava/lang/Class;";
 
+    /**
+     * A peep at one address. The op is replaced, or removed if there's no replacement.
+     */
+    public static class Peep {
+
+        private final BuilderInstruction replacement;
+        private final boolean removesResult;
+        private final boolean isConstantIf;
+
+        Peep(@Nullable BuilderInstruction replacement, boolean removesResult, boolean isConstantIf) {
+            this.replacement = replacement;
+            this.removesResult = removesResult;
+            this.isConstantIf = isConstantIf;
+        }
+
+    }
+
     private final ExecutionGraphManipulator manipulator;
+    private final Worklist worklist;
+    private final PeepholeAutomaton automaton;
     private int peepCount;
     private int constantIfCount;
-    private List<Integer> addresses;
-    private boolean madeChanges;
 
     public PeepholeStrategy(ExecutionGraphManipulator manipulator) {
         this.manipulator = manipulator;
+        worklist = manipulator.newWorklist();
+        automaton = new PeepholeAutomaton(buildRules());
         peepCount = 0;
         constantIfCount = 0;
     }
@@ -63,25 +90,72 @@ public class PeepholeStrategy implements OptimizationStrategy {
         return counts;
     }
 
+    /**
+     * Every rule is matched in one scan of the instructions around changed addresses. If more than one rule applies at
+     * an address, the one whose pattern ends first wins, and then the earliest rule. Consensus queries may copy values
+     * from ancestor nodes into the queried node, so this isn't split over threads.
+     */
     @Override
-    public boolean perform() {
-        madeChanges = false;
+    public SortedMap<Integer, Peep> analyze() {
+        // Last address first so changing one doesn't move the rest
+        SortedMap<Integer, Peep> addressToPeep = new TreeMap<Integer, Peep>(Collections.reverseOrder());
+        Set<Integer> validAddresses = new HashSet<Integer>(getValidAddresses(manipulator, worklist));
+        if (validAddresses.isEmpty()) {
+            return addressToPeep;
+        }
 
-        addresses = getValidAddresses(manipulator);
-        peepClassForName();
+        // Rules are only tested where a pattern starts at a valid address, so only scan windows long enough for that.
+        int[] addresses = manipulator.getAddresses();
+        int[] starts = validAddresses.stream().mapToInt(a -> Arrays.binarySearch(addresses, a)).sorted().toArray();
+        int longestPattern = automaton.getLongestPattern();
+        int i = 0;
+        while (i < starts.length) {
+            int windowStart = starts[i];
+            int windowEnd = Math.min(windowStart + longestPattern, addresses.length);
+            for (i++; i < starts.length && starts[i] < windowEnd; i++) {
+                windowEnd = Math.min(starts[i] + longestPattern, addresses.length);
+            }
+            scanWindow(addresses, windowStart, windowEnd, validAddresses, addressToPeep);
+        }
 
-        addresses = getValidAddresses(manipulator);
-        peepStringInit();
+        return addressToPeep;
+    }
 
-        addresses = getValidAddresses(manipulator);
-        peepConstantPredicate();
+    /**
+     * Peeps are built from the same execution, so nothing needs to be re-executed until every one is in place.
+     */
+    @Override
+    public boolean apply(SortedMap<Integer, Peep> addressToPeep) {
+        manipulator.beginTransaction();
+        for (Entry<Integer, Peep> entry : addressToPeep.entrySet()) {
+            int address = entry.getKey();
+            Peep peep = entry.getValue();
+            if (peep.removesResult) {
+                manipulator.removeInstruction(address + manipulator.getInstruction(address).getCodeUnits());
+            }
+            if (peep.replacement == null) {
+                manipulator.removeInstruction(address);
+            } else {
+                manipulator.replaceInstruction(address, peep.replacement);
+            }
+
+            if (peep.isConstantIf) {
+                constantIfCount++;
+            } else {
+                peepCount++;
+            }
+        }
+        manipulator.commitTransaction();
 
-        addresses = getValidAddresses(manipulator);
-        peepCheckCast();
-        return madeChanges;
+        return !addressToPeep.isEmpty();
     }
 
-    BuilderInstruction buildClassForNameReplacement(int address) {
+    /**
+     * @param address
+     * @param destination
+     *            register assigned the class
+     */
+    BuilderInstruction buildClassForNameReplacement(int address, int destination) {
         InvokeOp op = (InvokeOp) manipulator.getOp(address);
         int[] parameterRegisters = op.getParameterRegisters();
         int register = parameterRegisters[0];
@@ -92,11 +166,49 @@ public class PeepholeStrategy implements OptimizationStrategy {
             log.warn("Optimizing Class.forName of potentially non-existant class: {}", smaliClassName);
         }
         BuilderTypeReference classRef = manipulator.getDexBuilder().internTypeReference(smaliClassName);
-        BuilderInstruction constClassInstruction = new BuilderInstruction21c(Opcode.CONST_CLASS, register, classRef);
+        BuilderInstruction constClassInstruction = new BuilderInstruction21c(Opcode.CONST_CLASS, destination, classRef);
 
         return constClassInstruction;
     }
 
+    Peep buildClassForNamePeep(int address, boolean removesResult) {
+        InvokeOp op = (InvokeOp) manipulator.getOp(address);
+        int destination = op.getParameterRegisters()[0];
+        if (removesResult) {
+            // Result is assigned where it would have been moved.
+            int nextAddress = address + manipulator.getInstruction(address).getCodeUnits();
+            destination = ((OneRegisterInstruction) manipulator.getInstruction(nextAddress)).getRegisterA();
+        }
+
+        return new Peep(buildClassForNameReplacement(address, destination), removesResult, false);
+    }
+
+    Peep buildConstantPredicatePeep(int address) {
+        BuilderInstruction original = manipulator.getInstruction(address);
+        ExecutionNode child = manipulator.getNodePile(address).get(0).getChildren().get(0);
+        boolean isNext = child.getAddress() == original.getLocation().getCodeAddress() + original.getCodeUnits();
+        BuilderInstruction replacement;
+        if (isNext) {
+            // if-* is false, so it moves to next instruction
+            replacement = new BuilderInstruction10x(Opcode.NOP);
+        } else {
+            Label target = ((BuilderOffsetInstruction) original).getTarget();
+            replacement = new BuilderInstruction30t(Opcode.GOTO_32, target);
+        }
+
+        return new Peep(replacement, false, true);
+    }
+
+    Peep buildStringInitPeep(int address) {
+        Instruction35c instr = (Instruction35c) manipulator.getInstruction(address);
+        int instanceRegister = instr.getRegisterC();
+        HeapItem item = manipulator.getRegisterConsensus(address, instanceRegister);
+        BuilderInstruction replacement = ConstantBuilder.buildConstant(item.getValue(), item.getUnboxedType(),
+                        instanceRegister, manipulator.getDexBuilder());
+
+        return new Peep(replacement, false, false);
+    }
+
     boolean canPeepCheckCast(int address) {
         Op op = manipulator.getOp(address);
         if (!op.toString().startsWith("check-cast")) {
@@ -106,32 +218,32 @@ public class PeepholeStrategy implements OptimizationStrategy {
         BuilderInstruction21c original = (BuilderInstruction21c) manipulator.getInstruction(address);
         int registerA = original.getRegisterA();
 
-        // Heap item at address would have been recast. Need to examine parents.
+        // Heap item at address would have been recast. Need to examine whichever ops assigned it.
         // Also, don't care about values. Just collecting types.
         Set<String> ancestorTypes = new HashSet<String>();
-        for (int parentAddress : manipulator.getParentAddresses(address)) {
-            for (HeapItem item : manipulator.getRegisterItems(parentAddress, registerA)) {
+        for (int definitionAddress : manipulator.getUseDefs().getDefinitionAddresses(address, registerA)) {
+            for (HeapItem item : manipulator.getRegisterItems(definitionAddress, registerA)) {
                 ancestorTypes.add(item.getType());
             }
         }
 
+        // A parameter may reach without being assigned on some path. Look at freshly spawned execution context type.
+        ExecutionContext ectx = manipulator.getVM().spawnRootExecutionContext(manipulator.getMethod());
+        MethodState mState = ectx.getMethodState();
+        if (ancestorTypes.isEmpty() || registerA >= mState.getParameterStart()) {
+            HeapItem item = mState.peekRegister(registerA);
+            if (item == null) {
+                return false;
+            }
+            ancestorTypes.add(item.getType());
+        }
+
         if (ancestorTypes.size() > 1) {
             // More than one type. At least one item was cast.
             return false;
         }
 
-        String preCastType;
-        if (ancestorTypes.size() > 0) {
-            preCastType = ancestorTypes.toArray(new String[1])[0];
-        } else {
-            // check-cast is first op with no parents
-            // this implies it's acting on a parameter register
-            // look at freshly spawned execution context type
-            ExecutionContext ectx = manipulator.getVM().spawnRootExecutionContext(manipulator.getMethod());
-            HeapItem item = ectx.getMethodState().peekRegister(registerA);
-            preCastType = item.getType();
-        }
-
+        String preCastType = ancestorTypes.toArray(new String[1])[0];
         String referenceType = ReferenceUtil.getReferenceString(original.getReference());
         if (!preCastType.equals(referenceType)) {
             // Item was cast to new type
@@ -164,6 +276,21 @@ public class PeepholeStrategy implements OptimizationStrategy {
         return true;
     }
 
+    boolean canPeepConstantPredicate(int address) {
+        BuilderInstruction original = manipulator.getInstruction(address);
+        if (!(original instanceof Instruction22t || original instanceof Instruction21t)) {
+            return false;
+        }
+
+        Set<ExecutionNode> children = new HashSet<ExecutionNode>();
+        for (ExecutionNode node : manipulator.getNodePile(address)) {
+            children.addAll(node.getChildren());
+        }
+
+        // Child is the same across all multiverses / execution paths.
+        return children.size() == 1;
+    }
+
     boolean canPeepStringInit(int address) {
         BuilderInstruction original = manipulator.getInstruction(address);
         if (!(original instanceof Instruction35c)) {
@@ -187,129 +314,63 @@ public class PeepholeStrategy implements OptimizationStrategy {
         return true;
     }
 
-    List<Integer> getValidAddresses(ExecutionGraphManipulator manipulator) {
-        return IntStream.of(manipulator.getAddresses()).boxed().filter(a -> manipulator.wasAddressReached(a))
-                        .collect(Collectors.toList());
-    }
-
-    void peepCheckCast() {
-        List<Integer> peepAddresses = addresses.stream().filter(a -> canPeepCheckCast(a)).collect(Collectors.toList());
-        if (0 == peepAddresses.size()) {
-            return;
+    /**
+     * @return true if the result of the op at the address is moved by the next op, which was reached
+     */
+    boolean isResultMoved(int address) {
+        int nextAddress = address + manipulator.getInstruction(address).getCodeUnits();
+        if (manipulator.getLocation(nextAddress) == null || !manipulator.wasAddressReached(nextAddress)) {
+            return false;
         }
 
-        madeChanges = true;
-        peepCount += peepAddresses.size();
-
-        Collections.sort(peepAddresses, Collections.reverseOrder());
-        for (int address : peepAddresses) {
-            log.debug("Removing useless check-cast @{} {}", address, manipulator.getOp(address));
-            manipulator.removeInstruction(address);
-        }
+        return manipulator.getInstruction(nextAddress).getOpcode().name.startsWith("move-result");
     }
 
-    void peepClassForName() {
-        List<Integer> peepAddresses = addresses.stream().filter(a -> canPeepClassForName(a))
+    List<Integer> getValidAddresses(ExecutionGraphManipulator manipulator) {
+        return IntStream.of(manipulator.getAddresses()).boxed().filter(a -> manipulator.wasAddressReached(a))
                         .collect(Collectors.toList());
-        if (0 == peepAddresses.size()) {
-            return;
-        }
-
-        madeChanges = true;
-        peepCount += peepAddresses.size();
-
-        Collections.sort(peepAddresses, Collections.reverseOrder());
-        for (int address : peepAddresses) {
-            BuilderInstruction original = manipulator.getInstruction(address);
-            int nextAddress = address + original.getCodeUnits();
-            if (addresses.contains(nextAddress)) {
-                BuilderInstruction nextInstruction = manipulator.getInstruction(nextAddress);
-                if (nextInstruction.getOpcode().name.startsWith("move-result")) {
-                    // There is a move-result after the instruction being replaced. "Deal" with it.
-                    manipulator.removeInstruction(nextAddress);
-                }
-            }
-
-            BuilderInstruction replacement = buildClassForNameReplacement(address);
-            manipulator.replaceInstruction(address, replacement);
-        }
     }
 
-    void peepConstantPredicate() {
-        List<Integer> peepAddresses = new LinkedList<Integer>();
-        Set<Integer> nextAddresses = new HashSet<Integer>();
-        for (int address : addresses) {
-            BuilderInstruction original = manipulator.getInstruction(address);
-            if (!(original instanceof Instruction22t || original instanceof Instruction21t)) {
-                continue;
-            }
-
-            Set<ExecutionNode> children = new HashSet<ExecutionNode>();
-            List<ExecutionNode> pile = manipulator.getNodePile(address);
-            for (ExecutionNode node : pile) {
-                children.addAll(node.getChildren());
-            }
-            if (children.size() != 1) {
-                break;
-            }
-            // Child is the same across all multiverses / execution paths.
-
-            ExecutionNode child = pile.get(0).getChildren().get(0);
-            boolean isNext = child.getAddress() == original.getLocation().getCodeAddress() + original.getCodeUnits();
-            peepAddresses.add(address);
-            if (isNext) {
-                // if-* is false, so it moves to next instruction
-                nextAddresses.add(address);
-            }
-        }
+    private List<Integer> getValidAddresses(ExecutionGraphManipulator manipulator, Worklist worklist) {
+        return worklist.takeAddresses().stream().filter(a -> manipulator.wasAddressReached(a))
+                        .collect(Collectors.toList());
+    }
 
-        if (0 == peepAddresses.size()) {
-            return;
+    private void scanWindow(int[] addresses, int windowStart, int windowEnd, Set<Integer> validAddresses,
+                    SortedMap<Integer, Peep> addressToPeep) {
+        Opcode[] opcodes = new Opcode[windowEnd - windowStart];
+        for (int i = 0; i < opcodes.length; i++) {
+            opcodes[i] = manipulator.getInstruction(addresses[windowStart + i]).getOpcode();
         }
-
-        madeChanges = true;
-        constantIfCount += peepAddresses.size();
-
-        Collections.sort(peepAddresses, Collections.reverseOrder());
-        for (int address : peepAddresses) {
-            BuilderInstruction replacement;
-            if (nextAddresses.contains(address)) {
-                replacement = new BuilderInstruction10x(Opcode.NOP);
-            } else {
-                BuilderOffsetInstruction original = (BuilderOffsetInstruction) manipulator.getInstruction(address);
-                Label target = original.getTarget();
-                replacement = new BuilderInstruction30t(Opcode.GOTO_32, target);
+        List<PeepholeRule> rules = automaton.getRules();
+        automaton.scan(opcodes, (rule, start) -> {
+            int address = addresses[windowStart + start];
+            if (!validAddresses.contains(address) || addressToPeep.containsKey(address)) {
+                return;
             }
-
-            if (log.isDebugEnabled()) {
-                log.debug("Constantizing if @{} {}", address, manipulator.getOp(address));
+            Peep peep = rules.get(rule).apply(address);
+            if (peep != null) {
+                log.debug("Peeping {} @{} {}", rules.get(rule), address, manipulator.getOp(address));
+                addressToPeep.put(address, peep);
             }
-            manipulator.replaceInstruction(address, replacement);
-        }
+        });
     }
 
-    void peepStringInit() {
-        List<Integer> peepAddresses = addresses.stream().filter(a -> canPeepStringInit(a)).collect(Collectors.toList());
-        if (0 == peepAddresses.size()) {
-            return;
-        }
-
-        madeChanges = true;
-        peepCount += peepAddresses.size();
-
-        Collections.sort(peepAddresses, Collections.reverseOrder());
-        for (int address : peepAddresses) {
-            BuilderInstruction original = manipulator.getInstruction(address);
-            Instruction35c instr = (Instruction35c) original;
-            int instanceRegister = instr.getRegisterC();
-            HeapItem item = manipulator.getRegisterConsensus(address, instanceRegister);
-            BuilderInstruction replacement = ConstantBuilder.buildConstant(item.getValue(), item.getUnboxedType(),
-                            instanceRegister, manipulator.getDexBuilder());
-            if (log.isDebugEnabled()) {
-                log.debug("Peeping string init @{} {}", address, manipulator.getOp(address));
-            }
-            manipulator.replaceInstruction(address, replacement);
-        }
+    private List<PeepholeRule> buildRules() {
+        List<PeepholeRule> rules = new LinkedList<PeepholeRule>();
+        // The single invoke ends first, so it has to give way when there's a move-result for the longer rule.
+        rules.add(new PeepholeRule("Class.forName", "invoke-static*",
+                        a -> canPeepClassForName(a) && !isResultMoved(a), a -> buildClassForNamePeep(a, false)));
+        rules.add(new PeepholeRule("Class.forName and move-result", "invoke-static* move-result*",
+                        a -> canPeepClassForName(a) && isResultMoved(a), a -> buildClassForNamePeep(a, true)));
+        rules.add(new PeepholeRule("string init", "invoke-direct", this::canPeepStringInit,
+                        this::buildStringInitPeep));
+        rules.add(new PeepholeRule("constant predicate", "if-*", this::canPeepConstantPredicate,
+                        this::buildConstantPredicatePeep));
+        rules.add(new PeepholeRule("useless check-cast", "check-cast", this::canPeepCheckCast,
+                        a -> new Peep(null, false, false)));
+
+        return rules;
     }
 
 }
@@ -4,16 +4,17 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.cf.simplify.ConstantBuilder;
 import org.cf.simplify.ExecutionGraphManipulator;
+import org.cf.simplify.Worklist;
 import org.cf.smalivm.opcode.InvokeOp;
 import org.cf.smalivm.opcode.Op;
 import org.cf.smalivm.reference.LocalMethod;
@@ -23,6 +24,7 @@ import org.cf.util.Utils;
 import org.jf.dexlib2.AccessFlags;
 import org.jf.dexlib2.Opcode;
 import org.jf.dexlib2.builder.BuilderInstruction;
+import org.jf.dexlib2.builder.MethodLocation;
 import org.jf.dexlib2.builder.instruction.BuilderInstruction11x;
 import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
 import org.jf.dexlib2.builder.instruction.BuilderInstruction22c;
@@ -44,22 +46,39 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.primitives.Ints;
 
-public class UnreflectionStrategy implements OptimizationStrategy {
+public class UnreflectionStrategy implements OptimizationStrategy<UnreflectionStrategy.Unreflections> {
 
-    @SuppressWarnings("unused")
     private static final Logger log = LoggerFactory.getLogger(UnreflectionStrategy.class.getSimpleName());
 
     private static final String METHOD_INVOKE_SIGNATURE = "Ljava/lang/reflect/Method;->invoke(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
     private static final String FIELD_GET_SIGNATURE = "Ljava/lang/reflect/Field;->get(Ljava/lang/Object;)Ljava/lang/Object;";
 
+    /**
+     * Locations of reflected method invocations and field gets to replace, each in address order. Locations are kept
+     * instead of addresses since replacing invocations moves the field gets after them.
+     */
+    public static class Unreflections {
+
+        private final List<MethodLocation> methodInvokes;
+        private final List<MethodLocation> fieldGets;
+
+        Unreflections(List<MethodLocation> methodInvokes, List<MethodLocation> fieldGets) {
+            this.methodInvokes = methodInvokes;
+            this.fieldGets = fieldGets;
+        }
+
+    }
+
     private final ExecutionGraphManipulator manipulator;
+    private final Worklist methodInvokeWorklist;
+    private final Worklist fieldGetWorklist;
     private int unreflectedMethodCount;
     private int unreflectedFieldCount;
-    private int[] addresses;
-    private boolean madeChanges;
 
     public UnreflectionStrategy(ExecutionGraphManipulator manipulator) {
         this.manipulator = manipulator;
+        methodInvokeWorklist = manipulator.newWorklist();
+        fieldGetWorklist = manipulator.newWorklist();
         unreflectedMethodCount = 0;
         unreflectedFieldCount = 0;
     }
@@ -73,17 +92,36 @@ public class UnreflectionStrategy implements OptimizationStrategy {
         return result;
     }
 
+    /**
+     * Consensus queries may copy values from ancestor nodes into the queried node, so this isn't split over threads.
+     */
     @Override
-    public boolean perform() {
-        madeChanges = false;
+    public Unreflections analyze() {
+        List<MethodLocation> methodInvokes = new LinkedList<MethodLocation>();
+        for (int address : getValidAddresses(manipulator, methodInvokeWorklist)) {
+            if (canReplaceMethodInvoke(address)) {
+                methodInvokes.add(manipulator.getLocation(address));
+            }
+        }
+        List<MethodLocation> fieldGets = new LinkedList<MethodLocation>();
+        for (int address : getValidAddresses(manipulator, fieldGetWorklist)) {
+            if (canReplaceFieldGet(address)) {
+                fieldGets.add(manipulator.getLocation(address));
+            }
+        }
 
-        addresses = getValidAddresses(manipulator);
-        replaceMethodInvoke();
+        return new Unreflections(methodInvokes, fieldGets);
+    }
 
-        addresses = getValidAddresses(manipulator);
-        replaceFieldGet();
+    @Override
+    public boolean apply(Unreflections unreflections) {
+        replaceMethodInvoke(unreflections.methodInvokes);
+        if (!manipulator.needsExecution()) {
+            // Otherwise nodes are stale until the whole method is executed again.
+            replaceFieldGet(unreflections.fieldGets);
+        }
 
-        return madeChanges;
+        return !unreflections.methodInvokes.isEmpty() || !unreflections.fieldGets.isEmpty();
     }
 
     List<BuilderInstruction> buildMethodInvokeReplacement(int address) throws Exception {
@@ -304,6 +342,12 @@ public class UnreflectionStrategy implements OptimizationStrategy {
         return Ints.toArray(validAddresses);
     }
 
+    private int[] getValidAddresses(ExecutionGraphManipulator manipulator, Worklist worklist) {
+        Set<Integer> changedAddresses = worklist.takeAddresses();
+
+        return Arrays.stream(getValidAddresses(manipulator)).filter(a -> changedAddresses.contains(a)).toArray();
+    }
+
     private BuilderInstruction buildFieldGetReplacement(int address) {
         Op op = manipulator.getOp(address);
         int[] parameterRegisters = ((InvokeOp) op).getParameterRegisters();
@@ -425,49 +469,48 @@ public class UnreflectionStrategy implements OptimizationStrategy {
         }
     }
 
-    private void replaceFieldGet() {
-        List<Integer> getAddresses = new LinkedList<Integer>();
-        for (int address : addresses) {
-            if (canReplaceFieldGet(address)) {
-                getAddresses.add(address);
-            }
-        }
-
-        if (0 == getAddresses.size()) {
+    private void replaceFieldGet(List<MethodLocation> getLocations) {
+        if (0 == getLocations.size()) {
             return;
         }
 
-        madeChanges = true;
-        unreflectedFieldCount += getAddresses.size();
-        Collections.reverse(getAddresses);
-        for (int address : getAddresses) {
+        unreflectedFieldCount += getLocations.size();
+        List<MethodLocation> replacedLocations = new LinkedList<MethodLocation>();
+        for (int i = getLocations.size() - 1; i >= 0; i--) {
+            int address = getLocations.get(i).getCodeAddress();
             BuilderInstruction replacement = buildFieldGetReplacement(address);
             removeMoveResultIfNecessary(address);
             manipulator.replaceInstruction(address, replacement);
+            replacedLocations.add(manipulator.getLocation(address));
         }
-    }
 
-    private void replaceMethodInvoke() {
-        int[] invokeAddresses = Arrays.stream(addresses).filter(a -> canReplaceMethodInvoke(a)).sorted().toArray();
+        // Field value may now be known after the get
+        manipulator.reexecute(replacedLocations);
+    }
 
-        int count = invokeAddresses.length;
+    private void replaceMethodInvoke(List<MethodLocation> invokeLocations) {
+        int count = invokeLocations.size();
         if (count == 0) {
             return;
         }
 
-        madeChanges = true;
         unreflectedMethodCount += count;
 
+        List<MethodLocation> replacedLocations = new LinkedList<MethodLocation>();
         for (int i = count - 1; i >= 0; i--) {
             // Always replace in reverse order to avoid changing addresses
-            int address = invokeAddresses[i];
+            int address = invokeLocations.get(i).getCodeAddress();
             try {
                 List<BuilderInstruction> replacements = buildMethodInvokeReplacement(address);
                 manipulator.replaceInstruction(address, replacements);
+                replacedLocations.add(manipulator.getLocation(address));
             } catch (Exception e) {
                 log.error("Unable to unreflect method invocation @" + address, e);
             }
         }
+
+        // Result of the invocation may now be known, so everything after it could be different
+        manipulator.reexecute(replacedLocations);
     }
 
     static Opcode getGetOpcode(String type, boolean isStatic) {
@@ -0,0 +1,59 @@
+package org.cf.simplify;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.smali.ClassManager;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CallGraphSchedulerTest {
+
+    private static final String CLASS_NAME = "Lcall_graph_scheduler_test;";
+
+    private LocalMethod caller;
+    private LocalMethod recursiveA;
+    private LocalMethod recursiveB;
+    private LocalMethod callee;
+
+    @Before
+    public void setUp() {
+        ClassManager classManager = VMTester.spawnVM(true).getClassManager();
+        caller = classManager.getMethod(CLASS_NAME + "->caller()V");
+        recursiveA = classManager.getMethod(CLASS_NAME + "->recursiveA()V");
+        recursiveB = classManager.getMethod(CLASS_NAME + "->recursiveB()V");
+        callee = classManager.getMethod(CLASS_NAME + "->callee()V");
+    }
+
+    @Test
+    public void calleesAreScheduledBeforeCallers() {
+        CallGraphScheduler scheduler = new CallGraphScheduler(Arrays.asList(caller, recursiveA, recursiveB, callee));
+
+        List<LocalMethod> expected = Arrays.asList(callee, recursiveA, recursiveB, caller);
+        assertEquals(expected, scheduler.getOrder());
+    }
+
+    @Test
+    public void methodsWhichCallEachOtherAreOneComponent() {
+        CallGraphScheduler scheduler = new CallGraphScheduler(Arrays.asList(recursiveB, caller, callee, recursiveA));
+
+        List<List<LocalMethod>> expected = new LinkedList<List<LocalMethod>>();
+        expected.add(Arrays.asList(callee));
+        expected.add(Arrays.asList(recursiveB, recursiveA));
+        expected.add(Arrays.asList(caller));
+        assertEquals(expected, scheduler.getComponents());
+    }
+
+    @Test
+    public void callsToUnscheduledMethodsAreIgnored() {
+        CallGraphScheduler scheduler = new CallGraphScheduler(Arrays.asList(caller, callee));
+
+        assertEquals(Arrays.asList(caller, callee), scheduler.getOrder());
+    }
+
+}
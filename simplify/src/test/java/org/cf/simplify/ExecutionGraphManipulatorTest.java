@@ -3,11 +3,15 @@ package org.cf.simplify;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
@@ -313,6 +317,74 @@ public class ExecutionGraphManipulatorTest {
         assertEquals(2, consensus.getValue());
     }
 
+    @Test
+    public void testReplacingInstructionsInTransactionModifiesStateCorrectly() {
+        //@formatter:off
+        Object[][] expected = new Object[][] {
+                        { 0, Opcode.CONST_4, new Object[][][] { { { 1, Opcode.CONST_16 } } } },
+                        { 1, Opcode.CONST_16, new Object[][][] { { { 3, Opcode.CONST_4 } } } },
+                        { 3, Opcode.CONST_4, new Object[][][] { { { 4, Opcode.CONST_16 } } } },
+                        { 4, Opcode.CONST_16, new Object[][][] { { { 6, Opcode.CONST_4 } } } },
+                        { 6, Opcode.CONST_4, new Object[][][] { { { 7, Opcode.RETURN_VOID } } } },
+                        { 7, Opcode.RETURN_VOID, new Object[1][0][0] },
+        };
+        //@formatter:on
+
+        manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME, "verySimple()V");
+        manipulator.beginTransaction();
+        // Addresses are from before the transaction, so the second replacement isn't moved by the first.
+        manipulator.replaceInstruction(3, new BuilderInstruction21s(Opcode.CONST_16, 3, 3));
+        manipulator.replaceInstruction(1, new BuilderInstruction21s(Opcode.CONST_16, 1, 1));
+        assertEquals(Opcode.CONST_4, manipulator.getInstruction(4).getOpcode());
+        manipulator.commitTransaction();
+
+        test(expected, manipulator);
+        testHeritage(manipulator, 0);
+        testHeritage(manipulator, 1);
+        testHeritage(manipulator, 3);
+        testHeritage(manipulator, 4);
+
+        HeapItem consensus;
+        consensus = manipulator.getRegisterConsensus(1, 1);
+        assertEquals(1, consensus.getValue());
+
+        consensus = manipulator.getRegisterConsensus(4, 3);
+        assertEquals(3, consensus.getValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCommittingWithoutTransactionThrowsException() {
+        manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME, "verySimple()V");
+        manipulator.commitTransaction();
+    }
+
+    @Test
+    public void testWorklistOnlyHasLocationsAffectedByRemoval() {
+        manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME, "verySimple()V");
+        Worklist worklist = manipulator.newWorklist();
+        assertEquals(6, worklist.size());
+        assertEquals(6, worklist.takeAddresses().size());
+        assertTrue(worklist.isEmpty());
+
+        manipulator.removeInstruction(2);
+
+        // Parent, reparented child and its child
+        Set<Integer> expected = new HashSet<Integer>(Arrays.asList(1, 2, 3));
+        assertEquals(expected, worklist.takeAddresses());
+        assertTrue(worklist.isEmpty());
+    }
+
+    @Test
+    public void testRegisterConsensusIsUpdatedAfterReplacement() {
+        manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME, "verySimple()V");
+        assertEquals(2, manipulator.getRegisterConsensusValue(2, 2));
+
+        manipulator.replaceInstruction(2, new BuilderInstruction11n(Opcode.CONST_4, 2, 5));
+
+        assertEquals(5, manipulator.getRegisterConsensusValue(2, 2));
+        assertEquals(5, manipulator.getRegisterConsensusValue(4, 2));
+    }
+
     @Test
     public void testReplacingInstructionGetsLabelsAtInsertionAddress() {
         manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME, "hasLabelOnConstantizableOp(I)I");
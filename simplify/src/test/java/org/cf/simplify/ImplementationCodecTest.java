@@ -0,0 +1,131 @@
+package org.cf.simplify;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.smali.ClassManager;
+import org.cf.smalivm.smali.Dexifier;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.builder.BuilderInstruction;
+import org.jf.dexlib2.builder.MutableMethodImplementation;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11n;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.writer.builder.BuilderReference;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImplementationCodecTest {
+
+    private static final String CLASS_NAME = "Lconstant_propigation_strategy_test;";
+    private static final String CALLER_SIGNATURE = "Ldead_removal_strategy_test;->unusedResultNoSideEffects()I";
+    private static final String CALLEE_SIGNATURE = "Ldead_removal_strategy_test;->addOneNoSideEffects(I)I";
+    private static final String DEXLIB2_VERSION = "2.1.1";
+
+    private VirtualMachine vm;
+    private ClassManager classManager;
+    private ImplementationCodec codec;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.spawnVM(true);
+        classManager = vm.getClassManager();
+        codec = new ImplementationCodec(classManager.getDexBuilder(), Dexifier.DEFAULT_API_LEVEL);
+    }
+
+    @Test
+    public void dexlib2InternalsUsedByCodecAreUnchanged() throws NoSuchFieldException {
+        // The codec swaps instructions and try blocks through private fields of MutableMethodImplementation. If dexlib2
+        // is upgraded, check how it uses them before bumping this version.
+        Class<?> klazz = MutableMethodImplementation.class;
+        String jarPath = klazz.getProtectionDomain().getCodeSource().getLocation().getPath();
+        assertTrue(jarPath, jarPath.endsWith("dexlib2-" + DEXLIB2_VERSION + ".jar"));
+
+        assertEquals(ArrayList.class, klazz.getDeclaredField("instructionList").getType());
+        assertEquals(ArrayList.class, klazz.getDeclaredField("tryBlocks").getType());
+        assertEquals(boolean.class, klazz.getDeclaredField("fixInstructions").getType());
+    }
+
+    @Test
+    public void appliedImplementationReplacesCurrentImplementation() {
+        LocalMethod localMethod = classManager.getMethod(CLASS_NAME + "->invokeIntegerMethods()I");
+        byte[] original = codec.encode(localMethod);
+
+        localMethod.getImplementation().replaceInstruction(1, new BuilderInstruction11n(Opcode.CONST_4, 1, 5));
+        assertFalse(Arrays.equals(original, codec.encode(localMethod)));
+
+        codec.apply(original, localMethod);
+        vm.updateInstructionGraph(localMethod);
+        assertArrayEquals(original, codec.encode(localMethod));
+        for (BuilderInstruction instruction : localMethod.getImplementation().getInstructions()) {
+            if (instruction instanceof ReferenceInstruction) {
+                assertTrue(((ReferenceInstruction) instruction).getReference() instanceof BuilderReference);
+            }
+        }
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "invokeIntegerMethods()I");
+        HeapItem item = graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister);
+        assertEquals(1, item.getValue());
+    }
+
+    @Test
+    public void appliedClassReplacesEveryEncodedMethod() {
+        Set<LocalMethod> localMethods = classManager.getMethods(CLASS_NAME);
+        byte[] original = codec.encode(CLASS_NAME, localMethods);
+        for (LocalMethod localMethod : localMethods) {
+            localMethod.getImplementation().addInstruction(0, new BuilderInstruction10x(Opcode.NOP));
+        }
+
+        List<LocalMethod> applied = codec.applyAll(original, classManager);
+        assertEquals(localMethods.size(), applied.size());
+        assertArrayEquals(original, codec.encode(CLASS_NAME, localMethods));
+    }
+
+    @Test
+    public void keyIsStableForUnchangedMethods() {
+        LocalMethod localMethod = classManager.getMethod(CALLER_SIGNATURE);
+        byte[] key = new MethodHasher(classManager, codec, "options").getKey(localMethod);
+
+        assertArrayEquals(key, new MethodHasher(classManager, codec, "options").getKey(localMethod));
+        assertFalse(Arrays.equals(key, new MethodHasher(classManager, codec, "other options").getKey(localMethod)));
+    }
+
+    @Test
+    public void keyChangesWhenCalleeChanges() {
+        MethodHasher hasher = new MethodHasher(classManager, codec, "options");
+        LocalMethod localMethod = classManager.getMethod(CALLER_SIGNATURE);
+        byte[] key = hasher.getKey(localMethod);
+
+        LocalMethod callee = classManager.getMethod(CALLEE_SIGNATURE);
+        callee.getImplementation().addInstruction(0, new BuilderInstruction10x(Opcode.NOP));
+        hasher.invalidate(callee);
+
+        assertFalse(Arrays.equals(key, hasher.getKey(localMethod)));
+    }
+
+    @Test
+    public void keyChangesWhenOverrideOfVirtualCalleeChanges() {
+        MethodHasher hasher = new MethodHasher(classManager, codec, "options");
+        LocalMethod localMethod = classManager.getMethod("Lmethod_hasher_test;->callGetValue(Lmethod_hasher_test;)I");
+        byte[] key = hasher.getKey(localMethod);
+
+        LocalMethod override = classManager.getMethod("Lmethod_hasher_test_child;->getValue()I");
+        override.getImplementation().addInstruction(0, new BuilderInstruction10x(Opcode.NOP));
+        hasher.invalidate(override);
+
+        assertFalse(Arrays.equals(key, hasher.getKey(localMethod)));
+    }
+
+}
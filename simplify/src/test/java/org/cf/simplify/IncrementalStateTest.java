@@ -0,0 +1,60 @@
+package org.cf.simplify;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalStateTest {
+
+    private static final String CLASS_NAME = "Lsome_class;";
+    private static final byte[] FINGERPRINT = new byte[] { 1, 2, 3 };
+    private static final byte[] OTHER_FINGERPRINT = new byte[] { 4, 5, 6 };
+    private static final byte[] OPTIMIZED_CLASS = new byte[] { 7, 8, 9 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File stateDirectory;
+
+    @Before
+    public void setUp() {
+        stateDirectory = new File(folder.getRoot(), "state");
+    }
+
+    @Test
+    public void reusesClassWithSameFingerprintFromLastRun() throws IOException {
+        IncrementalState state = new IncrementalState(stateDirectory);
+        assertNull(state.getOptimizedClass(CLASS_NAME, FINGERPRINT));
+        state.putOptimizedClass(CLASS_NAME, FINGERPRINT, OPTIMIZED_CLASS);
+        state.save();
+
+        state = new IncrementalState(stateDirectory);
+        assertNull(state.getOptimizedClass(CLASS_NAME, OTHER_FINGERPRINT));
+        assertArrayEquals(OPTIMIZED_CLASS, state.getOptimizedClass(CLASS_NAME, FINGERPRINT));
+    }
+
+    @Test
+    public void removesClassesWhichAreNoLongerUsed() throws IOException {
+        IncrementalState state = new IncrementalState(stateDirectory);
+        state.putOptimizedClass(CLASS_NAME, FINGERPRINT, OPTIMIZED_CLASS);
+        state.save();
+
+        state = new IncrementalState(stateDirectory);
+        state.putOptimizedClass(CLASS_NAME, OTHER_FINGERPRINT, OPTIMIZED_CLASS);
+        state.save();
+
+        assertEquals(1, new File(stateDirectory, "classes").list().length);
+        state = new IncrementalState(stateDirectory);
+        assertNull(state.getOptimizedClass(CLASS_NAME, FINGERPRINT));
+        assertArrayEquals(OPTIMIZED_CLASS, state.getOptimizedClass(CLASS_NAME, OTHER_FINGERPRINT));
+    }
+
+}
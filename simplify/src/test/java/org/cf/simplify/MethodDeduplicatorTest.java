@@ -0,0 +1,110 @@
+package org.cf.simplify;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.smali.ClassManager;
+import org.cf.smalivm.smali.Dexifier;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11n;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.util.ReferenceUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MethodDeduplicatorTest {
+
+    private static final String CLASS_NAME = "Lduplicate_method_test;";
+    private static final String COPY_CLASS_NAME = "Lduplicate_method_copy_test;";
+
+    private ClassManager classManager;
+    private ImplementationCodec codec;
+    private MethodDeduplicator deduplicator;
+
+    @Before
+    public void setUp() {
+        classManager = VMTester.spawnVM(true).getClassManager();
+        codec = new ImplementationCodec(classManager.getDexBuilder(), Dexifier.DEFAULT_API_LEVEL);
+        deduplicator = new MethodDeduplicator(codec, classManager);
+    }
+
+    @Test
+    public void copiesInDifferentClassesHaveSameKey() {
+        ByteBuffer key = deduplicator.getKey(classManager.getMethod(CLASS_NAME + "->sum()I"));
+        ByteBuffer copyKey = deduplicator.getKey(classManager.getMethod(COPY_CLASS_NAME + "->sum()I"));
+
+        assertEquals(key, copyKey);
+    }
+
+    @Test
+    public void methodsReferencingTheirOwnClassHaveDifferentKeys() {
+        ByteBuffer key = deduplicator.getKey(classManager.getMethod(CLASS_NAME + "->getOwnField()I"));
+        ByteBuffer copyKey = deduplicator.getKey(classManager.getMethod(COPY_CLASS_NAME + "->getOwnField()I"));
+
+        assertNotEquals(key, copyKey);
+    }
+
+    @Test
+    public void copiesReferencingTheirOwnClassHaveSameKey() {
+        String methodDescriptor = "->callsOwnMethod()Ljava/lang/Class;";
+        ByteBuffer key = deduplicator.getKey(classManager.getMethod(CLASS_NAME + methodDescriptor));
+        ByteBuffer copyKey = deduplicator.getKey(classManager.getMethod(COPY_CLASS_NAME + methodDescriptor));
+
+        assertEquals(key, copyKey);
+    }
+
+    @Test
+    public void copiesCallingDifferentOwnMethodsHaveDifferentKeys() {
+        ByteBuffer key = deduplicator.getKey(classManager.getMethod(CLASS_NAME + "->callsDifferentOwnMethod()I"));
+        ByteBuffer copyKey = deduplicator.getKey(classManager.getMethod(COPY_CLASS_NAME +
+                        "->callsDifferentOwnMethod()I"));
+
+        assertNotEquals(key, copyKey);
+    }
+
+    @Test
+    public void copyReusingOriginalReferencesItsOwnClass() {
+        LocalMethod original = classManager.getMethod(CLASS_NAME + "->callsOwnMethod()Ljava/lang/Class;");
+        LocalMethod copy = classManager.getMethod(COPY_CLASS_NAME + "->callsOwnMethod()Ljava/lang/Class;");
+        deduplicator.putOriginal(deduplicator.getKey(original), original);
+        LocalMethod found = deduplicator.getOriginal(deduplicator.getKey(copy));
+        assertSame(original, found);
+        assertTrue(deduplicator.applyOriginal(found, copy));
+
+        for (Instruction instruction : copy.getImplementation().getInstructions()) {
+            if (instruction instanceof ReferenceInstruction) {
+                Reference reference = ((ReferenceInstruction) instruction).getReference();
+                String referenceString = ReferenceUtil.getReferenceString(reference);
+                assertTrue(referenceString, referenceString.startsWith(COPY_CLASS_NAME));
+            }
+        }
+    }
+
+    @Test
+    public void copyReusesSimplifiedImplementationOfOriginal() {
+        LocalMethod original = classManager.getMethod(CLASS_NAME + "->sum()I");
+        LocalMethod copy = classManager.getMethod(COPY_CLASS_NAME + "->sum()I");
+        ByteBuffer key = deduplicator.getKey(original);
+        assertNull(deduplicator.getOriginal(key));
+
+        original.getImplementation().replaceInstruction(0, new BuilderInstruction11n(Opcode.CONST_4, 0, 3));
+        deduplicator.putOriginal(key, original);
+        LocalMethod found = deduplicator.getOriginal(deduplicator.getKey(copy));
+        assertSame(original, found);
+        assertTrue(deduplicator.applyOriginal(found, copy));
+
+        assertArrayEquals(codec.encodeWithoutClass(original), codec.encodeWithoutClass(copy));
+        assertEquals("Deduplicated 1 of 2 methods (50.0%)", deduplicator.toString());
+    }
+
+}
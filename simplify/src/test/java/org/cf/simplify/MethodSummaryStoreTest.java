@@ -0,0 +1,98 @@
+package org.cf.simplify;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MethodSummaryStoreTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("simplify-summaries", ".tmp");
+        Files.delete(file.toPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void summariesArePersistedAcrossStores() throws IOException {
+        byte[] key = buildKey(1);
+        MethodSummary summary = new MethodSummary(new byte[] { 1, 2, 3 });
+        try (MethodSummaryStore store = new MethodSummaryStore(file)) {
+            store.put(key, summary);
+            assertEquals(summary, store.get(key));
+        }
+
+        try (MethodSummaryStore store = new MethodSummaryStore(file)) {
+            MethodSummary stored = store.get(key);
+            assertArrayEquals(new byte[] { 1, 2, 3 }, stored.getImplementation());
+            assertNull(store.get(buildKey(2)));
+            assertEquals(1, store.getHitCount());
+            assertEquals(1, store.getMissCount());
+        }
+    }
+
+    @Test
+    public void readerOnlySeesCommittedSummaries() throws IOException {
+        MethodSummary summary = new MethodSummary(null);
+        try (MethodSummaryStore writer = new MethodSummaryStore(file);
+                        MethodSummaryStore reader = new MethodSummaryStore(file)) {
+            writer.put(buildKey(1), summary);
+            writer.flush();
+            writer.put(buildKey(2), summary);
+
+            try (MethodSummaryStore lateReader = new MethodSummaryStore(file)) {
+                assertEquals(1, lateReader.size());
+                assertNull(lateReader.get(buildKey(1)).getImplementation());
+                assertNull(lateReader.get(buildKey(2)));
+            }
+            // Stores are snapshots of when they were opened.
+            assertEquals(0, reader.size());
+        }
+
+        try (MethodSummaryStore store = new MethodSummaryStore(file)) {
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    public void largeStoresAreMappedInChunks() throws IOException {
+        // Each record is 4 + 32 + 4 + 3 = 43 bytes, so a chunk holds two.
+        int maxChunkSize = 100;
+        int count = 5;
+        try (MethodSummaryStore store = new MethodSummaryStore(file, maxChunkSize)) {
+            for (int i = 0; i < count; i++) {
+                store.put(buildKey(i), new MethodSummary(new byte[] { 1, 2, (byte) i }));
+            }
+        }
+
+        try (MethodSummaryStore store = new MethodSummaryStore(file, maxChunkSize)) {
+            assertEquals(count, store.size());
+            for (int i = 0; i < count; i++) {
+                assertArrayEquals(new byte[] { 1, 2, (byte) i }, store.get(buildKey(i)).getImplementation());
+            }
+        }
+    }
+
+    private static byte[] buildKey(int seed) {
+        byte[] key = new byte[32];
+        Arrays.fill(key, (byte) seed);
+
+        return key;
+    }
+
+}
@@ -0,0 +1,44 @@
+package org.cf.simplify;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RegisterLivenessTest {
+
+    private static final String CLASS_NAME = "Ldead_removal_strategy_test;";
+
+    @Test
+    public void reassignedRegisterIsNotLiveUntilReassignmentIsRemoved() {
+        ExecutionGraphManipulator manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME,
+                        "unusedAssignment()I");
+        RegisterLiveness liveness = manipulator.getLiveness();
+        assertEquals(new BitSet(), liveness.getLiveAfter(0));
+        assertTrue(liveness.isAnyLiveAfter(1, Collections.singleton(0)));
+
+        manipulator.removeInstruction(1);
+
+        assertTrue(liveness.isAnyLiveAfter(0, Collections.singleton(0)));
+    }
+
+    @Test
+    public void registerReadOnAnyPathIsLive() {
+        ExecutionGraphManipulator manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME,
+                        "reassignedInOnlyOneMultiverse(I)I");
+        RegisterLiveness liveness = manipulator.getLiveness();
+
+        // v0 is returned unless reassigned, v2 is p0 and is compared with v1
+        BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(2);
+        assertEquals(expected, liveness.getLiveAfter(0));
+        // p0 isn't read after the comparison
+        assertFalse(liveness.isAnyLiveAfter(4, Collections.singleton(2)));
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.cf.simplify;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction11n;
+import org.junit.Test;
+
+public class UseDefIndexTest {
+
+    private static final String CLASS_NAME = "Ldead_removal_strategy_test;";
+
+    @Test
+    public void definitionsFromEveryPathReachUse() {
+        ExecutionGraphManipulator manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME,
+                        "reassignedInOnlyOneMultiverse(I)I");
+        UseDefIndex useDefs = manipulator.getUseDefs();
+
+        int[] definitions = useDefs.getDefinitionAddresses(5, 0);
+        Arrays.sort(definitions);
+        assertArrayEquals(new int[] { 0, 4 }, definitions);
+        assertArrayEquals(new int[] { 5 }, useDefs.getUseAddresses(0, 0));
+        // Return also reads v1 since it holds the same object as v0 when v0 is reassigned
+        int[] uses = useDefs.getUseAddresses(1, 1);
+        Arrays.sort(uses);
+        assertArrayEquals(new int[] { 2, 5 }, uses);
+    }
+
+    @Test
+    public void reassignedDefinitionIsUsedOnceReassignmentIsRemoved() {
+        ExecutionGraphManipulator manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME,
+                        "unusedAssignment()I");
+        UseDefIndex useDefs = manipulator.getUseDefs();
+        assertFalse(useDefs.isAnyUsed(0, Collections.singleton(0)));
+        assertArrayEquals(new int[] { 2 }, useDefs.getUseAddresses(1, 0));
+
+        manipulator.removeInstruction(1);
+
+        assertTrue(useDefs.isAnyUsed(0, Collections.singleton(0)));
+        assertArrayEquals(new int[] { 0 }, useDefs.getDefinitionAddresses(1, 0));
+    }
+
+    @Test
+    public void definitionAboveChangeStillReachesUseBelowIt() {
+        ExecutionGraphManipulator manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME,
+                        "reassignedInOnlyOneMultiverse(I)I");
+        UseDefIndex useDefs = manipulator.getUseDefs();
+        assertArrayEquals(new int[] { 5 }, useDefs.getUseAddresses(0, 0));
+
+        // Previous location is the if, so the definition at 0 only reaches the change through unchanged locations.
+        manipulator.replaceInstruction(4, new BuilderInstruction11n(Opcode.CONST_4, 0, 0));
+
+        int[] definitions = useDefs.getDefinitionAddresses(5, 0);
+        Arrays.sort(definitions);
+        assertArrayEquals(new int[] { 0, 4 }, definitions);
+        assertTrue(useDefs.isAnyUsed(0, Collections.singleton(0)));
+    }
+
+}
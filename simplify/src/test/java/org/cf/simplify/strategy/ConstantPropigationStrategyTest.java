@@ -6,12 +6,16 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.withSettings;
 
+import java.util.Collections;
+
 import org.cf.simplify.ConstantBuilder;
 import org.cf.simplify.ExecutionGraphManipulator;
 import org.cf.simplify.OptimizerTester;
+import org.cf.simplify.Worklist;
 import org.cf.smalivm.VMState;
 import org.cf.smalivm.type.UnknownValue;
 import org.jf.dexlib2.builder.BuilderInstruction;
+import org.jf.dexlib2.builder.MethodLocation;
 import org.jf.dexlib2.iface.instruction.NarrowLiteralInstruction;
 import org.jf.dexlib2.iface.instruction.OneRegisterInstruction;
 import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
@@ -87,6 +91,11 @@ public class ConstantPropigationStrategyTest {
             BuilderInstruction instruction = mock(BuilderInstruction.class,
                             withSettings().extraInterfaces(OneRegisterInstruction.class));
 
+            MethodLocation location = mock(MethodLocation.class);
+            when(location.getInstruction()).thenReturn(instruction);
+            when(location.getCodeAddress()).thenReturn(1);
+            when(graph.newWorklist()).thenReturn(new Worklist(Collections.singletonList(location)));
+
             ConstantPropigationStrategy strategy = new ConstantPropigationStrategy(graph);
             strategy.setDependancies(builder);
 
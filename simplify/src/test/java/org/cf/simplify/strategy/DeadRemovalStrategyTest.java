@@ -147,6 +147,21 @@ public class DeadRemovalStrategyTest {
         assertEquals(expected, found);
     }
 
+    @Test
+    public void parallelAnalysisFindsSameAddressesInSameOrder() {
+        String methodName = "deadCode()V";
+        ExecutionGraphManipulator manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME, methodName);
+        DeadRemovalStrategy strategy = new DeadRemovalStrategy(manipulator);
+        manipulator.getUseDefs().prepare();
+        List<Integer> expected = strategy.getDeadAddresses();
+
+        strategy.setParallelThreshold(0);
+        List<Integer> found = strategy.getDeadAddresses();
+
+        assertEquals(Arrays.asList(2, 3, 4, 5), expected);
+        assertEquals(expected, found);
+    }
+
     @Test
     public void detectsUselessGoto() {
         String methodName = "uselessGoto()V";
@@ -0,0 +1,121 @@
+package org.cf.simplify.strategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jf.dexlib2.Opcode;
+import org.junit.BeforeClass;
+import org.perfidix.annotation.BeforeBenchClass;
+import org.perfidix.annotation.Bench;
+import org.perfidix.annotation.BenchClass;
+
+/**
+ * Scans the same instructions with more and more rules, once with the automaton and once checking each rule at each
+ * instruction. The automaton should take about the same time no matter how many rules there are.
+ */
+@BenchClass(runs = 20)
+public class PeepholeAutomatonBenchmark {
+
+    private static final Opcode[] COMMON_OPCODES = new Opcode[] { Opcode.CONST_4, Opcode.CONST_STRING,
+                    Opcode.MOVE_RESULT, Opcode.MOVE_RESULT_OBJECT, Opcode.INVOKE_STATIC, Opcode.INVOKE_VIRTUAL,
+                    Opcode.INVOKE_DIRECT, Opcode.IF_EQZ, Opcode.IF_NE, Opcode.GOTO, Opcode.CHECK_CAST,
+                    Opcode.ADD_INT_2ADDR, Opcode.AGET_CHAR, Opcode.APUT_CHAR, Opcode.IGET_OBJECT, Opcode.RETURN };
+    private static final int INSTRUCTIONS = 100000;
+
+    private static Random random = new Random(1);
+    private static Opcode[] opcodes;
+    private static List<PeepholeRule> rules1;
+    private static List<PeepholeRule> rules16;
+    private static List<PeepholeRule> rules128;
+    private static PeepholeAutomaton automaton1;
+    private static PeepholeAutomaton automaton16;
+    private static PeepholeAutomaton automaton128;
+
+    @BeforeBenchClass
+    @BeforeClass
+    public static void beforeClass() {
+        opcodes = new Opcode[INSTRUCTIONS];
+        for (int i = 0; i < opcodes.length; i++) {
+            opcodes[i] = COMMON_OPCODES[random.nextInt(COMMON_OPCODES.length)];
+        }
+
+        rules1 = buildRules(1);
+        rules16 = buildRules(16);
+        rules128 = buildRules(128);
+        automaton1 = new PeepholeAutomaton(rules1);
+        automaton16 = new PeepholeAutomaton(rules16);
+        automaton128 = new PeepholeAutomaton(rules128);
+    }
+
+    private static List<PeepholeRule> buildRules(int count) {
+        List<PeepholeRule> rules = new ArrayList<PeepholeRule>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder pattern = new StringBuilder();
+            int length = 1 + random.nextInt(3);
+            for (int j = 0; j < length; j++) {
+                pattern.append(COMMON_OPCODES[random.nextInt(COMMON_OPCODES.length)].name).append(' ');
+            }
+            rules.add(new PeepholeRule("rule" + i, pattern.toString(), a -> true, a -> null));
+        }
+
+        return rules;
+    }
+
+    private static int scanEachRule(List<PeepholeRule> rules) {
+        int matches = 0;
+        for (int i = 0; i < opcodes.length; i++) {
+            for (PeepholeRule rule : rules) {
+                List<Opcode[]> pattern = rule.getPattern();
+                if (i + pattern.size() > opcodes.length) {
+                    continue;
+                }
+                boolean isMatch = true;
+                for (int j = 0; j < pattern.size() && isMatch; j++) {
+                    isMatch = pattern.get(j)[0] == opcodes[i + j];
+                }
+                matches += isMatch ? 1 : 0;
+            }
+        }
+
+        return matches;
+    }
+
+    private static int scan(PeepholeAutomaton automaton) {
+        int[] matches = new int[1];
+        automaton.scan(opcodes, (rule, start) -> matches[0]++);
+
+        return matches[0];
+    }
+
+    @Bench
+    public void timeAutomaton1Rule() {
+        scan(automaton1);
+    }
+
+    @Bench
+    public void timeAutomaton16Rules() {
+        scan(automaton16);
+    }
+
+    @Bench
+    public void timeAutomaton128Rules() {
+        scan(automaton128);
+    }
+
+    @Bench
+    public void timeEachRule1Rule() {
+        scanEachRule(rules1);
+    }
+
+    @Bench
+    public void timeEachRule16Rules() {
+        scanEachRule(rules16);
+    }
+
+    @Bench
+    public void timeEachRule128Rules() {
+        scanEachRule(rules128);
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.cf.simplify.strategy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jf.dexlib2.Opcode;
+import org.junit.Test;
+
+public class PeepholeAutomatonTest {
+
+    private static List<String> scan(PeepholeAutomaton automaton, Opcode... opcodes) {
+        List<String> matches = new ArrayList<String>();
+        automaton.scan(opcodes, (rule, start) -> matches.add(automaton.getRules().get(rule) + "@" + start));
+
+        return matches;
+    }
+
+    private static PeepholeRule buildRule(String name, String pattern) {
+        return new PeepholeRule(name, pattern, a -> true, a -> null);
+    }
+
+    @Test
+    public void everyRuleIsMatchedInOneScan() {
+        PeepholeAutomaton automaton = new PeepholeAutomaton(Arrays.asList(buildRule("constAdd",
+                        "const/4 add-int/2addr"), buildRule("add", "add-int*"), buildRule("if", "if-*")));
+        List<String> matches = scan(automaton, Opcode.CONST_4, Opcode.ADD_INT_2ADDR, Opcode.IF_EQZ, Opcode.ADD_INT,
+                        Opcode.RETURN_VOID);
+
+        assertEquals(Arrays.asList("constAdd@0", "add@1", "if@2", "add@3"), matches);
+    }
+
+    @Test
+    public void overlappingMatchesAreFound() {
+        PeepholeAutomaton automaton = new PeepholeAutomaton(Arrays.asList(buildRule("twoConsts",
+                        "const/4 const/4 return"), buildRule("constReturn", "const/4 return")));
+        List<String> matches = scan(automaton, Opcode.CONST_4, Opcode.CONST_4, Opcode.CONST_4, Opcode.RETURN);
+
+        assertEquals(Arrays.asList("twoConsts@1", "constReturn@2"), matches);
+        assertEquals(3, automaton.getLongestPattern());
+    }
+
+    @Test
+    public void everyAlternativeIsMatched() {
+        PeepholeAutomaton automaton = new PeepholeAutomaton(Arrays.asList(buildRule("invoke",
+                        "invoke-static|invoke-direct move-result")));
+        List<String> matches = scan(automaton, Opcode.INVOKE_DIRECT, Opcode.MOVE_RESULT, Opcode.INVOKE_STATIC,
+                        Opcode.MOVE_RESULT, Opcode.INVOKE_VIRTUAL, Opcode.MOVE_RESULT);
+
+        assertEquals(Arrays.asList("invoke@0", "invoke@2"), matches);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOpcodeIsRejected() {
+        buildRule("bad", "const/4 not-an-op");
+    }
+
+}
@@ -89,6 +89,36 @@ public class PeepholeStrategyTest {
             testForExpectedInstruction("peephole_strategy_test", "Lpeephole_strategy_test;");
         }
 
+        @Test
+        public void testInvokeClassForNameAndMoveResultAreReplaced() {
+            ExecutionGraphManipulator manipulator = getOptimizedGraph(METHOD_NAME, 0, "java.lang.String",
+                            "Ljava/lang/String;");
+
+            assertArrayEquals(new int[] { 0, 2 }, manipulator.getAddresses());
+            assertEquals("return-void", manipulator.getOp(2).toString());
+        }
+
+        @Test
+        public void testInvokeClassForNameAssignsRegisterOfMoveResult() {
+            ExecutionGraphManipulator manipulator = getOptimizedGraph(
+                            "classForNameIntoOtherRegister()Ljava/lang/Class;", 0, "java.lang.String",
+                            "Ljava/lang/String;");
+
+            assertArrayEquals(new int[] { 0, 2 }, manipulator.getAddresses());
+            assertEquals("const-class r1, Ljava/lang/String;", manipulator.getOp(0).toString());
+            assertEquals("return-object r1", manipulator.getOp(2).toString());
+        }
+
+        @Test
+        public void testInvokeClassForNameWithoutMoveResultIsReplaced() {
+            ExecutionGraphManipulator manipulator = getOptimizedGraph("classForNameWithoutResult()V", 0,
+                            "java.lang.String", "Ljava/lang/String;");
+
+            assertArrayEquals(new int[] { 0, 2 }, manipulator.getAddresses());
+            assertEquals("const-class r0, Ljava/lang/String;", manipulator.getOp(0).toString());
+            assertEquals("return-void", manipulator.getOp(2).toString());
+        }
+
         @Test
         public void testInvokeClassForNameForUnknownValueIsNotReplaced() {
             ExecutionGraphManipulator manipulator = getOptimizedGraph(METHOD_NAME, 0, new UnknownValue(),
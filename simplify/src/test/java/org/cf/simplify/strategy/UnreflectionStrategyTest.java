@@ -2,6 +2,8 @@ package org.cf.simplify.strategy;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -11,6 +13,8 @@ import org.cf.simplify.ExecutionGraphManipulator;
 import org.cf.simplify.OptimizerTester;
 import org.cf.smalivm.VMState;
 import org.cf.smalivm.VMTester;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
 import org.cf.smalivm.reference.LocalMethod;
 import org.cf.smalivm.smali.ClassManager;
 import org.cf.smalivm.type.UnknownValue;
@@ -106,6 +110,30 @@ public class UnreflectionStrategyTest {
         }
     }
 
+    public static class MethodUnreflectionWithKnownMethodAndTargetAndParameters {
+
+        private static final String METHOD_NAME = "methodInvokeForKnownMethodAndTargetAndParameters()Ljava/lang/String;";
+
+        @Test
+        public void testEverythingAfterInvocationIsExecutedAgain() {
+            ExecutionGraphManipulator manipulator = OptimizerTester.getGraphManipulator(CLASS_NAME, METHOD_NAME);
+            assertTrue(getReturnItem(manipulator).isUnknown());
+
+            UnreflectionStrategy strategy = new UnreflectionStrategy(manipulator);
+            strategy.perform();
+
+            assertFalse(manipulator.needsExecution());
+            assertEquals("hello,world!", getReturnItem(manipulator).getValue());
+        }
+
+        private static HeapItem getReturnItem(ExecutionGraphManipulator manipulator) {
+            int[] addresses = manipulator.getAddresses();
+            int returnAddress = addresses[addresses.length - 1];
+
+            return manipulator.getRegisterConsensus(returnAddress, MethodState.ReturnRegister);
+        }
+    }
+
     public static class MethodUnreflectionWithImpossibleScenarios {
 
         private static final String[] EXPECTED_SHARED_SMALI = new String[] {
@@ -4,8 +4,14 @@ import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.lang3.mutable.MutableInt;
 import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
@@ -13,6 +19,8 @@ import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
 import org.cf.smalivm.exception.MaxMethodVisitsExceeded;
 import org.cf.smalivm.exception.UnhandledVirtualException;
+import org.cf.smalivm.opcode.InvokeOp;
+import org.cf.smalivm.opcode.Op;
 import org.cf.smalivm.reference.LocalMethod;
 import org.cf.smalivm.smali.ClassManager;
 import org.slf4j.Logger;
@@ -27,7 +35,8 @@ public class MethodExecutor {
     private final int maxCallDepth;
     private final int maxExecutionTime;
     private final int maxMethodVisits;
-    private int totalVisits;
+    // Counted across every call made by a root method. Root methods may be executed on several threads at once.
+    private final ThreadLocal<MutableInt> totalVisits;
 
     MethodExecutor(ClassManager classManager, int maxCallDepth, int maxAddressVisits, int maxMethodVisits,
                     int maxExecutionTime) {
@@ -36,41 +45,101 @@ public class MethodExecutor {
         this.maxAddressVisits = maxAddressVisits;
         this.maxMethodVisits = maxMethodVisits;
         this.maxExecutionTime = maxExecutionTime;
-        totalVisits = 0;
+        totalVisits = ThreadLocal.withInitial(MutableInt::new);
     }
 
     ExecutionGraph execute(ExecutionGraph graph) throws MaxAddressVisitsExceeded, MaxCallDepthExceeded,
                     MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded {
+        return execute(graph, Collections.singletonList(graph.getRoot()));
+    }
+
+    /**
+     * Execute nodes and everything they spawn. Nodes must already be in the graph and have contexts. Limits on visits
+     * only count nodes executed here.
+     *
+     * @param graph
+     * @param nodes
+     *            nodes to start from
+     * @return the graph
+     */
+    ExecutionGraph execute(ExecutionGraph graph, List<ExecutionNode> nodes) throws MaxAddressVisitsExceeded,
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException,
+                    MaxExecutionTimeExceeded {
         TIntIntMap addressToVisitCount = new TIntIntHashMap();
         LocalMethod localMethod = graph.getMethod();
-        ExecutionNode node = graph.getRoot();
+        ExecutionNode node = nodes.get(0);
         int callDepth = node.getCallDepth();
         log.info("Executing {}, depth={}", localMethod, callDepth);
         if (node.getCallDepth() > getMaxCallDepth()) {
             throw new MaxCallDepthExceeded(localMethod.getSignature());
         }
 
+        MutableInt visits = totalVisits.get();
         if (callDepth == 0) {
             // This is a new root method.
-            resetTotalVisits();
+            visits.setValue(0);
         }
 
         NodeExecutor nodeExecutor = new NodeExecutor(graph, classManager);
         Deque<ExecutionNode> stack = new ArrayDeque<ExecutionNode>();
-        stack.push(node);
+        Map<Op, List<ExecutionNode>> opToSiblings = new IdentityHashMap<Op, List<ExecutionNode>>();
+        for (ExecutionNode start : nodes) {
+            push(start, stack, opToSiblings);
+        }
         long endTime = System.currentTimeMillis() + (maxExecutionTime * 1000);
         while ((node = stack.poll()) != null) {
-            totalVisits += 1;
-            checkMaxVisits(node, localMethod, addressToVisitCount);
-
-            nodeExecutor.execute(node);
-            stack.addAll(node.getChildren());
+            List<ExecutionNode> siblings = pollSiblings(node, opToSiblings);
+            for (ExecutionNode current : siblings) {
+                visits.increment();
+                checkMaxVisits(current, localMethod, visits.intValue(), addressToVisitCount);
+            }
+
+            nodeExecutor.execute(siblings);
+            for (ExecutionNode current : siblings) {
+                for (ExecutionNode child : current.getChildren()) {
+                    push(child, stack, opToSiblings);
+                }
+            }
             checkMaxExecutionTime(endTime, localMethod);
         }
 
         return graph;
     }
 
+    /**
+     * Nodes are independent, so pending nodes at the same invoke op can be executed together and have their reflected
+     * calls batched. This happens whenever several paths reach the same call, e.g. unrolled loops. Only the first
+     * pending node at such an op goes on the stack and the rest wait with it.
+     */
+    private static void push(ExecutionNode node, Deque<ExecutionNode> stack,
+                    Map<Op, List<ExecutionNode>> opToSiblings) {
+        Op op = node.getOp();
+        if (!(op instanceof InvokeOp) || !((InvokeOp) op).mayReflect()) {
+            stack.add(node);
+            return;
+        }
+
+        List<ExecutionNode> siblings = opToSiblings.get(op);
+        if (siblings == null) {
+            siblings = new ArrayList<ExecutionNode>();
+            opToSiblings.put(op, siblings);
+            stack.add(node);
+        }
+        siblings.add(node);
+    }
+
+    /**
+     * @return the node and any pending nodes with the same op which were pushed since it
+     */
+    private static List<ExecutionNode> pollSiblings(ExecutionNode node, Map<Op, List<ExecutionNode>> opToSiblings) {
+        List<ExecutionNode> siblings = opToSiblings.remove(node.getOp());
+        if (siblings == null) {
+            return Collections.singletonList(node);
+        }
+
+        return siblings;
+    }
+
     private void checkMaxExecutionTime(long endTime, LocalMethod localMethod) throws MaxExecutionTimeExceeded {
         if (maxExecutionTime == 0) {
             return;
@@ -81,9 +150,9 @@ public class MethodExecutor {
         }
     }
 
-    private void checkMaxVisits(ExecutionNode node, LocalMethod localMethod, TIntIntMap addressToVisitCount)
-                    throws MaxAddressVisitsExceeded, MaxMethodVisitsExceeded {
-        if (totalVisits > getMaxMethodVisits()) {
+    private void checkMaxVisits(ExecutionNode node, LocalMethod localMethod, int methodVisits,
+                    TIntIntMap addressToVisitCount) throws MaxAddressVisitsExceeded, MaxMethodVisitsExceeded {
+        if (methodVisits > getMaxMethodVisits()) {
             throw new MaxMethodVisitsExceeded(node, localMethod.getSignature());
         }
 
@@ -110,8 +179,4 @@ public class MethodExecutor {
         return maxMethodVisits;
     }
 
-    private void resetTotalVisits() {
-        totalVisits = 0;
-    }
-
 }
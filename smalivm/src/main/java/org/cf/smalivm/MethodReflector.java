@@ -1,8 +1,17 @@
 package org.cf.smalivm;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.beanutils.ConstructorUtils;
 import org.apache.commons.beanutils.MethodUtils;
@@ -15,60 +24,179 @@ import org.cf.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Throwables;
+
 public class MethodReflector {
 
     private static Logger log = LoggerFactory.getLogger(MethodReflector.class.getSimpleName());
 
-    private class InvocationArguments {
-
-        private Object[] args;
-        private Class<?>[] parameterTypes;
+    /**
+     * A resolved method handle and everything needed to build its arguments from a method state. The handle is adapted
+     * to take a single Object[] of arguments, with the instance first for non-static methods, and to return an Object.
+     */
+    private static class ReflectedMethod {
+
+        private final MethodHandle invoker;
+        private final int[] argumentRegisters;
+        private final boolean isConstructor;
+
+        ReflectedMethod(VirtualMethod virtualMethod) throws ClassNotFoundException, NoSuchMethodException,
+                        IllegalAccessException {
+            // Shouldn't need a VM class loader since these are all safe to reflect on the JVM
+            Class<?> klazz = Class.forName(virtualMethod.getBinaryClassName());
+            isConstructor = virtualMethod.isConstructor();
+
+            int offset = virtualMethod.isStatic() ? 0 : 1;
+            List<String> parameterTypeNames = virtualMethod.getParameterTypes();
+            Class<?>[] parameterTypes = new Class<?>[parameterTypeNames.size() - offset];
+            boolean hasInstance = offset == 1 && !isConstructor;
+            argumentRegisters = new int[parameterTypes.length + (hasInstance ? 1 : 0)];
+            int argument = 0;
+            if (hasInstance) {
+                argumentRegisters[argument++] = 0;
+            }
+            int register = offset;
+            for (int i = offset; i < parameterTypeNames.size(); i++) {
+                String parameterTypeName = parameterTypeNames.get(i);
+                if (ClassNameUtils.isPrimitive(parameterTypeName)) {
+                    parameterTypes[i - offset] = ClassNameUtils.getPrimitiveClass(parameterTypeName);
+                } else {
+                    // Some type names are arrays and loadClass only works for component types
+                    parameterTypes[i - offset] = Class.forName(ClassNameUtils.internalToBinary(parameterTypeName));
+                }
+                argumentRegisters[argument++] = register;
+                // Long tried every diet but is still fat and takes 2 registers. Could be thyroid.
+                register += Utils.getRegisterSize(parameterTypeName);
+            }
 
-        public InvocationArguments(Object[] args, Class<?>[] parameterTypes) {
-            this.args = args;
-            this.parameterTypes = parameterTypes;
+            // Full lookup rather than public lookup since caller sensitive methods, e.g. Class.getMethod, are allowed.
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle;
+            if (isConstructor) {
+                Constructor<?> constructor = ConstructorUtils.getAccessibleConstructor(klazz, parameterTypes);
+                if (constructor == null) {
+                    throw new NoSuchMethodException(virtualMethod.toString());
+                }
+                handle = lookup.unreflectConstructor(constructor);
+            } else {
+                // Finds an accessible version, e.g. AbstractStringBuilder.length() is reached through CharSequence.
+                Method method = MethodUtils.getMatchingAccessibleMethod(klazz, virtualMethod.getMethodName(),
+                                parameterTypes);
+                if (method == null) {
+                    throw new NoSuchMethodException(virtualMethod.toString());
+                }
+                handle = lookup.unreflect(method);
+            }
+            int arity = argumentRegisters.length;
+            invoker = handle.asFixedArity().asType(MethodType.genericMethodType(arity))
+                            .asSpreader(Object[].class, arity);
         }
 
-        public Object[] getArgs() {
+        Object[] getArguments(MethodState mState) {
+            Object[] args = new Object[argumentRegisters.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = mState.peekParameter(argumentRegisters[i]).getValue();
+            }
+
             return args;
         }
 
-        public Class<?>[] getParameterTypes() {
-            return parameterTypes;
+        Object invoke(Object[] args) throws Exception {
+            try {
+                return (Object) invoker.invokeExact(args);
+            } catch (Throwable e) {
+                // Handles declare Throwable. Only narrow it, errors are still thrown as they are.
+                Throwables.propagateIfPossible(e, Exception.class);
+                throw new UndeclaredThrowableException(e);
+            }
         }
 
     }
 
+    /**
+     * Marks a call in a batch which threw, so the rest of the batch can still be used.
+     */
+    private static class Failure {
+
+        private final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+
+    }
+
+    // Reflected methods are all on the JVM class path, so resolved handles are shared between virtual machines.
+    private static final ConcurrentMap<String, ReflectedMethod> signatureToReflectedMethod = new ConcurrentHashMap<String, ReflectedMethod>();
+
     private final VirtualMethod virtualMethod;
+    private final ReflectionSandbox sandbox;
 
     public MethodReflector(VirtualMachine vm, VirtualMethod virtualMethod) {
         this.virtualMethod = virtualMethod;
-
+        sandbox = vm.getReflectionSandbox();
     }
 
     public void reflect(MethodState mState) {
+        reflect(Collections.singletonList(mState));
+    }
+
+    /**
+     * Reflect several calls to this method at once, e.g. from every node in a pile at the same invoke op. The method is
+     * resolved and dispatched to the sandbox once for the whole batch, though each call still has its own deadline.
+     *
+     * @param mStates
+     *            callee method states, one per call
+     */
+    public void reflect(List<MethodState> mStates) {
         if (log.isDebugEnabled()) {
-            log.debug("Reflecting {} with context:\n{}", virtualMethod, mState);
+            log.debug("Reflecting {} with {} contexts:\n{}", virtualMethod, mStates.size(), mStates);
         }
 
-        Object returnValue = null;
+        Object[] returnValues = new Object[mStates.size()];
         try {
-            returnValue = invoke(mState);
-        } catch (NullPointerException | ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            if (log.isWarnEnabled()) {
-                log.warn("Failed to reflect {}: {}", virtualMethod, e.getMessage());
+            // A call which missed its deadline may still finish later, so only take values of calls which finished.
+            Object[] callValues = new Object[mStates.size()];
+            int finishedCount = invoke(mStates, callValues);
+            System.arraycopy(callValues, 0, returnValues, 0, finishedCount);
+            if (finishedCount < mStates.size()) {
+                // The call which missed its deadline may have been abandoned part way through mutating its instance.
+                if (!virtualMethod.isStatic()) {
+                    mStates.get(finishedCount).assignParameter(0, HeapItem.newUnknown(virtualMethod.getClassName()));
+                }
+                Failure failure = new Failure(new TimeoutException(virtualMethod + " exceeded max reflection time"));
+                Arrays.fill(returnValues, finishedCount, returnValues.length, failure);
             }
-
-            if (log.isDebugEnabled()) {
-                log.debug("Stack trace:", e);
+        } catch (Exception | LinkageError e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
             }
-
-            returnValue = new UnknownValue();
+            Arrays.fill(returnValues, new Failure(e));
         }
 
-        if (!virtualMethod.returnsVoid()) {
-            HeapItem returnItem = new HeapItem(returnValue, virtualMethod.getReturnType());
-            mState.assignReturnRegister(returnItem);
+        for (int i = 0; i < mStates.size(); i++) {
+            MethodState mState = mStates.get(i);
+            Object returnValue = returnValues[i];
+            if (returnValue instanceof Failure) {
+                Throwable e = ((Failure) returnValue).cause;
+                // Handles don't wrap exceptions, so anything the target method throws ends up here.
+                if (log.isWarnEnabled()) {
+                    log.warn("Failed to reflect {}: {}", virtualMethod, e.getMessage());
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Stack trace:", e);
+                }
+
+                returnValue = new UnknownValue();
+            } else if (virtualMethod.isConstructor()) {
+                mState.assignParameter(0, new HeapItem(returnValue, virtualMethod.getClassName()));
+            }
+
+            if (!virtualMethod.returnsVoid()) {
+                HeapItem returnItem = new HeapItem(returnValue, virtualMethod.getReturnType());
+                mState.assignReturnRegister(returnItem);
+            }
         }
     }
 
@@ -80,71 +208,44 @@ public class MethodReflector {
         return sb.toString();
     }
 
-    private InvocationArguments getArguments(MethodState mState) throws ClassNotFoundException {
-        int offset = 0;
-        if (!virtualMethod.isStatic()) {
-            // First element in context will be instance reference if non-static method.
-            offset = 1;
-        }
-
-        List<String> parameterTypeNames = virtualMethod.getParameterTypes();
-        int size = parameterTypeNames.size() - offset;
-        Object[] args = new Object[size];
-        Class<?>[] parameterTypes = new Class<?>[size];
-        for (int i = offset; i < mState.getRegisterCount(); i++) {
-            HeapItem argItem = mState.peekParameter(i);
-            args[i - offset] = argItem.getValue();
-
-            String parameterTypeName = parameterTypeNames.get(i);
-            Class<?> parameterType;
-            if (argItem.isPrimitive()) {
-                parameterType = ClassNameUtils.getPrimitiveClass(parameterTypeName);
-            } else {
-                // Shouldn't need a VM class loader since these are all safe to reflect on the JVM
-                // Also, some type names are arrays and loadClass only works for component types
-                parameterType = Class.forName(ClassNameUtils.internalToBinary(parameterTypeName));
-            }
-            parameterTypes[i - offset] = parameterType;
-
-            if (Utils.getRegisterSize(parameterTypeName) == 2) {
-                // Long tried every diet but is still fat and takes 2 registers. Could be thyroid.
-                i++;
+    /**
+     * @return number of calls finished before one missed its deadline
+     */
+    private int invoke(List<MethodState> mStates, Object[] callValues) throws ClassNotFoundException,
+                    NoSuchMethodException, IllegalAccessException, TimeoutException, InterruptedException {
+        ReflectedMethod reflectedMethod = getReflectedMethod(virtualMethod);
+        int callCount = mStates.size();
+        Object[][] callArgs = new Object[callCount][];
+        for (int i = 0; i < callCount; i++) {
+            callArgs[i] = reflectedMethod.getArguments(mStates.get(i));
+            if (log.isDebugEnabled()) {
+                log.debug("Reflecting {}, args={}", virtualMethod, Arrays.toString(callArgs[i]));
             }
         }
 
-        return new InvocationArguments(args, parameterTypes);
+        return sandbox.invoke(virtualMethod.getSignature(), callCount, (int call) -> {
+            try {
+                callValues[call] = reflectedMethod.invoke(callArgs[call]);
+            } catch (Exception | LinkageError e) {
+                // Anything else, e.g. running out of memory, is a problem with the VM rather than the call.
+                callValues[call] = new Failure(e);
+            }
+        });
     }
 
-    private Object invoke(MethodState mState) throws ClassNotFoundException, NoSuchMethodException,
-                    IllegalAccessException, InvocationTargetException, InstantiationException {
-        Object returnValue;
-        Class<?> klazz = Class.forName(virtualMethod.getBinaryClassName());
-        InvocationArguments invocationArgs = getArguments(mState);
-        Object[] args = invocationArgs.getArgs();
-        Class<?>[] parameterTypes = invocationArgs.getParameterTypes();
-        if (virtualMethod.isStatic()) {
-            if (log.isDebugEnabled()) {
-                log.debug("Reflecting {}, clazz={} args={}", virtualMethod, klazz, Arrays.toString(args));
-            }
-            returnValue = MethodUtils.invokeStaticMethod(klazz, virtualMethod.getMethodName(), args, parameterTypes);
-        } else {
-            if ("<init>".equals(virtualMethod.getMethodName())) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Reflecting {}, class={} args={}", virtualMethod, klazz, Arrays.toString(args));
-                }
-                returnValue = ConstructorUtils.invokeConstructor(klazz, args);
-                mState.assignParameter(0, new HeapItem(returnValue, virtualMethod.getClassName()));
-            } else {
-                HeapItem targetItem = mState.peekRegister(0);
-                if (log.isDebugEnabled()) {
-                    log.debug("Reflecting {}, target={} args={}", virtualMethod, targetItem, Arrays.toString(args));
-                }
-                returnValue = MethodUtils.invokeMethod(targetItem.getValue(), virtualMethod.getMethodName(), args,
-                                parameterTypes);
+    private static ReflectedMethod getReflectedMethod(VirtualMethod virtualMethod) throws ClassNotFoundException,
+                    NoSuchMethodException, IllegalAccessException {
+        String signature = virtualMethod.getSignature();
+        ReflectedMethod reflectedMethod = signatureToReflectedMethod.get(signature);
+        if (reflectedMethod == null) {
+            reflectedMethod = new ReflectedMethod(virtualMethod);
+            ReflectedMethod existing = signatureToReflectedMethod.putIfAbsent(signature, reflectedMethod);
+            if (existing != null) {
+                reflectedMethod = existing;
             }
         }
 
-        return returnValue;
+        return reflectedMethod;
     }
 
 }
@@ -0,0 +1,292 @@
+package org.cf.smalivm;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.cf.smalivm.configuration.Configuration;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.reference.VirtualMethod;
+import org.cf.smalivm.type.UninitializedInstance;
+import org.cf.util.ClassNameUtils;
+import org.cf.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least recently used cache of results of pure, non-local method calls, i.e. reflected safe methods and pure emulated
+ * methods. Calls are keyed by the method signature and the values of the arguments. Results are cloned going into and
+ * coming out of the cache so no two callers ever share a mutable result.
+ *
+ * Only calls where every argument is either primitive, immutable, or an array of those are cached. Instance methods
+ * must also have an immutable instance, since the result may depend on mutable state which isn't in the key. Pure
+ * methods shouldn't modify arrays, but if one is seen doing so, it's never cached again. Methods configured as
+ * nondeterministic, e.g. UUID.randomUUID(), are never cached.
+ */
+public class MethodResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MethodResultCache.class.getSimpleName());
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public static final class MethodCall {
+
+        private final String signature;
+        private final Object[] arguments;
+        private final int hashCode;
+
+        MethodCall(String signature, Object[] arguments) {
+            this.signature = signature;
+            this.arguments = arguments;
+            hashCode = 31 * signature.hashCode() + Arrays.deepHashCode(arguments);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof MethodCall)) {
+                return false;
+            }
+            MethodCall other = (MethodCall) obj;
+
+            return hashCode == other.hashCode && signature.equals(other.signature) && Arrays.deepEquals(arguments,
+                            other.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+    private static final class MethodResult {
+
+        private final Object value;
+        private final String type;
+
+        MethodResult(Object value, String type) {
+            this.value = value;
+            this.type = type;
+        }
+
+    }
+
+    private final VirtualMachine vm;
+    private final Map<MethodCall, MethodResult> callToResult;
+    private final Set<String> impureSignatures;
+    private long hitCount;
+    private long missCount;
+
+    public MethodResultCache(VirtualMachine vm) {
+        this(vm, DEFAULT_CAPACITY);
+    }
+
+    public MethodResultCache(VirtualMachine vm, final int capacity) {
+        this.vm = vm;
+        callToResult = new LinkedHashMap<MethodCall, MethodResult>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MethodCall, MethodResult> eldest) {
+                return size() > capacity;
+            }
+
+        };
+        impureSignatures = new HashSet<String>();
+    }
+
+    public synchronized void clear() {
+        callToResult.clear();
+        impureSignatures.clear();
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int size() {
+        return callToResult.size();
+    }
+
+    /**
+     * @param signature
+     *            signature of the method being called, which may differ from the virtual method for virtual calls
+     * @param virtualMethod
+     * @param calleeState
+     *            method state with the arguments of the call
+     * @return call which can be used to look up and store results, or null if the call can't be cached
+     */
+    public synchronized @Nullable MethodCall buildCall(String signature, VirtualMethod virtualMethod,
+                    MethodState calleeState) {
+        Object[] arguments = getArguments(signature, virtualMethod, calleeState);
+        if (arguments == null) {
+            return null;
+        }
+
+        return new MethodCall(signature, arguments);
+    }
+
+    /**
+     * Look up the results of a call and, if found, assign them to the callee method state as if the method had been
+     * executed.
+     *
+     * @param call
+     *            call from {@link #buildCall(String, VirtualMethod, MethodState)}
+     * @param virtualMethod
+     * @param calleeState
+     * @return true if results were found and assigned, false otherwise
+     */
+    public synchronized boolean restore(MethodCall call, VirtualMethod virtualMethod, MethodState calleeState) {
+        MethodResult result = callToResult.get(call);
+        if (result == null) {
+            missCount++;
+            return false;
+        }
+
+        hitCount++;
+        HeapItem item = new HeapItem(vm.getCloner().deepClone(result.value), result.type);
+        if (virtualMethod.isConstructor()) {
+            calleeState.assignParameter(0, item);
+        } else {
+            calleeState.assignReturnRegister(item);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Using cached result for {}: {}", call.signature, item);
+        }
+
+        return true;
+    }
+
+    /**
+     * Store the results of an executed call.
+     *
+     * @param call
+     *            call from {@link #buildCall(String, VirtualMethod, MethodState)}
+     * @param virtualMethod
+     * @param calleeState
+     *            method state after the method was executed
+     */
+    public synchronized void store(MethodCall call, VirtualMethod virtualMethod, MethodState calleeState) {
+        if (wereArgumentsModified(call, virtualMethod, calleeState)) {
+            if (log.isDebugEnabled()) {
+                log.debug("{} modified its arguments and won't be cached", call.signature);
+            }
+            impureSignatures.add(call.signature);
+            return;
+        }
+
+        HeapItem item;
+        if (virtualMethod.isConstructor()) {
+            item = calleeState.peekParameter(0);
+        } else {
+            item = calleeState.readReturnRegister();
+        }
+        if (item == null || item.isUnknown() || item.getValue() instanceof UninitializedInstance) {
+            return;
+        }
+
+        Object value = vm.getCloner().deepClone(item.getValue());
+        callToResult.put(call, new MethodResult(value, item.getType()));
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Method result cache: ");
+        sb.append(hitCount).append(" hits, ").append(missCount).append(" misses, ");
+        sb.append(String.format("%.1f", getHitRate() * 100)).append("% hit rate, ");
+        sb.append(callToResult.size()).append(" results");
+
+        return sb.toString();
+    }
+
+    private @Nullable Object[] getArguments(String signature, VirtualMethod virtualMethod, MethodState calleeState) {
+        if (virtualMethod.returnsVoid() && !virtualMethod.isConstructor()) {
+            return null;
+        }
+        if (impureSignatures.contains(signature)) {
+            return null;
+        }
+        Configuration configuration = vm.getConfiguration();
+        if (configuration.isNondeterministic(signature)) {
+            return null;
+        }
+
+        List<String> parameterTypes = virtualMethod.getParameterTypes();
+        // Constructor instances are uninitialized and aren't part of the call.
+        int first = virtualMethod.isConstructor() ? 1 : 0;
+        Object[] arguments = new Object[parameterTypes.size() - first];
+        int register = 0;
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            int parameterRegister = register;
+            register += Utils.getRegisterSize(parameterTypes.get(i));
+            if (i < first) {
+                continue;
+            }
+
+            HeapItem item = calleeState.peekParameter(parameterRegister);
+            Object value = item.getValue();
+            if (value != null) {
+                if (item.isUnknown() || value instanceof UninitializedInstance) {
+                    return null;
+                }
+                String baseType = ClassNameUtils.getComponentBase(item.getType());
+                if (!ClassNameUtils.isPrimitive(baseType) && !configuration.isImmutable(baseType)) {
+                    return null;
+                }
+                if (value.getClass().isArray()) {
+                    // Key must not change if the caller later modifies the array.
+                    value = vm.getCloner().deepClone(value);
+                }
+            }
+            arguments[i - first] = value;
+        }
+
+        return arguments;
+    }
+
+    private static boolean wereArgumentsModified(MethodCall call, VirtualMethod virtualMethod, MethodState calleeState) {
+        List<String> parameterTypes = virtualMethod.getParameterTypes();
+        int first = virtualMethod.isConstructor() ? 1 : 0;
+        int register = 0;
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            int parameterRegister = register;
+            register += Utils.getRegisterSize(parameterTypes.get(i));
+            if (i < first) {
+                continue;
+            }
+
+            Object expected = call.arguments[i - first];
+            if (expected != null && expected.getClass().isArray()) {
+                Object actual = calleeState.peekParameter(parameterRegister).getValue();
+                if (!Objects.deepEquals(expected, actual)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -1,8 +1,12 @@
 package org.cf.smalivm;
 
+import java.util.List;
+import java.util.Map;
+
 import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.exception.UnhandledVirtualException;
+import org.cf.smalivm.opcode.InvokeOp;
 import org.cf.smalivm.opcode.Op;
 import org.cf.smalivm.smali.ClassManager;
 import org.jf.dexlib2.builder.MethodLocation;
@@ -47,6 +51,45 @@ public class NodeExecutor {
         }
     }
 
+    /**
+     * Execute nodes at the same op. Piles of nodes at an invoke op which may reflect are executed together so their
+     * calls can be batched.
+     *
+     * @param nodes
+     *            nodes with the same op
+     * @throws UnhandledVirtualException
+     */
+    public void execute(List<ExecutionNode> nodes) throws UnhandledVirtualException {
+        Op op = nodes.get(0).getOp();
+        if (nodes.size() == 1 || !(op instanceof InvokeOp)) {
+            for (ExecutionNode node : nodes) {
+                execute(node);
+            }
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Handling {} nodes @{}: {}", nodes.size(), op.getAddress(), op);
+        }
+
+        Map<ExecutionNode, Exception> failures = ExecutionNode.execute((InvokeOp) op, nodes);
+        for (Map.Entry<ExecutionNode, Exception> failure : failures.entrySet()) {
+            // Same as for a single node, only the node which threw gets an exception child.
+            ExecutionNode node = failure.getKey();
+            Exception e = failure.getValue();
+            if (log.isWarnEnabled()) {
+                log.warn("{} threw a real exception:", node, e);
+            }
+            int childAddress = exceptionResolver.resolve(e, node.getAddress());
+            spawnChild(graph, node, childAddress);
+        }
+
+        for (ExecutionNode node : nodes) {
+            spawnChildren(graph, node);
+            spawnExceptionChildren(graph, node, exceptionResolver);
+        }
+    }
+
     private static void spawnChild(ExecutionGraph graph, ExecutionNode parentNode, int childAddress) {
         Op childOp = graph.getTemplateNode(childAddress).getOp();
         ExecutionNode childNode = parentNode.spawnChild(childOp);
@@ -0,0 +1,230 @@
+package org.cf.smalivm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Runs reflected method calls with a deadline. Safe methods can still take practically forever with the wrong
+ * arguments, e.g. a huge BigInteger.pow() or a pathological regular expression, and the maximum execution time is only
+ * checked between instructions.
+ *
+ * Calls are made on daemon worker threads. If a call misses its deadline, the worker is interrupted and abandoned. A
+ * deadline may be missed only because of the arguments, so the method may still be reflected with others. Once it has
+ * missed {@link #MAX_TIMEOUTS} deadlines, it's never reflected again by this sandbox, which caps the time lost to any
+ * one method.
+ *
+ * Methods of a few classes, e.g. boxing and parsing numbers, are known to take time proportional to their arguments
+ * at worst, so they're called on the current thread without a deadline.
+ */
+public class ReflectionSandbox {
+
+    private static final Logger log = LoggerFactory.getLogger(ReflectionSandbox.class.getSimpleName());
+
+    public static final int DEFAULT_MAX_REFLECTION_TIME = 5 * 1000;
+    public static final int MAX_TIMEOUTS = 3;
+
+    private static final String[] InlineClassNames = new String[] { "Ljava/lang/Boolean;", "Ljava/lang/Byte;",
+                    "Ljava/lang/Character;", "Ljava/lang/Double;", "Ljava/lang/Float;", "Ljava/lang/Integer;",
+                    "Ljava/lang/Long;", "Ljava/lang/Math;", "Ljava/lang/Short;" };
+
+    public interface BatchInvocation {
+
+        /**
+         * @param call
+         *            index of the call in the batch
+         */
+        void invoke(int call);
+
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ConcurrentMap<String, Integer> signatureToTimeoutCount;
+    private ExecutorService executor;
+    private volatile int maxReflectionTime;
+
+    public ReflectionSandbox() {
+        this(DEFAULT_MAX_REFLECTION_TIME);
+    }
+
+    /**
+     * @param maxReflectionTime
+     *            maximum milliseconds for a single call, or 0 to call on the current thread without a deadline
+     */
+    public ReflectionSandbox(int maxReflectionTime) {
+        this.maxReflectionTime = maxReflectionTime;
+        signatureToTimeoutCount = new ConcurrentHashMap<String, Integer>();
+    }
+
+    public int getMaxReflectionTime() {
+        return maxReflectionTime;
+    }
+
+    public void setMaxReflectionTime(int maxReflectionTime) {
+        this.maxReflectionTime = maxReflectionTime;
+    }
+
+    /**
+     * @param signature
+     * @return true if a call to this method has missed its deadline
+     */
+    public boolean hasTimedOut(String signature) {
+        return signatureToTimeoutCount.containsKey(signature);
+    }
+
+    /**
+     * @param signature
+     * @return true if calls to this method have missed {@link #MAX_TIMEOUTS} deadlines, so it won't be called again
+     */
+    public boolean isBlocked(String signature) {
+        Integer timeoutCount = signatureToTimeoutCount.get(signature);
+
+        return timeoutCount != null && timeoutCount >= MAX_TIMEOUTS;
+    }
+
+    /**
+     * @param signature
+     * @return true if calls to this method are made on the current thread without a deadline
+     */
+    public boolean isInline(String signature) {
+        for (String className : InlineClassNames) {
+            if (signature.startsWith(className)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Invoke calls to the same method together on one worker, so the batch only pays for one hand-off. Each call still
+     * gets the maximum reflection time, counted from when it starts. If one misses its deadline, the rest aren't made.
+     * A single call is a batch of one.
+     *
+     * @param signature
+     *            signature of the method being called
+     * @param callCount
+     *            number of calls in the batch
+     * @param invocation
+     *            makes a single call and records how it went, so it shouldn't throw
+     * @return number of calls finished, which is less than callCount if a call missed its deadline
+     * @throws TimeoutException
+     *             if this method is blocked
+     * @throws InterruptedException
+     */
+    public int invoke(String signature, int callCount, BatchInvocation invocation) throws TimeoutException,
+                    InterruptedException {
+        if (isBlocked(signature)) {
+            throw new TimeoutException(signature + " exceeded max reflection time too many times");
+        }
+        int maxReflectionTime = this.maxReflectionTime;
+        if (maxReflectionTime <= 0 || isInline(signature)) {
+            for (int i = 0; i < callCount; i++) {
+                invocation.invoke(i);
+            }
+
+            return callCount;
+        }
+
+        AtomicInteger finishedCount = new AtomicInteger();
+        AtomicLong callStart = new AtomicLong(System.nanoTime());
+        AtomicBoolean isAbandoned = new AtomicBoolean();
+        Future<?> future = getExecutor().submit(() -> {
+            for (int i = 0; i < callCount; i++) {
+                callStart.set(System.nanoTime());
+                if (isAbandoned.get()) {
+                    break;
+                }
+                invocation.invoke(i);
+                finishedCount.incrementAndGet();
+            }
+        });
+        long maxNanos = TimeUnit.MILLISECONDS.toNanos(maxReflectionTime);
+        try {
+            while (true) {
+                long remaining = callStart.get() + maxNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    // Abandon before counting so no call after the current one can start, and count before
+                    // interrupting since an interrupted call may finish with a bogus result.
+                    isAbandoned.set(true);
+                    int count = finishedCount.get();
+                    timedOut(signature, future, maxReflectionTime);
+
+                    return count;
+                }
+                try {
+                    future.get(remaining, TimeUnit.NANOSECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // Check if the current call is still the one that started the wait.
+                }
+            }
+        } catch (ExecutionException e) {
+            // Invocation shouldn't throw, so this is something like a VM error, and it belongs to the caller.
+            Throwables.propagateIfPossible(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+
+        return finishedCount.get();
+    }
+
+    private void timedOut(String signature, Future<?> future, int maxReflectionTime) {
+        future.cancel(true);
+        int timeoutCount = signatureToTimeoutCount.merge(signature, 1, Integer::sum);
+        if (log.isWarnEnabled()) {
+            if (timeoutCount < MAX_TIMEOUTS) {
+                log.warn("{} exceeded max reflection time of {} ms", signature, maxReflectionTime);
+            } else {
+                log.warn("{} exceeded max reflection time of {} ms {} times and won't be reflected again", signature,
+                                maxReflectionTime, timeoutCount);
+            }
+        }
+    }
+
+    /**
+     * Stop all worker threads. Calls which already missed their deadline may still be running, but they're interrupted
+     * again and their threads are daemons.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "reflection-sandbox-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+}
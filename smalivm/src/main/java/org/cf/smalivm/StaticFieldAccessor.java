@@ -6,6 +6,8 @@ import org.apache.commons.lang3.reflect.FieldUtils;
 import org.cf.smalivm.context.ClassState;
 import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.reference.VirtualField;
+import org.cf.smalivm.smali.ClassManager;
 import org.cf.util.ClassNameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,29 +23,29 @@ public class StaticFieldAccessor {
     }
 
     public HeapItem getField(ExecutionContext ectx, String fieldDescriptor) {
-        String[] parts = fieldDescriptor.split("->");
-        String className = parts[0];
-        String fieldNameAndType = parts[1];
-        parts = fieldNameAndType.split(":");
-        String fieldName = parts[0];
-        String fieldType = parts[1];
+        return getField(ectx, resolveField(fieldDescriptor));
+    }
+
+    public HeapItem getField(ExecutionContext ectx, VirtualField field) {
+        String className = field.getClassName();
+        String fieldType = field.getType();
 
         HeapItem fieldItem;
         if (vm.shouldTreatAsLocal(className)) {
             ClassState cState = ectx.readClassState(className);
-            fieldItem = cState.peekField(fieldNameAndType);
+            fieldItem = cState.peekField(field);
         } else if (vm.getConfiguration().isSafe(className)) {
             try {
                 String binaryClassName = ClassNameUtils.internalToBinary(className);
                 Class<?> klazz = Class.forName(binaryClassName);
-                Field field = FieldUtils.getField(klazz, fieldName);
-                Object fieldValue = field.get(null);
+                Field reflectedField = FieldUtils.getField(klazz, field.getFieldName());
+                Object fieldValue = reflectedField.get(null);
                 fieldItem = new HeapItem(fieldValue, fieldType);
             } catch (ClassNotFoundException | IllegalArgumentException | IllegalAccessException e) {
                 // TODO: medium - throw these exceptions and handle them by setting correct virtual exceptions
                 fieldItem = HeapItem.newUnknown(fieldType);
                 if (log.isWarnEnabled()) {
-                    log.warn("Couldn't access field: {}", fieldDescriptor);
+                    log.warn("Couldn't access field: {}", field);
                 }
                 if (log.isDebugEnabled()) {
                     log.debug("Stack trace:", e);
@@ -59,16 +61,41 @@ public class StaticFieldAccessor {
     }
 
     public void putField(ExecutionContext ectx, String fieldDescriptor, HeapItem putItem) {
-        String[] parts = fieldDescriptor.split("->");
-        String className = parts[0];
-        String fieldNameAndType = parts[1];
+        putField(ectx, resolveField(fieldDescriptor), putItem);
+    }
+
+    public void putField(ExecutionContext ectx, VirtualField field, HeapItem putItem) {
+        String className = field.getClassName();
         if (vm.shouldTreatAsLocal(className)) {
             ClassState cState = ectx.readClassState(className);
-            cState.assignField(fieldNameAndType, putItem);
+            cState.assignField(field, putItem);
         } else {
             if (log.isWarnEnabled()) {
-                log.warn("Ignoring non-local static assignment: {} = {}", fieldDescriptor, putItem);
+                log.warn("Ignoring non-local static assignment: {} = {}", field, putItem);
             }
         }
     }
+
+    /**
+     * Resolve a field descriptor to the slot of its class' field layout. Ops should do this once when created rather
+     * than on every access.
+     *
+     * @param fieldDescriptor
+     *            full field descriptor, e.g. Lsome/class;->myBool:Z
+     * @return slotted field for local classes, otherwise a field without a slot
+     */
+    public VirtualField resolveField(String fieldDescriptor) {
+        ClassManager classManager = vm.getClassManager();
+        VirtualField field = classManager.getFieldFactory().build(fieldDescriptor);
+        String className = field.getClassName();
+        if (vm.shouldTreatAsLocal(className)) {
+            VirtualField slotField = classManager.getFieldLayout(className).getField(field.getFieldNameAndType());
+            if (slotField != null) {
+                return slotField;
+            }
+        }
+
+        return field;
+    }
+
 }
@@ -0,0 +1,174 @@
+package org.cf.smalivm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cf.smalivm.context.ClassState;
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.reference.FieldLayout;
+import org.cf.smalivm.reference.VirtualField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshots of class states after executing static initializers. Every root method execution starts with a fresh
+ * context, so without this, a class's &lt;clinit&gt; would be executed again for every method in the class.
+ *
+ * A snapshot is only taken when the initializer is executed in isolation, i.e. in a root context where no other classes
+ * are initialized. The result then only depends on the initializer, and the snapshot includes every class it
+ * initialized along the way. A snapshot is only restored into a context where none of those classes are initialized
+ * yet, which is exactly what executing the initializer would have done.
+ */
+public class StaticInitializerCache {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticInitializerCache.class.getSimpleName());
+
+    private static final class Snapshot {
+
+        private final String[] classNames;
+        private final SideEffect.Level[] levels;
+        private final FieldLayout[] layouts;
+        private final Object[][] fieldValues;
+        private final String[][] fieldTypes;
+
+        Snapshot(int classCount) {
+            classNames = new String[classCount];
+            levels = new SideEffect.Level[classCount];
+            layouts = new FieldLayout[classCount];
+            fieldValues = new Object[classCount][];
+            fieldTypes = new String[classCount][];
+        }
+
+        boolean contains(String className) {
+            for (String name : classNames) {
+                if (name.equals(className)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+    }
+
+    private final VirtualMachine vm;
+    private final Map<String, Snapshot> classNameToSnapshot;
+    private long hitCount;
+
+    public StaticInitializerCache(VirtualMachine vm) {
+        this.vm = vm;
+        classNameToSnapshot = new HashMap<String, Snapshot>();
+    }
+
+    public synchronized void clear() {
+        classNameToSnapshot.clear();
+        hitCount = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Drop any snapshot which includes a class, e.g. because one of its methods was modified.
+     *
+     * @param className
+     */
+    public synchronized void invalidate(String className) {
+        Iterator<Snapshot> iter = classNameToSnapshot.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().contains(className)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Initialize a class and every class its initializer initialized from a snapshot.
+     *
+     * @param className
+     * @param ectx
+     *            context which needs the class initialized
+     * @return true if a usable snapshot was found and restored, false otherwise
+     */
+    public synchronized boolean restore(String className, ExecutionContext ectx) {
+        Snapshot snapshot = classNameToSnapshot.get(className);
+        if (snapshot == null) {
+            return false;
+        }
+        for (String name : snapshot.classNames) {
+            if (ectx.isClassInitialized(name)) {
+                return false;
+            }
+        }
+
+        // Clone everything together so fields referencing the same object still do.
+        Object[][] fieldValues = vm.getCloner().deepClone(snapshot.fieldValues);
+        for (int i = 0; i < snapshot.classNames.length; i++) {
+            FieldLayout layout = snapshot.layouts[i];
+            ClassState cState = new ClassState(ectx, layout);
+            VirtualField[] fields = layout.getFields();
+            for (int j = 0; j < fields.length; j++) {
+                cState.pokeField(fields[j], new HeapItem(fieldValues[i][j], snapshot.fieldTypes[i][j]));
+            }
+            ectx.initializeClass(snapshot.classNames[i], cState, snapshot.levels[i]);
+        }
+        hitCount++;
+        if (log.isDebugEnabled()) {
+            log.debug("Restored {} static initialization snapshot with {} classes", className,
+                            snapshot.classNames.length);
+        }
+
+        return true;
+    }
+
+    /**
+     * Take a snapshot of every class initialized in a context after executing a static initializer.
+     *
+     * @param className
+     *            class whose initializer was executed
+     * @param ectx
+     *            context the initializer was executed for, which must have had no initialized classes before
+     */
+    public synchronized void store(String className, ExecutionContext ectx) {
+        Set<String> initializedClasses = ectx.getInitializedClasses();
+        List<String> classNames = new ArrayList<String>(initializedClasses);
+        Snapshot snapshot = new Snapshot(classNames.size());
+        for (int i = 0; i < classNames.size(); i++) {
+            String name = classNames.get(i);
+            ClassState cState = ectx.peekClassState(name);
+            FieldLayout layout = cState.getFieldLayout();
+            VirtualField[] fields = layout.getFields();
+            Object[] values = new Object[fields.length];
+            String[] types = new String[fields.length];
+            for (int j = 0; j < fields.length; j++) {
+                HeapItem item = cState.peekField(fields[j]);
+                values[j] = item.getValue();
+                types[j] = item.getType();
+            }
+            snapshot.classNames[i] = name;
+            snapshot.levels[i] = ectx.getClassSideEffectLevel(name);
+            snapshot.layouts[i] = layout;
+            snapshot.fieldValues[i] = values;
+            snapshot.fieldTypes[i] = types;
+        }
+        // The context keeps executing and may mutate these values.
+        Object[][] fieldValues = vm.getCloner().deepClone(snapshot.fieldValues);
+        System.arraycopy(fieldValues, 0, snapshot.fieldValues, 0, fieldValues.length);
+        classNameToSnapshot.put(className, snapshot);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Static initializer cache: ");
+        sb.append(classNameToSnapshot.size()).append(" snapshots, ").append(hitCount).append(" hits");
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,211 @@
+package org.cf.smalivm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.opcode.InvokeOp;
+import org.cf.smalivm.opcode.Op;
+import org.cf.smalivm.opcode.SGetOp;
+import org.cf.smalivm.opcode.SPutOp;
+import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.smali.ClassManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes static initializers ahead of time so their class states are in the {@link StaticInitializerCache} before
+ * any other method is executed.
+ *
+ * Classes are ordered by the classes their initializers reference with static field and invoke ops. Initializers are
+ * executed in waves, where every class in a wave only references classes from earlier waves, and the classes in a
+ * wave are executed in parallel. Classes in a reference cycle are executed one at a time in a final wave.
+ */
+public class StaticInitializerScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticInitializerScheduler.class.getSimpleName());
+
+    private final VirtualMachine vm;
+    private final ClassManager classManager;
+
+    public StaticInitializerScheduler(VirtualMachine vm) {
+        this.vm = vm;
+        classManager = vm.getClassManager();
+    }
+
+    /**
+     * @param classNames
+     *            classes to initialize, any without a static initializer are ignored
+     * @param threadCount
+     *            maximum number of initializers to execute at once
+     * @return number of static initializers executed
+     */
+    public int initialize(Collection<String> classNames, int threadCount) {
+        Map<String, Set<String>> classNameToDependencies = getDependencies(classNames);
+        List<List<String>> waves = getWaves(classNameToDependencies);
+        if (log.isInfoEnabled()) {
+            log.info("Initializing {} classes in {} waves with {} threads", classNameToDependencies.size(),
+                            waves.size(), threadCount);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+        try {
+            for (int i = 0; i < waves.size(); i++) {
+                List<String> wave = waves.get(i);
+                boolean isCyclic = i == waves.size() - 1 && !isIndependent(wave, classNameToDependencies);
+                if (isCyclic) {
+                    for (String className : wave) {
+                        try {
+                            initialize(className);
+                        } catch (RuntimeException e) {
+                            if (log.isWarnEnabled()) {
+                                log.warn("Unable to initialize " + className, e);
+                            }
+                        }
+                    }
+                } else {
+                    executeWave(executor, wave);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return classNameToDependencies.size();
+    }
+
+    private void executeWave(ExecutorService executor, List<String> wave) {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(wave.size());
+        for (final String className : wave) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    initialize(className);
+                    return null;
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Unable to initialize " + wave.get(i), e.getCause());
+                }
+            }
+        }
+    }
+
+    private void initialize(String className) {
+        LocalMethod clinit = getStaticInitializer(className);
+        ExecutionContext ectx = vm.spawnRootExecutionContext(clinit);
+        ectx.staticallyInitializeClassIfNecessary(className);
+    }
+
+    private Map<String, Set<String>> getDependencies(Collection<String> classNames) {
+        Set<String> candidates = new HashSet<String>();
+        for (String className : classNames) {
+            if (vm.shouldTreatAsLocal(className) && getStaticInitializer(className) != null) {
+                candidates.add(className);
+            }
+        }
+
+        // Sorted so waves are always executed in the same order.
+        Map<String, Set<String>> classNameToDependencies = new TreeMap<String, Set<String>>();
+        for (String className : candidates) {
+            ExecutionGraph graph;
+            try {
+                graph = vm.spawnInstructionGraph(getStaticInitializer(className));
+            } catch (RuntimeException e) {
+                // Left for normal execution, which will have the same problem.
+                if (log.isWarnEnabled()) {
+                    log.warn("Unable to build initializer graph for " + className, e);
+                }
+                continue;
+            }
+
+            Set<String> dependencies = new TreeSet<String>();
+            for (int address : graph.getAddresses()) {
+                String referencedClassName = getReferencedClassName(graph.getOp(address));
+                if (referencedClassName != null && !referencedClassName.equals(className) && candidates
+                                .contains(referencedClassName)) {
+                    dependencies.add(referencedClassName);
+                }
+            }
+            classNameToDependencies.put(className, dependencies);
+        }
+        for (Set<String> dependencies : classNameToDependencies.values()) {
+            dependencies.retainAll(classNameToDependencies.keySet());
+        }
+
+        return classNameToDependencies;
+    }
+
+    private LocalMethod getStaticInitializer(String className) {
+        return classManager.getMethod(className + "-><clinit>()V");
+    }
+
+    private static String getReferencedClassName(Op op) {
+        if (op instanceof SGetOp) {
+            return ((SGetOp) op).getField().getClassName();
+        } else if (op instanceof SPutOp) {
+            return ((SPutOp) op).getField().getClassName();
+        } else if (op instanceof InvokeOp) {
+            return ((InvokeOp) op).getVirtualMethod().getClassName();
+        }
+
+        return null;
+    }
+
+    private static List<List<String>> getWaves(Map<String, Set<String>> classNameToDependencies) {
+        List<List<String>> waves = new ArrayList<List<String>>();
+        Set<String> scheduled = new HashSet<String>();
+        Set<String> remaining = new TreeSet<String>(classNameToDependencies.keySet());
+        while (!remaining.isEmpty()) {
+            List<String> wave = new ArrayList<String>();
+            for (String className : remaining) {
+                if (scheduled.containsAll(classNameToDependencies.get(className))) {
+                    wave.add(className);
+                }
+            }
+            if (wave.isEmpty()) {
+                // Everything left is in or depends on a cycle.
+                wave.addAll(remaining);
+            }
+            waves.add(wave);
+            scheduled.addAll(wave);
+            remaining.removeAll(wave);
+        }
+
+        return waves;
+    }
+
+    private static boolean isIndependent(List<String> wave, Map<String, Set<String>> classNameToDependencies) {
+        for (String className : wave) {
+            for (String dependency : classNameToDependencies.get(className)) {
+                if (wave.contains(dependency)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+}
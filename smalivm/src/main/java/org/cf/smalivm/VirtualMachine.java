@@ -8,6 +8,7 @@ import javax.annotation.Nullable;
 
 import org.cf.smalivm.configuration.Configuration;
 import org.cf.smalivm.context.ClassState;
+import org.cf.smalivm.context.ClonerFactory;
 import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
@@ -18,15 +19,20 @@ import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
 import org.cf.smalivm.exception.MaxMethodVisitsExceeded;
 import org.cf.smalivm.exception.UnhandledVirtualException;
+import org.cf.smalivm.reference.FieldLayout;
 import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.reference.VirtualField;
 import org.cf.smalivm.smali.AncestorEnumerator;
 import org.cf.smalivm.smali.ClassManager;
 import org.cf.smalivm.smali.SmaliClassLoader;
+import org.cf.smalivm.smali.VirtualMethodResolver;
 import org.cf.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class VirtualMachine {
+import com.rits.cloning.Cloner;
+
+public class VirtualMachine implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(VirtualMachine.class.getSimpleName());
 
@@ -37,6 +43,13 @@ public class VirtualMachine {
     private final StaticFieldAccessor staticFieldAccessor;
     private final Configuration configuration;
     private final AncestorEnumerator ancestorEnumerator;
+    private final VirtualMethodResolver virtualMethodResolver;
+    private final MethodResultCache methodResultCache;
+    private final ReflectionSandbox reflectionSandbox;
+    private final StaticInitializerCache staticInitializerCache;
+    private volatile Cloner cloner;
+    private volatile boolean isReflectingIntrinsics;
+    private boolean isClosed;
 
     VirtualMachine(ClassManager manager, int maxAddressVisits, int maxCallDepth, int maxMethodVisits,
                     int maxExecutionTime) {
@@ -46,8 +59,35 @@ public class VirtualMachine {
                         maxExecutionTime);
         methodToTemplateExecutionGraph = new HashMap<LocalMethod, ExecutionGraph>();
         staticFieldAccessor = new StaticFieldAccessor(this);
-        configuration = Configuration.instance();
+        // Policies merged into one virtual machine shouldn't change any other.
+        configuration = Configuration.instance().copy();
         ancestorEnumerator = new AncestorEnumerator(classManager, classLoader);
+        virtualMethodResolver = new VirtualMethodResolver(classManager, configuration);
+        methodResultCache = new MethodResultCache(this);
+        reflectionSandbox = new ReflectionSandbox();
+        staticInitializerCache = new StaticInitializerCache(this);
+    }
+
+    /**
+     * Release everything generated by this virtual machine, including classes generated from Smali, the cloner which
+     * references them, and cached execution graphs. After closing, nothing from this virtual machine should be used.
+     * This is important for long running processes which build many virtual machines since, otherwise, generated
+     * classes could never be unloaded.
+     */
+    @Override
+    public synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+
+        methodToTemplateExecutionGraph.clear();
+        virtualMethodResolver.invalidate();
+        methodResultCache.clear();
+        reflectionSandbox.shutdown();
+        staticInitializerCache.clear();
+        cloner = null;
+        classLoader.close();
     }
 
     public ExecutionGraph execute(String methodSignature) throws MaxAddressVisitsExceeded, MaxCallDepthExceeded,
@@ -108,10 +148,32 @@ public class VirtualMachine {
         return ancestorEnumerator;
     }
 
-    public ClassLoader getClassLoader() {
+    public SmaliClassLoader getClassLoader() {
         return classLoader;
     }
 
+    /**
+     * Cloners cache classes, and classes are generated per virtual machine, so each virtual machine builds its own.
+     * 
+     * @return cloner aware of this virtual machine's generated classes
+     */
+    public Cloner getCloner() {
+        Cloner result = cloner;
+        if (result == null) {
+            synchronized (this) {
+                if (isClosed) {
+                    throw new IllegalStateException("Virtual machine is closed");
+                }
+                if (cloner == null) {
+                    cloner = ClonerFactory.build(this);
+                }
+                result = cloner;
+            }
+        }
+
+        return result;
+    }
+
     public ClassManager getClassManager() {
         return classManager;
     }
@@ -124,27 +186,71 @@ public class VirtualMachine {
         return staticFieldAccessor;
     }
 
+    public MethodResultCache getMethodResultCache() {
+        return methodResultCache;
+    }
+
+    public ReflectionSandbox getReflectionSandbox() {
+        return reflectionSandbox;
+    }
+
+    public StaticInitializerCache getStaticInitializerCache() {
+        return staticInitializerCache;
+    }
+
+    /**
+     * @return true if safe methods with intrinsics are reflected rather than emulated
+     */
+    public boolean isReflectingIntrinsics() {
+        return isReflectingIntrinsics;
+    }
+
+    /**
+     * Reflect safe methods with intrinsics rather than emulate them, e.g. to compare the two. Only this virtual machine
+     * is affected, unlike removing the intrinsics from {@link org.cf.smalivm.emulate.MethodEmulator}.
+     *
+     * @param isReflectingIntrinsics
+     */
+    public void setReflectingIntrinsics(boolean isReflectingIntrinsics) {
+        this.isReflectingIntrinsics = isReflectingIntrinsics;
+    }
+
+    public VirtualMethodResolver getVirtualMethodResolver() {
+        return virtualMethodResolver;
+    }
+
     public ClassState getTemplateClassState(ExecutionContext ectx, String className) {
-        List<String> fieldNameAndTypes = classManager.getFieldNameAndTypes(className);
-        ClassState cState = new ClassState(ectx, className, fieldNameAndTypes.size());
-        for (String fieldNameAndType : fieldNameAndTypes) {
-            String type = fieldNameAndType.split(":")[1];
-            cState.pokeField(fieldNameAndType, HeapItem.newUnknown(type));
+        FieldLayout layout = classManager.getFieldLayout(className);
+        ClassState cState = new ClassState(ectx, layout);
+        for (VirtualField field : layout.getFields()) {
+            cState.pokeField(field, HeapItem.newUnknown(field.getType()));
         }
 
         return cState;
     }
 
+    /**
+     * Execute nodes of an existing graph again, along with everything they spawn, and keep the rest of the graph. This
+     * is useful when only part of a method changed. Nodes must already have contexts spawned from their parents.
+     *
+     * @param graph
+     * @param nodes
+     *            nodes to start from, none of which may be an ancestor of another
+     * @return the graph
+     */
+    public ExecutionGraph resume(ExecutionGraph graph, List<ExecutionNode> nodes) throws MaxAddressVisitsExceeded,
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException,
+                    MaxExecutionTimeExceeded {
+        return methodExecutor.execute(graph, nodes);
+    }
+
     public boolean shouldTreatAsLocal(String classDescriptor) {
         // Prefer to reflect methods, even if local. It's faster and less prone to error than emulating ourselves.
         return classManager.isLocalClass(classDescriptor) && !getConfiguration().isSafe(classDescriptor);
     }
 
     public ExecutionGraph spawnInstructionGraph(LocalMethod localMethod) {
-        if (!methodToTemplateExecutionGraph.containsKey(localMethod)) {
-            updateInstructionGraph(localMethod);
-        }
-        ExecutionGraph graph = methodToTemplateExecutionGraph.get(localMethod);
+        ExecutionGraph graph = getTemplateExecutionGraph(localMethod);
         ExecutionGraph spawn = new ExecutionGraph(graph);
 
         return spawn;
@@ -181,9 +287,11 @@ public class VirtualMachine {
         return spawnedContext;
     }
 
-    public void updateInstructionGraph(LocalMethod localMethod) {
+    public synchronized void updateInstructionGraph(LocalMethod localMethod) {
         ExecutionGraph graph = new ExecutionGraph(this, localMethod);
         methodToTemplateExecutionGraph.put(localMethod, graph);
+        // Method may have been modified, which could change what static initializers do.
+        staticInitializerCache.invalidate(localMethod.getClassName());
     }
 
     /*
@@ -228,23 +336,33 @@ public class VirtualMachine {
                 continue;
             }
 
-            List<String> fieldNameAndTypes = classManager.getFieldNameAndTypes(className);
+            FieldLayout layout = classManager.getFieldLayout(className);
             ClassState cState;
             if (isInitializedInCaller) {
                 cState = callerContext.peekClassState(className);
             } else {
-                cState = new ClassState(callerContext, className, fieldNameAndTypes.size());
+                cState = new ClassState(callerContext, layout);
                 SideEffect.Level level = graph.getHighestClassSideEffectLevel(className);
                 callerContext.initializeClass(className, cState, level);
             }
 
-            for (String fieldNameAndType : fieldNameAndTypes) {
-                HeapItem item = graph.getFieldConsensus(terminatingAddresses, className, fieldNameAndType);
-                cState.pokeField(fieldNameAndType, item);
+            for (VirtualField field : layout.getFields()) {
+                HeapItem item = graph.getFieldConsensus(terminatingAddresses, field);
+                cState.pokeField(field, item);
             }
         }
     }
 
+    private synchronized ExecutionGraph getTemplateExecutionGraph(LocalMethod localMethod) {
+        ExecutionGraph graph = methodToTemplateExecutionGraph.get(localMethod);
+        if (graph == null) {
+            graph = new ExecutionGraph(this, localMethod);
+            methodToTemplateExecutionGraph.put(localMethod, graph);
+        }
+
+        return graph;
+    }
+
     private MethodState getTemplateMethodState(ExecutionContext ectx) {
         LocalMethod localMethod = ectx.getMethod();
         int registerCount = localMethod.getRegisterCount();
@@ -272,9 +390,9 @@ public class VirtualMachine {
 
             ClassState fromClassState = parent.peekClassState(className);
             ClassState toClassState = new ClassState(fromClassState, child);
-            for (String fieldNameAndType : classManager.getFieldNameAndTypes(className)) {
-                HeapItem item = fromClassState.peekField(fieldNameAndType);
-                toClassState.pokeField(fieldNameAndType, item);
+            for (VirtualField field : classManager.getFieldLayout(className).getFields()) {
+                HeapItem item = fromClassState.peekField(field);
+                toClassState.pokeField(field, item);
             }
             SideEffect.Level level = parent.getClassSideEffectLevel(className);
             child.initializeClass(className, toClassState, level);
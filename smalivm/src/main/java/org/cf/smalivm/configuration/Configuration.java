@@ -1,42 +1,130 @@
 package org.cf.smalivm.configuration;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.cf.smalivm.reference.VirtualMethod;
+import org.cf.smalivm.reference.VirtualMethod.SafeVerdict;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Policies which decide what may be reflected and what's immutable. {@link #instance()} holds the built in policies and
+ * is shared, so it shouldn't be changed. Each virtual machine has its own {@link #copy()}, which user policies are
+ * merged into.
+ */
 public class Configuration {
 
     private static final String IMMUTABLE_CLASSES_PATH = "immutable_classes.cfg";
+    private static final String NONDETERMINISTIC_METHODS_PATH = "nondeterministic_methods.cfg";
 
     private static Configuration instance = null;
+    // Versions are unique across copies since non-local methods, and their cached verdicts, may be shared by copies.
+    private static final AtomicInteger nextPolicyVersion = new AtomicInteger();
     private static final Logger log = LoggerFactory.getLogger(Configuration.class.getSimpleName());
     private static final String SAFE_CLASSES_PATH = "safe_classes.cfg";
     private static final String SAFE_METHODS_PATH = "safe_methods.cfg";
 
     private static final String UNSAFE_METHODS_PATH = "unsafe_methods.cfg";
     private final Set<String> immutableClasses;
+    private final Set<String> nondeterministicMethods;
     private final Set<String> safeClasses;
     private final Set<String> safeMethods;
 
     private final Set<String> unsafeMethods;
 
+    // Compiled verdicts of everything explicitly listed, and of anything else once it's been evaluated
+    private final Map<String, Boolean> descriptorToSafe;
+    private volatile int policyVersion;
+
     private Configuration() {
         safeClasses = new HashSet<String>(ConfigurationLoader.load(SAFE_CLASSES_PATH));
         safeMethods = new HashSet<String>(ConfigurationLoader.load(SAFE_METHODS_PATH));
         unsafeMethods = new HashSet<String>(ConfigurationLoader.load(UNSAFE_METHODS_PATH));
         immutableClasses = new HashSet<String>(ConfigurationLoader.load(IMMUTABLE_CLASSES_PATH));
+        nondeterministicMethods = new HashSet<String>(ConfigurationLoader.load(NONDETERMINISTIC_METHODS_PATH));
+        descriptorToSafe = new ConcurrentHashMap<String, Boolean>();
+        compile();
+    }
+
+    private Configuration(Configuration other) {
+        synchronized (other) {
+            safeClasses = new HashSet<String>(other.safeClasses);
+            safeMethods = new HashSet<String>(other.safeMethods);
+            unsafeMethods = new HashSet<String>(other.unsafeMethods);
+            immutableClasses = new HashSet<String>(other.immutableClasses);
+            nondeterministicMethods = new HashSet<String>(other.nondeterministicMethods);
+        }
+        descriptorToSafe = new ConcurrentHashMap<String, Boolean>();
+        compile();
+    }
+
+    /**
+     * @return configuration with the same policies, which may be merged into without changing this one
+     */
+    public Configuration copy() {
+        return new Configuration(this);
     }
 
     public Set<String> getImmutableClasses() {
         return immutableClasses;
     }
 
+    /**
+     * @return digest of every policy, which changes whenever a definition is merged
+     */
+    public synchronized String getPolicyDigest() {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putPolicy(hasher, IMMUTABLE_CLASSES_PATH, immutableClasses);
+        putPolicy(hasher, NONDETERMINISTIC_METHODS_PATH, nondeterministicMethods);
+        putPolicy(hasher, SAFE_CLASSES_PATH, safeClasses);
+        putPolicy(hasher, SAFE_METHODS_PATH, safeMethods);
+        putPolicy(hasher, UNSAFE_METHODS_PATH, unsafeMethods);
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Incremented every time the policy changes. Used to invalidate verdicts cached outside of the configuration.
+     * 
+     * @return current policy version
+     */
+    public int getPolicyVersion() {
+        return policyVersion;
+    }
+
     public boolean isImmutable(String className) {
         return immutableClasses.contains(className);
     }
 
+    /**
+     * Nondeterministic methods may return something different each time they're called with the same arguments, e.g.
+     * random numbers or the current time, so their results can't be reused.
+     *
+     * @param methodDescriptor
+     * @return true if the method, or every method of its class, is nondeterministic
+     */
+    public boolean isNondeterministic(String methodDescriptor) {
+        if (nondeterministicMethods.contains(methodDescriptor)) {
+            return true;
+        }
+        int dashRocket = methodDescriptor.indexOf("->");
+
+        return dashRocket >= 0 && nondeterministicMethods.contains(methodDescriptor.substring(0, dashRocket));
+    }
+
     /**
      * Safe classes are Java API classes which are safe to instantiate, load, and statically initialize. Safe methods
      * are methods of Java classes which are safe to execute. Only classes and methods which can have no possible side
@@ -46,14 +134,114 @@ public class Configuration {
      * @return
      */
     public boolean isSafe(String typeDescriptor) {
-        String[] parts = typeDescriptor.split("->");
-        String className = parts[0];
+        Boolean isSafe = descriptorToSafe.get(typeDescriptor);
+        if (isSafe == null) {
+            return evaluateAndCacheSafe(typeDescriptor);
+        }
+
+        return isSafe;
+    }
+
+    /**
+     * Same as {@link #isSafe(String)} but the verdict is cached on the method.
+     * 
+     * @param method
+     * @return
+     */
+    public boolean isSafe(VirtualMethod method) {
+        int version = policyVersion;
+        SafeVerdict verdict = method.getSafeVerdict();
+        if (verdict == null || verdict.getPolicyVersion() != version) {
+            verdict = new SafeVerdict(isSafe(method.getSignature()), version);
+            method.setSafeVerdict(verdict);
+        }
+
+        return verdict.isSafe();
+    }
+
+    public boolean isUnsafeMethod(String methodDescriptor) {
+        return !unsafeMethods.contains(methodDescriptor);
+    }
+
+    /**
+     * Merge a user supplied policy file into the configuration. The file name determines which policy it extends and
+     * must be one of immutable_classes.cfg, nondeterministic_methods.cfg, safe_classes.cfg, safe_methods.cfg, or
+     * unsafe_methods.cfg. The format is the same as the built in configuration files.
+     * 
+     * @param policyFile
+     * @throws IOException
+     */
+    public void merge(File policyFile) throws IOException {
+        List<String> definitions = ConfigurationLoader.load(policyFile);
+        String name = policyFile.getName();
+        switch (name) {
+        case IMMUTABLE_CLASSES_PATH:
+            merge(immutableClasses, definitions);
+            break;
+        case NONDETERMINISTIC_METHODS_PATH:
+            merge(nondeterministicMethods, definitions);
+            break;
+        case SAFE_CLASSES_PATH:
+            merge(safeClasses, definitions);
+            break;
+        case SAFE_METHODS_PATH:
+            merge(safeMethods, definitions);
+            break;
+        case UNSAFE_METHODS_PATH:
+            merge(unsafeMethods, definitions);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown policy file: " + name);
+        }
+        if (log.isInfoEnabled()) {
+            log.info("Merged {} definitions from {}", definitions.size(), policyFile);
+        }
+    }
+
+    private synchronized void merge(Set<String> policy, Collection<String> definitions) {
+        policy.addAll(definitions);
+        compile();
+    }
+
+    private synchronized boolean evaluateAndCacheSafe(String typeDescriptor) {
+        // Synchronized with compiling so a verdict of an old policy is never cached after it's cleared.
+        boolean isSafe = evaluateSafe(typeDescriptor);
+        descriptorToSafe.put(typeDescriptor, isSafe);
+
+        return isSafe;
+    }
+
+    private synchronized void compile() {
+        descriptorToSafe.clear();
+        for (String safeClass : safeClasses) {
+            descriptorToSafe.put(safeClass, Boolean.TRUE);
+        }
+        for (String methodDescriptor : safeMethods) {
+            descriptorToSafe.put(methodDescriptor, evaluateSafe(methodDescriptor));
+        }
+        for (String methodDescriptor : unsafeMethods) {
+            descriptorToSafe.put(methodDescriptor, evaluateSafe(methodDescriptor));
+        }
+        policyVersion = nextPolicyVersion.incrementAndGet();
+    }
+
+    private static void putPolicy(Hasher hasher, String name, Set<String> policy) {
+        hasher.putString(name, StandardCharsets.UTF_8).putInt(policy.size());
+        // Sorted since set order depends on how definitions were added.
+        for (String definition : new TreeSet<String>(policy)) {
+            hasher.putString(definition, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+    }
+
+    private boolean evaluateSafe(String typeDescriptor) {
+        int dashRocket = typeDescriptor.indexOf("->");
+        String className = dashRocket < 0 ? typeDescriptor : typeDescriptor.substring(0, dashRocket);
 
         if (safeClasses.contains(className) && !unsafeMethods.contains(typeDescriptor)) {
             return true;
         }
 
-        if (parts.length > 1) {
+        if (dashRocket >= 0) {
             // It's a method name
             if (safeMethods.contains(typeDescriptor)) {
                 return true;
@@ -63,10 +251,6 @@ public class Configuration {
         return false;
     }
 
-    public boolean isUnsafeMethod(String methodDescriptor) {
-        return !unsafeMethods.contains(methodDescriptor);
-    }
-
     public static Configuration instance() {
         if (instance == null) {
             instance = new Configuration();
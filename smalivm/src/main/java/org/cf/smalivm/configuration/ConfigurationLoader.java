@@ -1,5 +1,6 @@
 package org.cf.smalivm.configuration;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Iterator;
@@ -7,6 +8,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import com.google.common.io.Resources;
 
 public class ConfigurationLoader {
@@ -24,6 +26,13 @@ public class ConfigurationLoader {
         return lines;
     }
 
+    public static List<String> load(File file) throws IOException {
+        List<String> lines = Files.readLines(file, Charsets.UTF_8);
+        removeNonDefinitionLines(lines);
+
+        return lines;
+    }
+
     private static void removeNonDefinitionLines(List<String> lines) {
         Iterator<String> iter = lines.iterator();
         while (iter.hasNext()) {
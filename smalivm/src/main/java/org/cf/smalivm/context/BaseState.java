@@ -83,10 +83,22 @@ class BaseState {
         return ectx.getHeap().hasRegister(heapId, register);
     }
 
+    HeapItem peekKey(String key) {
+        return ectx.getHeap().get(key);
+    }
+
     HeapItem peekRegister(int register, String heapId) {
         return ectx.getHeap().get(heapId, register);
     }
 
+    void pokeKey(String key, HeapItem item) {
+        if (log.isTraceEnabled()) {
+            log.trace("Setting {} = {}", key, item);
+        }
+
+        ectx.getHeap().set(key, item);
+    }
+
     void pokeRegister(int register, HeapItem item, String heapId) {
         if (log.isTraceEnabled()) {
             StringBuilder sb = new StringBuilder();
@@ -4,6 +4,8 @@ import gnu.trove.set.hash.THashSet;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.cf.smalivm.reference.FieldLayout;
+import org.cf.smalivm.reference.VirtualField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,40 +14,46 @@ public class ClassState extends BaseState {
     private static Logger log = LoggerFactory.getLogger(ClassState.class.getSimpleName());
 
     private final String className;
-    private final THashSet<String> fieldNameAndTypes;
+    private final FieldLayout layout;
+    // Fields accessed by name which aren't part of the layout. Should be rare, so allocated lazily.
+    private THashSet<String> unslottedFieldNameAndTypes;
 
-    public ClassState(ExecutionContext ectx, String className, int fieldCount) {
-        super(ectx, fieldCount);
+    public ClassState(ExecutionContext ectx, FieldLayout layout) {
+        super(ectx, layout.size());
 
-        fieldNameAndTypes = new THashSet<String>();
-        this.className = className;
+        this.layout = layout;
+        className = layout.getClassName();
     }
 
-    private ClassState(ClassState parent, ExecutionContext childContext, THashSet<String> fieldNameAndTypes) {
-        super(childContext, fieldNameAndTypes.size());
+    private ClassState(ClassState parent, ExecutionContext childContext, THashSet<String> unslottedFieldNameAndTypes) {
+        super(childContext, parent.layout.size());
 
-        this.fieldNameAndTypes = fieldNameAndTypes;
-        this.className = parent.className;
+        layout = parent.layout;
+        className = parent.className;
+        this.unslottedFieldNameAndTypes = unslottedFieldNameAndTypes;
     }
 
     public ClassState(ClassState other, ExecutionContext ectx) {
         super(other, ectx);
 
-        fieldNameAndTypes = new THashSet<String>(other.fieldNameAndTypes);
+        layout = other.layout;
         className = other.className;
+        if (other.unslottedFieldNameAndTypes != null) {
+            unslottedFieldNameAndTypes = new THashSet<String>(other.unslottedFieldNameAndTypes);
+        }
     }
 
     public void assignField(String fieldNameAndType, Object value) {
-        int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        String type = fieldNameAndType.split(":")[1];
-        assignRegister(register, new HeapItem(value, type), heapKey);
+        VirtualField field = resolveField(fieldNameAndType);
+        assignField(field, new HeapItem(value, field.getType()));
     }
 
     public void assignField(String fieldNameAndType, HeapItem item) {
-        int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        assignRegister(register, item, heapKey);
+        assignField(resolveField(fieldNameAndType), item);
+    }
+
+    public void assignField(VirtualField field, HeapItem item) {
+        pokeKey(field.getSignature(), item);
     }
 
     @Override
@@ -60,52 +68,65 @@ public class ClassState extends BaseState {
         ClassState other = (ClassState) obj;
 
         return new EqualsBuilder().append(className, other.className)
-                        .append(fieldNameAndTypes, other.fieldNameAndTypes).isEquals();
+                        .append(layout.getFieldNameAndTypes(), other.layout.getFieldNameAndTypes())
+                        .append(unslottedFieldNameAndTypes, other.unslottedFieldNameAndTypes).isEquals();
+    }
+
+    public FieldLayout getFieldLayout() {
+        return layout;
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder(1337, 13).append(className).append(fieldNameAndTypes).hashCode();
+        return new HashCodeBuilder(1337, 13).append(className).append(layout.getFieldNameAndTypes())
+                        .append(unslottedFieldNameAndTypes).hashCode();
+    }
+
+    public HeapItem peekField(int slot) {
+        return peekField(layout.getField(slot));
     }
 
     public HeapItem peekField(String fieldNameAndType) {
-        int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        HeapItem fieldItem = peekRegister(register, heapKey);
+        return peekField(resolveField(fieldNameAndType));
+    }
+
+    public HeapItem peekField(VirtualField field) {
+        HeapItem fieldItem = peekKey(field.getSignature());
         if (fieldItem == null) {
-            log.error("Undefined field: {};->{} - returning unknown.", className, fieldNameAndType);
-            fieldItem = HeapItem.newUnknown(fieldNameAndType.split(":")[1]);
+            log.error("Undefined field: {} - returning unknown.", field);
+            fieldItem = HeapItem.newUnknown(field.getType());
         }
 
         return fieldItem;
     }
 
+    public void pokeField(int slot, HeapItem item) {
+        pokeField(layout.getField(slot), item);
+    }
+
     public void pokeField(String fieldNameAndType, Object value) {
-        int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        String type = fieldNameAndType.split(":")[1];
-        pokeRegister(register, new HeapItem(value, type), heapKey);
+        VirtualField field = resolveField(fieldNameAndType);
+        pokeField(field, new HeapItem(value, field.getType()));
     }
 
     public void pokeField(String fieldNameAndType, HeapItem item) {
-        int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        pokeRegister(register, item, heapKey);
+        pokeField(resolveField(fieldNameAndType), item);
     }
 
-    private String getKey(String fieldNameAndType) {
-        fieldNameAndTypes.add(fieldNameAndType);
-        StringBuilder sb = new StringBuilder(className);
-        sb.append("->").append(fieldNameAndType);
-
-        return sb.toString();
+    public void pokeField(VirtualField field, HeapItem item) {
+        pokeKey(field.getSignature(), item);
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("Fields:\n");
-        for (String fieldNameAndType : fieldNameAndTypes) {
-            sb.append(fieldNameAndType).append(" = ").append(peekField(fieldNameAndType)).append('\n');
+        for (VirtualField field : layout.getFields()) {
+            sb.append(field.getFieldNameAndType()).append(" = ").append(peekField(field)).append('\n');
+        }
+        if (unslottedFieldNameAndTypes != null) {
+            for (String fieldNameAndType : unslottedFieldNameAndTypes) {
+                sb.append(fieldNameAndType).append(" = ").append(peekField(fieldNameAndType)).append('\n');
+            }
         }
         sb.setLength(sb.length() - 1);
         sb.append('\n');
@@ -114,9 +135,23 @@ public class ClassState extends BaseState {
     }
 
     ClassState getChild(ExecutionContext childContext) {
-        ClassState child = new ClassState(this, childContext, fieldNameAndTypes);
+        ClassState child = new ClassState(this, childContext, unslottedFieldNameAndTypes);
 
         return child;
     }
 
+    private VirtualField resolveField(String fieldNameAndType) {
+        VirtualField field = layout.getField(fieldNameAndType);
+        if (field != null) {
+            return field;
+        }
+
+        if (unslottedFieldNameAndTypes == null) {
+            unslottedFieldNameAndTypes = new THashSet<String>();
+        }
+        unslottedFieldNameAndTypes.add(fieldNameAndType);
+
+        return layout.buildUnslottedField(fieldNameAndType);
+    }
+
 }
@@ -8,6 +8,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.StaticInitializerCache;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
@@ -19,7 +20,6 @@ import org.cf.smalivm.reference.VirtualMethod;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.rits.cloning.Cloner;
 
 public class ExecutionContext {
 
@@ -67,8 +67,7 @@ public class ExecutionContext {
     public ExecutionContext(VirtualMachine vm, VirtualMethod virtualMethod) {
         this.vm = vm;
         this.virtualMethod = virtualMethod;
-        Cloner cloner = ClonerFactory.build(vm);
-        heap = new Heap(cloner);
+        heap = new Heap(vm.getCloner());
         callDepth = 0;
 
         // Since there's a context per execution for each address, these maps are
@@ -121,6 +120,10 @@ public class ExecutionContext {
         return mState;
     }
 
+    VirtualMachine getVM() {
+        return vm;
+    }
+
     public ExecutionContext getParent() {
         return parent;
     }
@@ -221,6 +224,13 @@ public class ExecutionContext {
             return;
         }
 
+        StaticInitializerCache initializerCache = vm.getStaticInitializerCache();
+        if (initializerCache.restore(className, this)) {
+            return;
+        }
+        // Results only depend on the initializer if nothing else is initialized.
+        boolean isIsolated = parent == null && getInitializedClasses().isEmpty();
+
         // TODO: determine what the call stack actually is when the vm clinit's a class
         // this assumes the call stack is empty
         ExecutionContext initContext = vm.spawnRootExecutionContext(localMethod);
@@ -247,6 +257,9 @@ public class ExecutionContext {
             sideEffectLevel = graph.getHighestSideEffectLevel();
         }
         setClassSideEffectLevel(className, sideEffectLevel);
+        if (graph != null && isIsolated) {
+            initializerCache.store(className, this);
+        }
     }
 
     @Override
@@ -20,10 +20,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.StaticFieldAccessor;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.opcode.Op;
 import org.cf.smalivm.opcode.OpCreator;
 import org.cf.smalivm.reference.LocalMethod;
+import org.cf.smalivm.reference.VirtualField;
 import org.jf.dexlib2.Opcode;
 import org.jf.dexlib2.builder.BuilderInstruction;
 import org.jf.dexlib2.builder.MethodLocation;
@@ -79,12 +81,15 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
     }
 
     private final LocalMethod localMethod;
+    private final StaticFieldAccessor staticFieldAccessor;
     private final int[] terminatingAddresses;
     protected final Map<MethodLocation, List<ExecutionNode>> locationToNodePile;
     protected final TIntObjectMap<MethodLocation> addressToLocation;
+    private final Map<MethodLocation, PileConsensus> locationToConsensus;
 
     public ExecutionGraph(ExecutionGraph other) {
         localMethod = other.localMethod;
+        staticFieldAccessor = other.staticFieldAccessor;
         locationToNodePile = new HashMap<MethodLocation, List<ExecutionNode>>();
         for (MethodLocation location : other.locationToNodePile.keySet()) {
             List<ExecutionNode> otherNodePile = other.locationToNodePile.get(location);
@@ -96,22 +101,27 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         }
         terminatingAddresses = other.terminatingAddresses;
         addressToLocation = other.addressToLocation;
+        locationToConsensus = new HashMap<MethodLocation, PileConsensus>();
     }
 
     public ExecutionGraph(ExecutionGraph other, boolean wrap) {
         localMethod = other.localMethod;
+        staticFieldAccessor = other.staticFieldAccessor;
         locationToNodePile = other.locationToNodePile;
         terminatingAddresses = other.terminatingAddresses;
         addressToLocation = other.addressToLocation;
+        locationToConsensus = new HashMap<MethodLocation, PileConsensus>();
     }
 
     public ExecutionGraph(VirtualMachine vm, LocalMethod localMethod) {
         this.localMethod = localMethod;
+        staticFieldAccessor = vm.getStaticFieldAccessor();
         MutableMethodImplementation implementation = localMethod.getImplementation();
         addressToLocation = buildAddressToLocation(implementation);
         locationToNodePile = buildLocationToNodePile(vm, addressToLocation);
         List<BuilderInstruction> instructions = implementation.getInstructions();
         terminatingAddresses = buildTerminatingAddresses(instructions);
+        locationToConsensus = new HashMap<MethodLocation, PileConsensus>();
     }
 
     protected static TIntObjectMap<MethodLocation> buildAddressToLocation(MutableMethodImplementation implementation) {
@@ -131,6 +141,14 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         locationToNodePile.get(location).add(node);
     }
 
+    /**
+     * Forget every running consensus. Must be called after nodes are changed or re-executed, since nodes get registers
+     * they didn't assign from their ancestors.
+     */
+    protected void clearConsensus() {
+        locationToConsensus.clear();
+    }
+
     /**
      * 
      * @return Naturally sorted array of all unique addresses in the graph.
@@ -172,35 +190,40 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
     }
 
     public HeapItem getFieldConsensus(int[] addresses, String fieldDescriptor) {
-        String[] parts = fieldDescriptor.split("->");
-        String className = parts[0];
-        String fieldNameAndType = parts[1];
+        VirtualField field = staticFieldAccessor.resolveField(fieldDescriptor);
 
-        return getFieldConsensus(addresses, className, fieldNameAndType);
+        return getFieldConsensus(addresses, field);
     }
 
     public HeapItem getFieldConsensus(int[] addresses, String className, String fieldNameAndType) {
-        String[] parts = fieldNameAndType.split(":");
-        String type = parts[1];
-        Set<HeapItem> items = new HashSet<HeapItem>();
+        return getFieldConsensus(addresses, className + "->" + fieldNameAndType);
+    }
+
+    public HeapItem getFieldConsensus(int[] addresses, VirtualField field) {
+        HeapItem consensus = null;
         for (int address : addresses) {
-            // If the class wasn't initialized in one path, it's unknown
-            for (ExecutionNode node : getNodePile(address)) {
-                if (!node.getContext().isClassInitialized(className)) {
-                    return HeapItem.newUnknown(type);
-                }
+            PileConsensus.Fold fold = getConsensus(address).getField(getNodePile(address), field);
+            if (!fold.isAgreed()) {
+                // Also if the class wasn't initialized in one path
+                log.trace("No conensus for {}, returning Unknown.", field);
+
+                return HeapItem.newUnknown(field.getType());
             }
 
-            items.addAll(getFieldItems(address, className, fieldNameAndType));
-            if (1 != items.size()) {
-                // since set, size == 1 -> consensus
-                log.trace("No conensus for {}->{}, returning Unknown.", className, fieldNameAndType);
+            HeapItem item = fold.getItem();
+            if (item == null) {
+                continue;
+            }
+            if (consensus == null) {
+                consensus = item;
+            } else if (!consensus.equals(item)) {
+                log.trace("No conensus for {}, returning Unknown.", field);
 
-                return HeapItem.newUnknown(type);
+                return HeapItem.newUnknown(field.getType());
             }
         }
 
-        return items.toArray(new HeapItem[items.size()])[0];
+        return consensus != null ? consensus : HeapItem.newUnknown(field.getType());
     }
 
     public Set<HeapItem> getFieldItems(int address, String className, String fieldNameAndType) {
@@ -216,6 +239,19 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         return items;
     }
 
+    public Set<HeapItem> getFieldItems(int address, VirtualField field) {
+        List<ExecutionNode> nodePile = getNodePile(address);
+        Set<HeapItem> items = new HashSet<HeapItem>(nodePile.size());
+        for (ExecutionNode node : nodePile) {
+            ExecutionContext ectx = node.getContext();
+            ClassState cState = ectx.peekClassState(field.getClassName());
+            HeapItem item = cState.peekField(field);
+            items.add(item);
+        }
+
+        return items;
+    }
+
     public SideEffect.Level getHighestClassSideEffectLevel(String className) {
         int[] addresses = getConnectedTerminatingAddresses();
         SideEffect.Level result = SideEffect.Level.NONE;
@@ -245,8 +281,7 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
     public SideEffect.Level getHighestMethodSideEffectLevel() {
         SideEffect.Level result = SideEffect.Level.NONE;
         for (ExecutionNode node : this) {
-            Op op = node.getOp();
-            SideEffect.Level level = op.getSideEffectLevel();
+            SideEffect.Level level = node.getSideEffectLevel();
             switch (level) {
             case STRONG:
                 return level;
@@ -261,6 +296,28 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         return result;
     }
 
+    /**
+     * @param address
+     * @return highest side effect level of any execution of the op at the address, or the op's level if it wasn't
+     *         executed
+     */
+    public SideEffect.Level getHighestSideEffectLevel(int address) {
+        List<ExecutionNode> pile = getNodePile(address);
+        if (pile.isEmpty()) {
+            return getOp(address).getSideEffectLevel();
+        }
+
+        SideEffect.Level result = SideEffect.Level.NONE;
+        for (ExecutionNode node : pile) {
+            SideEffect.Level level = node.getSideEffectLevel();
+            if (level.getValue() > result.getValue()) {
+                result = level;
+            }
+        }
+
+        return result;
+    }
+
     public SideEffect.Level getHighestSideEffectLevel() {
         SideEffect.Level result = getHighestMethodSideEffectLevel();
         if (result == SideEffect.Level.STRONG) {
@@ -296,6 +353,12 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         return totalSize - templateCount;
     }
 
+    private PileConsensus getConsensus(int address) {
+        MethodLocation location = addressToLocation.get(address);
+
+        return locationToConsensus.computeIfAbsent(location, k -> new PileConsensus());
+    }
+
     private @Nullable List<ExecutionNode> getNodePileByAddress(int address) {
         MethodLocation location = addressToLocation.get(address);
 
@@ -319,25 +382,34 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         return getRegisterConsensus(new int[] { address }, register);
     }
 
-    public @Nonnull HeapItem getRegisterConsensus(int[] addresses, int register) {
-        Set<HeapItem> items = new HashSet<HeapItem>();
+    /**
+     * Consensus of each pile is kept as it grows, so only nodes added since the last query are looked at.
+     *
+     * @param addresses
+     * @param register
+     * @return the item every node has for the register, Unknown if they disagree, or null if no node has it
+     */
+    public @Nullable HeapItem getRegisterConsensus(int[] addresses, int register) {
+        HeapItem consensus = null;
         for (int address : addresses) {
-            items.addAll(getRegisterItems(address, register));
-            if (items.size() == 0) {
+            PileConsensus.Fold fold = getConsensus(address).getRegister(getNodePile(address), register);
+            HeapItem item = fold.getItem();
+            if (item == null) {
                 // TODO: hack for throw not implemented correctly
                 continue;
             }
 
-            // Size may be 0 if there was an exception
-            if (items.size() != 1) {
+            if (consensus == null) {
+                consensus = item;
+            }
+            if (!fold.isAgreed() || !consensus.equals(item)) {
                 log.trace("No conensus for register #{}, returning Unknown.", register);
-                HeapItem item = items.toArray(new HeapItem[items.size()])[0];
 
-                return HeapItem.newUnknown(item.getType());
+                return HeapItem.newUnknown(consensus.getType());
             }
         }
 
-        return items.toArray(new HeapItem[1])[0];
+        return consensus;
     }
 
     public Object getRegisterConsensusValue(int address, int register) {
@@ -3,12 +3,15 @@ package org.cf.smalivm.context;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
 
+import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.VirtualException;
 import org.cf.smalivm.opcode.ExecutionContextOp;
+import org.cf.smalivm.opcode.InvokeOp;
 import org.cf.smalivm.opcode.MethodStateOp;
 import org.cf.smalivm.opcode.Op;
 import org.jf.dexlib2.builder.MethodLocation;
@@ -25,9 +28,11 @@ public class ExecutionNode {
     private ExecutionNode parent;
     private Set<VirtualException> exceptions;
     private MethodLocation[] childLocations;
+    private SideEffect.Level sideEffectLevel;
 
     public ExecutionNode(ExecutionNode other) {
         op = other.op;
+        sideEffectLevel = other.sideEffectLevel;
         children = new ArrayList<ExecutionNode>(other.getChildren());
     }
 
@@ -45,6 +50,7 @@ public class ExecutionNode {
     }
 
     public void execute() {
+        sideEffectLevel = null;
         ExecutionContext ectx = getContext();
         if (op instanceof MethodStateOp) {
             MethodState mState = ectx.getMethodState();
@@ -52,7 +58,32 @@ public class ExecutionNode {
         } else if (op instanceof ExecutionContextOp) {
             ((ExecutionContextOp) op).execute(this, ectx);
         }
+        inheritOpDefaults();
+    }
+
+    /**
+     * Execute several nodes at the same invoke op together so their reflected calls are made as a batch.
+     *
+     * @param op
+     *            op of every node
+     * @param nodes
+     * @return exception thrown while executing each node which failed
+     */
+    public static Map<ExecutionNode, Exception> execute(InvokeOp op, List<ExecutionNode> nodes) {
+        for (ExecutionNode node : nodes) {
+            node.sideEffectLevel = null;
+        }
+        Map<ExecutionNode, Exception> failures = op.execute(nodes);
+        for (ExecutionNode node : nodes) {
+            if (!failures.containsKey(node)) {
+                node.inheritOpDefaults();
+            }
+        }
+
+        return failures;
+    }
 
+    private void inheritOpDefaults() {
         // Op didn't set children specifically. Pull in template values.
         if (childLocations == null) {
             setChildLocations(op.getChildren());
@@ -96,6 +127,13 @@ public class ExecutionNode {
         return parent;
     }
 
+    /**
+     * @return side effect level of this execution, or of the op if it doesn't depend on execution
+     */
+    public SideEffect.Level getSideEffectLevel() {
+        return sideEffectLevel != null ? sideEffectLevel : op.getSideEffectLevel();
+    }
+
     public boolean mayThrowException() {
         return exceptions != null && exceptions.size() > 0;
     }
@@ -144,6 +182,10 @@ public class ExecutionNode {
         getContext().setParent(parent.getContext());
     }
 
+    public void setSideEffectLevel(SideEffect.Level sideEffectLevel) {
+        this.sideEffectLevel = sideEffectLevel;
+    }
+
     public ExecutionNode spawnChild(Op childOp) {
         ExecutionNode child = new ExecutionNode(childOp);
         child.setContext(ectx.spawnChild());
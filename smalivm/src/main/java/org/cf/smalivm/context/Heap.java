@@ -163,7 +163,7 @@ class Heap {
         keyToHeapItem.remove(key);
     }
 
-    private void set(String key, HeapItem item) {
+    void set(String key, HeapItem item) {
         keyToHeapItem.put(key, item);
     }
 
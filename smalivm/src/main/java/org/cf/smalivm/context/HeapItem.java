@@ -2,12 +2,10 @@ package org.cf.smalivm.context;
 
 import java.lang.reflect.Array;
 import java.util.Arrays;
+import java.util.Objects;
 
 import javax.annotation.Nullable;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
-import org.cf.smalivm.configuration.Configuration;
 import org.cf.smalivm.type.UnknownValue;
 import org.cf.util.ClassNameUtils;
 import org.cf.util.Utils;
@@ -35,18 +33,16 @@ public class HeapItem {
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null) {
-            return false;
-        }
         if (obj == this) {
             return true;
         }
-        if (obj.getClass() != getClass()) {
+        if (obj == null || obj.getClass() != getClass()) {
             return false;
         }
         HeapItem rhs = (HeapItem) obj;
 
-        return new EqualsBuilder().append(getType(), rhs.getType()).append(getValue(), rhs.getValue()).isEquals();
+        // Arrays are compared by their elements. This is called for every item in a node pile when finding consensus.
+        return Objects.equals(type, rhs.type) && Objects.deepEquals(value, rhs.value);
     }
 
     public String getComponentBase() {
@@ -102,11 +98,12 @@ public class HeapItem {
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder(123, 51).append(getType()).append(getValue()).hashCode();
-    }
+        int result = 31 + Objects.hashCode(type);
+        if (value != null && value.getClass().isArray()) {
+            return 31 * result + Arrays.deepHashCode(new Object[] { value });
+        }
 
-    public boolean isImmutable() {
-        return Configuration.instance().isImmutable(getType());
+        return 31 * result + Objects.hashCode(value);
     }
 
     public boolean isObject() {
@@ -55,7 +55,7 @@ public class MethodState extends BaseState {
     public void assignParameter(int parameterRegister, HeapItem item) {
         assignRegister(parameterRegister, item, METHOD_HEAP);
 
-        boolean mutable = !item.isImmutable();
+        boolean mutable = !getExecutionContext().getVM().getConfiguration().isImmutable(item.getType());
         if (mutable) {
             pokeRegister(parameterRegister, item, MUTABLE_PARAMETER_HEAP);
             mutableParameters.add(parameterRegister);
@@ -0,0 +1,118 @@
+package org.cf.smalivm.context;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.cf.smalivm.reference.VirtualField;
+
+/**
+ * Running consensus of registers and fields over a node pile. Each register or field keeps the first item seen and
+ * whether every later item was equal to it. Only nodes added to the pile since the last query are folded in, so
+ * asking again is O(1).
+ *
+ * Nodes look up registers they didn't assign from their ancestors, so this is only valid while nodes aren't being
+ * changed or re-executed. Anything which does that must {@link ExecutionGraph#clearConsensus()}.
+ */
+class PileConsensus {
+
+    static class Fold {
+
+        private HeapItem item;
+        private boolean agreed = true;
+        private int nodeCount;
+
+        /**
+         * @return first item seen, or null if no node had one
+         */
+        @Nullable
+        HeapItem getItem() {
+            return item;
+        }
+
+        /**
+         * @return true if every item seen was equal
+         */
+        boolean isAgreed() {
+            return agreed;
+        }
+
+    }
+
+    private final TIntObjectMap<Fold> registerToFold;
+    private final Map<VirtualField, Fold> fieldToFold;
+
+    PileConsensus() {
+        registerToFold = new TIntObjectHashMap<Fold>();
+        fieldToFold = new HashMap<VirtualField, Fold>();
+    }
+
+    /**
+     * @param pile
+     *            nodes at the location, excluding the template node
+     * @param field
+     * @return fold of the field, which isn't agreed if any node hasn't initialized the field's class
+     */
+    Fold getField(List<ExecutionNode> pile, VirtualField field) {
+        Fold fold = fieldToFold.get(field);
+        if (fold == null || fold.nodeCount > pile.size()) {
+            // Nodes were removed, so fold them all again
+            fold = new Fold();
+            fieldToFold.put(field, fold);
+        }
+
+        String className = field.getClassName();
+        for (int i = fold.nodeCount; i < pile.size() && fold.agreed; i++) {
+            ExecutionContext ectx = pile.get(i).getContext();
+            if (!ectx.isClassInitialized(className)) {
+                fold.agreed = false;
+                break;
+            }
+            HeapItem item = ectx.peekClassState(className).peekField(field);
+            add(fold, item);
+        }
+        fold.nodeCount = pile.size();
+
+        return fold;
+    }
+
+    /**
+     * @param pile
+     *            nodes at the location, excluding the template node
+     * @param register
+     * @return fold of the register over every node which has it
+     */
+    Fold getRegister(List<ExecutionNode> pile, int register) {
+        Fold fold = registerToFold.get(register);
+        if (fold == null || fold.nodeCount > pile.size()) {
+            // Nodes were removed, so fold them all again
+            fold = new Fold();
+            registerToFold.put(register, fold);
+        }
+
+        for (int i = fold.nodeCount; i < pile.size() && fold.agreed; i++) {
+            HeapItem item = pile.get(i).getContext().getMethodState().peekRegister(register);
+            if (item != null) {
+                // Null if the node threw or the register is return or result and nothing was returned.
+                add(fold, item);
+            }
+        }
+        fold.nodeCount = pile.size();
+
+        return fold;
+    }
+
+    private static void add(Fold fold, HeapItem item) {
+        if (fold.item == null) {
+            fold.item = item;
+        } else if (!fold.item.equals(item)) {
+            fold.agreed = false;
+        }
+    }
+
+}
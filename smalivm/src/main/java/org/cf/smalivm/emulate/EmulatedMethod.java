@@ -1,14 +1,9 @@
 package org.cf.smalivm.emulate;
 
-import java.util.Set;
-
-import org.cf.smalivm.SideEffect.Level;
-import org.cf.smalivm.VirtualException;
-
+/**
+ * Emulated methods are created once and shared by every call, so implementations must be stateless. Everything about a
+ * particular call is returned as an {@link EmulationResult}.
+ */
 public interface EmulatedMethod {
 
-    public Level getSideEffectLevel();
-
-    public Set<VirtualException> getExceptions();
-
 }
@@ -0,0 +1,72 @@
+package org.cf.smalivm.emulate;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.VirtualException;
+
+/**
+ * Outcome of emulating a method call. Emulated methods are stateless and shared, so anything about a particular call
+ * besides the values in its method state is returned here.
+ */
+public final class EmulationResult {
+
+    private static final EmulationResult[] levelToResult;
+    static {
+        SideEffect.Level[] levels = SideEffect.Level.values();
+        levelToResult = new EmulationResult[levels.length];
+        for (SideEffect.Level level : levels) {
+            levelToResult[level.ordinal()] = new EmulationResult(level);
+        }
+    }
+
+    private final SideEffect.Level level;
+    private final Set<VirtualException> exceptions;
+
+    public EmulationResult(SideEffect.Level level) {
+        this(level, Collections.<VirtualException> emptySet());
+    }
+
+    public EmulationResult(SideEffect.Level level, Set<VirtualException> exceptions) {
+        this.level = level;
+        this.exceptions = exceptions;
+    }
+
+    /**
+     * @param level
+     * @return shared result with the given side effect level and no exceptions
+     */
+    public static EmulationResult of(SideEffect.Level level) {
+        return levelToResult[level.ordinal()];
+    }
+
+    public static EmulationResult of(SideEffect.Level level, VirtualException exception) {
+        Set<VirtualException> exceptions = new HashSet<VirtualException>();
+        exceptions.add(exception);
+
+        return new EmulationResult(level, exceptions);
+    }
+
+    public Set<VirtualException> getExceptions() {
+        return exceptions;
+    }
+
+    public SideEffect.Level getSideEffectLevel() {
+        return level;
+    }
+
+    public boolean hasExceptions() {
+        return !exceptions.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("EmulationResult{");
+        sb.append("level=").append(level).append(", exceptions=").append(exceptions).append('}');
+
+        return sb.toString();
+    }
+
+}
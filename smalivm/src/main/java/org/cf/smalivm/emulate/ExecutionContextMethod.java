@@ -5,6 +5,6 @@ import org.cf.smalivm.context.ExecutionContext;
 
 public interface ExecutionContextMethod extends EmulatedMethod {
 
-    public void execute(VirtualMachine vm, ExecutionContext ectx) throws Exception;
+    public EmulationResult execute(VirtualMachine vm, ExecutionContext ectx) throws Exception;
 
 }
@@ -0,0 +1,95 @@
+package org.cf.smalivm.emulate;
+
+import java.util.List;
+
+import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.type.UnknownValue;
+import org.cf.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emulates a Java API method with plain Java code instead of reflection. Arguments are passed in the same order as the
+ * method parameters, with the instance first for non-static methods other than constructors. Like reflection, the
+ * instance is the actual object, so mutating methods such as StringBuilder.append() update it in place.
+ */
+class IntrinsicMethod implements MethodStateMethod {
+
+    private static final Logger log = LoggerFactory.getLogger(IntrinsicMethod.class.getSimpleName());
+
+    interface Implementation {
+
+        Object invoke(Object[] args);
+
+    }
+
+    private final String signature;
+    private final String className;
+    private final String returnType;
+    private final boolean isConstructor;
+    private final int[] argumentRegisters;
+    private final Implementation implementation;
+
+    IntrinsicMethod(String signature, boolean isStatic, Implementation implementation) {
+        this.signature = signature;
+        this.implementation = implementation;
+        String[] parts = signature.split("->");
+        className = parts[0];
+        String methodDescriptor = parts[1];
+        returnType = methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+        isConstructor = methodDescriptor.startsWith("<init>(");
+
+        List<String> parameterTypes = Utils.getParameterTypes(methodDescriptor);
+        boolean hasInstance = !isStatic && !isConstructor;
+        argumentRegisters = new int[parameterTypes.size() + (hasInstance ? 1 : 0)];
+        int argument = 0;
+        int register = 0;
+        if (!isStatic) {
+            if (hasInstance) {
+                argumentRegisters[argument++] = register;
+            }
+            register++;
+        }
+        for (String parameterType : parameterTypes) {
+            argumentRegisters[argument++] = register;
+            register += Utils.getRegisterSize(parameterType);
+        }
+    }
+
+    @Override
+    public EmulationResult execute(VirtualMachine vm, MethodState mState) {
+        Object[] args = new Object[argumentRegisters.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = mState.peekParameter(argumentRegisters[i]).getValue();
+        }
+
+        Object returnValue;
+        try {
+            returnValue = implementation.invoke(args);
+        } catch (RuntimeException e) {
+            // Same as reflection failures, the result is unknown.
+            if (log.isWarnEnabled()) {
+                log.warn("Failed to emulate {}: {}", signature, e.toString());
+            }
+            returnValue = new UnknownValue();
+        }
+
+        if (isConstructor) {
+            if (!(returnValue instanceof UnknownValue)) {
+                mState.assignParameter(0, new HeapItem(returnValue, className));
+            }
+        } else if (!"V".equals(returnType)) {
+            mState.assignReturnRegister(new HeapItem(returnValue, returnType));
+        }
+
+        return EmulationResult.of(SideEffect.Level.NONE);
+    }
+
+    String getSignature() {
+        return signature;
+    }
+
+}
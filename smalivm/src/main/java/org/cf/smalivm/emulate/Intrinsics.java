@@ -0,0 +1,191 @@
+package org.cf.smalivm.emulate;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cf.smalivm.emulate.IntrinsicMethod.Implementation;
+
+/**
+ * Built in emulated methods for the most common String, StringBuilder, Integer, Character and Math methods. These are
+ * called constantly by string decryption code, and doing the work directly is much cheaper than reflecting.
+ *
+ * Register values aren't always boxed as the exact parameter type, e.g. an int constant used as a char, so arguments
+ * are converted through {@link Number} and {@link Character} rather than cast directly.
+ */
+public class Intrinsics {
+
+    private static final Map<String, EmulatedMethod> signatureToMethod = new LinkedHashMap<String, EmulatedMethod>();
+    static {
+        addStringMethods();
+        addStringBuilderMethods();
+        addIntegerMethods();
+        addCharacterMethods();
+        addMathMethods();
+    }
+
+    /**
+     * @param method
+     * @return true if the emulated method is an intrinsic
+     */
+    public static boolean isIntrinsic(EmulatedMethod method) {
+        return method instanceof IntrinsicMethod;
+    }
+
+    /**
+     * @return signatures of all intrinsic methods mapped to their emulated methods
+     */
+    public static Map<String, EmulatedMethod> getMethods() {
+        return Collections.unmodifiableMap(signatureToMethod);
+    }
+
+    private static void addConstructor(String signature, Implementation implementation) {
+        add(signature, false, implementation);
+    }
+
+    private static void addStatic(String signature, Implementation implementation) {
+        add(signature, true, implementation);
+    }
+
+    private static void addVirtual(String signature, Implementation implementation) {
+        add(signature, false, implementation);
+    }
+
+    private static void add(String signature, boolean isStatic, Implementation implementation) {
+        IntrinsicMethod method;
+        if (isPure(signature)) {
+            method = new PureIntrinsicMethod(signature, isStatic, implementation);
+        } else {
+            method = new IntrinsicMethod(signature, isStatic, implementation);
+        }
+        signatureToMethod.put(signature, method);
+    }
+
+    /*
+     * Every intrinsic is of an immutable class or is static and only reads its arguments, except for StringBuilder
+     * methods which change the instance.
+     */
+    private static boolean isPure(String signature) {
+        return !signature.startsWith("Ljava/lang/StringBuilder;->");
+    }
+
+    private static void addStringMethods() {
+        String s = "Ljava/lang/String;->";
+        addConstructor(s + "<init>()V", args -> new String());
+        addConstructor(s + "<init>(Ljava/lang/String;)V", args -> new String((String) args[0]));
+        addConstructor(s + "<init>([C)V", args -> new String((char[]) args[0]));
+        addConstructor(s + "<init>([CII)V",
+                        args -> new String((char[]) args[0], toInt(args[1]), toInt(args[2])));
+        addVirtual(s + "charAt(I)C", args -> ((String) args[0]).charAt(toInt(args[1])));
+        addVirtual(s + "concat(Ljava/lang/String;)Ljava/lang/String;",
+                        args -> ((String) args[0]).concat((String) args[1]));
+        addVirtual(s + "equals(Ljava/lang/Object;)Z", args -> ((String) args[0]).equals(args[1]));
+        addVirtual(s + "hashCode()I", args -> ((String) args[0]).hashCode());
+        addVirtual(s + "indexOf(I)I", args -> ((String) args[0]).indexOf(toInt(args[1])));
+        addVirtual(s + "indexOf(Ljava/lang/String;)I", args -> ((String) args[0]).indexOf((String) args[1]));
+        addVirtual(s + "isEmpty()Z", args -> ((String) args[0]).isEmpty());
+        addVirtual(s + "length()I", args -> ((String) args[0]).length());
+        addVirtual(s + "replace(CC)Ljava/lang/String;",
+                        args -> ((String) args[0]).replace(toChar(args[1]), toChar(args[2])));
+        addVirtual(s + "substring(I)Ljava/lang/String;", args -> ((String) args[0]).substring(toInt(args[1])));
+        addVirtual(s + "substring(II)Ljava/lang/String;",
+                        args -> ((String) args[0]).substring(toInt(args[1]), toInt(args[2])));
+        addVirtual(s + "toCharArray()[C", args -> ((String) args[0]).toCharArray());
+        addVirtual(s + "toString()Ljava/lang/String;", args -> ((String) args[0]).toString());
+        addVirtual(s + "trim()Ljava/lang/String;", args -> ((String) args[0]).trim());
+        addStatic(s + "valueOf(C)Ljava/lang/String;", args -> String.valueOf(toChar(args[0])));
+        addStatic(s + "valueOf(I)Ljava/lang/String;", args -> String.valueOf(toInt(args[0])));
+        addStatic(s + "valueOf([C)Ljava/lang/String;", args -> String.valueOf((char[]) args[0]));
+    }
+
+    private static void addStringBuilderMethods() {
+        String sb = "Ljava/lang/StringBuilder;->";
+        addConstructor(sb + "<init>()V", args -> new StringBuilder());
+        addConstructor(sb + "<init>(I)V", args -> new StringBuilder(toInt(args[0])));
+        addConstructor(sb + "<init>(Ljava/lang/String;)V", args -> new StringBuilder((String) args[0]));
+        addVirtual(sb + "append(C)Ljava/lang/StringBuilder;",
+                        args -> ((StringBuilder) args[0]).append(toChar(args[1])));
+        addVirtual(sb + "append(I)Ljava/lang/StringBuilder;",
+                        args -> ((StringBuilder) args[0]).append(toInt(args[1])));
+        addVirtual(sb + "append(J)Ljava/lang/StringBuilder;",
+                        args -> ((StringBuilder) args[0]).append(toLong(args[1])));
+        addVirtual(sb + "append(Z)Ljava/lang/StringBuilder;",
+                        args -> ((StringBuilder) args[0]).append(toBoolean(args[1])));
+        addVirtual(sb + "append([C)Ljava/lang/StringBuilder;",
+                        args -> ((StringBuilder) args[0]).append((char[]) args[1]));
+        addVirtual(sb + "append(Ljava/lang/String;)Ljava/lang/StringBuilder;",
+                        args -> ((StringBuilder) args[0]).append((String) args[1]));
+        addVirtual(sb + "charAt(I)C", args -> ((StringBuilder) args[0]).charAt(toInt(args[1])));
+        addVirtual(sb + "deleteCharAt(I)Ljava/lang/StringBuilder;",
+                        args -> ((StringBuilder) args[0]).deleteCharAt(toInt(args[1])));
+        addVirtual(sb + "length()I", args -> ((StringBuilder) args[0]).length());
+        addVirtual(sb + "reverse()Ljava/lang/StringBuilder;", args -> ((StringBuilder) args[0]).reverse());
+        addVirtual(sb + "setCharAt(IC)V", args -> {
+            ((StringBuilder) args[0]).setCharAt(toInt(args[1]), toChar(args[2]));
+            return null;
+        });
+        addVirtual(sb + "toString()Ljava/lang/String;", args -> ((StringBuilder) args[0]).toString());
+    }
+
+    private static void addIntegerMethods() {
+        String i = "Ljava/lang/Integer;->";
+        addVirtual(i + "intValue()I", args -> ((Integer) args[0]).intValue());
+        addStatic(i + "parseInt(Ljava/lang/String;)I", args -> Integer.parseInt((String) args[0]));
+        addStatic(i + "parseInt(Ljava/lang/String;I)I", args -> Integer.parseInt((String) args[0], toInt(args[1])));
+        addStatic(i + "toHexString(I)Ljava/lang/String;", args -> Integer.toHexString(toInt(args[0])));
+        addStatic(i + "toString(I)Ljava/lang/String;", args -> Integer.toString(toInt(args[0])));
+        addStatic(i + "valueOf(I)Ljava/lang/Integer;", args -> Integer.valueOf(toInt(args[0])));
+    }
+
+    private static void addCharacterMethods() {
+        String c = "Ljava/lang/Character;->";
+        addVirtual(c + "charValue()C", args -> ((Character) args[0]).charValue());
+        addStatic(c + "isDigit(C)Z", args -> Character.isDigit(toChar(args[0])));
+        addStatic(c + "isLetter(C)Z", args -> Character.isLetter(toChar(args[0])));
+        addStatic(c + "toString(C)Ljava/lang/String;", args -> Character.toString(toChar(args[0])));
+        addStatic(c + "valueOf(C)Ljava/lang/Character;", args -> Character.valueOf(toChar(args[0])));
+    }
+
+    private static void addMathMethods() {
+        String m = "Ljava/lang/Math;->";
+        addStatic(m + "abs(I)I", args -> Math.abs(toInt(args[0])));
+        addStatic(m + "abs(J)J", args -> Math.abs(toLong(args[0])));
+        addStatic(m + "max(II)I", args -> Math.max(toInt(args[0]), toInt(args[1])));
+        addStatic(m + "max(JJ)J", args -> Math.max(toLong(args[0]), toLong(args[1])));
+        addStatic(m + "min(II)I", args -> Math.min(toInt(args[0]), toInt(args[1])));
+        addStatic(m + "min(JJ)J", args -> Math.min(toLong(args[0]), toLong(args[1])));
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+
+        return toInt(value) != 0;
+    }
+
+    private static char toChar(Object value) {
+        if (value instanceof Character) {
+            return (Character) value;
+        }
+
+        return (char) ((Number) value).intValue();
+    }
+
+    private static int toInt(Object value) {
+        if (value instanceof Character) {
+            return (Character) value;
+        }
+
+        return ((Number) value).intValue();
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Character) {
+            return (Character) value;
+        }
+
+        return ((Number) value).longValue();
+    }
+
+}
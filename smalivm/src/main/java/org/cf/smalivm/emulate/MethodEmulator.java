@@ -1,54 +1,50 @@
 package org.cf.smalivm.emulate;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 import org.cf.smalivm.SideEffect;
-import org.cf.smalivm.VirtualException;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.context.ExecutionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Registry of emulated methods. Each emulated method is instantiated once when added and shared by every call. Methods
+ * may be added or removed while other threads are executing, so callers which keep a method they looked up should look
+ * it up again whenever {@link #getVersion()} changes.
+ */
 public class MethodEmulator {
 
     private static final Logger log = LoggerFactory.getLogger(MethodEmulator.class.getSimpleName());
 
-    private final VirtualMachine vm;
-    private final ExecutionContext ectx;
-    private final String methodDescriptor;
-    private final EmulatedMethod method;
-
-    public MethodEmulator(VirtualMachine vm, ExecutionContext ectx, String methodDescriptor) {
-        this.vm = vm;
-        this.ectx = ectx;
-        this.methodDescriptor = methodDescriptor;
-        method = getMethod(methodDescriptor);
+    private static final Map<String, EmulatedMethod> emulatedMethods = new ConcurrentHashMap<String, EmulatedMethod>();
+    private static final AtomicInteger version = new AtomicInteger();
+    static {
+        emulatedMethods.putAll(Intrinsics.getMethods());
+        addMethod("Lorg/cf/simplify/Utils;->breakpoint()V", new org_cf_simplify_Utils_breakpoint());
+        addMethod("Ljava/lang/Class;->forName(Ljava/lang/String;)Ljava/lang/Class;", new java_lang_Class_forName());
+        addMethod("Ljava/lang/reflect/Field;->get(Ljava/lang/Object;)Ljava/lang/Object;",
+                        new java_lang_reflect_Field_get());
     }
 
-    private static EmulatedMethod getMethod(String methodDescriptor) {
-        Class<? extends EmulatedMethod> methodClass = emulatedMethods.get(methodDescriptor);
-        EmulatedMethod em = null;
+    public static void addMethod(String methodDescriptor, Class<? extends EmulatedMethod> methodClass) {
+        EmulatedMethod method;
         try {
-            em = methodClass.newInstance();
+            method = methodClass.newInstance();
         } catch (InstantiationException | IllegalAccessException e) {
-            e.printStackTrace();
+            throw new IllegalArgumentException("Unable to instantiate emulated method " + methodClass, e);
         }
-
-        return em;
+        addMethod(methodDescriptor, method);
     }
 
-    private static Map<String, Class<? extends EmulatedMethod>> emulatedMethods = new HashMap<String, Class<? extends EmulatedMethod>>();
-    static {
-        addMethod("Lorg/cf/simplify/Utils;->breakpoint()V", org_cf_simplify_Utils_breakpoint.class);
-        addMethod("Ljava/lang/Class;->forName(Ljava/lang/String;)Ljava/lang/Class;", java_lang_Class_forName.class);
-        addMethod("Ljava/lang/reflect/Field;->get(Ljava/lang/Object;)Ljava/lang/Object;",
-                        java_lang_reflect_Field_get.class);
-    }
-
-    public static void addMethod(String methodDescriptor, Class<? extends EmulatedMethod> methodClass) {
-        emulatedMethods.put(methodDescriptor, methodClass);
+    public static void addMethod(String methodDescriptor, EmulatedMethod method) {
+        emulatedMethods.put(methodDescriptor, method);
+        version.incrementAndGet();
     }
 
     public static boolean canEmulate(String methodDescriptor) {
@@ -56,35 +52,57 @@ public class MethodEmulator {
     }
 
     public static boolean canHandleUnknownValues(String methodDescriptor) {
-        Class<? extends EmulatedMethod> methodClass = emulatedMethods.get(methodDescriptor);
-
-        return (methodClass != null) && (UnknownValuesMethod.class.isAssignableFrom(methodClass));
+        return emulatedMethods.get(methodDescriptor) instanceof UnknownValuesMethod;
     }
 
     public static void clearMethods() {
         emulatedMethods.clear();
+        version.incrementAndGet();
     }
 
-    public void emulate() {
+    public static void removeMethod(String methodDescriptor) {
+        emulatedMethods.remove(methodDescriptor);
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return number which changes whenever methods are added or removed, and is read before looking a method up
+     */
+    public static int getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return every emulated method by descriptor
+     */
+    public static Map<String, EmulatedMethod> getMethods() {
+        return Collections.unmodifiableMap(emulatedMethods);
+    }
+
+    public static @Nullable EmulatedMethod getMethod(String methodDescriptor) {
+        return emulatedMethods.get(methodDescriptor);
+    }
+
+    public static boolean isPure(String methodDescriptor) {
+        return emulatedMethods.get(methodDescriptor) instanceof PureMethod;
+    }
+
+    public static EmulationResult emulate(VirtualMachine vm, ExecutionContext ectx, String methodDescriptor,
+                    EmulatedMethod method) {
+        EmulationResult result = null;
         try {
             if (method instanceof MethodStateMethod) {
-                ((MethodStateMethod) method).execute(vm, ectx.getMethodState());
+                result = ((MethodStateMethod) method).execute(vm, ectx.getMethodState());
             } else {
-                ((ExecutionContextMethod) method).execute(vm, ectx);
+                result = ((ExecutionContextMethod) method).execute(vm, ectx);
             }
         } catch (Exception e) {
             if (log.isWarnEnabled()) {
                 log.warn("Unexpected real exception emulating " + methodDescriptor, e);
             }
         }
-    }
-
-    public SideEffect.Level getSideEffectLevel() {
-        return method.getSideEffectLevel();
-    }
 
-    public Set<VirtualException> getExceptions() {
-        return method.getExceptions();
+        return result != null ? result : EmulationResult.of(SideEffect.Level.NONE);
     }
 
 }
@@ -0,0 +1,12 @@
+package org.cf.smalivm.emulate;
+
+/**
+ * An intrinsic method whose result depends only on its arguments, so results may be cached.
+ */
+class PureIntrinsicMethod extends IntrinsicMethod implements PureMethod {
+
+    PureIntrinsicMethod(String signature, boolean isStatic, Implementation implementation) {
+        super(signature, isStatic, implementation);
+    }
+
+}
@@ -0,0 +1,9 @@
+package org.cf.smalivm.emulate;
+
+/**
+ * Emulated methods whose results depend only on their arguments and which have no side effects. Results of these
+ * methods may be cached by argument values.
+ */
+public interface PureMethod extends EmulatedMethod {
+
+}
@@ -1,8 +1,5 @@
 package org.cf.smalivm.emulate;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import javax.annotation.Nonnull;
 
 import org.cf.smalivm.SideEffect;
@@ -22,17 +19,7 @@ public class java_lang_Class_forName implements ExecutionContextMethod {
 
     private static final String RETURN_TYPE = "Ljava/lang/Class;";
 
-    private final Set<VirtualException> exceptions;
-    private SideEffect.Level level;
-
     java_lang_Class_forName() {
-        exceptions = new HashSet<VirtualException>();
-        level = SideEffect.Level.NONE;
-    }
-
-    @Override
-    public Set<VirtualException> getExceptions() {
-        return exceptions;
     }
 
     private @Nonnull Class<?> forSafeClass(MethodState mState, String binaryName) throws ClassNotFoundException {
@@ -49,16 +36,13 @@ public class java_lang_Class_forName implements ExecutionContextMethod {
         return klazz;
     }
 
-    private void setException(VirtualException exception) {
-        exceptions.add(exception);
-    }
-
     @Override
-    public void execute(VirtualMachine vm, ExecutionContext ectx) {
+    public EmulationResult execute(VirtualMachine vm, ExecutionContext ectx) {
         MethodState mState = ectx.getMethodState();
         String binaryName = (String) mState.peekParameter(0).getValue();
         String className = ClassNameUtils.binaryToInternal(binaryName);
 
+        SideEffect.Level level = SideEffect.Level.NONE;
         Class<?> value = null;
         try {
             if (vm.getConfiguration().isSafe(className)) {
@@ -79,13 +63,10 @@ public class java_lang_Class_forName implements ExecutionContextMethod {
             }
             mState.assignReturnRegister(value, RETURN_TYPE);
         } catch (ClassNotFoundException e) {
-            setException(new VirtualException(ClassNotFoundException.class, binaryName));
+            return EmulationResult.of(level, new VirtualException(ClassNotFoundException.class, binaryName));
         }
-    }
 
-    @Override
-    public SideEffect.Level getSideEffectLevel() {
-        return level;
+        return EmulationResult.of(level);
     }
 
 }
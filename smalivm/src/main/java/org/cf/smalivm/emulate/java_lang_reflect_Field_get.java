@@ -23,16 +23,11 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
 
     private static final Logger log = LoggerFactory.getLogger(java_lang_reflect_Field_get.class.getSimpleName());
 
-    private final Set<VirtualException> exceptions;
-    private SideEffect.Level level;
-
     java_lang_reflect_Field_get() {
-        exceptions = new HashSet<VirtualException>();
-        level = SideEffect.Level.NONE;
     }
 
     @Override
-    public void execute(VirtualMachine vm, ExecutionContext ectx) throws Exception {
+    public EmulationResult execute(VirtualMachine vm, ExecutionContext ectx) throws Exception {
         MethodState mState = ectx.getMethodState();
         HeapItem fieldItem = mState.peekParameter(0);
         HeapItem instanceItem = mState.peekParameter(1);
@@ -42,31 +37,25 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
         String callingMethodDescriptor = ectx.getCallerContext().getMethodSignature();
         String callingClassInternal = callingMethodDescriptor.split("->")[0];
         int accessFlags = field.getModifiers();
+        Set<VirtualException> exceptions = new HashSet<VirtualException>();
         if (!field.isAccessible()) {
-            boolean hasAccess = checkAccess(callingClassInternal, className, accessFlags, vm.getClassManager());
+            boolean hasAccess = checkAccess(callingClassInternal, className, accessFlags, vm.getClassManager(),
+                            exceptions);
             if (!hasAccess) {
-                return;
+                return new EmulationResult(SideEffect.Level.NONE, exceptions);
             }
         }
 
         Object instance = instanceItem.getValue();
-        HeapItem getItem = get(field, instance, className, accessFlags, ectx, vm);
+        HeapItem getItem = get(field, instance, className, accessFlags, ectx, vm, exceptions);
 
         mState.assignReturnRegister(getItem);
-    }
-
-    @Override
-    public Set<VirtualException> getExceptions() {
-        return exceptions;
-    }
 
-    @Override
-    public SideEffect.Level getSideEffectLevel() {
-        return level;
+        return new EmulationResult(SideEffect.Level.NONE, exceptions);
     }
 
     private boolean checkAccess(String callingClassInternal, String definingClassInternal, int accessFlags,
-                    ClassManager classManager) {
+                    ClassManager classManager, Set<VirtualException> exceptions) {
         if (Modifier.isPublic(accessFlags)) {
             return true;
         }
@@ -88,7 +77,7 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
                         .append(definingClassBinary).append(" with modifiers \"").append(modifiers).append("\"");
 
         if (Modifier.isPrivate(accessFlags)) {
-            setException(new VirtualException(IllegalAccessException.class, sb.toString()));
+            exceptions.add(new VirtualException(IllegalAccessException.class, sb.toString()));
             return false;
         }
 
@@ -104,7 +93,7 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
                 return true;
             }
 
-            setException(new VirtualException(IllegalAccessException.class, sb.toString()));
+            exceptions.add(new VirtualException(IllegalAccessException.class, sb.toString()));
             return false;
         }
 
@@ -112,9 +101,9 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
     }
 
     private HeapItem get(Field field, Object instance, String className, int accessFlags, ExecutionContext ectx,
-                    VirtualMachine vm) {
+                    VirtualMachine vm, Set<VirtualException> exceptions) {
         if (vm.getConfiguration().isSafe(className)) {
-            return getSafeField(field, instance, ectx);
+            return getSafeField(field, instance, ectx, exceptions);
         } else {
             boolean isStatic = Modifier.isStatic(accessFlags);
             if (!isStatic) {
@@ -134,7 +123,8 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
         return accessor.getField(ectx, fieldDescriptor);
     }
 
-    private HeapItem getSafeField(Field field, Object instance, ExecutionContext ectx) {
+    private HeapItem getSafeField(Field field, Object instance, ExecutionContext ectx,
+                    Set<VirtualException> exceptions) {
         HeapItem item = null;
         try {
             Object getObject = field.get(instance);
@@ -146,14 +136,10 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
             String callingClass = callingMethodDescriptor.split("->")[0];
             String callingClassJava = ClassNameUtils.internalToBinary(callingClass);
             message = message.replace(java_lang_reflect_Field_get.class.getName(), callingClassJava);
-            setException(new VirtualException(e.getClass(), message));
+            exceptions.add(new VirtualException(e.getClass(), message));
         }
 
         return item;
     }
 
-    private void setException(VirtualException exception) {
-        exceptions.add(exception);
-    }
-
 }
@@ -17,15 +17,17 @@ public class IGetOp extends ExecutionContextOp {
     private final int destRegister;
     private final int instanceRegister;
     private final String fieldDescriptor;
+    private final String fieldType;
     private final VirtualMachine vm;
 
     public IGetOp(MethodLocation location, MethodLocation child, int destRegister, int instanceRegister,
-                    String fieldDescriptor, VirtualMachine vm) {
+                    String fieldDescriptor, String fieldType, VirtualMachine vm) {
         super(location, child);
 
         this.destRegister = destRegister;
         this.instanceRegister = instanceRegister;
         this.fieldDescriptor = fieldDescriptor;
+        this.fieldType = fieldType;
         this.vm = vm;
     }
 
@@ -35,8 +37,7 @@ public class IGetOp extends ExecutionContextOp {
         MethodState mState = ectx.getMethodState();
         HeapItem instanceItem = mState.readRegister(instanceRegister);
 
-        String type = fieldDescriptor.split(":")[1];
-        mState.assignRegister(destRegister, HeapItem.newUnknown(type));
+        mState.assignRegister(destRegister, HeapItem.newUnknown(fieldType));
     }
 
     @Override
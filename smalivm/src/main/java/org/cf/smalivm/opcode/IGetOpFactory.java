@@ -20,7 +20,8 @@ public class IGetOpFactory implements OpFactory {
         FieldReference reference = (FieldReference) instr.getReference();
         String fieldDescriptor = ReferenceUtil.getFieldDescriptor(reference);
 
-        return new IGetOp(location, child, destRegister, instanceRegister, fieldDescriptor, vm);
+        return new IGetOp(location, child, destRegister, instanceRegister, fieldDescriptor, reference.getType(),
+                        vm);
     }
 
 }
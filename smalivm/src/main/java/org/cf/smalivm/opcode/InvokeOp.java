@@ -1,14 +1,17 @@
 package org.cf.smalivm.opcode;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
-import org.apache.commons.lang3.ClassUtils;
 import org.cf.smalivm.MethodReflector;
+import org.cf.smalivm.MethodResultCache;
+import org.cf.smalivm.MethodResultCache.MethodCall;
 import org.cf.smalivm.ObjectInstantiator;
 import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.VirtualMachine;
@@ -17,7 +20,12 @@ import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.emulate.EmulatedMethod;
+import org.cf.smalivm.emulate.EmulationResult;
+import org.cf.smalivm.emulate.Intrinsics;
 import org.cf.smalivm.emulate.MethodEmulator;
+import org.cf.smalivm.emulate.PureMethod;
+import org.cf.smalivm.emulate.UnknownValuesMethod;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
@@ -37,12 +45,53 @@ public class InvokeOp extends ExecutionContextOp {
 
     private static final Logger log = LoggerFactory.getLogger(InvokeOp.class.getSimpleName());
 
+    /**
+     * A safe method call which is ready to be reflected along with calls from other nodes at this op.
+     */
+    private static class DeferredReflection {
+
+        private final ExecutionNode node;
+        private final MethodState callerMethodState;
+        private final ExecutionContext calleeContext;
+        private final MethodCall call;
+
+        DeferredReflection(ExecutionNode node, MethodState callerMethodState, ExecutionContext calleeContext,
+                        @Nullable MethodCall call) {
+            this.node = node;
+            this.callerMethodState = callerMethodState;
+            this.calleeContext = calleeContext;
+            this.call = call;
+        }
+
+    }
+
+    /**
+     * Target of a call and its emulated method as of a version of the emulated method registry.
+     */
+    private static class Target {
+
+        private final VirtualMethod method;
+        private final EmulatedMethod emulatedMethod;
+        private final boolean isIntrinsic;
+        private final int emulatorVersion;
+
+        Target(VirtualMethod method, @Nullable EmulatedMethod emulatedMethod, int emulatorVersion) {
+            this.method = method;
+            this.emulatedMethod = emulatedMethod;
+            isIntrinsic = Intrinsics.isIntrinsic(emulatedMethod);
+            this.emulatorVersion = emulatorVersion;
+        }
+
+    }
+
     private final VirtualMethod virtualMethod;
     private final int[] parameterRegisters;
-    private final String[] analyzedParameterTypes;
     private final VirtualMachine vm;
     private final ClassManager classManager;
-    private SideEffect.Level sideEffectLevel;
+    private final boolean isObjectInit;
+    private final boolean isVirtual;
+    // Last target looked up, which for virtual calls is usually the next target too
+    private volatile Target lastTarget;
 
     InvokeOp(MethodLocation location, MethodLocation child, VirtualMethod virtualMethod, int[] parameterRegisters,
                     VirtualMachine vm) {
@@ -50,14 +99,79 @@ public class InvokeOp extends ExecutionContextOp {
 
         this.virtualMethod = virtualMethod;
         this.parameterRegisters = parameterRegisters;
-        analyzedParameterTypes = new String[virtualMethod.getParameterTypes().size()];
         this.vm = vm;
         classManager = vm.getClassManager();
-        sideEffectLevel = SideEffect.Level.STRONG;
+        isObjectInit = virtualMethod.isConstructor() && virtualMethod.getClassName().equals("Ljava/lang/Object;");
+        // -virtual/range
+        isVirtual = getName().startsWith("invoke-virtual");
+        lastTarget = lookUpTarget(virtualMethod);
     }
 
     @Override
     public void execute(ExecutionNode node, ExecutionContext ectx) {
+        execute(node, ectx, null);
+    }
+
+    /**
+     * Execute every node in a pile at this op together. Nodes which reflect the target method have their calls made as
+     * a single batch rather than one at a time. Everything else is executed the same as for a single node.
+     *
+     * @param nodes
+     *            nodes at this op
+     * @return exception thrown while executing each node which failed, so other nodes are unaffected
+     */
+    public Map<ExecutionNode, Exception> execute(List<ExecutionNode> nodes) {
+        Map<ExecutionNode, Exception> failures = new HashMap<ExecutionNode, Exception>(0);
+        List<DeferredReflection> deferredReflections = new ArrayList<DeferredReflection>(nodes.size());
+        for (ExecutionNode node : nodes) {
+            try {
+                execute(node, node.getContext(), deferredReflections);
+            } catch (Exception e) {
+                failures.put(node, e);
+            }
+        }
+        if (deferredReflections.isEmpty()) {
+            return failures;
+        }
+
+        List<MethodState> calleeMethodStates = new ArrayList<MethodState>(deferredReflections.size());
+        for (DeferredReflection deferred : deferredReflections) {
+            calleeMethodStates.add(deferred.calleeContext.getMethodState());
+        }
+        MethodReflector reflector = new MethodReflector(vm, virtualMethod);
+        reflector.reflect(calleeMethodStates);
+
+        for (DeferredReflection deferred : deferredReflections) {
+            try {
+                finishReflection(deferred.node, deferred.callerMethodState, deferred.calleeContext, deferred.call);
+            } catch (Exception e) {
+                failures.put(deferred.node, e);
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * @return true if nodes at this op may reflect and are worth executing together with
+     *         {@link #execute(List)}
+     */
+    public boolean mayReflect() {
+        if (isObjectInit) {
+            return false;
+        }
+
+        if (isVirtual) {
+            // Virtual targets depend on the instance, so assume they might be reflected.
+            return true;
+        }
+
+        return getEmulatedMethod(getTarget(virtualMethod.getSignature())) == null
+                        && vm.getConfiguration().isSafe(virtualMethod);
+    }
+
+    private void execute(ExecutionNode node, ExecutionContext ectx,
+                    @Nullable List<DeferredReflection> deferredReflections) {
         // TODO: In order to get working call stacks, refactor this to delegate most of the work to MethodExecutor.
         // This will remove InvokeOp as a weirdly complex op, and probably allow some methods to be made protected.
         // It also keeps things clear with method execution delegated to the class with the same name.
@@ -65,7 +179,7 @@ public class InvokeOp extends ExecutionContextOp {
         // With this mapping, stack traces can be reconstructed.
 
         MethodState callerMethodState = ectx.getMethodState();
-        if (virtualMethod.getSignature().equals("Ljava/lang/Object;-><init>()V")) {
+        if (isObjectInit) {
             // Object.<init> is a special little snow flake
             try {
                 executeLocalObjectInit(callerMethodState);
@@ -75,28 +189,32 @@ public class InvokeOp extends ExecutionContextOp {
             return;
         }
 
-        analyzeParameterTypes(callerMethodState);
+        String[] analyzedParameterTypes = analyzeParameterTypes(callerMethodState);
 
         String targetSignature = virtualMethod.getSignature();
-        if (getName().startsWith("invoke-virtual")) { // -virtual/range
+        if (isVirtual) {
             // Resolve what the actual virtual target is because method call may be to interface or abstract class.
             int targetRegister = parameterRegisters[0];
             HeapItem item = ectx.getMethodState().peekRegister(targetRegister);
             targetSignature = resolveVirtualMethod(item.getValue());
         }
+        Target target = getTarget(targetSignature);
+        boolean isSafe = vm.getConfiguration().isSafe(target.method);
+        EmulatedMethod targetEmulatedMethod = getEmulatedMethod(target);
 
         // Try to reflect or emulate before using local class.
-        if (vm.getConfiguration().isSafe(targetSignature) || MethodEmulator.canEmulate(targetSignature)) {
-            ExecutionContext calleeContext = buildNonLocalCalleeContext(ectx);
+        if (isSafe || targetEmulatedMethod != null) {
+            ExecutionContext calleeContext = buildNonLocalCalleeContext(ectx, analyzedParameterTypes);
             boolean allArgumentsKnown = allArgumentsKnown(calleeContext.getMethodState());
-            if (allArgumentsKnown || MethodEmulator.canHandleUnknownValues(targetSignature)) {
-                executeNonLocalMethod(targetSignature, callerMethodState, calleeContext, node);
+            if (allArgumentsKnown || targetEmulatedMethod instanceof UnknownValuesMethod) {
+                executeNonLocalMethod(targetSignature, targetEmulatedMethod, isSafe, callerMethodState,
+                                calleeContext, node, deferredReflections);
                 return;
             } else {
                 if (log.isTraceEnabled()) {
                     log.trace("Not emulating / reflecting {} because all args not known.", targetSignature);
                 }
-                assumeMaximumUnknown(callerMethodState);
+                assumeMaximumUnknown(callerMethodState, analyzedParameterTypes);
                 return;
             }
         }
@@ -104,7 +222,7 @@ public class InvokeOp extends ExecutionContextOp {
         // This assumes if reflection or emulation fails, not worth it to try possibly cached framework classes.
         if (!classManager.isLocalMethod(targetSignature)) {
             log.debug("Unknown method: {}. Assuming maximum ambiguity.", targetSignature);
-            assumeMaximumUnknown(callerMethodState);
+            assumeMaximumUnknown(callerMethodState, analyzedParameterTypes);
             return;
         }
 
@@ -113,7 +231,7 @@ public class InvokeOp extends ExecutionContextOp {
             if (log.isDebugEnabled()) {
                 log.debug("Not executing unsafe framework method: {}. Assuming maxiumum ambiguity.", targetSignature);
             }
-            assumeMaximumUnknown(callerMethodState);
+            assumeMaximumUnknown(callerMethodState, analyzedParameterTypes);
             return;
         }
 
@@ -126,12 +244,45 @@ public class InvokeOp extends ExecutionContextOp {
                     log.warn("Cannot execute local native method: {}. Assuming maxiumum ambiguity.", targetSignature);
                 }
             }
-            assumeMaximumUnknown(callerMethodState);
+            assumeMaximumUnknown(callerMethodState, analyzedParameterTypes);
             return;
         }
 
-        ExecutionContext calleeContext = buildLocalCalleeContext(ectx, localMethod);
-        executeLocalMethod(targetSignature, ectx, calleeContext);
+        ExecutionContext calleeContext = buildLocalCalleeContext(ectx, localMethod, analyzedParameterTypes);
+        executeLocalMethod(targetSignature, ectx, calleeContext, analyzedParameterTypes, node);
+    }
+
+    /**
+     * Emulated methods may be added or removed at any time, so the last look up is only reused until the registry
+     * changes.
+     */
+    private Target getTarget(String targetSignature) {
+        Target target = lastTarget;
+        if (target.emulatorVersion != MethodEmulator.getVersion()
+                        || !target.method.getSignature().equals(targetSignature)) {
+            // Non-local methods are canonical, so the safe verdict cached on the method is kept between look ups.
+            VirtualMethod method = targetSignature.equals(virtualMethod.getSignature()) ? virtualMethod : classManager
+                            .getMethodFactory().build(targetSignature, false);
+            target = lookUpTarget(method);
+            lastTarget = target;
+        }
+
+        return target;
+    }
+
+    private @Nullable EmulatedMethod getEmulatedMethod(Target target) {
+        if (target.isIntrinsic && vm.isReflectingIntrinsics()) {
+            return null;
+        }
+
+        return target.emulatedMethod;
+    }
+
+    private static Target lookUpTarget(VirtualMethod method) {
+        // Version is read first so a change during the look up is seen next time.
+        int version = MethodEmulator.getVersion();
+
+        return new Target(method, MethodEmulator.getMethod(method.getSignature()), version);
     }
 
     public int[] getParameterRegisters() {
@@ -142,9 +293,16 @@ public class InvokeOp extends ExecutionContextOp {
         return virtualMethod.getReturnType();
     }
 
+    public VirtualMethod getVirtualMethod() {
+        return virtualMethod;
+    }
+
+    /**
+     * Calls may do anything until executed. Each executed node has the level of its own call.
+     */
     @Override
     public SideEffect.Level getSideEffectLevel() {
-        return sideEffectLevel;
+        return SideEffect.Level.STRONG;
     }
 
     @Override
@@ -180,7 +338,7 @@ public class InvokeOp extends ExecutionContextOp {
         return true;
     }
 
-    private void analyzeParameterTypes(MethodState callerState) {
+    private String[] analyzeParameterTypes(MethodState callerState) {
         /*
          * Type can be confused here. For example, creating a short, int, boolean, or *null* all appear:
          * const/4 v0,0x0 (could be true, (int)0, or (short)0, null, etc.)
@@ -191,6 +349,8 @@ public class InvokeOp extends ExecutionContextOp {
          * method argument is Lchild_class; but signature says Lparent_class;, prefer Lchild_class;
          */
         List<String> parameterTypes = virtualMethod.getParameterTypes();
+        // Ops are shared by every execution of a method, possibly on other threads, so types aren't kept in a field.
+        String[] analyzedParameterTypes = new String[parameterTypes.size()];
         for (int i = 0; i < parameterRegisters.length; i++) {
             int callerRegister = parameterRegisters[i];
             HeapItem item = callerState.readRegister(callerRegister);
@@ -209,9 +369,12 @@ public class InvokeOp extends ExecutionContextOp {
             }
             analyzedParameterTypes[i] = type;
         }
+
+        return analyzedParameterTypes;
     }
 
-    private void assignCalleeMethodArguments(MethodState callerState, MethodState calleeState) {
+    private void assignCalleeMethodArguments(MethodState callerState, MethodState calleeState,
+                    String[] analyzedParameterTypes) {
         int parameterRegister = calleeState.getParameterStart();
         for (int i = 0; i < parameterRegisters.length; i++) {
             int callerRegister = parameterRegisters[i];
@@ -234,7 +397,7 @@ public class InvokeOp extends ExecutionContextOp {
         }
     }
 
-    private void assumeMaximumUnknown(MethodState callerMethodState) {
+    private void assumeMaximumUnknown(MethodState callerMethodState, String[] analyzedParameterTypes) {
         // TODO: add option to mark all class states unknown instead of just method state
         for (int i = 0; i < virtualMethod.getParameterTypes().size(); i++) {
             int register = parameterRegisters[i];
@@ -246,8 +409,7 @@ public class InvokeOp extends ExecutionContextOp {
             }
 
             String type = analyzedParameterTypes[i];
-            boolean isInitializing = virtualMethod.getSignature().contains(";-><init>(");
-            if (!isInitializing) {
+            if (!virtualMethod.isConstructor()) {
                 // May be immutable type, but if this is the initializer, internal state would be changing.
                 if (vm.getConfiguration().isImmutable(type)) {
                     if (log.isTraceEnabled()) {
@@ -256,7 +418,7 @@ public class InvokeOp extends ExecutionContextOp {
                     continue;
                 }
 
-                if (item.isImmutable()) {
+                if (vm.getConfiguration().isImmutable(item.getType())) {
                     // Parameter type might be "Ljava/lang/Object;" but actual type is "Ljava/lang/String";
                     if (log.isTraceEnabled()) {
                         log.trace("{} (actual) is immutable", type);
@@ -279,24 +441,26 @@ public class InvokeOp extends ExecutionContextOp {
         }
     }
 
-    private ExecutionContext buildLocalCalleeContext(ExecutionContext callerContext, LocalMethod localMethod) {
+    private ExecutionContext buildLocalCalleeContext(ExecutionContext callerContext, LocalMethod localMethod,
+                    String[] analyzedParameterTypes) {
         ExecutionContext calleeContext = vm.spawnRootExecutionContext(localMethod, callerContext, getAddress());
         MethodState callerMethodState = callerContext.getMethodState();
         MethodState calleeMethodState = calleeContext.getMethodState();
-        assignCalleeMethodArguments(callerMethodState, calleeMethodState);
+        assignCalleeMethodArguments(callerMethodState, calleeMethodState, analyzedParameterTypes);
 
         // Class state merging is handled by the VM.
 
         return calleeContext;
     }
 
-    private ExecutionContext buildNonLocalCalleeContext(ExecutionContext callerContext) {
+    private ExecutionContext buildNonLocalCalleeContext(ExecutionContext callerContext,
+                    String[] analyzedParameterTypes) {
         ExecutionContext calleeContext = new ExecutionContext(vm, virtualMethod);
         int parameterSize = virtualMethod.getParameterSize();
         int registerCount = parameterSize;
         MethodState calleeMethodState = new MethodState(calleeContext, registerCount, virtualMethod.getParameterTypes()
                         .size(), parameterSize);
-        assignCalleeMethodArguments(callerContext.getMethodState(), calleeMethodState);
+        assignCalleeMethodArguments(callerContext.getMethodState(), calleeMethodState, analyzedParameterTypes);
         calleeContext.setMethodState(calleeMethodState);
         calleeContext.registerCaller(callerContext, getAddress());
 
@@ -304,7 +468,7 @@ public class InvokeOp extends ExecutionContextOp {
     }
 
     private void executeLocalMethod(String methodSignature, ExecutionContext callerContext,
-                    ExecutionContext calleeContext) {
+                    ExecutionContext calleeContext, String[] analyzedParameterTypes, ExecutionNode node) {
         ExecutionGraph graph = null;
         try {
             graph = vm.execute(methodSignature, calleeContext, callerContext, parameterRegisters);
@@ -322,16 +486,16 @@ public class InvokeOp extends ExecutionContextOp {
         if (graph == null) {
             // Maybe node visits or call depth exceeded?
             log.info("Problem executing {}, propagating ambiguity.", methodSignature);
-            assumeMaximumUnknown(callerContext.getMethodState());
+            assumeMaximumUnknown(callerContext.getMethodState(), analyzedParameterTypes);
 
             return;
         }
 
-        if (!virtualMethod.getReturnType().equals("V")) {
+        if (!virtualMethod.returnsVoid()) {
             HeapItem consensus = graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister);
             callerContext.getMethodState().assignResultRegister(consensus);
         } else {
-            if (methodSignature.contains(";-><init>(")) {
+            if (virtualMethod.isConstructor()) {
                 // This was a call to a local parent <init> method
                 int calleeInstanceRegister = calleeContext.getMethodState().getParameterStart();
                 HeapItem newInstance = graph.getTerminatingRegisterConsensus(calleeInstanceRegister);
@@ -340,7 +504,7 @@ public class InvokeOp extends ExecutionContextOp {
             }
         }
 
-        sideEffectLevel = graph.getHighestSideEffectLevel();
+        node.setSideEffectLevel(graph.getHighestSideEffectLevel());
     }
 
     private void executeLocalObjectInit(MethodState callerMethodState) throws ClassNotFoundException,
@@ -354,27 +518,59 @@ public class InvokeOp extends ExecutionContextOp {
         callerMethodState.assignRegisterAndUpdateIdentities(instanceRegister, newInstanceItem);
     }
 
-    private void executeNonLocalMethod(String methodDescriptor, MethodState callerMethodState,
-                    ExecutionContext calleeContext, ExecutionNode node) {
-        if (MethodEmulator.canEmulate(methodDescriptor)) {
-            MethodEmulator emulator = new MethodEmulator(vm, calleeContext, methodDescriptor);
-            emulator.emulate();
-            sideEffectLevel = emulator.getSideEffectLevel();
-            if (emulator.getExceptions().size() > 0) {
+    private void executeNonLocalMethod(String methodDescriptor, @Nullable EmulatedMethod emulatedMethod,
+                    boolean isSafe, MethodState callerMethodState, ExecutionContext calleeContext, ExecutionNode node,
+                    @Nullable List<DeferredReflection> deferredReflections) {
+        MethodState calleeMethodState = calleeContext.getMethodState();
+        boolean canEmulate = emulatedMethod != null;
+        MethodResultCache resultCache = vm.getMethodResultCache();
+        MethodCall call = null;
+        if (canEmulate ? emulatedMethod instanceof PureMethod : isSafe) {
+            call = resultCache.buildCall(methodDescriptor, virtualMethod, calleeMethodState);
+        }
+
+        if (call != null && resultCache.restore(call, virtualMethod, calleeMethodState)) {
+            // Only pure methods are cached.
+            node.setSideEffectLevel(SideEffect.Level.NONE);
+        } else if (canEmulate) {
+            EmulationResult result = MethodEmulator.emulate(vm, calleeContext, methodDescriptor, emulatedMethod);
+            node.setSideEffectLevel(result.getSideEffectLevel());
+            if (result.hasExceptions()) {
                 node.clearChildren();
-                node.setExceptions(emulator.getExceptions());
+                node.setExceptions(result.getExceptions());
+                return;
+            }
+            if (call != null) {
+                resultCache.store(call, virtualMethod, calleeMethodState);
+            }
+        } else if (isSafe) {
+            assert allArgumentsKnown(calleeMethodState);
+
+            if (deferredReflections != null) {
+                deferredReflections.add(new DeferredReflection(node, callerMethodState, calleeContext, call));
                 return;
             }
-        } else if (vm.getConfiguration().isSafe(methodDescriptor)) {
-            assert allArgumentsKnown(calleeContext.getMethodState());
 
             MethodReflector reflector = new MethodReflector(vm, virtualMethod);
-            reflector.reflect(calleeContext.getMethodState()); // playa play
+            reflector.reflect(calleeMethodState); // playa play
+            finishReflection(node, callerMethodState, calleeContext, call);
+            return;
+        }
+
+        assignCallerResults(callerMethodState, calleeContext);
+    }
 
-            // Only safe, non-side-effect methods are allowed to be reflected.
-            sideEffectLevel = SideEffect.Level.NONE;
+    private void finishReflection(ExecutionNode node, MethodState callerMethodState, ExecutionContext calleeContext,
+                    @Nullable MethodCall call) {
+        // Only safe, non-side-effect methods are allowed to be reflected.
+        node.setSideEffectLevel(SideEffect.Level.NONE);
+        if (call != null) {
+            vm.getMethodResultCache().store(call, virtualMethod, calleeContext.getMethodState());
         }
+        assignCallerResults(callerMethodState, calleeContext);
+    }
 
+    private void assignCallerResults(MethodState callerMethodState, ExecutionContext calleeContext) {
         if (!virtualMethod.isStatic()) {
             // This is virtual and the instance reference may have been initialized or mutated.
             HeapItem originalInstanceItem = callerMethodState.peekRegister(parameterRegisters[0]);
@@ -399,12 +595,11 @@ public class InvokeOp extends ExecutionContextOp {
         }
     }
 
-    private @Nullable String resolveVirtualMethod(Object virtualTarget) {
+    private String resolveVirtualMethod(Object virtualTarget) {
         /*
-         * A method may not be declared in the type given by the method invocation. This method searches super and
-         * interface
-         * hierarchy returns a method descriptor from the first class which implements the method. The method descriptor
-         * points to the implementing class.
+         * A method may not be declared in the type given by the method invocation. The resolver searches super and
+         * interface hierarchy and returns a method descriptor from the first class which implements the method. The
+         * method descriptor points to the implementing class.
          */
         String virtualType;
         if (virtualTarget instanceof UninitializedInstance) {
@@ -413,82 +608,12 @@ public class InvokeOp extends ExecutionContextOp {
         } else {
             virtualType = ClassNameUtils.toInternal(virtualTarget.getClass());
         }
-        String descriptor = virtualMethod.getDescriptor();
-        String methodName = virtualMethod.getMethodName();
-        String targetMethod = resolveVirtualMethod(methodName, descriptor, virtualMethod.getParameterTypes(),
-                        virtualType, new HashSet<String>(4));
+        // Parameter types of the descriptor don't include the instance.
+        List<String> parameterTypes = virtualMethod.getParameterTypes();
+        String targetMethod = vm.getVirtualMethodResolver().resolve(virtualType, virtualMethod.getDescriptor(),
+                        parameterTypes.subList(1, parameterTypes.size()));
 
         return targetMethod != null ? targetMethod : virtualMethod.getSignature();
     }
 
-    private @Nullable String resolveVirtualMethod(String methodName, String descriptor, List<String> parameterTypes,
-                    String className, Set<String> visited) {
-        String signature = new StringBuilder(className).append("->").append(descriptor).toString();
-        boolean isLocalMethod = classManager.isLocalMethod(signature);
-        if (isLocalMethod) {
-            LocalMethod localMethod = classManager.getMethod(signature);
-            if (localMethod.hasImplementation()) {
-                return signature;
-            }
-        }
-
-        if (vm.getConfiguration().isSafe(signature) && doesNonLocalMethodExist(methodName, descriptor, parameterTypes,
-                        className, signature)) {
-            return signature;
-        }
-
-        if (!classManager.isLocalClass(className)) {
-            // Can't trace any further up and already checked if white-listed Java API
-            return null;
-        }
-
-        Set<String> ancestorNames = vm.getAncestorEnumerator().enumerate(className);
-        for (String ancestorName : ancestorNames) {
-            if (visited.contains(ancestorName)) {
-                continue;
-            }
-            visited.add(className);
-            String target = resolveVirtualMethod(methodName, descriptor, parameterTypes, ancestorName, visited);
-            if (null != target) {
-                return target;
-            }
-        }
-
-        return null;
-    }
-
-    private static boolean doesNonLocalMethodExist(String methodName, String descriptor, List<String> paramList,
-                    String className, String signature) {
-        Class<?> klazz = null;
-        try {
-            klazz = Class.forName(ClassNameUtils.internalToBinary(className));
-        } catch (ClassNotFoundException e) {
-            return false;
-        }
-
-        Class<?>[] params = new Class<?>[paramList.size()];
-        for (int i = 0; i < paramList.size(); i++) {
-            String paramName = paramList.get(i);
-            try {
-                if (ClassNameUtils.isPrimitive(paramName)) {
-                    params[i] = ClassUtils.getClass(ClassNameUtils.internalToBinary(paramName));
-                } else {
-                    params[i] = Class.forName(ClassNameUtils.internalToBinary(paramName));
-                }
-            } catch (ClassNotFoundException e) {
-                return false;
-            }
-        }
-
-        try {
-            klazz.getMethod(methodName, params);
-        } catch (NoSuchMethodException e) {
-            return false;
-        } catch (SecurityException e) {
-            return false;
-        }
-
-        return true;
-    }
-
 }
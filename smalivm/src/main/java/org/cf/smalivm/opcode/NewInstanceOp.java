@@ -14,7 +14,6 @@ public class NewInstanceOp extends ExecutionContextOp {
     private final String className;
     private final int destRegister;
     private final VirtualMachine vm;
-    private SideEffect.Level sideEffectLevel;
 
     NewInstanceOp(MethodLocation location, MethodLocation child, int destRegister, String className, VirtualMachine vm) {
         super(location, child);
@@ -22,7 +21,6 @@ public class NewInstanceOp extends ExecutionContextOp {
         this.destRegister = destRegister;
         this.className = className;
         this.vm = vm;
-        sideEffectLevel = SideEffect.Level.STRONG;
     }
 
     @Override
@@ -31,9 +29,9 @@ public class NewInstanceOp extends ExecutionContextOp {
         if (vm.shouldTreatAsLocal(className)) {
             // New-instance causes static initialization (but not new-array!)
             ectx.readClassState(className); // access will initialize if necessary
-            sideEffectLevel = ectx.getClassSideEffectLevel(className);
+            node.setSideEffectLevel(ectx.getClassSideEffectLevel(className));
         } else if (vm.getConfiguration().isSafe(className)) {
-            sideEffectLevel = SideEffect.Level.NONE;
+            node.setSideEffectLevel(SideEffect.Level.NONE);
         }
 
         MethodState mState = ectx.getMethodState();
@@ -41,9 +39,13 @@ public class NewInstanceOp extends ExecutionContextOp {
         mState.assignRegister(destRegister, instanceItem);
     }
 
+    /**
+     * Instantiating may run a static initializer which does anything. Each executed node has the level of its own
+     * initialization.
+     */
     @Override
     public SideEffect.Level getSideEffectLevel() {
-        return sideEffectLevel;
+        return SideEffect.Level.STRONG;
     }
 
     @Override
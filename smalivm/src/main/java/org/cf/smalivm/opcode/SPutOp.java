@@ -6,6 +6,7 @@ import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.reference.VirtualField;
 import org.jf.dexlib2.builder.MethodLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,16 +16,16 @@ public class SPutOp extends ExecutionContextOp {
     @SuppressWarnings("unused")
     private static final Logger log = LoggerFactory.getLogger(SPutOp.class.getSimpleName());
 
-    private final String fieldDescriptor;
+    private final VirtualField field;
     private final int valueRegister;
     private final VirtualMachine vm;
 
-    public SPutOp(MethodLocation location, MethodLocation child, int valueRegister, String fieldDescriptor,
+    public SPutOp(MethodLocation location, MethodLocation child, int valueRegister, VirtualField field,
                     VirtualMachine vm) {
         super(location, child);
 
         this.valueRegister = valueRegister;
-        this.fieldDescriptor = fieldDescriptor;
+        this.field = field;
         this.vm = vm;
     }
 
@@ -33,7 +34,11 @@ public class SPutOp extends ExecutionContextOp {
         MethodState mState = ectx.getMethodState();
         HeapItem item = mState.readRegister(valueRegister);
         // TODO: check if this is <clinit> and only allow static final fields to be initialized here
-        vm.getStaticFieldAccessor().putField(ectx, fieldDescriptor, item);
+        vm.getStaticFieldAccessor().putField(ectx, field, item);
+    }
+
+    public VirtualField getField() {
+        return field;
     }
 
     @Override
@@ -44,7 +49,7 @@ public class SPutOp extends ExecutionContextOp {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(getName());
-        sb.append(" r").append(valueRegister).append(", ").append(fieldDescriptor);
+        sb.append(" r").append(valueRegister).append(", ").append(field);
 
         return sb.toString();
     }
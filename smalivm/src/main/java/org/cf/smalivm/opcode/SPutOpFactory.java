@@ -3,6 +3,7 @@ package org.cf.smalivm.opcode;
 import gnu.trove.map.TIntObjectMap;
 
 import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.reference.VirtualField;
 import org.cf.util.Utils;
 import org.jf.dexlib2.builder.BuilderInstruction;
 import org.jf.dexlib2.builder.MethodLocation;
@@ -19,8 +20,9 @@ public class SPutOpFactory implements OpFactory {
         int destRegister = instr.getRegisterA();
         FieldReference reference = (FieldReference) instr.getReference();
         String fieldDescriptor = ReferenceUtil.getFieldDescriptor(reference);
+        VirtualField field = vm.getStaticFieldAccessor().resolveField(fieldDescriptor);
 
-        return new SPutOp(location, child, destRegister, fieldDescriptor, vm);
+        return new SPutOp(location, child, destRegister, field, vm);
     }
 
 }
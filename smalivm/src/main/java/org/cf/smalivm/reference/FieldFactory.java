@@ -1,6 +1,36 @@
 package org.cf.smalivm.reference;
 
+import java.util.List;
 
 public class FieldFactory {
 
+    private final SymbolTable symbols;
+
+    public FieldFactory() {
+        this(new SymbolTable());
+    }
+
+    public FieldFactory(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    public FieldLayout build(String className, List<String> fieldNameAndTypes) {
+        return new FieldLayout(className, fieldNameAndTypes, symbols);
+    }
+
+    /**
+     * Build a field which is not part of any {@link FieldLayout}, e.g. a field of a non-local class.
+     *
+     * @param fieldSignature
+     *            full field signature, e.g. Lsome/class;->myBool:Z
+     * @return new field with no slot, see {@link VirtualField#NO_SLOT}
+     */
+    public VirtualField build(String fieldSignature) {
+        int dashRocket = fieldSignature.indexOf("->");
+        String className = fieldSignature.substring(0, dashRocket);
+        String fieldNameAndType = fieldSignature.substring(dashRocket + 2);
+
+        return new VirtualField(className, fieldNameAndType, VirtualField.NO_SLOT, symbols);
+    }
+
 }
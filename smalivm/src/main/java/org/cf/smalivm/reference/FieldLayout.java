@@ -0,0 +1,97 @@
+package org.cf.smalivm.reference;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Precomputed static field layout of a class, including inherited fields. Each field is assigned a fixed slot so
+ * callers can resolve a field once and avoid parsing field descriptors on every access.
+ */
+public class FieldLayout {
+
+    private final String className;
+    private final VirtualField[] fields;
+    private final TObjectIntMap<String> fieldNameAndTypeToSlot;
+    private final List<String> fieldNameAndTypes;
+    private final SymbolTable symbols;
+
+    FieldLayout(String className, List<String> fieldNameAndTypes, SymbolTable symbols) {
+        this.className = className;
+        this.symbols = symbols;
+        fieldNameAndTypeToSlot = new TObjectIntHashMap<String>(fieldNameAndTypes.size(), 0.5f, VirtualField.NO_SLOT);
+        List<VirtualField> slotFields = new ArrayList<VirtualField>(fieldNameAndTypes.size());
+        for (String fieldNameAndType : fieldNameAndTypes) {
+            if (fieldNameAndTypeToSlot.containsKey(fieldNameAndType)) {
+                // Shadowed by a field with the same name and type, which would have the same key anyway.
+                continue;
+            }
+            int slot = slotFields.size();
+            slotFields.add(new VirtualField(className, fieldNameAndType, slot, symbols));
+            fieldNameAndTypeToSlot.put(fieldNameAndType, slot);
+        }
+        fields = slotFields.toArray(new VirtualField[slotFields.size()]);
+
+        List<String> names = new ArrayList<String>(fields.length);
+        for (VirtualField field : fields) {
+            names.add(field.getFieldNameAndType());
+        }
+        this.fieldNameAndTypes = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Build a field of this class which isn't part of the layout. It shares the symbol table of the layout's class
+     * manager.
+     *
+     * @param fieldNameAndType
+     *            field name and type, e.g. myBool:Z
+     * @return field without a slot
+     */
+    public VirtualField buildUnslottedField(String fieldNameAndType) {
+        return new VirtualField(className, fieldNameAndType, VirtualField.NO_SLOT, symbols);
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public VirtualField getField(int slot) {
+        return fields[slot];
+    }
+
+    /**
+     * @param fieldNameAndType
+     *            field name and type, e.g. myBool:Z
+     * @return field for the given name and type, or null if the class has no such field
+     */
+    public @Nullable VirtualField getField(String fieldNameAndType) {
+        int slot = getSlot(fieldNameAndType);
+
+        return slot == VirtualField.NO_SLOT ? null : fields[slot];
+    }
+
+    /**
+     * @return unmodifiable list of field name and types, in slot order
+     */
+    public List<String> getFieldNameAndTypes() {
+        return fieldNameAndTypes;
+    }
+
+    public VirtualField[] getFields() {
+        return fields;
+    }
+
+    public int getSlot(String fieldNameAndType) {
+        return fieldNameAndTypeToSlot.get(fieldNameAndType);
+    }
+
+    public int size() {
+        return fields.length;
+    }
+
+}
@@ -13,8 +13,8 @@ public class LocalMethod extends VirtualMethod {
 
     private final BuilderMethod method;
 
-    LocalMethod(BuilderMethod method) {
-        super(ReferenceUtil.getMethodDescriptor(method), Modifier.isStatic(method.getAccessFlags()));
+    LocalMethod(BuilderMethod method, SymbolTable symbols) {
+        super(ReferenceUtil.getMethodDescriptor(method), Modifier.isStatic(method.getAccessFlags()), symbols);
         this.method = method;
     }
 
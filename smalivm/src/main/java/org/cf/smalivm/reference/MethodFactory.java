@@ -1,15 +1,46 @@
 package org.cf.smalivm.reference;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.jf.dexlib2.writer.builder.BuilderMethod;
 
 public class MethodFactory {
 
+    private final SymbolTable symbols;
+    private final Map<String, VirtualMethod> signatureToStaticMethod;
+    private final Map<String, VirtualMethod> signatureToInstanceMethod;
+
+    public MethodFactory() {
+        this(new SymbolTable());
+    }
+
+    public MethodFactory(SymbolTable symbols) {
+        this.symbols = symbols;
+        signatureToStaticMethod = new HashMap<String, VirtualMethod>();
+        signatureToInstanceMethod = new HashMap<String, VirtualMethod>();
+    }
+
     public LocalMethod build(BuilderMethod method) {
-        return new LocalMethod(method);
+        return new LocalMethod(method, symbols);
+    }
+
+    /**
+     * Non-local methods are canonical, so building the same signature twice returns the same instance.
+     */
+    public synchronized VirtualMethod build(String methodSignature, boolean isStatic) {
+        Map<String, VirtualMethod> signatureToMethod = isStatic ? signatureToStaticMethod : signatureToInstanceMethod;
+        VirtualMethod method = signatureToMethod.get(methodSignature);
+        if (method == null) {
+            method = new VirtualMethod(methodSignature, isStatic, symbols);
+            signatureToMethod.put(method.getSignature(), method);
+        }
+
+        return method;
     }
 
-    public VirtualMethod build(String methodSignature, boolean isStatic) {
-        return new VirtualMethod(methodSignature, isStatic);
+    public SymbolTable getSymbolTable() {
+        return symbols;
     }
 
 }
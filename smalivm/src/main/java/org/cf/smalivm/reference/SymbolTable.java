@@ -0,0 +1,29 @@
+package org.cf.smalivm.reference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out canonical instances of types, method signatures and field signatures. Equal canonical strings are the same
+ * instance, so comparing them with equals takes the identity fast path.
+ *
+ * There should be one table per class manager, shared by everything which parses references from it.
+ */
+public class SymbolTable {
+
+    private final ConcurrentMap<String, String> canonicalStrings;
+
+    public SymbolTable() {
+        canonicalStrings = new ConcurrentHashMap<String, String>();
+    }
+
+    /**
+     * @return canonical instance of an equal string
+     */
+    public String intern(String symbol) {
+        String canonical = canonicalStrings.putIfAbsent(symbol, symbol);
+
+        return canonical != null ? canonical : symbol;
+    }
+
+}
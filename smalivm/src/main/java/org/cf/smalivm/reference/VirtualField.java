@@ -2,8 +2,80 @@ package org.cf.smalivm.reference;
 
 public class VirtualField {
 
-    VirtualField() {
+    public static final int NO_SLOT = -1;
 
+    private final String signature;
+    private final String className;
+    private final String fieldNameAndType;
+    private final String fieldName;
+    private final String type;
+    private final int slot;
+
+    VirtualField(String className, String fieldNameAndType, int slot, SymbolTable symbols) {
+        this.className = symbols.intern(className);
+        this.fieldNameAndType = symbols.intern(fieldNameAndType);
+        this.slot = slot;
+
+        int colon = fieldNameAndType.indexOf(':');
+        fieldName = symbols.intern(fieldNameAndType.substring(0, colon));
+        type = symbols.intern(fieldNameAndType.substring(colon + 1));
+        signature = symbols.intern(new StringBuilder(className).append("->").append(fieldNameAndType).toString());
+    }
+
+    public final String getClassName() {
+        return className;
+    }
+
+    public final String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * @return field name and type, e.g. myBool:Z
+     */
+    public final String getFieldNameAndType() {
+        return fieldNameAndType;
+    }
+
+    public final String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return index of this field in the class' {@link FieldLayout}, or {@link #NO_SLOT} if not part of a layout
+     */
+    public final int getSlot() {
+        return slot;
+    }
+
+    public final String getType() {
+        return type;
+    }
+
+    public final boolean hasSlot() {
+        return slot != NO_SLOT;
+    }
+
+    @Override
+    public final int hashCode() {
+        return signature.hashCode();
+    }
+
+    @Override
+    public final boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (!(obj instanceof VirtualField)) {
+            return false;
+        }
+        VirtualField other = (VirtualField) obj;
+
+        return signature.equals(other.signature) && slot == other.slot;
+    }
+
+    @Override
+    public String toString() {
+        return getSignature();
     }
 
 }
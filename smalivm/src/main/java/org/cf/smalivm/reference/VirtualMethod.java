@@ -1,14 +1,40 @@
 package org.cf.smalivm.reference;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.cf.util.ClassNameUtils;
 import org.cf.util.Utils;
 
 public class VirtualMethod {
 
+    /**
+     * A configuration's verdict on whether a method is safe, and the policy version it was made under. Verdicts are
+     * published as a whole so a method is never seen with the verdict of one version and the number of another.
+     */
+    public static final class SafeVerdict {
+
+        private final boolean isSafe;
+        private final int policyVersion;
+
+        public SafeVerdict(boolean isSafe, int policyVersion) {
+            this.isSafe = isSafe;
+            this.policyVersion = policyVersion;
+        }
+
+        public int getPolicyVersion() {
+            return policyVersion;
+        }
+
+        public boolean isSafe() {
+            return isSafe;
+        }
+
+    }
+
     private final String signature;
     private final String internalClassName;
     private final String binaryClassName;
@@ -19,23 +45,29 @@ public class VirtualMethod {
     private final int parameterSize;
     private final boolean isStatic;
     private final String returnType;
+    private final boolean isConstructor;
+    private final int hashCode;
+    private volatile SafeVerdict safeVerdict;
 
-    VirtualMethod(String methodSignature, boolean isStatic) {
-        this.signature = methodSignature;
+    VirtualMethod(String methodSignature, boolean isStatic, SymbolTable symbols) {
+        this.signature = symbols.intern(methodSignature);
 
         int dashRocket = signature.indexOf("->", 2);
-        internalClassName = signature.substring(0, dashRocket);
+        internalClassName = symbols.intern(signature.substring(0, dashRocket));
         binaryClassName = ClassNameUtils.internalToBinary(internalClassName);
         sourceClassName = ClassNameUtils.internalToSource(internalClassName);
 
-        descriptor = signature.substring(dashRocket + 2);
+        descriptor = symbols.intern(signature.substring(dashRocket + 2));
         int openParen = descriptor.indexOf('(');
-        methodName = descriptor.substring(0, openParen);
-        returnType = descriptor.substring(descriptor.lastIndexOf(')') + 1);
+        methodName = symbols.intern(descriptor.substring(0, openParen));
+        returnType = symbols.intern(descriptor.substring(descriptor.lastIndexOf(')') + 1));
 
         this.isStatic = isStatic;
-        parameterTypes = parseParameterTypes(descriptor, internalClassName, isStatic);
+        parameterTypes = parseParameterTypes(descriptor, internalClassName, isStatic, symbols);
         parameterSize = Utils.getRegisterSize(parameterTypes);
+
+        isConstructor = "<init>".equals(methodName);
+        hashCode = new HashCodeBuilder(551, 57).append(signature).hashCode();
     }
 
     public final String getBinaryClassName() {
@@ -46,6 +78,27 @@ public class VirtualMethod {
         return internalClassName;
     }
 
+    public final boolean isConstructor() {
+        return isConstructor;
+    }
+
+    /**
+     * @return cached safety verdict of the configuration, or null if there is none
+     */
+    @Nullable
+    public final SafeVerdict getSafeVerdict() {
+        return safeVerdict;
+    }
+
+    /**
+     * Cache the configuration's safety verdict for this method.
+     * 
+     * @param safeVerdict
+     */
+    public final void setSafeVerdict(SafeVerdict safeVerdict) {
+        this.safeVerdict = safeVerdict;
+    }
+
     public boolean returnsVoid() {
         return getReturnType().equals("V");
     }
@@ -88,7 +141,7 @@ public class VirtualMethod {
 
     @Override
     public final int hashCode() {
-        return new HashCodeBuilder(551, 57).append(signature).hashCode();
+        return hashCode;
     }
 
     public final boolean isStatic() {
@@ -100,14 +153,17 @@ public class VirtualMethod {
         return getSignature();
     }
 
-    private static List<String> parseParameterTypes(String descriptor, String className, boolean isStatic) {
-        List<String> parameterTypes = new LinkedList<String>();
+    private static List<String> parseParameterTypes(String descriptor, String className, boolean isStatic,
+                    SymbolTable symbols) {
+        List<String> parameterTypes = new ArrayList<String>();
         if (!isStatic) {
             // First "parameter" for non-static methods is instance reference
-            parameterTypes.add(0, className);
+            parameterTypes.add(className);
         }
 
-        parameterTypes.addAll(Utils.getParameterTypes(descriptor));
+        for (String parameterType : Utils.getParameterTypes(descriptor)) {
+            parameterTypes.add(symbols.intern(parameterType));
+        }
 
         return parameterTypes;
     }
@@ -24,7 +24,7 @@ public class AncestorEnumerator {
         classNameToAncestorNames = new HashMap<String, Set<String>>();
     }
 
-    public Set<String> enumerate(String className) {
+    public synchronized Set<String> enumerate(String className) {
         Set<String> ancestorNames = enumerate(className, new HashSet<String>());
         classNameToAncestorNames.put(className, ancestorNames);
 
@@ -6,16 +6,21 @@ import java.io.InputStream;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
 import org.cf.smalivm.exception.UnknownAncestors;
+import org.cf.smalivm.reference.FieldFactory;
+import org.cf.smalivm.reference.FieldLayout;
 import org.cf.smalivm.reference.LocalMethod;
 import org.cf.smalivm.reference.MethodFactory;
+import org.cf.smalivm.reference.SymbolTable;
 import org.cf.util.ClassNameUtils;
 import org.jf.dexlib2.util.ReferenceUtil;
 import org.jf.dexlib2.writer.builder.BuilderClassDef;
@@ -37,6 +42,7 @@ public class ClassManager {
 
     private final Map<String, BuilderClassDef> classNameToClassDef;
     private final Map<String, List<String>> classNameToFieldDescriptors;
+    private final Map<String, FieldLayout> classNameToFieldLayout;
     private final Map<String, SmaliFile> classNameToSmaliFile;
     private final DexBuilder dexBuilder;
     // Use separate DexBuilder to intern framework classes to avoid including in output dex
@@ -44,6 +50,8 @@ public class ClassManager {
     private final Map<String, LocalMethod> methodSignatureToLocalMethod;
     private final SmaliFileFactory smaliFileFactory;
     private final MethodFactory methodFactory;
+    private final FieldFactory fieldFactory;
+    private final SymbolTable symbolTable;
 
     ClassManager(DexBuilder dexBuilder) throws IOException {
         this(dexBuilder, false);
@@ -57,12 +65,15 @@ public class ClassManager {
 
     private ClassManager(DexBuilder dexBuilder, boolean ignore) {
         this.dexBuilder = dexBuilder;
-        classNameToClassDef = new HashMap<String, BuilderClassDef>();
-        methodSignatureToLocalMethod = new HashMap<String, LocalMethod>();
-        classNameToFieldDescriptors = new HashMap<String, List<String>>();
+        classNameToClassDef = new ConcurrentHashMap<String, BuilderClassDef>();
+        methodSignatureToLocalMethod = new ConcurrentHashMap<String, LocalMethod>();
+        classNameToFieldDescriptors = new ConcurrentHashMap<String, List<String>>();
+        classNameToFieldLayout = new ConcurrentHashMap<String, FieldLayout>();
         smaliFileFactory = new SmaliFileFactory();
         classNameToSmaliFile = new HashMap<String, SmaliFile>();
-        methodFactory = new MethodFactory();
+        symbolTable = new SymbolTable();
+        methodFactory = new MethodFactory(symbolTable);
+        fieldFactory = new FieldFactory(symbolTable);
     }
 
     /**
@@ -79,7 +90,7 @@ public class ClassManager {
     }
 
     public Set<String> getClassAncestors(String className) {
-        Set<String> ancestors = new HashSet<String>(3);
+        Set<String> ancestors = new LinkedHashSet<String>(3);
         ancestors.add(className);
         String superClass = className;
         do {
@@ -126,16 +137,36 @@ public class ClassManager {
      * @return field and type (e.g. myBool:Z) for given class including inherited fields
      */
     public List<String> getFieldNameAndTypes(String className) {
-        dexifyClassIfNecessary(className);
+        return new LinkedList<String>(getFieldLayout(className).getFieldNameAndTypes());
+    }
 
-        Set<String> ancestors = getClassAncestors(className);
+    public FieldFactory getFieldFactory() {
+        return fieldFactory;
+    }
+
+    /**
+     * Layouts are built once per class and shared.
+     *
+     * @param className
+     * @return static field layout for given class including inherited fields
+     */
+    public FieldLayout getFieldLayout(String className) {
+        FieldLayout layout = classNameToFieldLayout.get(className);
+        if (layout != null) {
+            return layout;
+        }
 
+        dexifyClassIfNecessary(className);
+        Set<String> ancestors = getClassAncestors(className);
         List<String> fieldNameAndTypes = new LinkedList<String>();
         for (String ancestor : ancestors) {
             fieldNameAndTypes.addAll(classNameToFieldDescriptors.get(ancestor));
         }
+        layout = fieldFactory.build(className, fieldNameAndTypes);
+        // Another thread may have built one first, and there should only be one layout per class.
+        FieldLayout existing = classNameToFieldLayout.putIfAbsent(className, layout);
 
-        return fieldNameAndTypes;
+        return existing != null ? existing : layout;
     }
 
     /**
@@ -185,6 +216,11 @@ public class ClassManager {
     }
 
     public LocalMethod getMethod(String methodSignature) {
+        LocalMethod localMethod = methodSignatureToLocalMethod.get(methodSignature);
+        if (localMethod != null) {
+            // Class must already be loaded
+            return localMethod;
+        }
         dexifyClassIfNecessary(methodSignature);
 
         return methodSignatureToLocalMethod.get(methodSignature);
@@ -201,6 +237,14 @@ public class ClassManager {
         return methodFactory;
     }
 
+    /**
+     * 
+     * @return symbol table shared by all references parsed from this class manager
+     */
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
     public Set<LocalMethod> getMethods(String className) {
         dexifyClassIfNecessary(className);
 
@@ -232,7 +276,7 @@ public class ClassManager {
     }
 
     public boolean isFrameworkClass(String typeName) {
-        String className = typeName.split("->")[0];
+        String className = getClassName(typeName);
 
         return smaliFileFactory.isFrameworkClass(className);
     }
@@ -286,6 +330,10 @@ public class ClassManager {
     }
 
     public boolean isLocalMethod(String methodSignature) {
+        if (methodSignatureToLocalMethod.containsKey(methodSignature)) {
+            return true;
+        }
+
         String className = getClassName(methodSignature);
         if (!isLocalClass(className)) {
             return false;
@@ -296,7 +344,7 @@ public class ClassManager {
     }
 
     public boolean isSafeFrameworkClass(String typeName) {
-        String className = typeName.split("->")[0];
+        String className = getClassName(typeName);
 
         return smaliFileFactory.isSafeFrameworkClass(className);
     }
@@ -335,7 +383,7 @@ public class ClassManager {
         List<String> fieldDescriptors = new LinkedList<String>();
         for (BuilderField field : fields) {
             String fieldSignature = ReferenceUtil.getFieldDescriptor(field);
-            String fieldDescriptor = fieldSignature.split("->")[1];
+            String fieldDescriptor = fieldSignature.substring(fieldSignature.indexOf("->") + 2);
             fieldDescriptors.add(fieldDescriptor);
         }
         classNameToFieldDescriptors.put(className, fieldDescriptors);
@@ -365,7 +413,7 @@ public class ClassManager {
         }
     }
 
-    private void dexifyClassIfNecessary(String typeDescriptor) {
+    private synchronized void dexifyClassIfNecessary(String typeDescriptor) {
         String className = getClassName(typeDescriptor);
         if (getLoadedClassNames().contains(className)) {
             return;
@@ -383,9 +431,10 @@ public class ClassManager {
             throw new RuntimeException("Error while loading class definition of " + typeDescriptor, e);
         }
 
-        classNameToClassDef.put(className, classDef);
         addMethods(classDef);
         addFieldDescriptors(classDef);
+        // Class is only visible as loaded once everything else is added.
+        classNameToClassDef.put(className, classDef);
     }
 
     private boolean isInstance(String childType, String targetType, Set<String> visited) throws UnknownAncestors {
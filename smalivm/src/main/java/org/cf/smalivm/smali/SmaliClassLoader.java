@@ -1,5 +1,6 @@
 package org.cf.smalivm.smali;
 
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.HashMap;
@@ -16,20 +17,39 @@ public class SmaliClassLoader extends ClassLoader {
 
     private static final String FRAMEWORK_STUBS_JAR = "/framework/android-23.jar";
 
-    private static final Map<String, Class<?>> cachedClasses = new HashMap<String, Class<?>>();
+    private final Map<String, Class<?>> cachedClasses;
     private final ClassBuilder classBuilder;
     private final ClassManager classManager;
     private final URLClassLoader jarLoader;
 
     public SmaliClassLoader(ClassManager classManager) {
         super(SmaliClassLoader.class.getClassLoader());
-        // cachedClasses = new HashMap<String, Class<?>>();
+        cachedClasses = new HashMap<String, Class<?>>();
         URL jarURL = SmaliClassLoader.class.getResource(FRAMEWORK_STUBS_JAR);
         jarLoader = new URLClassLoader(new URL[] { jarURL });
         this.classBuilder = new ClassBuilder();
         this.classManager = classManager;
     }
 
+    /**
+     * Forget all generated classes. Once nothing else references this loader or its classes, they can be unloaded.
+     */
+    public void close() {
+        cachedClasses.clear();
+        try {
+            jarLoader.close();
+        } catch (IOException e) {
+            log.warn("Unable to close framework stubs jar loader", e);
+        }
+    }
+
+    /**
+     * @return number of classes generated from Smali by this loader
+     */
+    public int getGeneratedClassCount() {
+        return cachedClasses.size();
+    }
+
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
         try {
@@ -0,0 +1,150 @@
+package org.cf.smalivm.smali;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.ClassUtils;
+import org.cf.smalivm.configuration.Configuration;
+import org.cf.smalivm.reference.LocalMethod;
+import org.cf.util.ClassNameUtils;
+import org.jf.dexlib2.iface.ClassDef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves virtual method invocations to the signature of the implementing class. Each class gets a lazily built
+ * dispatch table of method descriptor to implementing signature, and tables of ancestors are shared, so walking the
+ * hierarchy and reflecting non-local classes happens at most once per class and descriptor.
+ *
+ * The class set of a {@link ClassManager} is fixed, so tables only need to be dropped with {@link #invalidate()} if
+ * the local class pool is modified.
+ */
+public class VirtualMethodResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualMethodResolver.class.getSimpleName());
+
+    private final ClassManager classManager;
+    private final Configuration configuration;
+    private final Map<String, Map<String, String>> classNameToVirtualTable;
+
+    public VirtualMethodResolver(ClassManager classManager, Configuration configuration) {
+        this.classManager = classManager;
+        this.configuration = configuration;
+        classNameToVirtualTable = new HashMap<String, Map<String, String>>();
+    }
+
+    public synchronized void invalidate() {
+        classNameToVirtualTable.clear();
+    }
+
+    /**
+     * Searches the class, super classes and interfaces for the first class which implements the method.
+     *
+     * @param className
+     *            class of the virtual target, e.g. Ljava/lang/String;
+     * @param methodDescriptor
+     *            method name and descriptor, e.g. length()I
+     * @param parameterTypes
+     *            parameter types of the method descriptor, used when reflecting non-local classes
+     * @return signature of the implementing method, or null if no implementation could be found
+     */
+    public synchronized @Nullable String resolve(String className, String methodDescriptor, List<String> parameterTypes) {
+        Map<String, String> virtualTable = getVirtualTable(className);
+        if (virtualTable.containsKey(methodDescriptor)) {
+            return virtualTable.get(methodDescriptor);
+        }
+
+        // Map null before resolving to stop at any hierarchy cycles.
+        virtualTable.put(methodDescriptor, null);
+        String signature = lookup(className, methodDescriptor, parameterTypes);
+        virtualTable.put(methodDescriptor, signature);
+
+        return signature;
+    }
+
+    private Map<String, String> getVirtualTable(String className) {
+        Map<String, String> virtualTable = classNameToVirtualTable.get(className);
+        if (virtualTable == null) {
+            virtualTable = new HashMap<String, String>();
+            classNameToVirtualTable.put(className, virtualTable);
+        }
+
+        return virtualTable;
+    }
+
+    private @Nullable String lookup(String className, String methodDescriptor, List<String> parameterTypes) {
+        String signature = new StringBuilder(className).append("->").append(methodDescriptor).toString();
+        if (classManager.isLocalMethod(signature)) {
+            LocalMethod localMethod = classManager.getMethod(signature);
+            if (localMethod.hasImplementation()) {
+                return signature;
+            }
+        }
+
+        if (configuration.isSafe(signature) && doesNonLocalMethodExist(className, methodDescriptor, parameterTypes)) {
+            return signature;
+        }
+
+        if (!classManager.isLocalClass(className)) {
+            // Can't trace any further up and already checked if white-listed Java API
+            return null;
+        }
+
+        ClassDef classDef = classManager.getClass(className);
+        String superName = classDef.getSuperclass();
+        if (superName != null) {
+            String target = resolve(superName, methodDescriptor, parameterTypes);
+            if (target != null) {
+                return target;
+            }
+        }
+        for (String interfaceName : classDef.getInterfaces()) {
+            String target = resolve(interfaceName, methodDescriptor, parameterTypes);
+            if (target != null) {
+                return target;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean doesNonLocalMethodExist(String className, String methodDescriptor,
+                    List<String> parameterTypes) {
+        Class<?> klazz = null;
+        try {
+            klazz = Class.forName(ClassNameUtils.internalToBinary(className));
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+
+        Class<?>[] params = new Class<?>[parameterTypes.size()];
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            String paramName = parameterTypes.get(i);
+            try {
+                if (ClassNameUtils.isPrimitive(paramName)) {
+                    params[i] = ClassUtils.getClass(ClassNameUtils.internalToBinary(paramName));
+                } else {
+                    params[i] = Class.forName(ClassNameUtils.internalToBinary(paramName));
+                }
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        }
+
+        String methodName = methodDescriptor.substring(0, methodDescriptor.indexOf('('));
+        try {
+            klazz.getMethod(methodName, params);
+        } catch (NoSuchMethodException | SecurityException e) {
+            if (log.isTraceEnabled()) {
+                log.trace("{} not found in {}", methodDescriptor, className);
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+}
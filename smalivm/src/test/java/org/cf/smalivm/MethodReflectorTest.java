@@ -1,5 +1,13 @@
 package org.cf.smalivm;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.type.UnknownValue;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -42,6 +50,40 @@ public class MethodReflectorTest {
         VMTester.test(CLASS_NAME, "initCharacterWithChar()V", initial, expected);
     }
 
+    @Test
+    public void canCompareLongs() {
+        initial.setRegisters(0, 5L, "J", 2, 7L, "J");
+        expected.setRegisters(0, -1, "I");
+
+        VMTester.test(CLASS_NAME, "compareLongs()V", initial, expected);
+    }
+
+    @Test
+    public void canGetLengthOfStringBuilder() {
+        initial.setRegisters(0, new StringBuilder("four"), "Ljava/lang/StringBuilder;");
+        expected.setRegisters(0, 4, "I");
+
+        VMTester.test(CLASS_NAME, "stringBuilderLength()V", initial, expected);
+    }
+
+    @Test
+    public void canReflectCallsFromEveryPathReachingInvoke() {
+        initial.setRegisters(0, new UnknownValue(), "I");
+        ExecutionGraph graph = VMTester.execute(CLASS_NAME, "numberOfLeadingZerosFromTwoPaths()V", initial);
+
+        int invokeAddress = 7;
+        assertEquals(2, graph.getNodePile(invokeAddress).size());
+        int moveResultAddress = 10;
+        Set<Object> results = new HashSet<Object>();
+        for (HeapItem item : graph.getRegisterItems(moveResultAddress, 2)) {
+            results.add(item.getValue());
+        }
+        Set<Object> expected = new HashSet<Object>();
+        expected.add(Integer.numberOfLeadingZeros(0x10));
+        expected.add(Integer.numberOfLeadingZeros(0x20));
+        assertEquals(expected, results);
+    }
+
     @Test
     public void canGetShortValueOfShort() {
         short value = 5;
@@ -0,0 +1,101 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MethodResultCacheTest {
+
+    private static final String CLASS_NAME = "Lmethod_result_cache_test;";
+
+    private VMState expected;
+    private VMState initial;
+    private VirtualMachine vm;
+
+    @Before
+    public void setUp() {
+        expected = new VMState();
+        initial = new VMState();
+        vm = VMTester.spawnVM();
+    }
+
+    @Test
+    public void identicalCallsAreOnlyReflectedOnce() {
+        initial.setRegisters(0, new char[] { 'a', 'b', 'c' }, "[C");
+        expected.setRegisters(0, new char[] { 'a', 'b', 'c' }, "[C", 1, "abc", "Ljava/lang/String;", 2, "abc",
+                        "Ljava/lang/String;");
+
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "copyValueOfTwice()V", initial);
+
+        VMTester.testState(graph, expected);
+        MethodResultCache cache = vm.getMethodResultCache();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void identicalCallsAreOnlyEmulatedOnce() {
+        initial.setRegisters(0, new char[] { 'a', 'b', 'c' }, "[C");
+        expected.setRegisters(0, new char[] { 'a', 'b', 'c' }, "[C", 1, "abc", "Ljava/lang/String;", 2, "abc",
+                        "Ljava/lang/String;");
+
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "valueOfTwice()V", initial);
+
+        VMTester.testState(graph, expected);
+        MethodResultCache cache = vm.getMethodResultCache();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void nondeterministicMethodsAreNotCached() {
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "randomUUIDTwice()V", initial);
+
+        int[] addresses = graph.getConnectedTerminatingAddresses();
+        Object first = graph.getRegisterConsensusValue(addresses, 0);
+        Object second = graph.getRegisterConsensusValue(addresses, 1);
+        assertTrue(first instanceof UUID);
+        assertNotEquals(first, second);
+        MethodResultCache cache = vm.getMethodResultCache();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cachedResultsAreCloned() {
+        initial.setRegisters(0, "abc", "Ljava/lang/String;");
+
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "getBytesTwice()V", initial);
+
+        int[] addresses = graph.getConnectedTerminatingAddresses();
+        Object first = graph.getRegisterConsensusValue(addresses, 1);
+        Object second = graph.getRegisterConsensusValue(addresses, 2);
+        assertArrayEquals("abc".getBytes(), (byte[]) first);
+        assertArrayEquals("abc".getBytes(), (byte[]) second);
+        assertNotSame(first, second);
+        assertEquals(1, vm.getMethodResultCache().getHitCount());
+    }
+
+    @Test
+    public void methodsWhichModifyArgumentsAreNotCached() {
+        initial.setRegisters(0, (int) 'a', "I", 1, new char[1], "[C", 2, new char[1], "[C");
+        expected.setRegisters(1, new char[] { 'a' }, "[C", 2, new char[] { 'a' }, "[C");
+
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "toCharsTwice()V", initial);
+
+        VMTester.testState(graph, expected);
+        MethodResultCache cache = vm.getMethodResultCache();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,175 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReflectionSandboxTest {
+
+    private static final String SIGNATURE = "Ljava/lang/Thread;->sleep(J)V";
+    private static final int MAX_REFLECTION_TIME = 50;
+
+    private ReflectionSandbox sandbox;
+
+    @Before
+    public void setUp() {
+        sandbox = new ReflectionSandbox(MAX_REFLECTION_TIME);
+    }
+
+    @After
+    public void tearDown() {
+        sandbox.shutdown();
+    }
+
+    @Test
+    public void fastCallIsFinished() throws Throwable {
+        Object[] values = new Object[1];
+        int finishedCount = sandbox.invoke(SIGNATURE, 1, (int call) -> values[call] = "done");
+
+        assertEquals(1, finishedCount);
+        assertEquals("done", values[0]);
+        assertFalse(sandbox.hasTimedOut(SIGNATURE));
+    }
+
+    @Test
+    public void rethrowsRuntimeExceptionOfInvocation() throws Throwable {
+        IllegalArgumentException expected = new IllegalArgumentException();
+        try {
+            sandbox.invoke(SIGNATURE, 1, (int call) -> {
+                throw expected;
+            });
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertSame(expected, e);
+        }
+        assertFalse(sandbox.hasTimedOut(SIGNATURE));
+    }
+
+    @Test
+    public void slowCallTimesOutAndIsInterrupted() throws Throwable {
+        boolean[] wasInterrupted = new boolean[1];
+        long startTime = System.currentTimeMillis();
+        int finishedCount = sandbox.invoke(SIGNATURE, 1, (int call) -> {
+            try {
+                Thread.sleep(60 * 1000);
+            } catch (InterruptedException e) {
+                wasInterrupted[0] = true;
+            }
+        });
+
+        assertEquals(0, finishedCount);
+        assertTrue(System.currentTimeMillis() - startTime < 30 * 1000);
+        assertTrue(sandbox.hasTimedOut(SIGNATURE));
+        sandbox.shutdown();
+        for (int i = 0; i < 100 && !wasInterrupted[0]; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(wasInterrupted[0]);
+    }
+
+    @Test
+    public void methodWhichTimedOutIsInvokedAgainUntilBlocked() throws Throwable {
+        for (int i = 0; i < ReflectionSandbox.MAX_TIMEOUTS; i++) {
+            assertFalse(sandbox.isBlocked(SIGNATURE));
+            assertEquals(0, sandbox.invoke(SIGNATURE, 1, (int call) -> sleepUntilInterrupted()));
+        }
+        assertTrue(sandbox.isBlocked(SIGNATURE));
+
+        boolean[] wasInvoked = new boolean[1];
+        try {
+            sandbox.invoke(SIGNATURE, 1, (int call) -> wasInvoked[call] = true);
+            fail("Expected timeout");
+        } catch (TimeoutException e) {
+        }
+        assertFalse(wasInvoked[0]);
+    }
+
+    @Test
+    public void methodWhichTimedOutOnceIsInvokedAgain() throws Throwable {
+        assertEquals(0, sandbox.invoke(SIGNATURE, 1, (int call) -> sleepUntilInterrupted()));
+
+        Object[] values = new Object[1];
+        assertEquals(1, sandbox.invoke(SIGNATURE, 1, (int call) -> values[call] = "done"));
+        assertEquals("done", values[0]);
+    }
+
+    @Test
+    public void batchRethrowsErrorsOfVirtualMachine() throws Throwable {
+        OutOfMemoryError expected = new OutOfMemoryError();
+        try {
+            sandbox.invoke(SIGNATURE, 1, (int call) -> {
+                throw expected;
+            });
+            fail("Expected error");
+        } catch (OutOfMemoryError e) {
+            assertSame(expected, e);
+        }
+    }
+
+    @Test
+    public void eachCallOfBatchHasItsOwnDeadline() throws Throwable {
+        int callCount = 4;
+        int finishedCount = sandbox.invoke(SIGNATURE, callCount, (int call) -> {
+            try {
+                Thread.sleep(MAX_REFLECTION_TIME / 2);
+            } catch (InterruptedException e) {
+            }
+        });
+
+        assertEquals(callCount, finishedCount);
+        assertFalse(sandbox.hasTimedOut(SIGNATURE));
+    }
+
+    @Test
+    public void batchStopsAtCallWhichMissesDeadline() throws Throwable {
+        boolean[] wasInvoked = new boolean[3];
+        int finishedCount = sandbox.invoke(SIGNATURE, wasInvoked.length, (int call) -> {
+            wasInvoked[call] = true;
+            if (call == 1) {
+                try {
+                    Thread.sleep(60 * 1000);
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+
+        assertEquals(1, finishedCount);
+        assertTrue(sandbox.hasTimedOut(SIGNATURE));
+        sandbox.shutdown();
+        assertFalse(wasInvoked[2]);
+    }
+
+    @Test
+    public void cheapMethodsAreInvokedOnCallingThread() throws Throwable {
+        Thread[] threads = new Thread[1];
+        sandbox.invoke("Ljava/lang/Integer;->parseInt(Ljava/lang/String;)I", 1,
+                        (int call) -> threads[call] = Thread.currentThread());
+
+        assertSame(Thread.currentThread(), threads[0]);
+    }
+
+    @Test
+    public void noLimitInvokesOnCallingThread() throws Throwable {
+        sandbox.setMaxReflectionTime(0);
+        Thread[] threads = new Thread[1];
+        sandbox.invoke(SIGNATURE, 1, (int call) -> threads[call] = Thread.currentThread());
+
+        assertSame(Thread.currentThread(), threads[0]);
+    }
+
+    private static void sleepUntilInterrupted() {
+        try {
+            Thread.sleep(60 * 1000);
+        } catch (InterruptedException e) {
+        }
+    }
+
+}
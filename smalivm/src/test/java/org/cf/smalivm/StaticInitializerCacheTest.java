@@ -0,0 +1,63 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.HeapItem;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StaticInitializerCacheTest {
+
+    private static final String CLASS_NAME = "Lstatic_initializer_cache_test;";
+    private static final String DEPENDENCY_CLASS_NAME = "Lclass_with_static_init;";
+    private static final String KEYS_FIELD = CLASS_NAME + "->keys:[I";
+    private static final String NAME_FIELD = CLASS_NAME + "->name:Ljava/lang/String;";
+
+    private VirtualMachine vm;
+    private StaticInitializerCache cache;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.spawnVM();
+        cache = vm.getStaticInitializerCache();
+    }
+
+    @Test
+    public void restoresSnapshotInsteadOfExecutingInitializerAgain() {
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "setFirstKey()V");
+        assertEquals(0, cache.getHitCount());
+        assertArrayEquals(new int[] { 5, 0, 0 }, (int[]) graph.getTerminatingFieldConsensus(KEYS_FIELD).getValue());
+
+        graph = VMTester.execute(vm, CLASS_NAME, "getFirstKey()V");
+        assertEquals(1, cache.getHitCount());
+        // Modifications made by the first execution aren't visible.
+        HeapItem firstKey = graph.getTerminatingRegisterConsensus(0);
+        assertEquals(0, firstKey.getValue());
+        HeapItem name = graph.getTerminatingFieldConsensus(NAME_FIELD);
+        assertEquals("Uhhh, about 11, sir.", name.getValue());
+    }
+
+    @Test
+    public void doesNotRestoreSnapshotIfDependencyIsAlreadyInitialized() {
+        VMTester.execute(vm, CLASS_NAME, "setFirstKey()V");
+
+        VMState initial = new VMState();
+        initial.setFields(DEPENDENCY_CLASS_NAME, "string:Ljava/lang/String;", "different");
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "getFirstKey()V", initial);
+        assertEquals(0, cache.getHitCount());
+        HeapItem name = graph.getTerminatingFieldConsensus(NAME_FIELD);
+        assertEquals("different", name.getValue());
+    }
+
+    @Test
+    public void doesNotRestoreSnapshotAfterClassIsUpdated() {
+        VMTester.execute(vm, CLASS_NAME, "setFirstKey()V");
+        vm.updateInstructionGraph(vm.getClassManager().getMethod(CLASS_NAME + "->setFirstKey()V"));
+
+        VMTester.execute(vm, CLASS_NAME, "getFirstKey()V");
+        assertEquals(0, cache.getHitCount());
+    }
+
+}
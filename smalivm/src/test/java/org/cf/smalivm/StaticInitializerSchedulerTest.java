@@ -0,0 +1,60 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.HeapItem;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StaticInitializerSchedulerTest {
+
+    private static final String CLASS_NAME = "Lstatic_initializer_cache_test;";
+    private static final String DEPENDENCY_CLASS_NAME = "Lclass_with_static_init;";
+    private static final String NAME_FIELD = CLASS_NAME + "->name:Ljava/lang/String;";
+
+    private VirtualMachine vm;
+    private StaticInitializerScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.spawnVM();
+        scheduler = new StaticInitializerScheduler(vm);
+    }
+
+    @Test
+    public void initializesDependencyBeforeDependentClass() {
+        int count = scheduler.initialize(Arrays.asList(CLASS_NAME, DEPENDENCY_CLASS_NAME), 2);
+        assertEquals(2, count);
+        // Dependent class initializer restores the snapshot of its dependency.
+        assertEquals(1, vm.getStaticInitializerCache().getHitCount());
+
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "getFirstKey()V");
+        assertEquals(2, vm.getStaticInitializerCache().getHitCount());
+        HeapItem name = graph.getTerminatingFieldConsensus(NAME_FIELD);
+        assertEquals("Uhhh, about 11, sir.", name.getValue());
+    }
+
+    @Test
+    public void initializesWaveOfIndependentClassesOnSeveralThreads() {
+        String className = "Lstatic_initializer_scheduler_test;";
+        // Both are in the first wave, and the dependent class is in the second.
+        int count = scheduler.initialize(Arrays.asList(className, "Lstatic_initializer_scheduler_test_first;",
+                        "Lstatic_initializer_scheduler_test_second;"), 4);
+        assertEquals(3, count);
+        assertEquals(2, vm.getStaticInitializerCache().getHitCount());
+
+        ExecutionGraph graph = VMTester.execute(vm, className, "getSum()V");
+        HeapItem sum = graph.getTerminatingFieldConsensus(className + "->sum:I");
+        assertEquals(3, sum.getValue());
+    }
+
+    @Test
+    public void ignoresClassesWithoutStaticInitializer() {
+        int count = scheduler.initialize(Arrays.asList("Ljava/lang/Object;", "Lsimple_loop;"), 2);
+        assertEquals(0, count);
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cf.smalivm.smali.SmaliClassLoader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class VirtualMachineLifecycleTest {
+
+    private static final String CLASS_NAME = "child_class";
+    private static final int SPAWN_COUNT = 25;
+
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void closedVirtualMachinesReleaseGeneratedClasses() throws Exception {
+        List<WeakReference<Class<?>>> classReferences = new LinkedList<WeakReference<Class<?>>>();
+        List<WeakReference<SmaliClassLoader>> loaderReferences = new LinkedList<WeakReference<SmaliClassLoader>>();
+        Class<?> previousClass = null;
+        for (int i = 0; i < SPAWN_COUNT; i++) {
+            VirtualMachine vm = VMTester.spawnVM();
+            SmaliClassLoader classLoader = vm.getClassLoader();
+            Class<?> klazz = classLoader.loadClass(CLASS_NAME);
+            vm.getCloner().deepClone(klazz.newInstance());
+            assertTrue(classLoader.getGeneratedClassCount() > 0);
+            assertNotSame(previousClass, klazz);
+
+            classReferences.add(new WeakReference<Class<?>>(klazz));
+            loaderReferences.add(new WeakReference<SmaliClassLoader>(classLoader));
+            vm.close();
+            assertEquals(0, classLoader.getGeneratedClassCount());
+            previousClass = klazz;
+        }
+        previousClass = null;
+
+        awaitCollection(classReferences);
+        for (WeakReference<Class<?>> reference : classReferences) {
+            assertNull(reference.get());
+        }
+        for (WeakReference<SmaliClassLoader> reference : loaderReferences) {
+            assertNull(reference.get());
+        }
+    }
+
+    @Test
+    public void classLoaderOfClosedVirtualMachineIsUnreachable() throws Exception {
+        VirtualMachine vm = spawnAndLoadClasses();
+        WeakReference<SmaliClassLoader> loaderReference = new WeakReference<SmaliClassLoader>(vm.getClassLoader());
+        vm.close();
+        vm = null;
+
+        awaitCollection(Collections.singletonList(loaderReference));
+        assertNull(loaderReference.get());
+    }
+
+    @Test
+    public void closedVirtualMachineHasNoCloner() {
+        VirtualMachine vm = VMTester.spawnVM();
+        vm.close();
+
+        exception.expect(IllegalStateException.class);
+        vm.getCloner();
+    }
+
+    private static VirtualMachine spawnAndLoadClasses() throws Exception {
+        VirtualMachine vm = VMTester.spawnVM();
+        Class<?> klazz = vm.getClassLoader().loadClass(CLASS_NAME);
+        vm.getCloner().deepClone(klazz.newInstance());
+
+        return vm;
+    }
+
+    private static void awaitCollection(List<? extends WeakReference<?>> references) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            System.gc();
+            boolean isCollected = true;
+            for (WeakReference<?> reference : references) {
+                if (reference.get() != null) {
+                    isCollected = false;
+                    break;
+                }
+            }
+            if (isCollected) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+}
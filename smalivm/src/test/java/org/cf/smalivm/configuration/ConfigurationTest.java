@@ -1,18 +1,33 @@
 package org.cf.smalivm.configuration;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.cf.smalivm.reference.MethodFactory;
+import org.cf.smalivm.reference.VirtualMethod;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 
 public class ConfigurationTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private Configuration configuration;
 
     @Before
     public void setUp() {
-        configuration = Configuration.instance();
+        // Merging policies would otherwise change the shared instance.
+        configuration = Configuration.instance().copy();
     }
 
     @Test
@@ -30,4 +45,54 @@ public class ConfigurationTest {
         assertFalse(configuration.isImmutable("Ljava/lang/StringBuilder;"));
     }
 
+    @Test
+    public void testSafeClassMethodIsSafe() {
+        assertTrue(configuration.isSafe("Ljava/lang/String;"));
+        assertTrue(configuration.isSafe("Ljava/lang/String;->length()I"));
+    }
+
+    @Test
+    public void testUnsafeMethodOfSafeClassIsNotSafe() {
+        assertFalse(configuration.isSafe("Ljava/lang/Math;->random()D"));
+    }
+
+    @Test
+    public void testVerdictIsCachedOnMethod() {
+        VirtualMethod method = new MethodFactory().build("Ljava/lang/String;->length()I", false);
+
+        assertTrue(configuration.isSafe(method));
+        assertEquals(configuration.getPolicyVersion(), method.getSafeVerdict().getPolicyVersion());
+    }
+
+    @Test
+    public void testMergedPolicyInvalidatesCachedVerdicts() throws IOException {
+        String signature = "Lconfiguration_test;->harmless()V";
+        VirtualMethod method = new MethodFactory().build(signature, true);
+        assertFalse(configuration.isSafe(method));
+
+        File policyFile = new File(folder.getRoot(), "safe_methods.cfg");
+        Files.write("// user policy\n" + signature + "\n", policyFile, Charsets.UTF_8);
+        configuration.merge(policyFile);
+
+        assertTrue(configuration.isSafe(signature));
+        assertTrue(configuration.isSafe(method));
+    }
+
+    @Test
+    public void testMergedPolicyOnlyChangesItsOwnCopy() throws IOException {
+        String signature = "Lconfiguration_test;->harmless()V";
+        VirtualMethod method = new MethodFactory().build(signature, true);
+        Configuration other = Configuration.instance().copy();
+        assertFalse(other.isSafe(method));
+
+        File policyFile = new File(folder.getRoot(), "safe_methods.cfg");
+        Files.write("// user policy\n" + signature + "\n", policyFile, Charsets.UTF_8);
+        configuration.merge(policyFile);
+
+        assertTrue(configuration.isSafe(method));
+        assertFalse(other.isSafe(signature));
+        assertFalse(other.isSafe(method));
+        assertFalse(Configuration.instance().isSafe(signature));
+    }
+
 }
@@ -0,0 +1,45 @@
+package org.cf.smalivm.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.cf.smalivm.VMTester;
+import org.junit.Test;
+
+public class ExecutionGraphTest {
+
+    private static final String CLASS_NAME = "Lsimple_loop;";
+
+    @Test
+    public void registerChangedInLoopHasNoConsensus() {
+        ExecutionGraph graph = VMTester.execute(CLASS_NAME, "simpleLoop()V");
+
+        assertTrue(graph.getRegisterConsensus(3, 0).isUnknown());
+        assertEquals(1, graph.getRegisterConsensusValue(3, 1));
+        assertEquals(3, graph.getTerminatingRegisterConsensus(0).getValue());
+    }
+
+    @Test
+    public void consensusIncludesNodesAddedAfterQuery() {
+        ExecutionGraph graph = VMTester.execute(CLASS_NAME, "simpleLoop()V");
+        assertEquals(3, graph.getRegisterConsensusValue(8, 0));
+
+        ExecutionNode node = graph.getNodePile(8).get(0);
+        ExecutionNode sibling = node.spawnChild(node.getOp());
+        sibling.getContext().getMethodState().assignRegister(0, 4, "I");
+        graph.addNode(sibling);
+
+        assertTrue(graph.getRegisterConsensus(8, 0).isUnknown());
+        assertEquals(1, graph.getRegisterConsensusValue(8, 1));
+    }
+
+    @Test
+    public void arrayItemsWithEqualElementsAreEqual() {
+        HeapItem item = new HeapItem(new int[][] { { 1, 2 } }, "[[I");
+        HeapItem other = new HeapItem(new int[][] { { 1, 2 } }, "[[I");
+
+        assertEquals(item, other);
+        assertEquals(item.hashCode(), other.hashCode());
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.cf.smalivm.emulate;
+
+import org.cf.smalivm.MethodReflector;
+import org.cf.smalivm.VMState;
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.reference.VirtualMethod;
+import org.junit.BeforeClass;
+import org.perfidix.annotation.BeforeBenchClass;
+import org.perfidix.annotation.Bench;
+import org.perfidix.annotation.BenchClass;
+
+/**
+ * Compares intrinsics against reflection, both for single calls and for a whole string decryption loop. Executing the
+ * loop includes all of the other op overhead, so the difference there is much smaller.
+ */
+@BenchClass(runs = 20)
+public class IntrinsicsBenchmark {
+
+    private static final String CLASS_NAME = "Lintrinsics_test;";
+    private static final String METHOD_DESCRIPTOR = "decodeChars()V";
+    private static final String APPEND_SIGNATURE = "Ljava/lang/StringBuilder;->append(C)Ljava/lang/StringBuilder;";
+    private static final String CHAR_AT_SIGNATURE = "Ljava/lang/String;->charAt(I)C";
+    private static final int CALLS = 10000;
+
+    private static char[] encoded;
+    private static VirtualMachine vm;
+    private static VirtualMethod appendMethod;
+    private static VirtualMethod charAtMethod;
+
+    @BeforeBenchClass
+    @BeforeClass
+    public static void beforeClass() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        encoded = sb.toString().toCharArray();
+
+        vm = VMTester.spawnVM();
+        appendMethod = vm.getClassManager().getMethodFactory().build(APPEND_SIGNATURE, false);
+        charAtMethod = vm.getClassManager().getMethodFactory().build(CHAR_AT_SIGNATURE, false);
+    }
+
+    @Bench
+    public void timeIntrinsicCalls() throws Exception {
+        MethodStateMethod append = (MethodStateMethod) Intrinsics.getMethods().get(APPEND_SIGNATURE);
+        MethodStateMethod charAt = (MethodStateMethod) Intrinsics.getMethods().get(CHAR_AT_SIGNATURE);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < CALLS; i++) {
+            append.execute(vm, buildState(appendMethod, builder, 'a'));
+            charAt.execute(vm, buildState(charAtMethod, "abc", 1));
+            if (builder.length() > 1000) {
+                builder.setLength(0);
+            }
+        }
+    }
+
+    @Bench
+    public void timeReflectedCalls() {
+        MethodReflector append = new MethodReflector(vm, appendMethod);
+        MethodReflector charAt = new MethodReflector(vm, charAtMethod);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < CALLS; i++) {
+            append.reflect(buildState(appendMethod, builder, 'a'));
+            charAt.reflect(buildState(charAtMethod, "abc", 1));
+            if (builder.length() > 1000) {
+                builder.setLength(0);
+            }
+        }
+    }
+
+    @Bench
+    public void timeIntrinsicDecoding() {
+        execute(false);
+    }
+
+    @Bench
+    public void timeReflectedDecoding() {
+        execute(true);
+    }
+
+    private static MethodState buildState(VirtualMethod method, Object instance, Object argument) {
+        ExecutionContext ectx = new ExecutionContext(vm, method);
+        MethodState mState = new MethodState(ectx, 2, 2, 2);
+        mState.assignParameter(0, instance, method.getClassName());
+        mState.assignParameter(1, argument, method.getParameterTypes().get(1));
+
+        return mState;
+    }
+
+    private static void execute(boolean isReflectingIntrinsics) {
+        VMState initial = new VMState();
+        initial.setRegisters(0, encoded.clone(), "[C");
+        VirtualMachine vm = VMTester.spawnVM();
+        vm.setReflectingIntrinsics(isReflectingIntrinsics);
+        VMTester.execute(vm, CLASS_NAME, METHOD_DESCRIPTOR, initial);
+        vm.close();
+    }
+
+}
@@ -0,0 +1,107 @@
+package org.cf.smalivm.emulate;
+
+import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.VMState;
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.type.UnknownValue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntrinsicsTest {
+
+    private static final String CLASS_NAME = "Lintrinsics_test;";
+
+    private VMState expected;
+    private VMState initial;
+
+    @Before
+    public void setUp() {
+        expected = new VMState();
+        initial = new VMState();
+    }
+
+    @Test
+    public void canDecodeCharsWithStringBuilder() {
+        initial.setRegisters(0, "idmmn".toCharArray(), "[C");
+        expected.setRegisters(0, "hello", "Ljava/lang/String;", 1, new StringBuilder("hello"),
+                        "Ljava/lang/StringBuilder;");
+
+        VMTester.test(CLASS_NAME, "decodeChars()V", initial, expected);
+    }
+
+    @Test
+    public void reflectingIntrinsicsDecodesTheSame() {
+        VirtualMachine vm = VMTester.spawnVM();
+        vm.setReflectingIntrinsics(true);
+        initial.setRegisters(0, "idmmn".toCharArray(), "[C");
+        expected.setRegisters(0, "hello", "Ljava/lang/String;", 1, new StringBuilder("hello"),
+                        "Ljava/lang/StringBuilder;");
+
+        VMTester.testState(VMTester.execute(vm, CLASS_NAME, "decodeChars()V", initial), expected);
+    }
+
+    @Test
+    public void appendMutatesInstance() {
+        initial.setRegisters(0, new StringBuilder("foo"), "Ljava/lang/StringBuilder;", 1, "bar",
+                        "Ljava/lang/String;");
+        expected.setRegisters(0, new StringBuilder("foobar"), "Ljava/lang/StringBuilder;");
+
+        VMTester.test(CLASS_NAME, "appendWithoutMoveResult()V", initial, expected);
+    }
+
+    @Test
+    public void canGetCharAt() {
+        initial.setRegisters(0, "abc", "Ljava/lang/String;", 1, 2, "I");
+        expected.setRegisters(0, 'c', "C");
+
+        VMTester.test(CLASS_NAME, "charAt()V", initial, expected);
+    }
+
+    @Test
+    public void charAtOutOfBoundsIsUnknown() {
+        initial.setRegisters(0, "abc", "Ljava/lang/String;", 1, 3, "I");
+        expected.setRegisters(0, new UnknownValue(), "C");
+
+        VMTester.test(CLASS_NAME, "charAt()V", initial, expected);
+    }
+
+    @Test
+    public void canParseInt() {
+        initial.setRegisters(0, "-42", "Ljava/lang/String;");
+        expected.setRegisters(0, -42, "I");
+
+        VMTester.test(CLASS_NAME, "parseInt()V", initial, expected);
+    }
+
+    @Test
+    public void methodReplacedAfterOpIsCreatedIsUsed() {
+        String signature = "Ljava/lang/Integer;->parseInt(Ljava/lang/String;)I";
+        VirtualMachine vm = VMTester.spawnVM();
+        initial.setRegisters(0, "-42", "Ljava/lang/String;");
+        expected.setRegisters(0, -42, "I");
+        VMTester.testState(VMTester.execute(vm, CLASS_NAME, "parseInt()V", initial), expected);
+
+        EmulatedMethod original = MethodEmulator.getMethod(signature);
+        MethodEmulator.addMethod(signature, (MethodStateMethod) (machine, mState) -> {
+            mState.assignReturnRegister(7, "I");
+            return EmulationResult.of(SideEffect.Level.NONE);
+        });
+        try {
+            initial.setRegisters(0, "1", "Ljava/lang/String;");
+            expected.setRegisters(0, 7, "I");
+            VMTester.testState(VMTester.execute(vm, CLASS_NAME, "parseInt()V", initial), expected);
+        } finally {
+            MethodEmulator.addMethod(signature, original);
+        }
+    }
+
+    @Test
+    public void canGetMaxOfLongs() {
+        initial.setRegisters(0, 5L, "J", 2, 0x100000000L, "J");
+        expected.setRegisters(0, 0x100000000L, "J");
+
+        VMTester.test(CLASS_NAME, "maxLong()V", initial, expected);
+    }
+
+}
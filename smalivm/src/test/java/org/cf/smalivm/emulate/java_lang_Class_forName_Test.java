@@ -93,32 +93,32 @@ public class java_lang_Class_forName_Test {
     public void testSafeClassNameThatExistsReturnsActualClassAndHasNoSideEffects() throws Exception {
         HeapItem item = new HeapItem(SAFE_CLASS_NAME_BINARY, PARAMETER_TYPE);
         when(mState.peekParameter(CLASS_NAME_REGISTER)).thenReturn(item);
-        method.execute(vm, ectx);
+        EmulationResult result = method.execute(vm, ectx);
 
         verify(mState, times(1)).assignReturnRegister(eq(SAFE_CLASS), eq(CLASS_TYPE));
-        assertEquals(SideEffect.Level.NONE, method.getSideEffectLevel());
+        assertEquals(SideEffect.Level.NONE, result.getSideEffectLevel());
     }
 
     @Test
     public void testUnsafeClassNameReturnsClassAndHasNoSideEffects() throws Exception {
         HeapItem item = new HeapItem(UNSAFE_CLASS_NAME_BINARY, PARAMETER_TYPE);
         when(mState.peekParameter(CLASS_NAME_REGISTER)).thenReturn(item);
-        method.execute(vm, ectx);
+        EmulationResult result = method.execute(vm, ectx);
 
         verify(mState, times(1)).assignReturnRegister(eq(Object.class), eq(CLASS_TYPE));
         verify(ectx, times(1)).staticallyInitializeClassIfNecessary(UNSAFE_CLASS_NAME_INTERNAL);
-        assertEquals(SideEffect.Level.NONE, method.getSideEffectLevel());
+        assertEquals(SideEffect.Level.NONE, result.getSideEffectLevel());
     }
 
     @Test
     public void testStrongSideEffectsClassNameReturnsClassAndHasStrongSideEffects() throws Exception {
         HeapItem item = new HeapItem(STRONG_SIDE_EFFECTS_CLASS_NAME_BINARY, PARAMETER_TYPE);
         when(mState.peekParameter(CLASS_NAME_REGISTER)).thenReturn(item);
-        method.execute(vm, ectx);
+        EmulationResult result = method.execute(vm, ectx);
 
         verify(mState, times(1)).assignReturnRegister(eq(Object.class), eq(CLASS_TYPE));
         verify(ectx, times(1)).staticallyInitializeClassIfNecessary(STRONG_SIDE_EFFECTS_CLASS_NAME_INTERNAL);
-        assertEquals(SideEffect.Level.STRONG, method.getSideEffectLevel());
+        assertEquals(SideEffect.Level.STRONG, result.getSideEffectLevel());
     }
 
     @Test
@@ -126,13 +126,13 @@ public class java_lang_Class_forName_Test {
         HeapItem item = new HeapItem(UNKNOWN_CLASS_NAME_BINARY, PARAMETER_TYPE);
         when(mState.peekParameter(CLASS_NAME_REGISTER)).thenReturn(item);
 
-        method.execute(vm, ectx);
+        EmulationResult result = method.execute(vm, ectx);
 
         Set<VirtualException> expectedExceptions = new HashSet<VirtualException>();
         expectedExceptions.add(new VirtualException(ClassNotFoundException.class, UNKNOWN_CLASS_NAME_BINARY));
-        assertEquals(expectedExceptions, method.getExceptions());
+        assertEquals(expectedExceptions, result.getExceptions());
         verify(mState, times(0)).assignReturnRegister(any(UnknownValue.class), eq(CLASS_TYPE));
-        assertEquals(SideEffect.Level.NONE, method.getSideEffectLevel());
+        assertEquals(SideEffect.Level.NONE, result.getSideEffectLevel());
     }
 
 }
@@ -313,11 +313,11 @@ public class java_lang_reflect_Field_get_Test {
         when(fieldItem.getValue()).thenReturn(field);
         when(instanceItem.getValue()).thenReturn(instance);
 
-        method.execute(vm, ectx);
+        EmulationResult result = method.execute(vm, ectx);
 
         Set<VirtualException> expectedExceptions = new HashSet<VirtualException>();
         expectedExceptions.add(new VirtualException(exceptionClass, message));
-        assertEquals(expectedExceptions, method.getExceptions());
+        assertEquals(expectedExceptions, result.getExceptions());
 
         verify(mState, times(1)).peekParameter(eq(FIELD_REGISTER));
         verify(mState, times(1)).peekParameter(eq(INSTANCE_REGISTER));
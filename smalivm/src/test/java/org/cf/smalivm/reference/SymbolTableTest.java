@@ -0,0 +1,60 @@
+package org.cf.smalivm.reference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SymbolTableTest {
+
+    private static final String METHOD_SIGNATURE = "Lsome/class;->someMethod(ILjava/lang/String;)V";
+
+    private SymbolTable symbols;
+    private MethodFactory methodFactory;
+
+    @Before
+    public void setUp() {
+        symbols = new SymbolTable();
+        methodFactory = new MethodFactory(symbols);
+    }
+
+    @Test
+    public void internReturnsCanonicalInstance() {
+        String first = symbols.intern(new String("Ljava/lang/String;"));
+        String second = symbols.intern(new String("Ljava/lang/String;"));
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void virtualMethodsAreCanonical() {
+        VirtualMethod method = methodFactory.build(new String(METHOD_SIGNATURE), true);
+
+        assertSame(method, methodFactory.build(new String(METHOD_SIGNATURE), true));
+        assertNotEquals(method, methodFactory.build(METHOD_SIGNATURE, false));
+        assertSame(symbols.intern(METHOD_SIGNATURE), method.getSignature());
+    }
+
+    @Test
+    public void parameterTypesAreInterned() {
+        VirtualMethod method = methodFactory.build(METHOD_SIGNATURE, false);
+
+        assertSame(method.getClassName(), method.getParameterTypes().get(0));
+        assertSame(symbols.intern("Ljava/lang/String;"), method.getParameterTypes().get(2));
+    }
+
+    @Test
+    public void unslottedFieldsShareSymbolsOfLayout() {
+        FieldLayout layout = new FieldFactory(symbols).build("Lsome/class;", Arrays.asList("slotted:I"));
+        VirtualField field = layout.buildUnslottedField(new String("unslotted:Ljava/lang/String;"));
+
+        assertEquals(VirtualField.NO_SLOT, field.getSlot());
+        assertSame(symbols.intern("Ljava/lang/String;"), field.getType());
+        assertSame(symbols.intern("Lsome/class;->unslotted:Ljava/lang/String;"), field.getSignature());
+    }
+
+}
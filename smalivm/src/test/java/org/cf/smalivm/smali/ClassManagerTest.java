@@ -1,7 +1,10 @@
 package org.cf.smalivm.smali;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -9,6 +12,8 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.cf.smalivm.exception.UnknownAncestors;
+import org.cf.smalivm.reference.FieldLayout;
+import org.cf.smalivm.reference.VirtualField;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -55,6 +60,23 @@ public class ClassManagerTest {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testGetFieldLayoutAssignsSlotsAndIsCached() {
+        FieldLayout layout = manager.getFieldLayout(CHILD_CLASS);
+
+        assertSame(layout, manager.getFieldLayout(CHILD_CLASS));
+        for (int slot = 0; slot < layout.size(); slot++) {
+            VirtualField field = layout.getField(slot);
+            assertEquals(slot, field.getSlot());
+            assertEquals(slot, layout.getSlot(field.getFieldNameAndType()));
+            assertEquals(CHILD_CLASS + "->" + field.getFieldNameAndType(), field.getSignature());
+        }
+        VirtualField parentField = layout.getField("parentField:I");
+        assertEquals("parentField", parentField.getFieldName());
+        assertEquals("I", parentField.getType());
+        assertNull(layout.getField("doesNotExist:I"));
+    }
+
     @Test
     public void testIntPrimitiveIsInstanceIntPrimitive() throws UnknownAncestors {
         boolean isInstance = manager.isInstance(int.class, int.class);
@@ -0,0 +1,99 @@
+package org.cf.smalivm.smali;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.configuration.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VirtualMethodResolverTest {
+
+    private static final String CHILD_CLASS = "Lchild_class;";
+    private static final String PARENT_CLASS = "Lparent_class;";
+    private static final String GRANDPARENT_CLASS = "Lgrandparent_class;";
+
+    private ClassManager manager;
+    private VirtualMethodResolver resolver;
+
+    @Before
+    public void setUp() {
+        manager = spy(VMTester.spawnVM().getClassManager());
+        resolver = new VirtualMethodResolver(manager, Configuration.instance());
+    }
+
+    @Test
+    public void resolvesImplementedAbstractMethodToChild() {
+        String signature = resolve(PARENT_CLASS, "abstractMethod()Ljava/lang/String;");
+
+        assertNull(signature);
+        assertEquals(CHILD_CLASS + "->abstractMethod()Ljava/lang/String;",
+                        resolve(CHILD_CLASS, "abstractMethod()Ljava/lang/String;"));
+    }
+
+    @Test
+    public void resolvesInheritedMethodToParent() {
+        String signature = resolve(CHILD_CLASS, "parentMethod()Ljava/lang/String;");
+
+        assertEquals(PARENT_CLASS + "->parentMethod()Ljava/lang/String;", signature);
+    }
+
+    @Test
+    public void resolvesInterfaceImplementationToGrandparent() {
+        String signature = resolve(CHILD_CLASS, "interfaceMethod()V");
+
+        assertEquals(GRANDPARENT_CLASS + "->interfaceMethod()V", signature);
+    }
+
+    @Test
+    public void resolvesSafeNonLocalMethodWithParameters() {
+        String signature = resolve("Ljava/lang/String;", "charAt(I)C", "I");
+
+        assertEquals("Ljava/lang/String;->charAt(I)C", signature);
+    }
+
+    @Test
+    public void unknownMethodResolvesToNull() {
+        String signature = resolve(CHILD_CLASS, "doesNotExist()V");
+
+        assertNull(signature);
+    }
+
+    @Test
+    public void hierarchyIsOnlyWalkedOnce() {
+        resolve(CHILD_CLASS, "parentMethod()Ljava/lang/String;");
+        resolve(CHILD_CLASS, "parentMethod()Ljava/lang/String;");
+        resolve(CHILD_CLASS, "parentMethod()Ljava/lang/String;");
+
+        verify(manager, times(1)).isLocalMethod(CHILD_CLASS + "->parentMethod()Ljava/lang/String;");
+        verify(manager, times(1)).isLocalMethod(PARENT_CLASS + "->parentMethod()Ljava/lang/String;");
+    }
+
+    @Test
+    public void ancestorTablesAreShared() {
+        resolve(CHILD_CLASS, "interfaceMethod()V");
+        resolve(PARENT_CLASS, "interfaceMethod()V");
+
+        verify(manager, times(1)).isLocalMethod(GRANDPARENT_CLASS + "->interfaceMethod()V");
+    }
+
+    @Test
+    public void invalidateRebuildsTables() {
+        resolve(CHILD_CLASS, "parentMethod()Ljava/lang/String;");
+        resolver.invalidate();
+        resolve(CHILD_CLASS, "parentMethod()Ljava/lang/String;");
+
+        verify(manager, times(2)).isLocalMethod(CHILD_CLASS + "->parentMethod()Ljava/lang/String;");
+    }
+
+    private String resolve(String className, String methodDescriptor, String... parameterTypes) {
+        return resolver.resolve(className, methodDescriptor, Arrays.asList(parameterTypes));
+    }
+
+}